@@ -166,6 +166,44 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Open it, read it to the end and close it.
+     *
+     * @return the number of tuples it returned.
+     */
+    public static int count(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        return count(it, 0, null, null, false);
+    }
+
+    /**
+     * Open it, read it to the end and close it, asserting that the given
+     * field of every tuple satisfies <tt>op v</tt>, unless op is null, and
+     * that the tuples are in ascending order of the field if sorted is true.
+     *
+     * @return the number of tuples it returned.
+     */
+    public static int count(DbIterator it, int field, Predicate.Op op, Field v,
+            boolean sorted) throws DbException, TransactionAbortedException {
+        it.open();
+        int n = 0;
+        Field last = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (op != null)
+                assertTrue(t.getField(field).compare(op, v));
+            if (sorted) {
+                Field key = t.getField(field);
+                if (last != null)
+                    assertTrue(last.compare(Predicate.Op.LESS_THAN_OR_EQ, key));
+                last = key;
+            }
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -190,6 +228,47 @@ public class TestUtil {
         return buf;
     }
 
+    private static final List<File> tempFiles = new ArrayList<File>();
+
+    /**
+     * Create a temporary file that is deleted when the JVM exits, together
+     * with the files the database keeps next to it under its name followed
+     * by an extension, such as the zone map sidecar of a heap file.
+     */
+    public static File createTempFile(String prefix, String suffix) throws IOException {
+        File f = File.createTempFile(prefix, suffix);
+        synchronized (tempFiles) {
+            if (tempFiles.isEmpty()) {
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    public void run() {
+                        deleteTempFiles();
+                    }
+                });
+            }
+            tempFiles.add(f);
+        }
+        return f;
+    }
+
+    private static void deleteTempFiles() {
+        synchronized (tempFiles) {
+            Map<File, File[]> listings = new HashMap<File, File[]>();
+            for (File f : tempFiles) {
+                f.delete();
+                File dir = f.getAbsoluteFile().getParentFile();
+                if (!listings.containsKey(dir))
+                    listings.put(dir, dir.listFiles());
+                File[] siblings = listings.get(dir);
+                if (siblings == null)
+                    continue;
+                for (File s : siblings) {
+                    if (s.getName().startsWith(f.getName() + "."))
+                        s.delete();
+                }
+            }
+        }
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
@@ -374,11 +453,10 @@ public class TestUtil {
     public static abstract class CreateHeapFile {
         protected CreateHeapFile() {
             try{
-                emptyFile = File.createTempFile("empty", ".dat");
+                emptyFile = createTempFile("empty", ".dat");
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
         }
 
         protected void setUp() throws Exception {
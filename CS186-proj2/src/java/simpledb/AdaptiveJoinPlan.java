@@ -0,0 +1,288 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Vector;
+
+/**
+ * AdaptiveJoinPlan is an operator that computes the joins of a
+ * {@link JoinTree}, re-ordering the joins not yet computed when an
+ * intermediate result turns out to be far from its estimated size (Kabra and
+ * DeWitt, "Efficient mid-query re-optimization of sub-optimal query
+ * execution plans").
+ * <p>
+ * When opened, it computes the first input that the plan would materialize
+ * anyway, in the order the plan runs: the inner input of a hash join, which
+ * is read into a hash table, or an input of a sort-merge join, which is
+ * sorted. Only joins and filtered tables are considered, since the size of
+ * an unfiltered table is known. The input is kept in memory and counted; if
+ * the count is more than {@link #REOPTIMIZE_FACTOR} times off its estimate,
+ * the remaining joins are ordered again by the {@link JoinOptimizer}, the
+ * materialized input standing for its tables with its actual size. This is
+ * repeated while at least three relations are left to join, and the rest of
+ * the plan is then run. Tuples are returned with the fields in the order
+ * of the original plan, whatever the order of the joins that computed them.
+ */
+public class AdaptiveJoinPlan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** how far off its estimate an intermediate result must be to re-order */
+    static final double REOPTIMIZE_FACTOR = 2.0;
+
+    private static volatile boolean enabled = true;
+
+    private final LogicalPlan p;
+    private final JoinOptimizer jo;
+    private final JoinTree tree;
+    private final HashMap<String, DbIterator> inputs;
+    private final HashMap<String, TableStats> stats;
+    private final HashMap<String, Double> filterSelectivities;
+    private final TupleDesc td;
+    private DbIterator plan;
+    // the field of plan's tuples each field of td is, null if the same
+    private int[] fieldMap;
+    private int reoptimizations;
+
+    /**
+     * Enable or disable re-ordering joins during execution; plans built
+     * while it is disabled run as they were planned.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return true if tree is a plan an AdaptiveJoinPlan can re-order: it
+     *         joins at least three tables, and no subquery.
+     */
+    static boolean canAdapt(JoinTree tree) {
+        if (!enabled || aliases(tree).size() < 3)
+            return false;
+        for (LogicalJoinNode j : tree.joins())
+            if (j instanceof LogicalSubplanJoinNode)
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the aliases of the tables tree joins.
+     */
+    static Set<String> aliases(JoinTree tree) {
+        HashSet<String> result = new HashSet<String>();
+        addAliases(tree, result, false);
+        return result;
+    }
+
+    // the aliases of the tables tree joins, including those joined in the
+    // results its leaves stand for
+    private static Set<String> members(JoinTree tree) {
+        HashSet<String> result = new HashSet<String>();
+        addAliases(tree, result, true);
+        return result;
+    }
+
+    private static void addAliases(JoinTree tree, Set<String> result, boolean expand) {
+        if (tree.isLeaf()) {
+            if (expand && tree.getMaterialized() != null)
+                addAliases(tree.getMaterialized(), result, expand);
+            else
+                result.add(tree.getAlias());
+            return;
+        }
+        addAliases(tree.getLeft(), result, expand);
+        if (tree.getRight() != null)
+            addAliases(tree.getRight(), result, expand);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The logical plan the joins are part of
+     * @param jo
+     *            The optimizer that ordered the joins
+     * @param tree
+     *            The joins, as ordered by jo
+     * @param inputs
+     *            The plan reading each table of tree, by alias
+     * @param stats
+     *            The statistics of the tables, by table name
+     * @param filterSelectivities
+     *            The selectivities of the filters on each table, by alias
+     */
+    public AdaptiveJoinPlan(LogicalPlan p, JoinOptimizer jo, JoinTree tree,
+            HashMap<String, DbIterator> inputs, HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) throws ParsingException {
+        this.p = p;
+        this.jo = jo;
+        this.tree = tree;
+        this.inputs = inputs;
+        this.stats = stats;
+        this.filterSelectivities = filterSelectivities;
+        this.td = p.joinTreePlan(tree, jo, new HashMap<String, DbIterator>(inputs)).getTupleDesc();
+        setEstimatedCardinality(tree.getCard());
+    }
+
+    /**
+     * @return the number of times the joins were re-ordered the last time
+     *         this operator was opened.
+     */
+    public int reoptimizations() {
+        return reoptimizations;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        try {
+            plan = adapt();
+        } catch (ParsingException e) {
+            throw new DbException("cannot re-order joins: " + e.getMessage());
+        }
+        fieldMap = null;
+        TupleDesc planTd = plan.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (planTd.getFieldName(i).equals(td.getFieldName(i)))
+                continue;
+            fieldMap = new int[td.numFields()];
+            for (int k = 0; k < fieldMap.length; k++)
+                fieldMap[k] = planTd.fieldNameToIndex(td.getFieldName(k));
+            break;
+        }
+        plan.open();
+        super.open();
+    }
+
+    // materialize inputs of tree until few joins are left, re-ordering the
+    // rest when an input is far off its estimate, and return the plan that
+    // computes what is left
+    private DbIterator adapt() throws ParsingException, DbException,
+            TransactionAbortedException {
+        reoptimizations = 0;
+        HashMap<String, DbIterator> available = new HashMap<String, DbIterator>(inputs);
+        HashSet<String> done = new HashSet<String>();
+        JoinOptimizer optimizer = jo;
+        JoinTree current = tree;
+        Vector<LogicalJoinNode> remaining = current.joins();
+        while (aliases(current).size() >= 3) {
+            JoinTree input = checkpoint(current, done);
+            if (input == null)
+                break;
+            DbIterator sub = p.joinTreePlan(input, optimizer, available);
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            sub.open();
+            while (sub.hasNext())
+                tuples.add(sub.next());
+            sub.close();
+
+            JoinTree leaf = new JoinTree(input, tuples.size());
+            available.put(leaf.getAlias(), new TupleIterator(sub.getTupleDesc(), tuples));
+            done.add(leaf.getAlias());
+            current = replace(current, input, leaf);
+
+            //剩下的join：至少有一边不在物化的结果里
+            Set<String> members = members(input);
+            Vector<LogicalJoinNode> rest = new Vector<LogicalJoinNode>();
+            for (LogicalJoinNode j : remaining) {
+                if (!members.contains(j.t1Alias) || !members.contains(j.t2Alias))
+                    rest.add(new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName,
+                            j.f2PureName, j.p));
+            }
+            remaining = rest;
+
+            double card = Math.max(1, tuples.size()), estimate = Math.max(1, input.getCard());
+            if (card > estimate * REOPTIMIZE_FACTOR || estimate > card * REOPTIMIZE_FACTOR) {
+                optimizer = JoinOptimizer.remainder(p, remaining, current);
+                current = optimizer.orderJoinTrees(stats, filterSelectivities, false).get(0);
+                reoptimizations++;
+            }
+        }
+        return p.joinTreePlan(current, optimizer, available);
+    }
+
+    /**
+     * @return the first input of a join in tree that its plan materializes
+     *         and whose size is not known, or null if there is none.
+     */
+    private JoinTree checkpoint(JoinTree t, Set<String> done) {
+        if (t.isLeaf())
+            return null;
+        //hash join先读内层建hash表
+        JoinTree found = checkpoint(t.getRight(), done);
+        if (found == null)
+            found = checkpoint(t.getLeft(), done);
+        if (found != null)
+            return found;
+        switch (t.getJoin().algorithm) {
+        case HASH:
+            return unknownSize(t.getRight(), done) ? t.getRight() : null;
+        case SORT_MERGE:
+            if (unknownSize(t.getRight(), done))
+                return t.getRight();
+            return unknownSize(t.getLeft(), done) ? t.getLeft() : null;
+        default:
+            return null;
+        }
+    }
+
+    private boolean unknownSize(JoinTree t, Set<String> done) {
+        if (!t.isLeaf())
+            return true;
+        return !done.contains(t.getAlias()) && p.isFiltered(t.getAlias());
+    }
+
+    // tree with the subtree old replaced by replacement
+    private static JoinTree replace(JoinTree tree, JoinTree old, JoinTree replacement) {
+        if (tree == old)
+            return replacement;
+        if (tree.isLeaf())
+            return tree;
+        JoinTree left = replace(tree.getLeft(), old, replacement);
+        JoinTree right = tree.getRight() == null ? null : replace(tree.getRight(), old, replacement);
+        if (left == tree.getLeft() && right == tree.getRight())
+            return tree;
+        return new JoinTree(left, right, tree.getJoin(), tree.getResidualJoins(), tree.getCost(),
+                tree.getCard());
+    }
+
+    public void close() {
+        super.close();
+        if (plan != null)
+            plan.close();
+        plan = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        plan.rewind();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!plan.hasNext())
+            return null;
+        Tuple t = plan.next();
+        if (fieldMap == null)
+            return t;
+        Tuple result = new Tuple(td);
+        for (int i = 0; i < fieldMap.length; i++)
+            result.setField(i, t.getField(fieldMap[i]));
+        return result;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { plan };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        plan = children[0];
+    }
+}
@@ -0,0 +1,609 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree {@link IndexFile}. Equality and range predicates on
+ * the indexed column are answered by reading O(log n) index pages plus the
+ * heap pages of the matching tuples instead of scanning the whole table.
+ * <p>
+ * Page 0 is a {@link BTreeHeaderPage} pointing to the root; the other pages
+ * are {@link BTreeInternalPage}s and {@link BTreeLeafPage}s.
+ * <p>
+ * Entries are (key, RecordId) pairs, so duplicate keys are allowed. Deletes
+ * do not rebalance the tree: pages may become underfull or empty, which only
+ * costs some space until the index is rebuilt with {@link #build}.
+ * <p>
+ * The tuples returned by the iterators are the heap tuples the entries point
+ * to, in key order; {@link #getTupleDesc} is the schema of the heap table.
+ * <p>
+ * A covering index also stores the values of some other fields of the table
+ * (the included fields) in its leaf entries. A query needing only the key and
+ * the included fields can then be answered by {@link #coveringIterator}
+ * without reading the heap; see {@link IndexOnlyScan}.
+ */
+public class BTreeFile implements IndexFile {
+
+    /** fraction of each leaf filled by {@link #build} */
+    private static final double FILL_FACTOR = 0.9;
+    private static final int HEADER_PAGE = 0;
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final HeapFile table;
+    private final int keyField;
+    private final Type keyType;
+    private final int[] includedFields;
+    private final Type[] includedTypes;
+
+    /**
+     * Open the index stored in f, or create an empty index if f does not
+     * exist or is empty. Use {@link #build} to index a table that already
+     * has tuples.
+     *
+     * @param f
+     *            the file backing the index
+     * @param table
+     *            the table being indexed
+     * @param keyField
+     *            the field of table the index is built on
+     * @throws IOException
+     *             if f cannot be read or is an index on something else
+     */
+    public BTreeFile(File f, HeapFile table, int keyField) throws IOException {
+        this(f, table, keyField, new int[0]);
+    }
+
+    /**
+     * Open or create a covering index, whose leaf entries also store the
+     * values of the included fields.
+     *
+     * @param includedFields
+     *            the fields of table stored with each key, in this order
+     * @throws IOException
+     *             if f cannot be read or is an index on something else
+     */
+    public BTreeFile(File f, HeapFile table, int keyField, int[] includedFields)
+            throws IOException {
+        this.file = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+        this.includedFields = includedFields.clone();
+        this.includedTypes = new Type[includedFields.length];
+        for (int i = 0; i < includedFields.length; i++)
+            includedTypes[i] = table.getTupleDesc().getFieldType(includedFields[i]);
+        if (BTreeLeafPage.maxEntries(keyType, includedTypes) < 2)
+            throw new IllegalArgumentException("too many included fields to fit two entries in a leaf");
+        if (!f.exists() || f.length() == 0) {
+            writePages(Arrays.<BTreePage>asList(
+                    new BTreeHeaderPage(new BTreePageId(getId(), HEADER_PAGE), keyType, includedTypes,
+                            table.getId(), keyField, this.includedFields, 1),
+                    BTreePage.create(new BTreePageId(getId(), 1),
+                            IndexPage.createEmptyPageData(BTreePage.LEAF), keyType, includedTypes,
+                            table.getId())));
+        } else {
+            BTreePage header = readPageFromDisk(HEADER_PAGE);
+            if (!(header instanceof BTreeHeaderPage)
+                    || ((BTreeHeaderPage) header).getKeyField() != keyField
+                    || !Arrays.equals(((BTreeHeaderPage) header).getIncludedFields(), includedFields))
+                throw new IOException(f + " is not an index on field " + keyField
+                        + " including " + Arrays.toString(includedFields));
+            //heap文件在index之后被重新生成过，index里的RecordId都不可信
+            if (((BTreeHeaderPage) header).getHeapGeneration() != table.getGeneration())
+                throw new IOException(f + " is older than " + table.getFile());
+        }
+    }
+
+    /**
+     * Build a new index on a field of table, replacing f. The heap pages are
+     * read directly from disk, so the table must have been flushed, and it
+     * must be in the Catalog. The index is bulk loaded bottom up: entries are
+     * sorted and packed into leaves {@link #FILL_FACTOR} full, then each level
+     * of internal pages is built over the one below.
+     */
+    public static BTreeFile build(File f, HeapFile table, int keyField) throws IOException {
+        return build(f, table, keyField, new int[0]);
+    }
+
+    /**
+     * Build a new covering index on a field of table, replacing f; see
+     * {@link #build(File, HeapFile, int)}.
+     *
+     * @param includedFields the fields of table stored with each key
+     */
+    public static BTreeFile build(File f, HeapFile table, int keyField, int[] includedFields)
+            throws IOException {
+        f.delete();
+        BTreeFile bf = new BTreeFile(f, table, keyField, includedFields);
+        ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+        for (int pg = 0; pg < table.numPages(); pg++) {
+            HeapPage hp = (HeapPage) table.readPage(new HeapPageId(table.getId(), pg));
+            Iterator<Tuple> it = hp.iterator();
+            while (it.hasNext())
+                entries.add(bf.newEntry(it.next()));
+        }
+        Collections.sort(entries);
+
+        int id = bf.getId();
+        Type keyType = bf.keyType;
+        Type[] includedTypes = bf.includedTypes;
+        ArrayList<BTreePage> pages = new ArrayList<BTreePage>();
+
+        // leaves, starting at page 1
+        int perLeaf = Math.max(1, (int) (BTreeLeafPage.maxEntries(keyType, includedTypes) * FILL_FACTOR));
+        int numLeaves = Math.max(1, (entries.size() + perLeaf - 1) / perLeaf);
+        //每一层的各个页的页号和其中最小的entry
+        ArrayList<Integer> level = new ArrayList<Integer>();
+        ArrayList<IndexEntry> firsts = new ArrayList<IndexEntry>();
+        for (int i = 0; i < numLeaves; i++) {
+            int pgNo = 1 + i;
+            BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(id, pgNo), keyType, includedTypes,
+                    table.getId());
+            List<IndexEntry> chunk = entries.subList(Math.min(i * perLeaf, entries.size()),
+                    Math.min((i + 1) * perLeaf, entries.size()));
+            leaf.setEntries(chunk);
+            leaf.setNext(i == numLeaves - 1 ? 0 : pgNo + 1);
+            pages.add(leaf);
+            level.add(pgNo);
+            firsts.add(chunk.isEmpty() ? null : chunk.get(0));
+        }
+
+        // internal levels, until a single root is left
+        int perInternal = BTreeInternalPage.maxEntries(keyType) + 1;
+        while (level.size() > 1) {
+            ArrayList<Integer> upper = new ArrayList<Integer>();
+            ArrayList<IndexEntry> upperFirsts = new ArrayList<IndexEntry>();
+            int i = 0;
+            while (i < level.size()) {
+                int end = Math.min(i + perInternal, level.size());
+                // avoid leaving a single child for the last page of the level
+                if (level.size() - end == 1)
+                    end--;
+                int pgNo = 1 + pages.size();
+                BTreeInternalPage ip = new BTreeInternalPage(new BTreePageId(id, pgNo), keyType,
+                        includedTypes, table.getId());
+                ip.setEntries(firsts.subList(i + 1, end), level.subList(i, end));
+                pages.add(ip);
+                upper.add(pgNo);
+                upperFirsts.add(firsts.get(i));
+                i = end;
+            }
+            level = upper;
+            firsts = upperFirsts;
+        }
+
+        BTreeHeaderPage header = new BTreeHeaderPage(new BTreePageId(id, HEADER_PAGE), keyType,
+                includedTypes, table.getId(), keyField, bf.includedFields, level.get(0));
+        pages.add(0, header);
+        bf.writePages(pages);
+        return bf;
+    }
+
+    // write pages 0..n-1 of a new file, in order
+    private void writePages(List<BTreePage> pages) throws IOException {
+        ((BTreeHeaderPage) pages.get(HEADER_PAGE)).setHeapGeneration(table.getGeneration());
+        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            for (BTreePage p : pages)
+                bos.write(p.getPageData());
+        } finally {
+            bos.close();
+        }
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public HeapFile getTable() {
+        return table;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * @return the fields of the table stored with each key; empty unless
+     *         this is a covering index.
+     */
+    public int[] getIncludedFields() {
+        return includedFields.clone();
+    }
+
+    /**
+     * @return true if every field of the table in fields is the key or an
+     *         included field, so a query needing only those fields can be
+     *         answered by {@link #coveringIterator}.
+     */
+    public boolean covers(Collection<Integer> fields) {
+        for (int f : fields) {
+            if (f == keyField)
+                continue;
+            boolean found = false;
+            for (int inc : includedFields)
+                found |= inc == f;
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the fields of the table returned by {@link #coveringIterator}:
+     *         the key followed by the included fields.
+     */
+    public int[] getCoveredFields() {
+        int[] fields = new int[1 + includedFields.length];
+        fields[0] = keyField;
+        System.arraycopy(includedFields, 0, fields, 1, includedFields.length);
+        return fields;
+    }
+
+    /**
+     * @return the schema of the tuples returned by {@link #coveringIterator},
+     *         the fields of the table listed by {@link #getCoveredFields}.
+     */
+    public TupleDesc getCoveredTupleDesc() {
+        TupleDesc desc = table.getTupleDesc();
+        int[] fields = getCoveredFields();
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = desc.getFieldType(fields[i]);
+            names[i] = desc.getFieldName(fields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return true for every operator but NOT_EQUALS, and LIKE on strings,
+     *         which scan every leaf.
+     */
+    public boolean canSearch(Predicate.Op op) {
+        if (op == Predicate.Op.NOT_EQUALS)
+            return false;
+        return op != Predicate.Op.LIKE || keyType == Type.INT_TYPE;
+    }
+
+    /**
+     * @return one page per level of the tree, the height being estimated
+     *         from the size of the file as if every page but the header were
+     *         a leaf; the header is read by every search and stays cached.
+     */
+    public double lookupPages() {
+        int leaves = Math.max(1, numPages() - 1);
+        int fanout = BTreeInternalPage.maxEntries(keyType) + 1;
+        return 1 + Math.ceil(Math.log(leaves) / Math.log(fanout));
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile, computed like
+     * {@link HeapFile#getId}.
+     */
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    /**
+     * @return the schema of the indexed table, since the iterators of this
+     *         file return heap tuples.
+     */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private BTreePage readPageFromDisk(int pgNo) throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return BTreePage.create(new BTreePageId(getId(), pgNo), data, keyType, includedTypes,
+                table.getId());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return readPageFromDisk(pid.pageNumber());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private BTreePage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(getId(), pgNo), perm);
+    }
+
+    // append an empty page of the given type to the file and fetch it
+    private BTreePage allocatePage(TransactionId tid, byte type)
+            throws IOException, DbException, TransactionAbortedException {
+        int pgNo = numPages();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+            raf.write(IndexPage.createEmptyPageData(type));
+        } finally {
+            raf.close();
+        }
+        return getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    // find the leaf whose range contains target, recording the internal
+    // pages passed on the way in path if it is not null
+    private BTreeLeafPage findLeaf(TransactionId tid, IndexEntry target, Permissions perm,
+            ArrayList<BTreeInternalPage> path) throws DbException, TransactionAbortedException {
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, HEADER_PAGE, Permissions.READ_ONLY);
+        BTreePage page = getPage(tid, header.getRoot(), perm);
+        while (page instanceof BTreeInternalPage) {
+            BTreeInternalPage ip = (BTreeInternalPage) page;
+            if (path != null)
+                path.add(ip);
+            page = getPage(tid, ip.childFor(target), perm);
+        }
+        return (BTreeLeafPage) page;
+    }
+
+    private IndexEntry newEntry(Tuple t) {
+        Field[] included = null;
+        if (includedFields.length > 0) {
+            included = new Field[includedFields.length];
+            for (int i = 0; i < included.length; i++)
+                included[i] = t.getField(includedFields[i]);
+        }
+        return new IndexEntry(t.getField(keyField), t.getRecordId(), included);
+    }
+
+    private IndexEntry entryFor(Tuple t) throws DbException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in the indexed table");
+        return newEntry(t);
+    }
+
+    /**
+     * Add an entry for t, a tuple that has just been stored in the indexed
+     * table, splitting pages up the tree as needed.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        BTreeLeafPage leaf = findLeaf(tid, e, Permissions.READ_WRITE, path);
+        leaf.insertEntry(e);
+        dirtied.add(leaf);
+        if (!leaf.isOverfull())
+            return dirtied;
+
+        BTreeLeafPage rightLeaf = (BTreeLeafPage) allocatePage(tid, BTreePage.LEAF);
+        IndexEntry sep = leaf.splitInto(rightLeaf);
+        dirtied.add(rightLeaf);
+        int left = leaf.getId().pageNumber();
+        int right = rightLeaf.getId().pageNumber();
+        //把separator插到父节点中，父节点满了就继续向上分裂
+        while (true) {
+            if (path.isEmpty()) {
+                BTreeInternalPage root = (BTreeInternalPage) allocatePage(tid, BTreePage.INTERNAL);
+                root.init(left, sep, right);
+                BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, HEADER_PAGE, Permissions.READ_WRITE);
+                header.setRoot(root.getId().pageNumber());
+                dirtied.add(root);
+                dirtied.add(header);
+                break;
+            }
+            BTreeInternalPage parent = path.remove(path.size() - 1);
+            parent.insertChild(sep, right);
+            dirtied.add(parent);
+            if (!parent.isOverfull())
+                break;
+            BTreeInternalPage rightPage = (BTreeInternalPage) allocatePage(tid, BTreePage.INTERNAL);
+            sep = parent.splitInto(rightPage);
+            dirtied.add(rightPage);
+            left = parent.getId().pageNumber();
+            right = rightPage.getId().pageNumber();
+        }
+        return dirtied;
+    }
+
+    /**
+     * Remove the entry for t, a tuple about to be deleted from the indexed
+     * table (so its RecordId is still set).
+     *
+     * @return the leaf the entry was removed from
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        BTreeLeafPage leaf = findLeaf(tid, e, Permissions.READ_WRITE, null);
+        leaf.deleteEntry(e);
+        return leaf;
+    }
+
+    /**
+     * @return an iterator over all tuples of the indexed table, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null);
+    }
+
+    /**
+     * @return an iterator over the tuples of the indexed table whose key
+     *         satisfies ipred, in key order. Only the leaves holding
+     *         matching keys are read, except for NOT_EQUALS and LIKE on
+     *         strings, which scan every leaf.
+     * @param ipred the predicate on the key; null returns every tuple
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeSearchIterator(tid, ipred, null);
+    }
+
+    /**
+     * @return an iterator over the entries whose key satisfies ipred, in key
+     *         order, as tuples of {@link #getCoveredTupleDesc} built from the
+     *         leaves alone: no heap page is read. Each tuple has the RecordId
+     *         of the heap tuple it was taken from.
+     * @param ipred the predicate on the key; null returns every entry
+     */
+    public DbFileIterator coveringIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeSearchIterator(tid, ipred, getCoveredTupleDesc());
+    }
+
+    private class BTreeSearchIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        // the schema of the tuples built from the entries, or null to
+        // return the heap tuples
+        private final TupleDesc coveredTd;
+        private BTreeLeafPage leaf = null;
+        private int pos;
+        private boolean done;
+        private Tuple next = null;
+
+        BTreeSearchIterator(TransactionId tid, IndexPredicate ipred, TupleDesc coveredTd) {
+            this.tid = tid;
+            this.ipred = ipred;
+            this.coveredTd = coveredTd;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            IndexEntry start = null;
+            if (ipred != null) {
+                switch (op()) {
+                case EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    //null的RecordId排在同样的key的所有entry前面
+                    start = new IndexEntry(ipred.getField(), null);
+                    break;
+                default:
+                    break;
+                }
+            }
+            leaf = findLeaf(tid, start, Permissions.READ_ONLY, null);
+            pos = start == null ? 0 : leaf.lowerBound(start);
+            done = false;
+            next = null;
+        }
+
+        // 整数的LIKE就是EQUALS；字符串的LIKE是子串匹配，只能扫描所有的叶子
+        private Predicate.Op op() {
+            Predicate.Op op = ipred.getOp();
+            if (op == Predicate.Op.LIKE && ipred.getField() instanceof IntField)
+                return Predicate.Op.EQUALS;
+            return op;
+        }
+
+        // the next entry satisfying ipred, or null
+        private IndexEntry nextEntry() throws DbException, TransactionAbortedException {
+            while (!done) {
+                if (pos >= leaf.getNumEntries()) {
+                    if (leaf.getNext() == 0) {
+                        done = true;
+                        break;
+                    }
+                    leaf = (BTreeLeafPage) getPage(tid, leaf.getNext(), Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                IndexEntry e = leaf.getEntry(pos++);
+                if (ipred == null)
+                    return e;
+                int c = IndexEntry.compareKeys(e.getKey(), ipred.getField());
+                switch (op()) {
+                case EQUALS:
+                case LESS_THAN_OR_EQ:
+                    if (c > 0)
+                        done = true;
+                    break;
+                case LESS_THAN:
+                    if (c >= 0)
+                        done = true;
+                    break;
+                default:
+                    break;
+                }
+                if (!done && ipred.matches(e.getKey()))
+                    return e;
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (leaf == null)
+                return false;
+            while (next == null) {
+                IndexEntry e = nextEntry();
+                if (e == null)
+                    return false;
+                if (coveredTd == null) {
+                    next = table.getTuple(tid, e.getRecordId());
+                } else {
+                    //直接用entry中的值，不用读heap
+                    next = new Tuple(coveredTd);
+                    next.setField(0, e.getKey());
+                    for (int i = 0; i < includedFields.length; i++)
+                        next.setField(1 + i, e.getIncluded()[i]);
+                    next.setRecordId(e.getRecordId());
+                }
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("not opened or no tuple remained");
+            Tuple result = next;
+            next = null;
+            return result;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            leaf = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeHeaderPage is page 0 of a {@link BTreeFile}. It records the page
+ * number of the root and what the index was built on (the key field and the
+ * included fields of a covering index), so that an index file opened against
+ * the wrong table or columns is detected. It also records the generation of
+ * the heap file the index was built on (see {@link HeapFile#getGeneration}),
+ * so that an index left over from a heap file that has since been
+ * regenerated is detected too.
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private int root;
+    private int keyField;
+    private int[] includedFields = new int[0];
+    private long heapGeneration;
+
+    BTreeHeaderPage(BTreePageId pid, Type keyType, Type[] includedTypes, int heapTableId) {
+        super(pid, keyType, includedTypes, heapTableId);
+    }
+
+    /** Create the header of a new index with the given root. */
+    public BTreeHeaderPage(BTreePageId pid, Type keyType, Type[] includedTypes, int heapTableId,
+            int keyField, int[] includedFields, int root) {
+        super(pid, keyType, includedTypes, heapTableId);
+        this.keyField = keyField;
+        this.includedFields = includedFields;
+        this.root = root;
+        setBeforeImage();
+    }
+
+    protected byte pageType() {
+        return HEADER;
+    }
+
+    protected void read(DataInputStream dis) throws IOException {
+        root = dis.readInt();
+        keyField = dis.readInt();
+        int type = dis.readInt();
+        if (type != keyType.ordinal())
+            throw new IOException("index was built on a key of another type");
+        includedFields = new int[dis.readInt()];
+        for (int i = 0; i < includedFields.length; i++)
+            includedFields[i] = dis.readInt();
+        heapGeneration = dis.readLong();
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(root);
+        dos.writeInt(keyField);
+        dos.writeInt(keyType.ordinal());
+        dos.writeInt(includedFields.length);
+        for (int f : includedFields)
+            dos.writeInt(f);
+        dos.writeLong(heapGeneration);
+    }
+
+    /** @return the page number of the root page. */
+    public int getRoot() {
+        return root;
+    }
+
+    public void setRoot(int root) {
+        this.root = root;
+    }
+
+    /** @return the field of the heap table the index is built on. */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the fields of the heap table stored in the leaf entries. */
+    public int[] getIncludedFields() {
+        return includedFields;
+    }
+
+    /** @return the generation of the heap file the index was built on. */
+    public long getHeapGeneration() {
+        return heapGeneration;
+    }
+
+    public void setHeapGeneration(long heapGeneration) {
+        this.heapGeneration = heapGeneration;
+    }
+}
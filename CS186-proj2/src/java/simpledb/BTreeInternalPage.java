@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeInternalPage holds n separator entries and n + 1 child page numbers.
+ * Child i holds the entries less than separator i, and not less than
+ * separator i - 1. The page format is
+ * <p>
+ *      page type, n, child 0, (separator i, child i + 1) for i in [0, n)
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private ArrayList<IndexEntry> keys = new ArrayList<IndexEntry>();
+    private ArrayList<Integer> children = new ArrayList<Integer>();
+
+    BTreeInternalPage(BTreePageId pid, Type keyType, Type[] includedTypes, int heapTableId) {
+        super(pid, keyType, includedTypes, heapTableId);
+    }
+
+    /** @return the number of separators that fit on an internal page. */
+    public static int maxEntries(Type keyType) {
+        return (BufferPool.PAGE_SIZE - 9) / (entrySize(keyType) + 4);
+    }
+
+    protected byte pageType() {
+        return INTERNAL;
+    }
+
+    protected void read(DataInputStream dis) throws IOException {
+        int n = dis.readInt();
+        keys = new ArrayList<IndexEntry>(n + 1);
+        children = new ArrayList<Integer>(n + 2);
+        children.add(dis.readInt());
+        for (int i = 0; i < n; i++) {
+            keys.add(readEntry(dis));
+            children.add(dis.readInt());
+        }
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(keys.size());
+        dos.writeInt(children.get(0));
+        for (int i = 0; i < keys.size(); i++) {
+            writeEntry(dos, keys.get(i));
+            dos.writeInt(children.get(i + 1));
+        }
+    }
+
+    public int getNumEntries() {
+        return keys.size();
+    }
+
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    /** @return true if the page holds more separators than fit on disk. */
+    public boolean isOverfull() {
+        return keys.size() > maxEntries(keyType);
+    }
+
+    /**
+     * @return the page number of the child whose range contains target. A
+     *         null target selects the leftmost child.
+     */
+    public int childFor(IndexEntry target) {
+        if (target == null)
+            return children.get(0);
+        //第一个比target大的separator左边的child
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compareTo(target) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return children.get(lo);
+    }
+
+    /**
+     * Make this page a root with a single separator between two children.
+     */
+    public void init(int left, IndexEntry sep, int right) {
+        keys = new ArrayList<IndexEntry>();
+        children = new ArrayList<Integer>();
+        children.add(left);
+        keys.add(sep);
+        children.add(right);
+    }
+
+    /**
+     * Add a separator and the child to its right, after a child of this page
+     * was split. The page may become overfull, in which case the caller must
+     * split it before it is written.
+     */
+    public void insertChild(IndexEntry sep, int right) {
+        int i = 0;
+        while (i < keys.size() && keys.get(i).compareTo(sep) < 0)
+            i++;
+        keys.add(i, sep);
+        children.add(i + 1, right);
+    }
+
+    /**
+     * Move the upper half of the separators and children of this page to
+     * right, an empty internal page.
+     *
+     * @return the middle separator, which moves up to the parent
+     */
+    public IndexEntry splitInto(BTreeInternalPage right) {
+        int mid = keys.size() / 2;
+        IndexEntry sep = keys.get(mid);
+        right.keys = new ArrayList<IndexEntry>(keys.subList(mid + 1, keys.size()));
+        right.children = new ArrayList<Integer>(children.subList(mid + 1, children.size()));
+        keys = new ArrayList<IndexEntry>(keys.subList(0, mid));
+        children = new ArrayList<Integer>(children.subList(0, mid + 1));
+        return sep;
+    }
+
+    /** Replace the contents of this page; used when bulk loading. */
+    void setEntries(List<IndexEntry> ks, List<Integer> cs) {
+        keys = new ArrayList<IndexEntry>(ks);
+        children = new ArrayList<Integer>(cs);
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeLeafPage holds index entries in sorted order. The page format is
+ * <p>
+ *      page type, number of entries, next leaf, entries
+ * <p>
+ * where next leaf is the page number of the leaf to the right, or 0 for the
+ * rightmost leaf (page 0 is always the header). In a covering index each
+ * entry is followed by the values of the included columns. Leaves are not
+ * merged when entries are deleted, so a leaf may be empty; scans simply move
+ * on to the next one.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+    private int next = 0;
+
+    BTreeLeafPage(BTreePageId pid, Type keyType, Type[] includedTypes, int heapTableId) {
+        super(pid, keyType, includedTypes, heapTableId);
+    }
+
+    /** @return the number of entries that fit on a leaf. */
+    public static int maxEntries(Type keyType, Type[] includedTypes) {
+        return (BufferPool.PAGE_SIZE - 9) / entrySize(keyType, includedTypes);
+    }
+
+    protected byte pageType() {
+        return LEAF;
+    }
+
+    protected void read(DataInputStream dis) throws IOException {
+        int n = dis.readInt();
+        next = dis.readInt();
+        entries = new ArrayList<IndexEntry>(n + 1);
+        for (int i = 0; i < n; i++)
+            entries.add(readEntry(dis, includedTypes));
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(entries.size());
+        dos.writeInt(next);
+        for (IndexEntry e : entries)
+            writeEntry(dos, e, includedTypes);
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public IndexEntry getEntry(int i) {
+        return entries.get(i);
+    }
+
+    /** @return the page number of the next leaf, or 0 if there is none. */
+    public int getNext() {
+        return next;
+    }
+
+    public void setNext(int next) {
+        this.next = next;
+    }
+
+    /** @return true if the page holds more entries than fit on disk. */
+    public boolean isOverfull() {
+        return entries.size() > maxEntries(keyType, includedTypes);
+    }
+
+    /** @return the position of the first entry not less than target. */
+    public int lowerBound(IndexEntry target) {
+        int lo = 0, hi = entries.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.get(mid).compareTo(target) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Add e in sorted position. The page may become overfull, in which case
+     * the caller must split it before it is written.
+     */
+    public void insertEntry(IndexEntry e) {
+        entries.add(lowerBound(e), e);
+    }
+
+    /**
+     * Remove e from the page.
+     *
+     * @throws DbException if e is not on this page
+     */
+    public void deleteEntry(IndexEntry e) throws DbException {
+        int i = lowerBound(e);
+        if (i >= entries.size() || entries.get(i).compareTo(e) != 0)
+            throw new DbException("entry " + e + " is not in the index");
+        entries.remove(i);
+    }
+
+    /**
+     * Move the upper half of the entries of this leaf to right, an empty leaf
+     * placed after it.
+     *
+     * @return the separator to insert in the parent, i.e. the first entry of
+     *         right
+     */
+    public IndexEntry splitInto(BTreeLeafPage right) {
+        int mid = entries.size() / 2;
+        right.entries = new ArrayList<IndexEntry>(entries.subList(mid, entries.size()));
+        entries = new ArrayList<IndexEntry>(entries.subList(0, mid));
+        right.next = next;
+        next = right.getId().pageNumber();
+        return right.entries.get(0);
+    }
+
+    /** Replace the contents of this leaf; used when bulk loading. */
+    void setEntries(List<IndexEntry> es) {
+        entries = new ArrayList<IndexEntry>(es);
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreePage is the base class of the pages of a {@link BTreeFile}. The page
+ * type byte decides how the rest of the page is laid out:
+ * <ul>
+ * <li>{@link BTreeHeaderPage}: page 0 of the file, holds the root pointer</li>
+ * <li>{@link BTreeInternalPage}: separator entries and child page numbers</li>
+ * <li>{@link BTreeLeafPage}: index entries and a pointer to the next leaf</li>
+ * </ul>
+ */
+public abstract class BTreePage extends IndexPage {
+
+    public static final byte HEADER = 1;
+    public static final byte INTERNAL = 2;
+    public static final byte LEAF = 3;
+
+    //leaf entry中included column的类型，没有的话是空数组
+    protected final Type[] includedTypes;
+
+    protected BTreePage(BTreePageId pid, Type keyType, Type[] includedTypes, int heapTableId) {
+        super(pid, keyType, heapTableId);
+        this.includedTypes = includedTypes;
+    }
+
+    /**
+     * Create the page described by data, choosing the page class from its
+     * page type byte.
+     */
+    public static BTreePage create(BTreePageId pid, byte[] data, Type keyType,
+            Type[] includedTypes, int heapTableId) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte type = dis.readByte();
+        BTreePage page;
+        switch (type) {
+        case HEADER:
+            page = new BTreeHeaderPage(pid, keyType, includedTypes, heapTableId);
+            break;
+        case INTERNAL:
+            page = new BTreeInternalPage(pid, keyType, includedTypes, heapTableId);
+            break;
+        case LEAF:
+            page = new BTreeLeafPage(pid, keyType, includedTypes, heapTableId);
+            break;
+        default:
+            throw new IOException("bad page type " + type + " on " + pid);
+        }
+        page.read(dis);
+        dis.close();
+        page.setBeforeImage();
+        return page;
+    }
+
+    protected BTreePage reread(byte[] data) throws IOException {
+        return create(getId(), data, keyType, includedTypes, heapTableId);
+    }
+
+    public BTreePageId getId() {
+        return (BTreePageId) pid;
+    }
+}
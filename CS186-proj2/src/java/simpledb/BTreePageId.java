@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.util.Objects;
+
+/** Unique identifier for a page of a BTreeFile. */
+public class BTreePageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index.
+     *
+     * @param tableId The id of the index file ({@link BTreeFile#getId})
+     * @param pgNo The page number in that index.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the index file id associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the index file associated with this PageId */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, pgNo);
+    }
+
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof PageId))
+            return false;
+        PageId pageId = (PageId) o;
+        return pgNo == pageId.pageNumber() && tableId == pageId.getTableId();
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ")";
+    }
+}
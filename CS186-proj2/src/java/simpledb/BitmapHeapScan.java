@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapHeapScan is an access method that answers a conjunction of
+ * predicates on columns with {@link BitmapIndex}es by ANDing the bitmaps the
+ * indexes return for them, before any heap page is read. Only the heap pages
+ * holding a tuple in the intersection are then fetched, in file order and
+ * each once; other predicates on the table are applied to the tuples read,
+ * as in a {@link SeqScan} with pushed-down predicates.
+ */
+public class BitmapHeapScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final BitmapIndex[] indexes;
+    private final IndexPredicate[] ipreds;
+    private final String tableAlias;
+    private final Predicate[] predicates;
+    private final TupleDesc td;
+
+    private DbFileIterator tupleIterator = null;
+    private Conjunction residual;
+    private Tuple next = null;
+
+    /**
+     * Creates a bitmap scan over the table the indexes are built on.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param indexes    bitmap indexes on the table; must be registered in
+     *                   the Catalog.
+     * @param ipreds     ipreds[i] is the predicate to look up in indexes[i].
+     * @param tableAlias the alias of the table, used to prefix field names as
+     *                   in {@link SeqScan#getTupleDesc}.
+     * @param predicates further predicates every returned tuple must satisfy,
+     *                   with field indices referring to the table; may be null.
+     */
+    public BitmapHeapScan(TransactionId tid, BitmapIndex[] indexes, IndexPredicate[] ipreds,
+            String tableAlias, Predicate[] predicates) {
+        if (indexes.length == 0 || indexes.length != ipreds.length)
+            throw new IllegalArgumentException("need one predicate per index");
+        this.tid = tid;
+        this.indexes = indexes;
+        this.ipreds = ipreds;
+        this.tableAlias = tableAlias;
+        this.predicates = predicates;
+
+        TupleDesc desc = indexes[0].getTupleDesc();
+        Type[] types = new Type[desc.numFields()];
+        String[] names = new String[desc.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = desc.getFieldType(i);
+            String fieldName = desc.getFieldName(i);
+            names[i] = tableAlias + "." + (fieldName == null ? "null" : fieldName);
+        }
+        this.td = new TupleDesc(types, names);
+        this.residual = new Conjunction(predicates, td);
+    }
+
+    /**
+     * @return the name of the table this operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(indexes[0].getTable().getId());
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public BitmapIndex[] getIndexes() {
+        return indexes;
+    }
+
+    public IndexPredicate[] getIndexPredicates() {
+        return ipreds;
+    }
+
+    /**
+     * @return the predicates applied to the tuples read, or null.
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // the positions of the tuples satisfying every index predicate
+    private RoaringBitmap positions() throws DbException, TransactionAbortedException {
+        RoaringBitmap rows = indexes[0].lookup(tid, ipreds[0]);
+        for (int i = 1; i < indexes.length && !rows.isEmpty(); i++)
+            rows = RoaringBitmap.and(rows, indexes[i].lookup(tid, ipreds[i]));
+        return rows;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        tupleIterator = indexes[0].iterator(tid, positions());
+        tupleIterator.open();
+        next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (tupleIterator == null)
+            return false;
+        while (next == null && tupleIterator.hasNext()) {
+            Tuple t = tupleIterator.next();
+            if (residual.size() == 0 || residual.filter(t))
+                next = t;
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException("no tuple remained");
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        if (tupleIterator != null)
+            tupleIterator.close();
+        tupleIterator = null;
+        next = null;
+    }
+}
@@ -0,0 +1,335 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndex is an {@link IndexFile} for columns with few distinct values.
+ * Each tuple of the table has a position, computed from its RecordId as
+ * <p>
+ *      page number * slots per page + slot
+ * <p>
+ * and for every distinct key the index keeps a compressed
+ * {@link RoaringBitmap} of the positions of the tuples holding it. The
+ * predicates on several indexed columns can then be combined by ANDing (or
+ * ORing) their bitmaps before any heap page is read, and the remaining
+ * positions are visited in heap order, each heap page once; see
+ * {@link BitmapHeapScan}.
+ * <p>
+ * The whole index is a single {@link BitmapIndexPage}, read and written
+ * through the BufferPool like any other page, so it is only suitable for
+ * columns whose bitmaps fit comfortably in memory.
+ */
+public class BitmapIndex implements IndexFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final HeapFile table;
+    private final int keyField;
+    private final Type keyType;
+    private final int slotsPerPage;
+
+    /**
+     * Open the index stored in f, or create an empty index if f does not
+     * exist or is empty. Use {@link #build} to index a table that already
+     * has tuples.
+     *
+     * @param f
+     *            the file backing the index
+     * @param table
+     *            the table being indexed
+     * @param keyField
+     *            the field of table the index is built on
+     * @throws IOException
+     *             if f cannot be read or is an index on something else
+     */
+    public BitmapIndex(File f, HeapFile table, int keyField) throws IOException {
+        this.file = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+        this.slotsPerPage = HeapPage.slotsPerPage(table.getTupleDesc());
+        if (!f.exists() || f.length() == 0) {
+            writePage(new BitmapIndexPage(pageId(), keyType, keyField, slotsPerPage));
+        } else {
+            BitmapIndexPage page = readPageFromDisk();
+            if (page.getKeyField() != keyField || page.getSlotsPerPage() != slotsPerPage)
+                throw new IOException(f + " is not an index on field " + keyField);
+            //heap文件在index之后被重新生成过，位置都不可信
+            if (page.getHeapGeneration() != table.getGeneration())
+                throw new IOException(f + " is older than " + table.getFile());
+        }
+    }
+
+    /**
+     * Build a new index on a field of table, replacing f. The heap pages are
+     * read directly from disk, so the table must have been flushed.
+     */
+    public static BitmapIndex build(File f, HeapFile table, int keyField) throws IOException {
+        f.delete();
+        BitmapIndex bi = new BitmapIndex(f, table, keyField);
+        BitmapIndexPage page = new BitmapIndexPage(bi.pageId(), bi.keyType, keyField,
+                bi.slotsPerPage);
+        for (int pg = 0; pg < table.numPages(); pg++) {
+            HeapPage hp = (HeapPage) table.readPage(new HeapPageId(table.getId(), pg));
+            Iterator<Tuple> it = hp.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                page.add(t.getField(keyField), bi.position(t.getRecordId()));
+            }
+        }
+        bi.writePage(page);
+        return bi;
+    }
+
+    private BitmapPageId pageId() {
+        return new BitmapPageId(getId(), 0);
+    }
+
+    /**
+     * @return the position of the tuple stored at rid.
+     */
+    public int position(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    /**
+     * @return the RecordId of the tuple at position pos.
+     */
+    public RecordId recordId(int pos) {
+        return new RecordId(new HeapPageId(table.getId(), pos / slotsPerPage), pos % slotsPerPage);
+    }
+
+    /**
+     * Returns the File backing this BitmapIndex on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public HeapFile getTable() {
+        return table;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * @return true for every operator: the predicate is evaluated once per
+     *         distinct key rather than once per tuple.
+     */
+    public boolean canSearch(Predicate.Op op) {
+        return true;
+    }
+
+    /**
+     * @return 1, the single page of the index.
+     */
+    public double lookupPages() {
+        return 1;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BitmapIndex, computed like
+     * {@link HeapFile#getId}.
+     */
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    /**
+     * @return the schema of the indexed table, since the iterators of this
+     *         file return heap tuples.
+     */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    private BitmapIndexPage readPageFromDisk() throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return new BitmapIndexPage(pageId(), data, keyType);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.pageNumber() != 0)
+            throw new IllegalArgumentException("a bitmap index has a single page, not " + pid);
+        try {
+            return readPageFromDisk();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + pid + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the contents of the file with page, the only page of the
+     * index, recording the generation of the heap file in it.
+     */
+    public void writePage(Page page) throws IOException {
+        ((BitmapIndexPage) page).setHeapGeneration(table.getGeneration());
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(page.getPageData());
+        } finally {
+            fos.close();
+        }
+    }
+
+    private BitmapIndexPage getPage(TransactionId tid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BitmapIndexPage) Database.getBufferPool().getPage(tid, pageId(), perm);
+    }
+
+    /**
+     * Record t, a tuple that has just been stored in the indexed table.
+     *
+     * @return the page of the index
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in the indexed table");
+        BitmapIndexPage page = getPage(tid, Permissions.READ_WRITE);
+        page.add(t.getField(keyField), position(t.getRecordId()));
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        dirtied.add(page);
+        return dirtied;
+    }
+
+    /**
+     * Forget t, a tuple about to be deleted from the indexed table (so its
+     * RecordId is still set).
+     *
+     * @return the page of the index
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in the indexed table");
+        BitmapIndexPage page = getPage(tid, Permissions.READ_WRITE);
+        if (!page.remove(t.getField(keyField), position(t.getRecordId())))
+            throw new DbException("tuple " + t + " is not in the index");
+        return page;
+    }
+
+    /**
+     * @return a new bitmap of the positions of the tuples whose key
+     *         satisfies ipred; null selects every tuple.
+     */
+    public RoaringBitmap lookup(TransactionId tid, IndexPredicate ipred)
+            throws DbException, TransactionAbortedException {
+        BitmapIndexPage page = getPage(tid, Permissions.READ_ONLY);
+        return ipred == null ? page.all() : page.lookup(ipred);
+    }
+
+    /**
+     * @return an iterator over all tuples of the indexed table, in heap
+     *         order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null);
+    }
+
+    /**
+     * @return an iterator over the tuples of the indexed table whose key
+     *         satisfies ipred, in heap order.
+     * @param ipred the predicate on the key; null returns every tuple
+     */
+    public DbFileIterator indexIterator(final TransactionId tid, final IndexPredicate ipred) {
+        return new PositionIterator(tid) {
+            private static final long serialVersionUID = 1L;
+
+            protected RoaringBitmap positions() throws DbException, TransactionAbortedException {
+                return lookup(tid, ipred);
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over the tuples of the indexed table at the given
+     *         positions, typically a combination of the results of
+     *         {@link #lookup} on several indexes of the table, in heap order.
+     */
+    public DbFileIterator iterator(TransactionId tid, final RoaringBitmap rows) {
+        return new PositionIterator(tid) {
+            private static final long serialVersionUID = 1L;
+
+            protected RoaringBitmap positions() {
+                return rows;
+            }
+        };
+    }
+
+    // iterates over the tuples at the positions returned by positions() when
+    // it is opened, in heap order, fetching each heap page once
+    private abstract class PositionIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private PrimitiveIterator.OfInt it = null;
+        private HeapPage page = null;
+        private Tuple next = null;
+
+        PositionIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        /** @return the positions to visit; called by every open and rewind. */
+        protected abstract RoaringBitmap positions()
+                throws DbException, TransactionAbortedException;
+
+        public void open() throws DbException, TransactionAbortedException {
+            it = positions().iterator();
+            page = null;
+            next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                return false;
+            while (next == null && it.hasNext()) {
+                RecordId rid = recordId(it.nextInt());
+                //位置是按heap的顺序排的，同一页的tuple是连续的
+                if (page == null || !page.getId().equals(rid.getPageId()))
+                    page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                            Permissions.READ_ONLY);
+                next = page.getTuple(rid.tupleno());
+            }
+            return next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("not opened or no tuple remained");
+            Tuple result = next;
+            next = null;
+            return result;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            it = null;
+            page = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BitmapIndexPage holds the whole content of a {@link BitmapIndex}: for every
+ * distinct key of the indexed column, the {@link RoaringBitmap} of the
+ * positions of the tuples holding it. Since the index is meant for columns
+ * with few distinct values, it is compact enough to be read, cached and
+ * written as a single page, whose size varies with its contents. The format
+ * is
+ * <p>
+ *      key field, key type, slots per heap page, heap file generation,
+ *      number of keys, (key, bitmap) for each key in key order
+ * <p>
+ * where the generation is that of the heap file the index describes (see
+ * {@link HeapFile#getGeneration}), so that an index left over from a heap
+ * file regenerated since is detected.
+ */
+public class BitmapIndexPage implements Page {
+
+    private static final Comparator<Field> BY_KEY = new Comparator<Field>() {
+        public int compare(Field a, Field b) {
+            return IndexEntry.compareKeys(a, b);
+        }
+    };
+
+    private final BitmapPageId pid;
+    private final Type keyType;
+    private final int keyField;
+    //heap的每页slot数，变了说明表的schema和建index时不一样
+    private final int slotsPerPage;
+    private long heapGeneration;
+    private TreeMap<Field, RoaringBitmap> bitmaps = new TreeMap<Field, RoaringBitmap>(BY_KEY);
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+
+    /** Create an empty index page. */
+    public BitmapIndexPage(BitmapPageId pid, Type keyType, int keyField, int slotsPerPage) {
+        this.pid = pid;
+        this.keyType = keyType;
+        this.keyField = keyField;
+        this.slotsPerPage = slotsPerPage;
+        setBeforeImage();
+    }
+
+    /**
+     * Parse a page written by {@link #getPageData}.
+     *
+     * @throws IOException if data is not a bitmap index on a key of keyType
+     */
+    public BitmapIndexPage(BitmapPageId pid, byte[] data, Type keyType) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.pid = pid;
+        this.keyType = keyType;
+        this.keyField = dis.readInt();
+        if (dis.readInt() != keyType.ordinal())
+            throw new IOException("index was built on a key of another type");
+        this.slotsPerPage = dis.readInt();
+        this.heapGeneration = dis.readLong();
+        int n = dis.readInt();
+        for (int i = 0; i < n; i++) {
+            Field key;
+            try {
+                key = keyType.parse(dis);
+            } catch (java.text.ParseException e) {
+                throw new IOException("couldn't parse key on " + pid);
+            }
+            bitmaps.put(key, RoaringBitmap.deserialize(dis));
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the field of the heap table the index is built on. */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the number of slots per heap page the positions are based on. */
+    public int getSlotsPerPage() {
+        return slotsPerPage;
+    }
+
+    /** @return the generation of the heap file the index describes. */
+    public long getHeapGeneration() {
+        return heapGeneration;
+    }
+
+    public void setHeapGeneration(long heapGeneration) {
+        this.heapGeneration = heapGeneration;
+    }
+
+    /** @return the number of distinct keys in the index. */
+    public int numKeys() {
+        return bitmaps.size();
+    }
+
+    /** Record that the tuple at position pos has the given key. */
+    public void add(Field key, int pos) {
+        RoaringBitmap b = bitmaps.get(key);
+        if (b == null) {
+            b = new RoaringBitmap();
+            bitmaps.put(key, b);
+        }
+        b.add(pos);
+    }
+
+    /**
+     * Forget that the tuple at position pos has the given key.
+     *
+     * @return false if the index did not record it
+     */
+    public boolean remove(Field key, int pos) {
+        RoaringBitmap b = bitmaps.get(key);
+        if (b == null || !b.contains(pos))
+            return false;
+        b.remove(pos);
+        if (b.isEmpty())
+            bitmaps.remove(key);
+        return true;
+    }
+
+    /**
+     * @return a new bitmap of the positions of the tuples whose key
+     *         satisfies ipred, the union of the bitmaps of the matching keys.
+     *         Equality and range predicates only visit the matching keys;
+     *         NOT_EQUALS and LIKE test every distinct key.
+     */
+    public RoaringBitmap lookup(IndexPredicate ipred) {
+        Field v = ipred.getField();
+        Collection<RoaringBitmap> matching;
+        switch (ipred.getOp()) {
+        case EQUALS:
+            RoaringBitmap b = bitmaps.get(v);
+            return b == null ? new RoaringBitmap() : b.copy();
+        case LESS_THAN:
+            matching = bitmaps.headMap(v, false).values();
+            break;
+        case LESS_THAN_OR_EQ:
+            matching = bitmaps.headMap(v, true).values();
+            break;
+        case GREATER_THAN:
+            matching = bitmaps.tailMap(v, false).values();
+            break;
+        case GREATER_THAN_OR_EQ:
+            matching = bitmaps.tailMap(v, true).values();
+            break;
+        default:
+            ArrayList<RoaringBitmap> list = new ArrayList<RoaringBitmap>();
+            for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+                if (ipred.matches(e.getKey()))
+                    list.add(e.getValue());
+            }
+            matching = list;
+            break;
+        }
+        RoaringBitmap result = new RoaringBitmap();
+        for (RoaringBitmap b : matching)
+            result = RoaringBitmap.or(result, b);
+        return result;
+    }
+
+    /** @return a new bitmap of the positions of every indexed tuple. */
+    public RoaringBitmap all() {
+        RoaringBitmap result = new RoaringBitmap();
+        for (RoaringBitmap b : bitmaps.values())
+            result = RoaringBitmap.or(result, b);
+        return result;
+    }
+
+    public BitmapPageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(keyField);
+            dos.writeInt(keyType.ordinal());
+            dos.writeInt(slotsPerPage);
+            dos.writeLong(heapGeneration);
+            dos.writeInt(bitmaps.size());
+            for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+                e.getKey().serialize(dos);
+                e.getValue().serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array never fails
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public BitmapIndexPage getBeforeImage() {
+        try {
+            return new BitmapIndexPage(pid, oldData, keyType);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin is a nested loops join that reads its outer (left)
+ * child a block of tuples at a time and scans its inner (right) child once
+ * per block rather than once per outer tuple, comparing each inner tuple with
+ * every tuple of the block.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final int blockSize;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+    private ArrayList<Tuple> block = new ArrayList<Tuple>();
+    //当前内层tuple，以及它下一个要比较的block下标
+    private Tuple inner;
+    private int index;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left (outer) relation
+     * @param child2
+     *            Iterator for the right (inner) relation
+     * @param blockSize
+     *            The number of outer tuples held in memory at once
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blocks must hold at least one tuple");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockSize = blockSize;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        block.clear();
+        inner = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        block.clear();
+        inner = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        block.clear();
+        inner = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null) {
+                while (index < block.size()) {
+                    Tuple outer = block.get(index++);
+                    if (p.filter(outer, inner))
+                        return new CompositeTuple(td, outer, inner);
+                }
+                inner = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                index = 0;
+                continue;
+            }
+            //内层对这个block扫完了，读下一个block
+            if (!block.isEmpty())
+                child2.rewind();
+            block.clear();
+            while (block.size() < blockSize && child1.hasNext())
+                block.add(child1.next());
+            if (block.isEmpty())
+                return null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
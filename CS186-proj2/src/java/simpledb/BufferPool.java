@@ -52,7 +52,7 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws DbException {
         // some code goes here
         if (perm.permLevel != 0 && perm.permLevel != 1)
@@ -60,14 +60,24 @@ public class BufferPool {
         if (pid2page.containsKey(pid)) {//直接命中
             return pid2page.get(pid);
         } else {//未命中，访问磁盘并缓存
-            HeapFile table = (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
-            HeapPage newPage = (HeapPage) table.readPage(pid);
+            DbFile table = Database.getCatalog().getDbFile(pid.getTableId());
+            Page newPage = table.readPage(pid);
             addNewPage(pid, newPage);
             return newPage;
         }
     }
 
-    private void addNewPage(PageId pid, Page newPage) {
+    /**
+     * @return the cached copy of the page, or null if it is not in the
+     *         buffer pool. Takes no page lock and does not read the page in,
+     *         so it may be called from threads outside any transaction.
+     */
+    public synchronized Page getCachedPage(PageId pid) {
+        return pid2page.get(pid);
+    }
+
+    //pid2page只在BufferPool的锁下访问：后台线程也会通过getCachedPage读它
+    private synchronized void addNewPage(PageId pid, Page newPage) {
         pid2page.put(pid, newPage);
         //如果超出了最大的缓存页数量
     }
@@ -94,6 +104,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -114,6 +125,14 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+        TableStats.transactionComplete(tid, commit);
+        //回滚的事务改过的页，摘要里的tuple数不再可信
+        java.util.Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            DbFile file = Database.getCatalog().getDbFile(it.next());
+            if (file instanceof HeapFile)
+                ((HeapFile) file).getZoneMap().transactionComplete(tid, commit);
+        }
     }
 
     /**
@@ -124,7 +143,8 @@ public class BufferPool {
      * 
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and updates cached versions of any pages that have 
-     * been dirtied so that future requests see up-to-date pages. 
+     * been dirtied so that future requests see up-to-date pages. Indexes on
+     * the table registered in the Catalog are updated as well.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -133,7 +153,16 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for proj1
+        DbFile table = Database.getCatalog().getDbFile(tableId);
+        ArrayList<Page> dirtied = table.insertTuple(tid, t);
+        //tuple有了RecordId之后再更新这个表上的index
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+            dirtied.addAll(index.insertTuple(tid, t));
+        for (Page page : dirtied) {
+            page.markDirty(true, tid);
+            addNewPage(page.getId(), page);
+        }
+        TableStats.recordInsert(tid, tableId, t);
     }
 
     /**
@@ -152,7 +181,16 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
         // some code goes here
-        // not necessary for proj1
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in any table");
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile table = Database.getCatalog().getDbFile(tableId);
+        //删除之后tuple的RecordId会被清空，所以先删index中的entry
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId))
+            index.deleteTuple(tid, t).markDirty(true, tid);
+        Page page = table.deleteTuple(tid, t);
+        page.markDirty(true, tid);
+        TableStats.recordDelete(tid, tableId, t);
     }
 
     /**
@@ -162,8 +200,8 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-        // not necessary for proj1
-
+        for (PageId pid : new ArrayList<PageId>(pid2page.keySet()))
+            flushPage(pid);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -173,7 +211,7 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-	// not necessary for proj1
+        pid2page.remove(pid);
     }
 
     /**
@@ -182,14 +220,21 @@ public class BufferPool {
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
-        // not necessary for proj1
+        Page page = pid2page.get(pid);
+        if (page == null || page.isDirty() == null)
+            return;
+        Database.getCatalog().getDbFile(pid.getTableId()).writePage(page);
+        page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for proj1
+        for (Page page : new ArrayList<Page>(pid2page.values())) {
+            if (tid.equals(page.isDirty()))
+                flushPage(page.getId());
+        }
     }
 
     /**
@@ -0,0 +1,117 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Corrections to the optimizer's cardinality estimates, learned from the
+ * plans it has run (Stillger et al., "LEO - DB2's LEarning Optimizer").
+ * A {@link CardinalityMonitor} counts the tuples an operator actually returns
+ * and {@link #record}s them against the estimate the plan was built with;
+ * the ratio is kept as a correction factor, keyed by a signature of what the
+ * operator computes, and multiplies the estimate the next time a plan
+ * computes the same thing:
+ * <ul>
+ * <li>a single predicate on a table, by {@link #predicateKey}, corrects
+ * {@link TableStats#estimateSelectivity};
+ * <li>several predicates on one table, by {@link #scanKey}, correct the
+ * product of their selectivities, which assumes they are independent;
+ * <li>a set of joined tables, by their scan keys and the joins between them,
+ * corrects the cardinality the {@link JoinOptimizer} estimates for it.
+ * </ul>
+ * Keys name tables and fields, not aliases, so recurring queries share them.
+ * The {@link #MAX_ENTRIES} most recently used corrections are kept. A
+ * correction that moves by more than {@link #REPLAN_FACTOR} drops the plans
+ * {@link QueryPlanCache}s hold, so that they are ordered again with it.
+ */
+public class CardinalityFeedback {
+
+    /** the number of corrections kept */
+    static final int MAX_ENTRIES = 10000;
+    /** the range corrections are clamped to */
+    static final double MIN_FACTOR = 1e-4, MAX_FACTOR = 1e4;
+    /**
+     * how many times larger or smaller a correction must become to drop the
+     * cached plans; smaller changes are estimation noise
+     */
+    static final double REPLAN_FACTOR = 2.0;
+
+    private static final Map<String, Double> factors = Collections.synchronizedMap(
+            new LinkedHashMap<String, Double>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            });
+
+    /**
+     * @return the factor to multiply the estimate of key by, 1 if nothing
+     *         has been learned about it.
+     */
+    public static double correction(String key) {
+        if (key == null)
+            return 1.0;
+        Double f = factors.get(key);
+        return f == null ? 1.0 : f;
+    }
+
+    /**
+     * Record that an operator estimated to return estimate tuples, an
+     * estimate already multiplied by factor, returned actual tuples.
+     */
+    public static void record(String key, double estimate, double factor, long actual) {
+        if (key == null)
+            return;
+        double f = factor * Math.max(1, actual) / Math.max(1, estimate);
+        f = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, f));
+        Double old = factors.put(key, f);
+        double before = old == null ? 1.0 : old;
+        if (f > before * REPLAN_FACTOR || f * REPLAN_FACTOR < before)
+            QueryPlanCache.statisticsChanged();
+    }
+
+    /**
+     * @return true if no correction has been learned, so that the optimizer
+     *         need not build keys to look them up.
+     */
+    public static boolean isEmpty() {
+        return factors.isEmpty();
+    }
+
+    /**
+     * Forget every correction.
+     */
+    public static void clear() {
+        factors.clear();
+        QueryPlanCache.statisticsChanged();
+    }
+
+    /**
+     * @return the key of predicate <tt>field op constant</tt> on the table.
+     */
+    public static String predicateKey(int tableid, int field, Predicate.Op op, Field constant) {
+        return Database.getCatalog().getTableName(tableid) + "."
+                + Database.getCatalog().getTupleDesc(tableid).getFieldName(field) + " " + op + " "
+                + constant;
+    }
+
+    /**
+     * @return the key of the conjunction of the predicates with the given
+     *         keys, in any order.
+     */
+    public static String scanKey(List<String> predicateKeys) {
+        String[] keys = predicateKeys.toArray(new String[predicateKeys.size()]);
+        java.util.Arrays.sort(keys);
+        StringBuilder sb = new StringBuilder();
+        for (String k : keys) {
+            if (sb.length() > 0)
+                sb.append(" AND ");
+            sb.append(k);
+        }
+        return sb.toString();
+    }
+}
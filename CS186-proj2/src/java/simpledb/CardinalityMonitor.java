@@ -0,0 +1,92 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * CardinalityMonitor is an operator that returns the tuples of its child
+ * unchanged, counting them. When the child has been read to the end for the
+ * first time, the count is {@link CardinalityFeedback#record}ed against the
+ * estimate the plan was built with. A rewind before the end, as nested loops
+ * joins do to their inner input, discards the count, since the child was
+ * not read in full.
+ */
+public class CardinalityMonitor extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final String key;
+    private final double factor;
+    private long count;
+    private boolean counting;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The operator whose tuples are counted
+     * @param key
+     *            The {@link CardinalityFeedback} key of what child computes
+     * @param estimate
+     *            The estimated number of tuples of child
+     * @param factor
+     *            The correction the estimate was multiplied by
+     */
+    public CardinalityMonitor(DbIterator child, String key, int estimate, double factor) {
+        this.child = child;
+        this.key = key;
+        this.factor = factor;
+        setEstimatedCardinality(estimate);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+        count = 0;
+        counting = true;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        counting = false;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        counting = false;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (child.hasNext()) {
+            if (counting)
+                count++;
+            return child.next();
+        }
+        if (counting) {
+            counting = false;
+            CardinalityFeedback.record(key, getEstimatedCardinality(), factor, count);
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
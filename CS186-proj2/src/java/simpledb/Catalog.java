@@ -25,6 +25,10 @@ public class Catalog {
     private Map<String, String> table2pkey;
     //tableId to talbe
     private Map<Integer, String> tableId2table;
+    //tableId to the indexes built on that table
+    private Map<Integer, List<IndexFile>> tableId2indexes;
+    //index id to index file
+    private Map<Integer, IndexFile> indexId2file;
 
     /**
      * Constructor.
@@ -36,7 +40,8 @@ public class Catalog {
         table2tableId = new HashMap<>();
         tableId2table = new HashMap<>();
         table2pkey = new HashMap<>();
-
+        tableId2indexes = new HashMap<>();
+        indexId2file = new HashMap<>();
     }
 
     /**
@@ -73,6 +78,24 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * Remove the table with the given id, and its indexes, from the catalog.
+     * Nothing happens if there is no such table.
+     */
+    public void removeTable(int tableid) {
+        String name = tableId2table.remove(tableid);
+        tableId2file.remove(tableid);
+        List<IndexFile> indexes = tableId2indexes.remove(tableid);
+        if (indexes != null)
+            for (IndexFile index : indexes)
+                indexId2file.values().remove(index);
+        //同名的表可能已经换成了别的表
+        if (name != null && Integer.valueOf(tableid).equals(table2tableId.get(name))) {
+            table2tableId.remove(name);
+            table2pkey.remove(name);
+        }
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
@@ -104,11 +127,80 @@ public class Catalog {
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
+        //BufferPool按PageId里的id来找文件，index的页也要能找到
+        if (indexId2file.containsKey(tableid))
+            return indexId2file.get(tableid);
         if (!table2tableId.containsValue(tableid))
             throw new NoSuchElementException("catalog don't have this table");
         return tableId2file.get(tableid);
     }
 
+    /**
+     * Register an index. The table it is built on must already be in the
+     * catalog. Once added, the BufferPool keeps the index up to date when
+     * tuples are inserted into or deleted from the table, and the optimizer
+     * may use it to answer filters on the indexed field.
+     */
+    public void addIndex(IndexFile index) {
+        int tableId = index.getTable().getId();
+        if (!table2tableId.containsValue(tableId))
+            throw new NoSuchElementException("catalog don't have this table");
+        List<IndexFile> indexes = tableId2indexes.get(tableId);
+        if (indexes == null) {
+            indexes = new ArrayList<>();
+            tableId2indexes.put(tableId, indexes);
+        }
+        indexes.add(index);
+        indexId2file.put(index.getId(), index);
+    }
+
+    /**
+     * @return the indexes built on the specified table; empty if there are none.
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> indexes = tableId2indexes.get(tableid);
+        return indexes == null ? Collections.<IndexFile>emptyList() : indexes;
+    }
+
+    /**
+     * @return an index on the given field of the specified table, or null if
+     *     there is none.
+     */
+    public IndexFile getIndex(int tableid, int field) {
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index.getKeyField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * @return the index on the given field of the specified table that can
+     *     be searched with op reading the fewest pages, or null if there is
+     *     none.
+     */
+    public IndexFile getIndex(int tableid, int field, Predicate.Op op) {
+        IndexFile best = null;
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index.getKeyField() == field && index.canSearch(op)
+                    && (best == null || index.lookupPages() < best.lookupPages()))
+                best = index;
+        }
+        return best;
+    }
+
+    /**
+     * @return the bitmap index on the given field of the specified table, or
+     *     null if there is none.
+     */
+    public BitmapIndex getBitmapIndex(int tableid, int field) {
+        for (IndexFile index : getIndexes(tableid)) {
+            if (index instanceof BitmapIndex && index.getKeyField() == field)
+                return (BitmapIndex) index;
+        }
+        return null;
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         if (!table2tableId.containsValue(tableid))
@@ -136,10 +228,21 @@ public class Catalog {
         table2pkey.clear();
         tableId2file.clear();
         table2tableId.clear();
+        tableId2indexes.clear();
+        indexId2file.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each field may be followed by the annotations <tt>pk</tt> (primary key)
+     * and <tt>idx</tt> (build a B+ tree index on the field, stored in
+     * name.field.idx next to the table) or <tt>bitmap</tt> (build a bitmap
+     * index on the field, stored in name.field.bmp). The primary key always
+     * gets a hash index, stored in name.field.hash. A covering B+ tree index,
+     * which also stores other fields of the table with each key, is declared
+     * as <tt>idx:f1:f2</tt>, listing the included fields. A line ending with
+     * <tt>crack</tt> after the field list enables cracking on the table (see
+     * {@link HeapFile#setCracking}).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -157,6 +260,9 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> indexed = new ArrayList<Integer>();
+                HashMap<Integer, String[]> included = new HashMap<Integer, String[]>();
+                ArrayList<Integer> bitmapped = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -168,11 +274,19 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int a = 2; a < els2.length; a++) {
+                        if (els2[a].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[a].trim().equals("idx"))
+                            indexed.add(names.size() - 1);
+                        else if (els2[a].trim().startsWith("idx:")) {
+                            indexed.add(names.size() - 1);
+                            included.put(names.size() - 1, els2[a].trim().substring(4).split(":"));
+                        }
+                        else if (els2[a].trim().equals("bitmap"))
+                            bitmapped.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[a]);
                             System.exit(0);
                         }
                     }
@@ -181,8 +295,66 @@ public class Catalog {
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.equals("crack"))
+                    tabHf.setCracking(true);
+                else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : indexed) {
+                    File idxFile = new File(baseFolder+"/"+name+"."+namesAr[field]+".idx");
+                    String[] inc = included.containsKey(field) ? included.get(field) : new String[0];
+                    int[] incFields = new int[inc.length];
+                    for (int i = 0; i < inc.length; i++)
+                        incFields[i] = t.fieldNameToIndex(inc[i]);
+                    BTreeFile index = null;
+                    if (idxFile.exists()) {
+                        try {
+                            index = new BTreeFile(idxFile, tabHf, field, incFields);
+                        } catch (IOException e) {
+                            //included列改了或者heap文件重新生成过，旧的index文件不能用，重建
+                        }
+                    }
+                    if (index == null)
+                        index = BTreeFile.build(idxFile, tabHf, field, incFields);
+                    addIndex(index);
+                    System.out.println("Added index on " + name + "." + namesAr[field]
+                            + (inc.length > 0 ? " including " + Arrays.toString(inc) : ""));
+                }
+                for (int field : bitmapped) {
+                    File bmpFile = new File(baseFolder+"/"+name+"."+namesAr[field]+".bmp");
+                    BitmapIndex index = null;
+                    if (bmpFile.exists()) {
+                        try {
+                            index = new BitmapIndex(bmpFile, tabHf, field);
+                        } catch (IOException e) {
+                            //heap文件重新生成过，旧的index文件不能用，重建
+                        }
+                    }
+                    if (index == null)
+                        index = BitmapIndex.build(bmpFile, tabHf, field);
+                    addIndex(index);
+                    System.out.println("Added bitmap index on " + name + "." + namesAr[field]);
+                }
+                if (!primaryKey.isEmpty()) {
+                    int field = t.fieldNameToIndex(primaryKey);
+                    File hashFile = new File(baseFolder+"/"+name+"."+primaryKey+".hash");
+                    HashFile index = null;
+                    if (hashFile.exists()) {
+                        try {
+                            index = new HashFile(hashFile, tabHf, field);
+                        } catch (IOException e) {
+                            //heap文件重新生成过，旧的index文件不能用，重建
+                        }
+                    }
+                    if (index == null)
+                        index = HashFile.build(hashFile, tabHf, field);
+                    addIndex(index);
+                    System.out.println("Added hash index on " + name + "." + primaryKey);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * CompositeTuple is a read-only view of the concatenation of two tuples, as
+ * produced by a join. Its fields are those of the left tuple followed by
+ * those of the right tuple; nothing is copied.
+ */
+public class CompositeTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple left;
+    private final Tuple right;
+    private final int split;
+
+    /**
+     * @param td
+     *            the schema of the result, normally
+     *            {@link TupleDesc#merge}(left schema, right schema)
+     * @param left
+     *            the tuple providing the first fields
+     * @param right
+     *            the tuple providing the remaining fields
+     */
+    public CompositeTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.split = left.getTupleDesc().numFields();
+    }
+
+    public Field getField(int i) {
+        if (i < 0 || i >= getTupleDesc().numFields())
+            throw new IllegalArgumentException("index must be valid!");
+        return i < split ? left.getField(i) : right.getField(i - split);
+    }
+
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("composite tuples are read-only");
+    }
+
+    public Tuple materialize() {
+        return copy();
+    }
+}
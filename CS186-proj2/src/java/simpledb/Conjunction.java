@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Conjunction evaluates a set of predicates that must all hold, keeping the
+ * predicates ordered so that the ones most likely to reject a tuple cheaply
+ * are tried first.
+ * <p>
+ * Predicates are ranked by
+ * <p>
+ *      cost / (1 - pass rate)
+ * <p>
+ * lowest first, which is the order minimizing the expected evaluation cost of
+ * a short-circuiting conjunction of independent predicates. The initial order
+ * comes from priors based on the type of each comparison (int comparisons are
+ * cheap, string comparisons and LIKE are expensive). While tuples are
+ * filtered, one tuple in {@link #SAMPLE_PERIOD} is profiled: every predicate
+ * is evaluated on it and timed, and after {@link #REORDER_PERIOD} profiled
+ * tuples the predicates are re-ranked from the observed pass rates and costs.
+ */
+public class Conjunction implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** one tuple out of this many is profiled */
+    static final int SAMPLE_PERIOD = 32;
+    /** the predicates are re-ranked after this many profiled tuples */
+    static final int REORDER_PERIOD = 16;
+    /** weight of the priors, in profiled tuples */
+    private static final double PRIOR_WEIGHT = 4;
+    private static final double PRIOR_PASS_RATE = 0.5;
+
+    private static class Conjunct implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Predicate pred;
+        double seen;
+        double passed;
+        double nanos;
+        double rank;
+
+        Conjunct(Predicate pred, double priorNanos) {
+            this.pred = pred;
+            this.seen = PRIOR_WEIGHT;
+            this.passed = PRIOR_WEIGHT * PRIOR_PASS_RATE;
+            this.nanos = PRIOR_WEIGHT * priorNanos;
+            updateRank();
+        }
+
+        void updateRank() {
+            double cost = nanos / seen;
+            double reject = 1.0 - passed / seen;
+            //一定会通过的谓词放到最后
+            rank = cost / Math.max(reject, 1e-9);
+        }
+    }
+
+    private static final Comparator<Conjunct> BY_RANK = new Comparator<Conjunct>() {
+        public int compare(Conjunct a, Conjunct b) {
+            return Double.compare(a.rank, b.rank);
+        }
+    };
+
+    private final Conjunct[] conjuncts;
+    private int tuples = 0;
+    private int profiled = 0;
+
+    /**
+     * @param preds
+     *            the predicates of the conjunction, in any order
+     * @param td
+     *            the schema of the tuples the conjunction will be applied to
+     */
+    public Conjunction(Predicate[] preds, TupleDesc td) {
+        conjuncts = new Conjunct[preds == null ? 0 : preds.length];
+        for (int i = 0; i < conjuncts.length; i++)
+            conjuncts[i] = new Conjunct(preds[i], priorNanos(preds[i], td));
+        Arrays.sort(conjuncts, BY_RANK);
+    }
+
+    // rough per-evaluation cost, only used until real measurements come in
+    private static double priorNanos(Predicate p, TupleDesc td) {
+        if (td.getFieldType(p.getField()) == Type.INT_TYPE)
+            return 20;
+        if (p.getOp() == Predicate.Op.LIKE)
+            return 400;
+        return 100;
+    }
+
+    /**
+     * @return the number of predicates in the conjunction.
+     */
+    public int size() {
+        return conjuncts.length;
+    }
+
+    /**
+     * @return the predicates in the order they are currently evaluated.
+     */
+    public Predicate[] getPredicates() {
+        Predicate[] preds = new Predicate[conjuncts.length];
+        for (int i = 0; i < preds.length; i++)
+            preds[i] = conjuncts[i].pred;
+        return preds;
+    }
+
+    /**
+     * @return true if t satisfies every predicate of the conjunction.
+     */
+    public boolean filter(Tuple t) {
+        if (++tuples % SAMPLE_PERIOD == 0)
+            return profile(t);
+        for (Conjunct c : conjuncts) {
+            if (!c.pred.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    // 不短路地求出每个谓词的结果和耗时，这样统计出来的通过率不受前面谓词的影响
+    private boolean profile(Tuple t) {
+        boolean result = true;
+        for (Conjunct c : conjuncts) {
+            long start = System.nanoTime();
+            boolean pass = c.pred.filter(t);
+            c.nanos += System.nanoTime() - start;
+            c.seen++;
+            if (pass)
+                c.passed++;
+            result &= pass;
+        }
+        if (++profiled % REORDER_PERIOD == 0) {
+            for (Conjunct c : conjuncts)
+                c.updateRank();
+            Arrays.sort(conjuncts, BY_RANK);
+        }
+        return result;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < conjuncts.length; i++) {
+            if (i > 0)
+                sb.append(" AND ");
+            sb.append("(").append(conjuncts[i].pred).append(")");
+        }
+        return sb.toString();
+    }
+}
@@ -1,8 +1,8 @@
 package simpledb;
 import java.util.Vector;
 
-/** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+/** The cost and cardinality of the optimal plan represented by plan, as
+    estimated by the {@link JoinOptimizer}.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
@@ -11,4 +11,9 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public Vector<LogicalJoinNode> plan;
+    /** The size in bytes of the tuples of the subplan */
+    public int width;
+    /** The quantified name of the field the subplan returns its tuples in
+        ascending order of, or null if they are in no particular order */
+    public String sortedOn;
 }
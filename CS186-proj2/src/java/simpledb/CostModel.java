@@ -0,0 +1,425 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import com.sun.nio.file.ExtendedOpenOption;
+
+/**
+ * The constants of the optimizer's cost model, in units of the CPU cost of
+ * applying a predicate to one tuple:
+ * <ul>
+ * <li>the cost of reading a page of a file in file order, used by
+ * {@link TableStats#estimateScanCost};
+ * <li>the cost of reading a page at an arbitrary position, used for index
+ * lookups and the heap pages an index scan reads;
+ * <li>the cost of applying a predicate to a tuple, 1 by definition, and of
+ * adding a tuple to or probing a hash table, used by
+ * {@link JoinOptimizer#estimateJoinCost}.
+ * </ul>
+ * The {@link #DEFAULT} model charges {@link TableStats#IOCOSTPERPAGE} per
+ * page read and 1 per tuple processed. {@link #calibrate} measures the
+ * constants on this host instead, so that plans reflect the relative speed
+ * of its storage and processors; the measured model is saved in a cost
+ * file next to the catalog (see {@link #costFileFor}) and read back on the
+ * next start.
+ * <p>
+ * Calibration times page reads with direct I/O, bypassing the operating
+ * system's page cache, since the file it reads was just written and would
+ * otherwise be read from memory. Where the file system does not support
+ * direct I/O the page costs are those of reading cached pages, which says
+ * nothing about the storage device; {@link #readsCached} tells such a model
+ * apart.
+ */
+public class CostModel {
+
+    /** The model used until another is set: the textbook constants. */
+    public static final CostModel DEFAULT = new CostModel(TableStats.IOCOSTPERPAGE,
+            TableStats.IOCOSTPERPAGE, 1.0);
+
+    /** the number of pages of the file calibration reads */
+    static final int CALIBRATION_PAGES = 256;
+    /** the number of times each measurement is taken; the median is kept */
+    static final int CALIBRATION_ROUNDS = 5;
+    /**
+     * the number of pages calibration reads at once in file order, standing
+     * in for the read-ahead the operating system does for a scan
+     */
+    static final int READAHEAD_PAGES = 32;
+
+    private static volatile CostModel current = DEFAULT;
+
+    private final double seqPageCost;
+    private final double randomPageCost;
+    private final double hashCost;
+    private final boolean readsCached;
+
+    /**
+     * Constructor.
+     *
+     * @param seqPageCost
+     *            The cost of reading a page in file order
+     * @param randomPageCost
+     *            The cost of reading a page at an arbitrary position
+     * @param hashCost
+     *            The cost of adding a tuple to or probing a hash table
+     */
+    public CostModel(double seqPageCost, double randomPageCost, double hashCost) {
+        this(seqPageCost, randomPageCost, hashCost, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param seqPageCost
+     *            The cost of reading a page in file order
+     * @param randomPageCost
+     *            The cost of reading a page at an arbitrary position
+     * @param hashCost
+     *            The cost of adding a tuple to or probing a hash table
+     * @param readsCached
+     *            Whether the page costs were measured on pages served from
+     *            the operating system's page cache
+     */
+    public CostModel(double seqPageCost, double randomPageCost, double hashCost,
+            boolean readsCached) {
+        this.seqPageCost = seqPageCost;
+        this.randomPageCost = randomPageCost;
+        this.hashCost = hashCost;
+        this.readsCached = readsCached;
+    }
+
+    /**
+     * @return the model the optimizer uses.
+     */
+    public static CostModel get() {
+        return current;
+    }
+
+    /**
+     * Make the optimizer use model from now on. Statistics already computed
+     * keep the page cost they were computed with.
+     */
+    public static void set(CostModel model) {
+        current = model;
+    }
+
+    public double seqPageCost() {
+        return seqPageCost;
+    }
+
+    public double randomPageCost() {
+        return randomPageCost;
+    }
+
+    /**
+     * @return the cost of applying a predicate to a tuple, the unit of the
+     *         other costs.
+     */
+    public double predicateCost() {
+        return 1.0;
+    }
+
+    public double hashCost() {
+        return hashCost;
+    }
+
+    /**
+     * @return true if the page costs of this model were measured on pages
+     *         served from the operating system's page cache, and so are the
+     *         cost of copying and decoding a page rather than of reading it
+     *         from the storage device.
+     */
+    public boolean readsCached() {
+        return readsCached;
+    }
+
+    /**
+     * @return how many times as expensive reading a page at an arbitrary
+     *         position is as reading it in file order.
+     */
+    public double randomToSequential() {
+        return randomPageCost / seqPageCost;
+    }
+
+    public String toString() {
+        return String.format("sequential page %.1f, random page %.1f, predicate %.1f, hash %.2f%s",
+                seqPageCost, randomPageCost, predicateCost(), hashCost,
+                readsCached ? " (pages read from the OS cache)" : "");
+    }
+
+    /**
+     * @return the cost file of the database described by catalogFile.
+     */
+    public static File costFileFor(File catalogFile) {
+        return new File(catalogFile.getPath() + ".cost");
+    }
+
+    /**
+     * Use the model saved in f, if there is one, and otherwise calibrate a
+     * model on the file system of f and save it to f.
+     *
+     * @return the model used.
+     */
+    public static CostModel loadOrCalibrate(File f) {
+        CostModel model = load(f);
+        if (model == null) {
+            try {
+                model = calibrate(f.getAbsoluteFile().getParentFile());
+                model.save(f);
+            } catch (IOException e) {
+                // 测不出来就用默认的常数
+                e.printStackTrace();
+                model = DEFAULT;
+            }
+        }
+        set(model);
+        return model;
+    }
+
+    /**
+     * @return the model saved in f, or null if f does not exist or cannot be
+     *         read.
+     */
+    public static CostModel load(File f) {
+        if (f == null || !f.exists())
+            return null;
+        Properties props = new Properties();
+        try {
+            InputStream in = new FileInputStream(f);
+            try {
+                props.load(in);
+            } finally {
+                in.close();
+            }
+            return new CostModel(Double.parseDouble(props.getProperty("seqPageCost")),
+                    Double.parseDouble(props.getProperty("randomPageCost")),
+                    Double.parseDouble(props.getProperty("hashCost")),
+                    Boolean.parseBoolean(props.getProperty("readsCached")));
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // 缺项或者不是数字
+            return null;
+        }
+    }
+
+    /**
+     * Write this model to f.
+     */
+    public void save(File f) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("seqPageCost", Double.toString(seqPageCost));
+        props.setProperty("randomPageCost", Double.toString(randomPageCost));
+        props.setProperty("hashCost", Double.toString(hashCost));
+        props.setProperty("readsCached", Boolean.toString(readsCached));
+        OutputStream out = new FileOutputStream(f);
+        try {
+            props.store(out, "simpledb cost model, in units of one predicate evaluation");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Measure the cost model on this host: write a heap file of
+     * {@link #CALIBRATION_PAGES} pages to dir, read it with direct I/O in
+     * file order, {@link #READAHEAD_PAGES} pages at a time, and one page at
+     * a time in random order, decode its pages through
+     * {@link HeapFile#readPage}, as the {@link BufferPool} does on a miss,
+     * apply a predicate to its tuples and build a hash table of them, as
+     * {@link HashJoin} does. A page read costs the time to read it from the
+     * device plus the time to decode it. Each measurement is taken
+     * {@link #CALIBRATION_ROUNDS} times and the median kept; the times are
+     * then divided by the time of a predicate evaluation, and are not
+     * rounded or bounded.
+     * <p>
+     * If the file system of dir does not support direct I/O, the pages are
+     * read through the page cache instead, in file order and in random
+     * order, and the model is marked {@link #readsCached}.
+     *
+     * @param dir
+     *            The directory to calibrate in, which should be on the
+     *            device the tables are stored on; null for the temporary
+     *            directory.
+     */
+    public static CostModel calibrate(File dir) throws IOException {
+        TupleDesc td = Utility.getTupleDesc(2);
+        int perPage = HeapPage.slotsPerPage(td);
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(0);
+        for (int i = 0; i < CALIBRATION_PAGES * perPage; i++) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(r.nextInt());
+            row.add(r.nextInt(1000));
+            rows.add(row);
+        }
+        File f = File.createTempFile("calibrate", ".dat", dir);
+        f.deleteOnExit();
+        HeapFileEncoder.convert(rows, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = new HeapFile(f, td);
+        int tableid = hf.getId();
+        //HeapPage从catalog里找表结构，测完再拿掉
+        Database.getCatalog().addTable(hf);
+        FileChannel direct = openDirect(f);
+        try {
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < hf.numPages(); i++)
+                order.add(i);
+
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+            for (int pgNo : order) {
+                HeapPage page = (HeapPage) hf.readPage(new HeapPageId(tableid, pgNo));
+                Iterator<Tuple> it = page.iterator();
+                while (it.hasNext())
+                    tuples.add(it.next());
+            }
+            Predicate pred = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+            ByteBuffer buf = direct == null ? null : alignedBuffer(READAHEAD_PAGES);
+
+            double[] seq = new double[CALIBRATION_ROUNDS], random = new double[CALIBRATION_ROUNDS];
+            double[] predicate = new double[CALIBRATION_ROUNDS], hash = new double[CALIBRATION_ROUNDS];
+            //第一轮之前先跑一遍，让JIT编译好
+            for (int round = -1; round < CALIBRATION_ROUNDS; round++) {
+                long seqNanos, randomNanos;
+                if (direct != null) {
+                    //设备上读一页的时间加上解码一页的时间
+                    long start = System.nanoTime();
+                    readDirect(direct, buf, order, READAHEAD_PAGES);
+                    seqNanos = System.nanoTime() - start;
+                    Collections.shuffle(order, r);
+                    start = System.nanoTime();
+                    readDirect(direct, buf, order, 1);
+                    randomNanos = System.nanoTime() - start;
+                    Collections.sort(order);
+                    start = System.nanoTime();
+                    readPages(hf, order);
+                    long decodeNanos = System.nanoTime() - start;
+                    seqNanos += decodeNanos;
+                    randomNanos += decodeNanos;
+                } else {
+                    //文件刚写过，这里读到的都是操作系统缓存里的页
+                    long start = System.nanoTime();
+                    readPages(hf, order);
+                    seqNanos = System.nanoTime() - start;
+                    Collections.shuffle(order, r);
+                    start = System.nanoTime();
+                    readPages(hf, order);
+                    randomNanos = System.nanoTime() - start;
+                    Collections.sort(order);
+                }
+
+                int matches = 0;
+                long start = System.nanoTime();
+                for (Tuple t : tuples)
+                    if (pred.filter(t))
+                        matches++;
+                long predicateNanos = System.nanoTime() - start;
+
+                HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+                start = System.nanoTime();
+                for (Tuple t : tuples) {
+                    ArrayList<Tuple> bucket = table.get(t.getField(1));
+                    if (bucket == null) {
+                        bucket = new ArrayList<Tuple>();
+                        table.put(t.getField(1), bucket);
+                    }
+                    bucket.add(t);
+                }
+                long hashNanos = System.nanoTime() - start;
+                if (round < 0 || matches < 0)
+                    continue;
+                seq[round] = (double) seqNanos / order.size();
+                random[round] = (double) randomNanos / order.size();
+                predicate[round] = (double) predicateNanos / tuples.size();
+                hash[round] = (double) hashNanos / tuples.size();
+            }
+            double unit = median(predicate);
+            if (unit <= 0)
+                throw new IOException("the clock is too coarse to time a predicate");
+            return new CostModel(median(seq) / unit, median(random) / unit,
+                    median(hash) / unit, direct == null);
+        } finally {
+            if (direct != null)
+                direct.close();
+            Database.getCatalog().removeTable(tableid);
+            f.delete();
+            ZoneMap.sidecarFor(f).delete();
+        }
+    }
+
+    /**
+     * Open f for direct I/O, bypassing the page cache.
+     *
+     * @return the channel, or null if the file system of f does not support
+     *         direct I/O on pages of {@link BufferPool#PAGE_SIZE} bytes.
+     */
+    private static FileChannel openDirect(File f) {
+        try {
+            long block = Files.getFileStore(f.toPath()).getBlockSize();
+            if (BufferPool.PAGE_SIZE % block != 0)
+                return null;
+            FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                    ExtendedOpenOption.DIRECT);
+            //有的文件系统打开时不报错，第一次读才报EINVAL
+            try {
+                ByteBuffer buf = alignedBuffer(1);
+                ch.read(buf, 0);
+                return ch;
+            } catch (IOException e) {
+                ch.close();
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    // 直接I/O的缓冲区要按页对齐
+    private static ByteBuffer alignedBuffer(int pages) {
+        return ByteBuffer.allocateDirect((pages + 1) * BufferPool.PAGE_SIZE)
+                .alignedSlice(BufferPool.PAGE_SIZE);
+    }
+
+    // 从order里的每一页开始，每次读pagesPerRead页
+    private static void readDirect(FileChannel ch, ByteBuffer buf, List<Integer> order,
+            int pagesPerRead) throws IOException {
+        for (int i = 0; i < order.size(); i += pagesPerRead) {
+            buf.clear();
+            buf.limit(Math.min(pagesPerRead, order.size() - i) * BufferPool.PAGE_SIZE);
+            long pos = (long) order.get(i) * BufferPool.PAGE_SIZE;
+            while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0)
+                ;
+        }
+    }
+
+    // 按order的顺序读hf的页，不经过BufferPool的缓存
+    private static void readPages(HeapFile hf, List<Integer> order) {
+        for (int pgNo : order)
+            hf.readPage(new HeapPageId(hf.getId(), pgNo));
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
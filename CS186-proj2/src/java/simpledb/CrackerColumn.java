@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CrackerColumn is an adaptive index on an INT_TYPE column of a
+ * {@link HeapFile} (database cracking). It is a copy of the column, made the
+ * first time a range predicate on it is evaluated, holding every value with
+ * the position of its tuple, computed from the RecordId as in
+ * {@link BitmapIndex}. Each range query then partitions the piece of the copy
+ * its bounds fall in, in place, so that the values satisfying it end up
+ * contiguous; the bounds are remembered and later queries only partition the
+ * pieces they hit. Over a workload of range queries the column converges
+ * towards a sorted array, without an index ever being declared.
+ * <p>
+ * Inserts and deletes on the table are applied to the copy by rippling
+ * through the pieces above the value, moving one value per piece, so no
+ * partitioning is lost.
+ */
+public class CrackerColumn {
+
+    private final HeapFile table;
+    private final int field;
+    private final int slotsPerPage;
+
+    // values[i] is the value of the tuple at positions[i], for i < n
+    private int[] values = null;
+    private int[] positions;
+    private int n;
+    //每个分界值v对应第一个 >= v 的元素的下标
+    private TreeMap<Integer, Integer> cracks = new TreeMap<Integer, Integer>();
+
+    CrackerColumn(HeapFile table, int field) {
+        if (table.getTupleDesc().getFieldType(field) != Type.INT_TYPE)
+            throw new IllegalArgumentException("only INT_TYPE columns can be cracked");
+        this.table = table;
+        this.field = field;
+        this.slotsPerPage = HeapPage.slotsPerPage(table.getTupleDesc());
+    }
+
+    public HeapFile getTable() {
+        return table;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    /**
+     * @return true if the column has been copied from the table, by the
+     *         first call to {@link #select}.
+     */
+    public synchronized boolean isLoaded() {
+        return values != null;
+    }
+
+    /**
+     * @return the number of pieces the column is partitioned into; 1 before
+     *         the first crack.
+     */
+    public synchronized int numPieces() {
+        return cracks.size() + 1;
+    }
+
+    /**
+     * @return true if the operator selects a single range of values, so the
+     *         column can be cracked for it.
+     */
+    public static boolean canCrack(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the RecordId of the tuple at position pos.
+     */
+    public RecordId recordId(int pos) {
+        return new RecordId(new HeapPageId(table.getId(), pos / slotsPerPage), pos % slotsPerPage);
+    }
+
+    private int position(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    /**
+     * Find the tuples whose value satisfies <tt>value op v</tt>, cracking
+     * the column at the bounds of the range. The column is copied from the
+     * table, through the BufferPool, on the first call.
+     *
+     * @return the positions of the matching tuples, in heap order
+     * @throws IllegalArgumentException if op does not select a range
+     */
+    public synchronized int[] select(TransactionId tid, Predicate.Op op, int v)
+            throws DbException, TransactionAbortedException {
+        if (!canCrack(op))
+            throw new IllegalArgumentException("cannot crack on " + op);
+        if (values == null)
+            load(tid);
+        int lo = 0, hi = n;
+        boolean max = v == Integer.MAX_VALUE;
+        switch (op) {
+        case EQUALS:
+            lo = crack(v);
+            hi = max ? n : crack(v + 1);
+            break;
+        case LESS_THAN:
+            hi = crack(v);
+            break;
+        case LESS_THAN_OR_EQ:
+            hi = max ? n : crack(v + 1);
+            break;
+        case GREATER_THAN:
+            lo = max ? n : crack(v + 1);
+            break;
+        default:
+            lo = crack(v);
+            break;
+        }
+        int[] result = Arrays.copyOfRange(positions, lo, Math.max(lo, hi));
+        Arrays.sort(result);
+        return result;
+    }
+
+    private void load(TransactionId tid) throws DbException, TransactionAbortedException {
+        values = new int[Math.max(16, table.numPages() * slotsPerPage)];
+        positions = new int[values.length];
+        n = 0;
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                append(((IntField) t.getField(field)).getValue(), position(t.getRecordId()));
+            }
+        } finally {
+            it.close();
+        }
+    }
+
+    private void append(int v, int pos) {
+        if (n == values.length) {
+            values = Arrays.copyOf(values, n * 2);
+            positions = Arrays.copyOf(positions, n * 2);
+        }
+        values[n] = v;
+        positions[n] = pos;
+        n++;
+    }
+
+    private void move(int from, int to) {
+        values[to] = values[from];
+        positions[to] = positions[from];
+    }
+
+    // partition the piece containing v so that the values less than v come
+    // first, and return the index of the first value not less than v
+    private int crack(int v) {
+        Integer known = cracks.get(v);
+        if (known != null)
+            return known;
+        Map.Entry<Integer, Integer> below = cracks.lowerEntry(v);
+        Map.Entry<Integer, Integer> above = cracks.higherEntry(v);
+        int i = below == null ? 0 : below.getValue();
+        int j = (above == null ? n : above.getValue()) - 1;
+        while (i <= j) {
+            if (values[i] < v) {
+                i++;
+            } else {
+                int tv = values[i], tp = positions[i];
+                move(j, i);
+                values[j] = tv;
+                positions[j] = tp;
+                j--;
+            }
+        }
+        cracks.put(v, i);
+        return i;
+    }
+
+    /**
+     * Record t, a tuple that has just been stored in the table. The value is
+     * put in its piece by moving the first value of each piece above it to
+     * the end of that piece.
+     */
+    synchronized void insert(Tuple t) {
+        if (values == null)
+            return;
+        int v = ((IntField) t.getField(field)).getValue();
+        append(0, 0);
+        int hole = n - 1;
+        for (Map.Entry<Integer, Integer> e : cracks.tailMap(v, false).descendingMap().entrySet()) {
+            int start = e.getValue();
+            move(start, hole);
+            hole = start;
+            e.setValue(start + 1);
+        }
+        values[hole] = v;
+        positions[hole] = position(t.getRecordId());
+    }
+
+    /**
+     * Forget t, a tuple that has just been deleted from rid. The hole it
+     * leaves is filled with the last value of its piece, and the pieces above
+     * move down by one the same way.
+     */
+    synchronized void delete(Tuple t, RecordId rid) {
+        if (values == null)
+            return;
+        int v = ((IntField) t.getField(field)).getValue();
+        int pos = position(rid);
+        Map.Entry<Integer, Integer> below = cracks.floorEntry(v);
+        Map.Entry<Integer, Integer> above = cracks.higherEntry(v);
+        int lo = below == null ? 0 : below.getValue();
+        int hi = above == null ? n : above.getValue();
+        int hole = -1;
+        for (int i = lo; i < hi && hole < 0; i++) {
+            if (positions[i] == pos)
+                hole = i;
+        }
+        if (hole < 0) {
+            //不应该发生；找不到就丢掉这份拷贝，下次查询重新建
+            values = null;
+            cracks.clear();
+            return;
+        }
+        move(hi - 1, hole);
+        hole = hi - 1;
+        for (Map.Entry<Integer, Integer> e : cracks.tailMap(v, false).entrySet()) {
+            Map.Entry<Integer, Integer> next = cracks.higherEntry(e.getKey());
+            int end = next == null ? n : next.getValue();
+            move(end - 1, hole);
+            hole = end - 1;
+            e.setValue(e.getValue() - 1);
+        }
+        n--;
+    }
+}
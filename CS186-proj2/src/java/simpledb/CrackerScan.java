@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * CrackerScan is an access method that answers a range predicate on an
+ * INT_TYPE column of a table with cracking enabled (see
+ * {@link HeapFile#setCracking}) through the table's {@link CrackerColumn}:
+ * each open cracks the column further and reads only the heap pages holding
+ * a matching tuple, in file order and each once. Other predicates on the
+ * table are applied to the tuples read, as in a {@link SeqScan} with
+ * pushed-down predicates.
+ */
+public class CrackerScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final CrackerColumn column;
+    private final String tableAlias;
+    private final Predicate pred;
+    private final Predicate[] predicates;
+    private final TupleDesc td;
+
+    private Conjunction residual;
+    private int[] positions = null;
+    private int pos;
+    private HeapPage page = null;
+    private Tuple next = null;
+
+    /**
+     * Creates a cracker scan over the table of column.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param column     the cracker column of the table.
+     * @param tableAlias the alias of the table, used to prefix field names as
+     *                   in {@link SeqScan#getTupleDesc}.
+     * @param pred       the range predicate on the cracked field.
+     * @param predicates further predicates every returned tuple must satisfy,
+     *                   with field indices referring to the table; may be null.
+     */
+    public CrackerScan(TransactionId tid, CrackerColumn column, String tableAlias,
+            Predicate pred, Predicate[] predicates) {
+        if (pred.getField() != column.getField() || !CrackerColumn.canCrack(pred.getOp()))
+            throw new IllegalArgumentException("cannot crack " + column.getField() + " for " + pred);
+        this.tid = tid;
+        this.column = column;
+        this.tableAlias = tableAlias;
+        this.pred = pred;
+        this.predicates = predicates;
+
+        TupleDesc desc = column.getTable().getTupleDesc();
+        Type[] types = new Type[desc.numFields()];
+        String[] names = new String[desc.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = desc.getFieldType(i);
+            String fieldName = desc.getFieldName(i);
+            names[i] = tableAlias + "." + (fieldName == null ? "null" : fieldName);
+        }
+        this.td = new TupleDesc(types, names);
+        this.residual = new Conjunction(predicates, td);
+    }
+
+    /**
+     * @return the name of the table this operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(column.getTable().getId());
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public CrackerColumn getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the range predicate answered by cracking.
+     */
+    public Predicate getCrackPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the predicates applied to the tuples read, or null.
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        positions = column.select(tid, pred.getOp(), ((IntField) pred.getOperand()).getValue());
+        pos = 0;
+        page = null;
+        next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (positions == null)
+            return false;
+        while (next == null && pos < positions.length) {
+            RecordId rid = column.recordId(positions[pos++]);
+            //位置是按heap的顺序排好的，同一页只取一次
+            if (page == null || !page.getId().equals(rid.getPageId()))
+                page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                        Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null && (residual.size() == 0 || residual.filter(t)))
+                next = t;
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException("no tuple remained");
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+        page = null;
+        next = null;
+    }
+
+    public void close() {
+        positions = null;
+        page = null;
+        next = null;
+    }
+}
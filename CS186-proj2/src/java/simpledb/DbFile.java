@@ -64,6 +64,23 @@ public interface DbFile extends Serializable {
      */
     public DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * every predicate in preds. Field indices in the predicates refer to this
+     * file's {@link #getTupleDesc}. Implementations may evaluate the
+     * predicates while decoding pages, so that tuples failing them never
+     * reach the caller; the default simply filters {@link #iterator}.
+     *
+     * @param preds the conjunction of predicates pushed down by the caller;
+     *              null or empty means no filtering
+     * @return an iterator over the matching tuples stored in this DbFile.
+     */
+    public default DbFileIterator iterator(TransactionId tid, Predicate[] preds) {
+        if (preds == null || preds.length == 0)
+            return iterator(tid);
+        return new FilteredDbFileIterator(iterator(tid), preds, getTupleDesc());
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDbFile} and
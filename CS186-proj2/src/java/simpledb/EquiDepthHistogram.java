@@ -0,0 +1,427 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An equi-depth histogram over a single integer-based field: bucket
+ * boundaries are chosen so that every bucket holds about the same number of
+ * values, so dense regions of a skewed column get narrow buckets. Each bucket
+ * [low, high] records how many values fall in it and how many of them are
+ * distinct; values are assumed uniformly spread over the distinct values of
+ * a bucket. A value occurring at least as often as a bucket's depth gets a
+ * bucket of its own, so the frequencies of the most common values are kept
+ * exactly.
+ * <p>
+ * Histograms are mergeable: {@link #merge} splits the buckets of both
+ * histograms at each other's boundaries, adds the counts and redraws
+ * equi-depth boundaries over the result.
+ * <p>
+ * Histograms can also be kept up to date one value at a time with
+ * {@link #add}: counts stay exact but bucket boundaries are not redrawn, so
+ * after many changes the buckets are no longer of equal depth.
+ */
+public class EquiDepthHistogram {
+
+    private final int buckets;
+    private int[] lows;
+    private int[] highs;
+    private double[] counts;
+    private double[] distincts;
+    //cum[i]是前i个桶的计数之和
+    private double[] cum;
+    private long total;
+
+    private EquiDepthHistogram(int buckets, int[] lows, int[] highs, double[] counts,
+            double[] distincts, long total) {
+        this.buckets = buckets;
+        this.lows = lows;
+        this.highs = highs;
+        this.counts = counts;
+        this.distincts = distincts;
+        this.total = total;
+        this.cum = new double[counts.length + 1];
+        for (int i = 0; i < counts.length; i++)
+            cum[i + 1] = cum[i] + counts[i];
+    }
+
+    /**
+     * Add (delta &gt; 0) or remove (delta &lt; 0) delta occurrences of v. A
+     * value between buckets widens the bucket below it; a value below the
+     * first or above the last bucket widens that bucket, or gets a new one
+     * once the bucket is as deep as the histogram's buckets should be.
+     * Removing a value the histogram does not hold does nothing.
+     */
+    public synchronized void add(int v, int delta) {
+        int i = bucketBelow(v);
+        if (i + 1 < lows.length && lows[i + 1] == v)
+            i++;
+        if (i < 0 || v > highs[i]) {
+            if (delta <= 0)
+                return;
+            //新值：撑大最近的桶，两头的桶满了就另开一个
+            double depth = Math.max(1.0, (double) total / buckets);
+            if (i < 0 && (lows.length == 0 || counts[0] >= depth)) {
+                i = 0;
+                insertBucket(0, v);
+            } else if (i < 0) {
+                i = 0;
+                lows[0] = v;
+            } else if (i == lows.length - 1 && counts[i] >= depth) {
+                i++;
+                insertBucket(i, v);
+            } else {
+                highs[i] = v;
+            }
+            distincts[i]++;
+        }
+        double c = Math.max(0, counts[i] + delta);
+        total += (long) (c - counts[i]);
+        counts[i] = c;
+        distincts[i] = Math.max(Math.min(distincts[i], c), 1);
+        for (int k = i; k < counts.length; k++)
+            cum[k + 1] = cum[k] + counts[k];
+    }
+
+    /**
+     * Multiply the counts of all buckets by r, so that a histogram of a
+     * sample counts the values of the whole table; the distinct counts of
+     * the buckets are kept.
+     */
+    public synchronized void scale(double r) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] *= r;
+            cum[i + 1] = cum[i] + counts[i];
+        }
+        total = Math.round(total * r);
+    }
+
+    // 在位置i插入一个空桶[v, v]
+    private void insertBucket(int i, int v) {
+        int n = lows.length + 1;
+        int[] l = new int[n], h = new int[n];
+        double[] c = new double[n], d = new double[n];
+        System.arraycopy(lows, 0, l, 0, i);
+        System.arraycopy(highs, 0, h, 0, i);
+        System.arraycopy(counts, 0, c, 0, i);
+        System.arraycopy(distincts, 0, d, 0, i);
+        System.arraycopy(lows, i, l, i + 1, n - 1 - i);
+        System.arraycopy(highs, i, h, i + 1, n - 1 - i);
+        System.arraycopy(counts, i, c, i + 1, n - 1 - i);
+        System.arraycopy(distincts, i, d, i + 1, n - 1 - i);
+        l[i] = h[i] = v;
+        lows = l;
+        highs = h;
+        counts = c;
+        distincts = d;
+        cum = new double[n + 1];
+        for (int k = 0; k < n; k++)
+            cum[k + 1] = cum[k] + counts[k];
+    }
+
+    /**
+     * Accumulates consecutive, increasing ranges of values into buckets of
+     * about depth values each.
+     */
+    private static class Builder {
+        private final double depth;
+        private int n = 0;
+        private int[] lows = new int[16];
+        private int[] highs = new int[16];
+        private double[] counts = new double[16];
+        private double[] distincts = new double[16];
+        private boolean open = false;
+        private int curLow, curHigh;
+        private double curCount, curDistinct;
+
+        Builder(double depth) {
+            this.depth = depth;
+        }
+
+        private void emit(int low, int high, double count, double distinct) {
+            if (n == lows.length) {
+                lows = Arrays.copyOf(lows, n * 2);
+                highs = Arrays.copyOf(highs, n * 2);
+                counts = Arrays.copyOf(counts, n * 2);
+                distincts = Arrays.copyOf(distincts, n * 2);
+            }
+            lows[n] = low;
+            highs[n] = high;
+            counts[n] = count;
+            distincts[n] = distinct;
+            n++;
+        }
+
+        private void flush() {
+            if (open)
+                emit(curLow, curHigh, curCount, curDistinct);
+            open = false;
+            curCount = curDistinct = 0;
+        }
+
+        /** Add the values of [low, high] to the current bucket. */
+        void add(int low, int high, double count, double distinct) {
+            if (low == high && count >= depth) {
+                //高频值单独一个桶
+                flush();
+                emit(low, high, count, distinct);
+                return;
+            }
+            if (!open) {
+                curLow = low;
+                open = true;
+            }
+            curHigh = high;
+            curCount += count;
+            curDistinct += distinct;
+            if (curCount >= depth)
+                flush();
+        }
+
+        /**
+         * Add the values of [low, high], assumed uniformly spread, splitting
+         * the range where a bucket fills up.
+         */
+        void addSplitting(int low, int high, double count, double distinct) {
+            while (true) {
+                double need = depth - curCount;
+                if (low == high || count <= need) {
+                    add(low, high, count, distinct);
+                    return;
+                }
+                long width = (long) high - low + 1;
+                long x = low + Math.max(1, (long) Math.floor(width * need / count));
+                if (x > high) {
+                    add(low, high, count, distinct);
+                    return;
+                }
+                double share = (double) (x - low) / width;
+                add(low, (int) (x - 1), count * share, distinct * share);
+                low = (int) x;
+                count -= count * share;
+                distinct -= distinct * share;
+            }
+        }
+
+        EquiDepthHistogram finish(int buckets, long total) {
+            flush();
+            return new EquiDepthHistogram(buckets, Arrays.copyOf(lows, n), Arrays.copyOf(highs, n),
+                    Arrays.copyOf(counts, n), Arrays.copyOf(distincts, n), total);
+        }
+    }
+
+    /**
+     * Build a histogram of about the given number of buckets over the first
+     * n entries of values, which are sorted in place.
+     */
+    public static EquiDepthHistogram build(int buckets, int[] values, int n) {
+        if (buckets < 1)
+            throw new IllegalArgumentException("need at least one bucket");
+        Arrays.sort(values, 0, n);
+        Builder b = new Builder(Math.max(1.0, (double) n / buckets));
+        for (int i = 0; i < n;) {
+            int j = i;
+            while (j < n && values[j] == values[i])
+                j++;
+            b.add(values[i], values[i], j - i, 1);
+            i = j;
+        }
+        return b.finish(buckets, n);
+    }
+
+    /**
+     * @return a histogram of the values of this histogram and other, with
+     *         as many buckets as the larger of the two was built with. The
+     *         distinct values of overlapping buckets are assumed to be the
+     *         same values, as they are when both summarize parts of one
+     *         column.
+     */
+    public synchronized EquiDepthHistogram merge(EquiDepthHistogram other) {
+        long[] edges = new long[2 * (lows.length + other.lows.length)];
+        int e = 0;
+        for (EquiDepthHistogram h : new EquiDepthHistogram[] { this, other }) {
+            for (int i = 0; i < h.lows.length; i++) {
+                edges[e++] = h.lows[i];
+                edges[e++] = (long) h.highs[i] + 1;
+            }
+        }
+        Arrays.sort(edges);
+        int m = 0;
+        for (int i = 0; i < edges.length; i++)
+            if (m == 0 || edges[i] != edges[m - 1])
+                edges[m++] = edges[i];
+        //相邻两个边界之间是一个小区间，把两边的桶按宽度分到小区间里
+        double[] count = new double[Math.max(0, m - 1)];
+        double[] distinct1 = new double[count.length];
+        double[] distinct2 = new double[count.length];
+        distribute(edges, m, count, distinct1);
+        other.distribute(edges, m, count, distinct2);
+
+        int n = Math.max(buckets, other.buckets);
+        long sum = total + other.total;
+        Builder b = new Builder(Math.max(1.0, (double) sum / n));
+        for (int k = 0; k < count.length; k++) {
+            if (count[k] > 0)
+                b.addSplitting((int) edges[k], (int) (edges[k + 1] - 1), count[k],
+                        Math.max(distinct1[k], distinct2[k]));
+        }
+        return b.finish(n, sum);
+    }
+
+    private void distribute(long[] edges, int m, double[] count, double[] distinct) {
+        for (int i = 0; i < lows.length; i++) {
+            double width = (double) highs[i] - lows[i] + 1;
+            for (int k = Arrays.binarySearch(edges, 0, m, lows[i]); k < m - 1 && edges[k] <= highs[i]; k++) {
+                double share = (edges[k + 1] - edges[k]) / width;
+                count[k] += counts[i] * share;
+                distinct[k] += distincts[i] * share;
+            }
+        }
+    }
+
+    /**
+     * @return the number of values counted, directly or by merging.
+     */
+    public synchronized long numValues() {
+        return total;
+    }
+
+    /**
+     * @return the number of buckets actually used.
+     */
+    public synchronized int numBuckets() {
+        return lows.length;
+    }
+
+    // 最后一个low < v的桶，没有就是-1
+    private int bucketBelow(int v) {
+        int lo = 0, hi = lows.length - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (lows[mid] < v) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // the fraction of values equal to v
+    private double equal(int v) {
+        int i = bucketBelow(v);
+        if (i + 1 < lows.length && lows[i + 1] == v)
+            i++;
+        if (i < 0 || v > highs[i])
+            return 0;
+        return counts[i] / Math.max(1, distincts[i]) / total;
+    }
+
+    // the fraction of values less than v
+    private double below(int v) {
+        int i = bucketBelow(v);
+        if (i < 0)
+            return 0;
+        double sum = cum[i];
+        if (v > highs[i])
+            sum += counts[i];
+        else
+            sum += counts[i] * ((double) v - lows[i]) / ((double) highs[i] - lows[i] + 1);
+        return Math.min(1, sum / total);
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on the
+     * values of this histogram.
+     *
+     * @param op
+     *            Operator
+     * @param v
+     *            Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public synchronized double estimateSelectivity(Predicate.Op op, int v) {
+        if (total == 0)
+            return 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(v);
+        case NOT_EQUALS:
+            return 1 - equal(v);
+        case LESS_THAN:
+            return below(v);
+        case LESS_THAN_OR_EQ:
+            return Math.min(1, below(v) + equal(v));
+        case GREATER_THAN:
+            return Math.max(0, 1 - below(v) - equal(v));
+        default:
+            return 1 - below(v);
+        }
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate with a value
+     *         drawn from the values in this histogram.
+     */
+    public synchronized double avgSelectivity() {
+        if (total == 0)
+            return 0;
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++)
+            sum += counts[i] / total * counts[i] / total / Math.max(1, distincts[i]);
+        return sum;
+    }
+
+    /**
+     * Write the histogram to out, in the format read by {@link #read}.
+     */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        out.writeInt(buckets);
+        out.writeLong(total);
+        out.writeInt(lows.length);
+        for (int i = 0; i < lows.length; i++) {
+            out.writeInt(lows[i]);
+            out.writeInt(highs[i]);
+            out.writeDouble(counts[i]);
+            out.writeDouble(distincts[i]);
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #write}.
+     */
+    public static EquiDepthHistogram read(DataInputStream in) throws IOException {
+        int buckets = in.readInt();
+        long total = in.readLong();
+        int n = in.readInt();
+        if (buckets < 1 || n < 0)
+            throw new IOException("corrupt histogram");
+        int[] lows = new int[n], highs = new int[n];
+        double[] counts = new double[n], distincts = new double[n];
+        for (int i = 0; i < n; i++) {
+            lows[i] = in.readInt();
+            highs[i] = in.readInt();
+            counts[i] = in.readDouble();
+            distincts[i] = in.readDouble();
+            if (highs[i] < lows[i] || (i > 0 && lows[i] <= highs[i - 1]))
+                throw new IOException("corrupt histogram");
+        }
+        return new EquiDepthHistogram(buckets, lows, highs, counts, distincts, total);
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram:");
+        for (int i = 0; i < lows.length; i++) {
+            sb.append(" [").append(lows[i]).append(", ").append(highs[i]).append("]=")
+                    .append(Math.round(counts[i]));
+        }
+        return sb.toString();
+    }
+}
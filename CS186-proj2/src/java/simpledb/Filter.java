@@ -3,12 +3,18 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. It applies a
+ * conjunction of one or more predicates to the tuples of its child; the
+ * predicates are kept in an adaptive order by a {@link Conjunction}.
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private final Predicate[] preds;
+    private Conjunction conjunction;
+    private DbIterator child;
+
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -20,29 +26,61 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, DbIterator child) {
         // some code goes here
+        this(new Predicate[] { p }, child);
+    }
+
+    /**
+     * Constructor accepts a conjunction of predicates that every returned
+     * tuple must satisfy, and a child operator to read tuples from.
+     *
+     * @param preds
+     *            The predicates to filter tuples with, in any order
+     * @param child
+     *            The child operator
+     */
+    public Filter(Predicate[] preds, DbIterator child) {
+        this.preds = preds;
+        this.child = child;
+        this.conjunction = new Conjunction(preds, child.getTupleDesc());
     }
 
+    /**
+     * @return the first predicate this filter was constructed with.
+     */
     public Predicate getPredicate() {
         // some code goes here
-        return null;
+        return preds[0];
+    }
+
+    /**
+     * @return all predicates of this filter, in the order they were given.
+     */
+    public Predicate[] getPredicates() {
+        return preds;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return child.getTupleDesc();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+        child.open();
+        super.open();
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
     }
 
+    //rewind时保留已经学到的谓词顺序
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.rewind();
     }
 
     /**
@@ -57,18 +95,27 @@ public class Filter extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (conjunction.filter(t))
+                return t;
+        }
         return null;
     }
 
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new DbIterator[] { child };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
         // some code goes here
+        if (child != children[0]) {
+            child = children[0];
+            conjunction = new Conjunction(preds, child.getTupleDesc());
+        }
     }
 
 }
@@ -0,0 +1,57 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * FilteredDbFileIterator wraps a DbFileIterator and only returns the tuples
+ * that satisfy a conjunction of predicates. It is the fallback used by
+ * {@link DbFile#iterator(TransactionId, Predicate[])} for files that cannot
+ * evaluate pushed-down predicates themselves. The predicates are applied
+ * through a {@link Conjunction}, so they are reordered as the scan runs.
+ */
+public class FilteredDbFileIterator implements DbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbFileIterator child;
+    private final Conjunction conjunction;
+    private Tuple next = null;
+
+    public FilteredDbFileIterator(DbFileIterator child, Predicate[] preds, TupleDesc td) {
+        this.child = child;
+        this.conjunction = new Conjunction(preds, td);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (next == null && child.hasNext()) {
+            Tuple t = child.next();
+            if (conjunction.filter(t))
+                next = t;
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException("no tuple remained");
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        next = null;
+    }
+
+    public void close() {
+        child.close();
+        next = null;
+    }
+}
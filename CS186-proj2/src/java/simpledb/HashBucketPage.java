@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashBucketPage holds the entries of one bucket of a {@link HashFile}, in no
+ * particular order. The page format is
+ * <p>
+ *      page type, local depth, number of entries, overflow page, entries
+ * <p>
+ * The local depth is the number of low hash bits shared by all keys of the
+ * bucket. When no more splitting can separate the keys of a full bucket
+ * (they are duplicates, or share all the hash bits the directory can use),
+ * further entries go to a chain of overflow pages, linked through the
+ * overflow page number; 0 ends the chain, since page 0 is always the header.
+ */
+public class HashBucketPage extends HashPage {
+
+    private int localDepth;
+    private ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+    private int overflow = 0;
+
+    HashBucketPage(HashPageId pid, Type keyType, int heapTableId) {
+        super(pid, keyType, heapTableId);
+    }
+
+    /** @return the number of entries that fit on a bucket page. */
+    public static int maxEntries(Type keyType) {
+        return (BufferPool.PAGE_SIZE - 13) / entrySize(keyType);
+    }
+
+    protected byte pageType() {
+        return BUCKET;
+    }
+
+    protected void read(DataInputStream dis) throws IOException {
+        localDepth = dis.readInt();
+        int n = dis.readInt();
+        overflow = dis.readInt();
+        entries = new ArrayList<IndexEntry>(n);
+        for (int i = 0; i < n; i++)
+            entries.add(readEntry(dis));
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(localDepth);
+        dos.writeInt(entries.size());
+        dos.writeInt(overflow);
+        for (IndexEntry e : entries)
+            writeEntry(dos, e);
+    }
+
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /** @return the page number of the next page of the chain, or 0. */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(int overflow) {
+        this.overflow = overflow;
+    }
+
+    public int getNumEntries() {
+        return entries.size();
+    }
+
+    public IndexEntry getEntry(int i) {
+        return entries.get(i);
+    }
+
+    public boolean isFull() {
+        return entries.size() >= maxEntries(keyType);
+    }
+
+    public void insertEntry(IndexEntry e) {
+        entries.add(e);
+    }
+
+    /**
+     * Remove e from the page.
+     *
+     * @return false if e is not on this page
+     */
+    public boolean deleteEntry(IndexEntry e) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).compareTo(e) == 0) {
+                //顺序无关，用最后一个entry填上空位
+                entries.set(i, entries.get(entries.size() - 1));
+                entries.remove(entries.size() - 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Replace the entries of this page; used when splitting and bulk loading. */
+    void setEntries(List<IndexEntry> es) {
+        entries = new ArrayList<IndexEntry>(es);
+    }
+}
@@ -0,0 +1,44 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage holds {@link #SLOTS} consecutive slots of the directory of
+ * a {@link HashFile}, each the page number of the bucket the keys hashing to
+ * that slot are stored in. Several slots point to the same bucket when the
+ * local depth of the bucket is less than the global depth.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    /** the number of directory slots on a page */
+    public static final int SLOTS = (BufferPool.PAGE_SIZE - 1) / 4;
+
+    private int[] buckets = new int[SLOTS];
+
+    HashDirectoryPage(HashPageId pid, Type keyType, int heapTableId) {
+        super(pid, keyType, heapTableId);
+    }
+
+    protected byte pageType() {
+        return DIRECTORY;
+    }
+
+    protected void read(DataInputStream dis) throws IOException {
+        for (int i = 0; i < SLOTS; i++)
+            buckets[i] = dis.readInt();
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        for (int i = 0; i < SLOTS; i++)
+            dos.writeInt(buckets[i]);
+    }
+
+    /** @return the page number of the bucket of slot i of this page. */
+    public int getBucket(int i) {
+        return buckets[i];
+    }
+
+    public void setBucket(int i, int pgNo) {
+        buckets[i] = pgNo;
+    }
+}
@@ -0,0 +1,588 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an extendible hash {@link IndexFile}. An equality search reads
+ * one directory page and one bucket, however large the table, which makes it
+ * the index of choice for primary key lookups and for probing the primary
+ * key side of a key/foreign key join.
+ * <p>
+ * The directory has 2^d slots, d being the global depth, and slot s holds the
+ * page number of the bucket storing the keys whose hash ends in the d bits of
+ * s. A bucket with local depth l &lt; d is shared by the 2^(d-l) slots ending
+ * in the same l bits. When an insert finds its bucket full, the bucket is
+ * split on its next hash bit, doubling the directory first if the local depth
+ * was already d. Keys that no split can separate go to overflow pages chained
+ * to their bucket. Deletes do not merge buckets.
+ * <p>
+ * Page 0 is a {@link HashHeaderPage}; the other pages are
+ * {@link HashDirectoryPage}s and {@link HashBucketPage}s, allocated at the end
+ * of the file as needed. Only EQUALS (and LIKE on int keys, which means the
+ * same) can be searched; any other predicate scans every bucket.
+ */
+public class HashFile implements IndexFile {
+
+    /** fraction of each bucket filled by {@link #build} */
+    private static final double FILL_FACTOR = 0.75;
+    private static final int HEADER_PAGE = 0;
+    private static final long serialVersionUID = 1L;
+
+    private final File file;
+    private final HeapFile table;
+    private final int keyField;
+    private final Type keyType;
+
+    /**
+     * Open the index stored in f, or create an empty index if f does not
+     * exist or is empty. Use {@link #build} to index a table that already
+     * has tuples.
+     *
+     * @param f
+     *            the file backing the index
+     * @param table
+     *            the table being indexed
+     * @param keyField
+     *            the field of table the index is built on
+     * @throws IOException
+     *             if f cannot be read or is an index on something else
+     */
+    public HashFile(File f, HeapFile table, int keyField) throws IOException {
+        this.file = f;
+        this.table = table;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+        if (!f.exists() || f.length() == 0) {
+            //一个目录页，唯一的slot指向page 2上的空bucket
+            HashDirectoryPage dir = new HashDirectoryPage(new HashPageId(getId(), 1), keyType,
+                    table.getId());
+            dir.setBucket(0, 2);
+            writePages(Arrays.<HashPage>asList(
+                    new HashHeaderPage(new HashPageId(getId(), HEADER_PAGE), keyType,
+                            table.getId(), keyField, 0, Arrays.asList(1)),
+                    dir,
+                    new HashBucketPage(new HashPageId(getId(), 2), keyType, table.getId())));
+        } else {
+            HashPage header = readPageFromDisk(HEADER_PAGE);
+            if (!(header instanceof HashHeaderPage)
+                    || ((HashHeaderPage) header).getKeyField() != keyField)
+                throw new IOException(f + " is not an index on field " + keyField);
+            //heap文件在index之后被重新生成过，index里的RecordId都不可信
+            if (((HashHeaderPage) header).getHeapGeneration() != table.getGeneration())
+                throw new IOException(f + " is older than " + table.getFile());
+        }
+    }
+
+    /**
+     * Build a new index on a field of table, replacing f. The heap pages are
+     * read directly from disk, so the table must have been flushed, and it
+     * must be in the Catalog. The global depth is chosen so that buckets are
+     * about {@link #FILL_FACTOR} full, and the buckets are written in slot
+     * order right after the directory.
+     */
+    public static HashFile build(File f, HeapFile table, int keyField) throws IOException {
+        ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+        for (int pg = 0; pg < table.numPages(); pg++) {
+            HeapPage hp = (HeapPage) table.readPage(new HeapPageId(table.getId(), pg));
+            Iterator<Tuple> it = hp.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                entries.add(new IndexEntry(t.getField(keyField), t.getRecordId()));
+            }
+        }
+
+        f.delete();
+        HashFile hf = new HashFile(f, table, keyField);
+        int id = hf.getId();
+        Type keyType = hf.keyType;
+        int maxEntries = HashBucketPage.maxEntries(keyType);
+        int perBucket = Math.max(1, (int) (maxEntries * FILL_FACTOR));
+        int depth = 0;
+        while ((long) perBucket << depth < entries.size() && depth < maxDepth())
+            depth++;
+        int numSlots = 1 << depth;
+        int numDirPages = (numSlots + HashDirectoryPage.SLOTS - 1) / HashDirectoryPage.SLOTS;
+
+        ArrayList<ArrayList<IndexEntry>> groups = new ArrayList<ArrayList<IndexEntry>>(numSlots);
+        for (int s = 0; s < numSlots; s++)
+            groups.add(new ArrayList<IndexEntry>());
+        for (IndexEntry e : entries)
+            groups.get(hash(e.getKey()) & (numSlots - 1)).add(e);
+
+        // page 0 is the header, then the directory, then one bucket per slot
+        ArrayList<HashPage> pages = new ArrayList<HashPage>();
+        ArrayList<Integer> dirPages = new ArrayList<Integer>();
+        pages.add(null);
+        for (int i = 0; i < numDirPages; i++) {
+            HashDirectoryPage dir = new HashDirectoryPage(new HashPageId(id, pages.size()), keyType,
+                    table.getId());
+            for (int j = 0; j < HashDirectoryPage.SLOTS; j++) {
+                int s = i * HashDirectoryPage.SLOTS + j;
+                if (s < numSlots)
+                    dir.setBucket(j, 1 + numDirPages + s);
+            }
+            dirPages.add(pages.size());
+            pages.add(dir);
+        }
+        ArrayList<HashBucketPage> overflows = new ArrayList<HashBucketPage>();
+        int nextOverflow = 1 + numDirPages + numSlots;
+        for (int s = 0; s < numSlots; s++) {
+            ArrayList<IndexEntry> group = groups.get(s);
+            HashBucketPage bucket = new HashBucketPage(new HashPageId(id, pages.size()), keyType,
+                    table.getId());
+            bucket.setLocalDepth(depth);
+            bucket.setEntries(group.subList(0, Math.min(maxEntries, group.size())));
+            pages.add(bucket);
+            //装不下的entry放到文件末尾的overflow页中
+            HashBucketPage last = bucket;
+            for (int i = maxEntries; i < group.size(); i += maxEntries) {
+                HashBucketPage of = new HashBucketPage(new HashPageId(id, nextOverflow), keyType,
+                        table.getId());
+                of.setEntries(group.subList(i, Math.min(i + maxEntries, group.size())));
+                last.setOverflow(nextOverflow++);
+                overflows.add(of);
+                last = of;
+            }
+        }
+        pages.addAll(overflows);
+        pages.set(HEADER_PAGE, new HashHeaderPage(new HashPageId(id, HEADER_PAGE), keyType,
+                table.getId(), keyField, depth, dirPages));
+        hf.writePages(pages);
+        return hf;
+    }
+
+    /**
+     * @return the largest global depth whose directory the header can point
+     *         to.
+     */
+    static int maxDepth() {
+        long slots = (long) HashHeaderPage.maxDirectoryPages() * HashDirectoryPage.SLOTS;
+        int d = 0;
+        while (2L << d <= slots)
+            d++;
+        return d;
+    }
+
+    /**
+     * @return the hash of key. The hashCode of an IntField is its value, so it
+     *         is mixed to spread consecutive keys over all the low bits the
+     *         directory uses.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // write pages 0..n-1 of a new file, in order
+    private void writePages(List<HashPage> pages) throws IOException {
+        ((HashHeaderPage) pages.get(HEADER_PAGE)).setHeapGeneration(table.getGeneration());
+        BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            for (HashPage p : pages)
+                bos.write(p.getPageData());
+        } finally {
+            bos.close();
+        }
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public HeapFile getTable() {
+        return table;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * @return true for EQUALS, and LIKE on int keys.
+     */
+    public boolean canSearch(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS
+                || (op == Predicate.Op.LIKE && keyType == Type.INT_TYPE);
+    }
+
+    /**
+     * @return 2, a directory page and a bucket; the header is read by every
+     *         search and stays cached.
+     */
+    public double lookupPages() {
+        return 2;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile, computed like
+     * {@link HeapFile#getId}.
+     */
+    public int getId() {
+        return file.getAbsolutePath().hashCode();
+    }
+
+    /**
+     * @return the schema of the indexed table, since the iterators of this
+     *         file return heap tuples.
+     */
+    public TupleDesc getTupleDesc() {
+        return table.getTupleDesc();
+    }
+
+    /**
+     * Returns the number of pages in this HashFile.
+     */
+    public int numPages() {
+        return (int) (file.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private HashPage readPageFromDisk(int pgNo) throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return HashPage.create(new HashPageId(getId(), pgNo), data, keyType, table.getId());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            return readPageFromDisk(pid.pageNumber());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private HashPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(getId(), pgNo), perm);
+    }
+
+    // append an empty page of the given type to the file and fetch it
+    private HashPage allocatePage(TransactionId tid, byte type)
+            throws IOException, DbException, TransactionAbortedException {
+        int pgNo = numPages();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+            raf.write(IndexPage.createEmptyPageData(type));
+        } finally {
+            raf.close();
+        }
+        return getPage(tid, pgNo, Permissions.READ_WRITE);
+    }
+
+    private HashDirectoryPage directoryPage(TransactionId tid, HashHeaderPage header, int slot,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (HashDirectoryPage) getPage(tid,
+                header.getDirectoryPage(slot / HashDirectoryPage.SLOTS), perm);
+    }
+
+    // the first page of the bucket holding the keys with hash h
+    private HashBucketPage bucketFor(TransactionId tid, HashHeaderPage header, int h,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        int slot = h & ((1 << header.getGlobalDepth()) - 1);
+        HashDirectoryPage dir = directoryPage(tid, header, slot, Permissions.READ_ONLY);
+        return (HashBucketPage) getPage(tid, dir.getBucket(slot % HashDirectoryPage.SLOTS), perm);
+    }
+
+    // the pages of the bucket starting at head, following the overflow pointers
+    private ArrayList<HashBucketPage> chain(TransactionId tid, HashBucketPage head,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        chain.add(head);
+        for (HashBucketPage p = head; p.getOverflow() != 0; chain.add(p))
+            p = (HashBucketPage) getPage(tid, p.getOverflow(), perm);
+        return chain;
+    }
+
+    private IndexEntry entryFor(Tuple t) throws DbException {
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in the indexed table");
+        return new IndexEntry(t.getField(keyField), t.getRecordId());
+    }
+
+    /**
+     * Add an entry for t, a tuple that has just been stored in the indexed
+     * table, splitting its bucket or extending its overflow chain if the
+     * bucket is full.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        int h = hash(e.getKey());
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        HashHeaderPage header = (HashHeaderPage) getPage(tid, HEADER_PAGE, Permissions.READ_WRITE);
+        while (true) {
+            HashBucketPage head = bucketFor(tid, header, h, Permissions.READ_WRITE);
+            ArrayList<HashBucketPage> chain = chain(tid, head, Permissions.READ_WRITE);
+            for (HashBucketPage p : chain) {
+                if (!p.isFull()) {
+                    p.insertEntry(e);
+                    dirtied.add(p);
+                    return dirtied;
+                }
+            }
+            if (head.getLocalDepth() < maxDepth() && separable(chain, h)) {
+                split(tid, header, head, chain, h, dirtied);
+                continue;
+            }
+            //分裂也分不开这些key，挂一个overflow页
+            HashBucketPage last = chain.get(chain.size() - 1);
+            HashBucketPage of = (HashBucketPage) allocatePage(tid, HashPage.BUCKET);
+            last.setOverflow(of.getId().pageNumber());
+            of.insertEntry(e);
+            dirtied.add(last);
+            dirtied.add(of);
+            return dirtied;
+        }
+    }
+
+    // true if some entry of the chain differs from hash h in the bits a
+    // directory of the maximum depth would use
+    private static boolean separable(ArrayList<HashBucketPage> chain, int h) {
+        int mask = (1 << maxDepth()) - 1;
+        for (HashBucketPage p : chain) {
+            for (int i = 0; i < p.getNumEntries(); i++) {
+                if (((hash(p.getEntry(i).getKey()) ^ h) & mask) != 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Split the bucket starting at head, which holds the keys with hash h, on
+     * its next hash bit: the keys with that bit set move to a new bucket, and
+     * the directory slots ending in the new bit pattern are pointed to it.
+     */
+    private void split(TransactionId tid, HashHeaderPage header, HashBucketPage head,
+            ArrayList<HashBucketPage> chain, int h, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int ld = head.getLocalDepth();
+        if (ld == header.getGlobalDepth())
+            doubleDirectory(tid, header, dirtied);
+        ArrayList<IndexEntry> stay = new ArrayList<IndexEntry>();
+        ArrayList<IndexEntry> move = new ArrayList<IndexEntry>();
+        for (HashBucketPage p : chain) {
+            for (int i = 0; i < p.getNumEntries(); i++) {
+                IndexEntry e = p.getEntry(i);
+                if ((hash(e.getKey()) >>> ld & 1) == 0)
+                    stay.add(e);
+                else
+                    move.add(e);
+            }
+        }
+        HashBucketPage image = (HashBucketPage) allocatePage(tid, HashPage.BUCKET);
+        head.setLocalDepth(ld + 1);
+        image.setLocalDepth(ld + 1);
+        fill(tid, chain, stay, dirtied);
+        ArrayList<HashBucketPage> imageChain = new ArrayList<HashBucketPage>();
+        imageChain.add(image);
+        fill(tid, imageChain, move, dirtied);
+
+        int low = (h & ((1 << ld) - 1)) | (1 << ld);
+        for (int s = low; s < 1 << header.getGlobalDepth(); s += 2 << ld) {
+            HashDirectoryPage dir = directoryPage(tid, header, s, Permissions.READ_WRITE);
+            dir.setBucket(s % HashDirectoryPage.SLOTS, image.getId().pageNumber());
+            dirtied.add(dir);
+        }
+    }
+
+    // 目录翻倍：后一半的slot指向和前一半对应的slot相同的bucket
+    private void doubleDirectory(TransactionId tid, HashHeaderPage header,
+            ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+        int n = 1 << header.getGlobalDepth();
+        while ((long) header.numDirectoryPages() * HashDirectoryPage.SLOTS < 2L * n)
+            header.addDirectoryPage(allocatePage(tid, HashPage.DIRECTORY).getId().pageNumber());
+        for (int s = 0; s < n; s++) {
+            HashDirectoryPage from = directoryPage(tid, header, s, Permissions.READ_ONLY);
+            HashDirectoryPage to = directoryPage(tid, header, n + s, Permissions.READ_WRITE);
+            to.setBucket((n + s) % HashDirectoryPage.SLOTS,
+                    from.getBucket(s % HashDirectoryPage.SLOTS));
+        }
+        for (int i = 0; i < header.numDirectoryPages(); i++)
+            dirtied.add(getPage(tid, header.getDirectoryPage(i), Permissions.READ_WRITE));
+        header.setGlobalDepth(header.getGlobalDepth() + 1);
+        dirtied.add(header);
+    }
+
+    // spread entries over the pages of chain, extending it if they don't
+    // fit; pages left over stay in the chain, empty
+    private void fill(TransactionId tid, ArrayList<HashBucketPage> chain,
+            List<IndexEntry> entries, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int max = HashBucketPage.maxEntries(keyType);
+        int i = 0;
+        for (int k = 0; k < chain.size() || i < entries.size(); k++) {
+            if (k == chain.size()) {
+                HashBucketPage of = (HashBucketPage) allocatePage(tid, HashPage.BUCKET);
+                chain.get(k - 1).setOverflow(of.getId().pageNumber());
+                chain.add(of);
+            }
+            int end = Math.min(i + max, entries.size());
+            chain.get(k).setEntries(entries.subList(i, end));
+            dirtied.add(chain.get(k));
+            i = end;
+        }
+    }
+
+    /**
+     * Remove the entry for t, a tuple about to be deleted from the indexed
+     * table (so its RecordId is still set).
+     *
+     * @return the bucket page the entry was removed from
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        IndexEntry e = entryFor(t);
+        HashHeaderPage header = (HashHeaderPage) getPage(tid, HEADER_PAGE, Permissions.READ_ONLY);
+        HashBucketPage head = bucketFor(tid, header, hash(e.getKey()), Permissions.READ_WRITE);
+        for (HashBucketPage p : chain(tid, head, Permissions.READ_WRITE)) {
+            if (p.deleteEntry(e))
+                return p;
+        }
+        throw new DbException("entry " + e + " is not in the index");
+    }
+
+    /**
+     * @return an iterator over all tuples of the indexed table, in no
+     *         particular order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null);
+    }
+
+    /**
+     * @return an iterator over the tuples of the indexed table whose key
+     *         satisfies ipred, in no particular order. For an operator
+     *         accepted by {@link #canSearch} only the bucket of the key is
+     *         read; any other predicate scans every bucket.
+     * @param ipred the predicate on the key; null returns every tuple
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new HashSearchIterator(tid, ipred);
+    }
+
+    private class HashSearchIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final IndexPredicate ipred;
+        private final boolean probe;
+        private HashBucketPage page = null;
+        private int pos;
+        //扫描所有bucket时下一个要读的页号
+        private int scanPgNo;
+        private Tuple next = null;
+
+        HashSearchIterator(TransactionId tid, IndexPredicate ipred) {
+            this.tid = tid;
+            this.ipred = ipred;
+            this.probe = ipred != null && canSearch(ipred.getOp());
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (probe) {
+                HashHeaderPage header = (HashHeaderPage) getPage(tid, HEADER_PAGE,
+                        Permissions.READ_ONLY);
+                page = bucketFor(tid, header, hash(ipred.getField()), Permissions.READ_ONLY);
+            } else {
+                scanPgNo = 1;
+                page = nextPage();
+            }
+            pos = 0;
+            next = null;
+        }
+
+        // the page after the current one: the next page of its chain when
+        // probing, the next bucket page of the file when scanning
+        private HashBucketPage nextPage() throws DbException, TransactionAbortedException {
+            if (probe)
+                return page.getOverflow() == 0 ? null
+                        : (HashBucketPage) getPage(tid, page.getOverflow(), Permissions.READ_ONLY);
+            while (scanPgNo < numPages()) {
+                HashPage p = getPage(tid, scanPgNo++, Permissions.READ_ONLY);
+                if (p instanceof HashBucketPage)
+                    return (HashBucketPage) p;
+            }
+            return null;
+        }
+
+        // the next entry satisfying ipred, or null
+        private IndexEntry nextEntry() throws DbException, TransactionAbortedException {
+            while (page != null) {
+                if (pos >= page.getNumEntries()) {
+                    page = nextPage();
+                    pos = 0;
+                    continue;
+                }
+                IndexEntry e = page.getEntry(pos++);
+                if (ipred == null || ipred.matches(e.getKey()))
+                    return e;
+            }
+            return null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null) {
+                IndexEntry e = nextEntry();
+                if (e == null)
+                    return false;
+                next = table.getTuple(tid, e.getRecordId());
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("not opened or no tuple remained");
+            Tuple result = next;
+            next = null;
+            return result;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            page = null;
+            next = null;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashHeaderPage is page 0 of a {@link HashFile}. Besides what the index was
+ * built on, it records the global depth d of the directory and the page
+ * numbers of the directory pages holding its 2^d slots, in slot order, and
+ * the generation of the heap file the index was built on (see
+ * {@link HeapFile#getGeneration}), so that an index left over from a heap
+ * file regenerated since is detected.
+ */
+public class HashHeaderPage extends HashPage {
+
+    private int keyField;
+    private int globalDepth;
+    private long heapGeneration;
+    private ArrayList<Integer> directory = new ArrayList<Integer>();
+
+    HashHeaderPage(HashPageId pid, Type keyType, int heapTableId) {
+        super(pid, keyType, heapTableId);
+    }
+
+    /** Create the header of a new index. */
+    public HashHeaderPage(HashPageId pid, Type keyType, int heapTableId,
+            int keyField, int globalDepth, List<Integer> directory) {
+        super(pid, keyType, heapTableId);
+        this.keyField = keyField;
+        this.globalDepth = globalDepth;
+        this.directory = new ArrayList<Integer>(directory);
+        setBeforeImage();
+    }
+
+    /** @return the number of directory pages the header can point to. */
+    public static int maxDirectoryPages() {
+        return (BufferPool.PAGE_SIZE - 25) / 4;
+    }
+
+    protected byte pageType() {
+        return HEADER;
+    }
+
+    protected void read(DataInputStream dis) throws IOException {
+        keyField = dis.readInt();
+        int type = dis.readInt();
+        if (type != keyType.ordinal())
+            throw new IOException("index was built on a key of another type");
+        globalDepth = dis.readInt();
+        heapGeneration = dis.readLong();
+        int n = dis.readInt();
+        directory = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++)
+            directory.add(dis.readInt());
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(keyField);
+        dos.writeInt(keyType.ordinal());
+        dos.writeInt(globalDepth);
+        dos.writeLong(heapGeneration);
+        dos.writeInt(directory.size());
+        for (int pgNo : directory)
+            dos.writeInt(pgNo);
+    }
+
+    /** @return the field of the heap table the index is built on. */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the generation of the heap file the index was built on. */
+    public long getHeapGeneration() {
+        return heapGeneration;
+    }
+
+    public void setHeapGeneration(long heapGeneration) {
+        this.heapGeneration = heapGeneration;
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    public void setGlobalDepth(int globalDepth) {
+        this.globalDepth = globalDepth;
+    }
+
+    /** @return the page number of the i-th directory page. */
+    public int getDirectoryPage(int i) {
+        return directory.get(i);
+    }
+
+    public int numDirectoryPages() {
+        return directory.size();
+    }
+
+    public void addDirectoryPage(int pgNo) {
+        directory.add(pgNo);
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin is an equality join that builds an in-memory hash table on the
+ * join field of its inner (right) child, reading it once, and then probes it
+ * with every tuple of its outer (left) child. The outer child is read once
+ * and the result comes out in its order.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+    //内层按join字段分组；open时建，rewind时保留
+    private HashMap<Field, ArrayList<Tuple>> table;
+    private Tuple outer;
+    private ArrayList<Tuple> matches;
+    private int match;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS
+     * @param child1
+     *            Iterator for the left (outer, probe) relation
+     * @param child2
+     *            Iterator for the right (inner, build) relation
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash joins need an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            Field key = t.getField(p.getField2());
+            ArrayList<Tuple> bucket = table.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>();
+                table.put(key, bucket);
+            }
+            bucket.add(t);
+        }
+        outer = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        table = null;
+        outer = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        outer = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && match < matches.size())
+                return new CompositeTuple(td, outer, matches.get(match++));
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            matches = table.get(outer.getField(p.getField1()));
+            if (matches == null)
+                outer = null;
+            match = 0;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
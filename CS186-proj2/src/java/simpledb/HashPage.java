@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashPage is the base class of the pages of a {@link HashFile}. The page
+ * type byte decides how the rest of the page is laid out:
+ * <ul>
+ * <li>{@link HashHeaderPage}: page 0 of the file, holds the global depth and
+ * the page numbers of the directory pages</li>
+ * <li>{@link HashDirectoryPage}: a run of directory slots, each the page
+ * number of a bucket</li>
+ * <li>{@link HashBucketPage}: index entries, both for primary buckets and
+ * for their overflow pages</li>
+ * </ul>
+ */
+public abstract class HashPage extends IndexPage {
+
+    public static final byte HEADER = 1;
+    public static final byte DIRECTORY = 2;
+    public static final byte BUCKET = 3;
+
+    protected HashPage(HashPageId pid, Type keyType, int heapTableId) {
+        super(pid, keyType, heapTableId);
+    }
+
+    /**
+     * Create the page described by data, choosing the page class from its
+     * page type byte.
+     */
+    public static HashPage create(HashPageId pid, byte[] data, Type keyType,
+            int heapTableId) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        byte type = dis.readByte();
+        HashPage page;
+        switch (type) {
+        case HEADER:
+            page = new HashHeaderPage(pid, keyType, heapTableId);
+            break;
+        case DIRECTORY:
+            page = new HashDirectoryPage(pid, keyType, heapTableId);
+            break;
+        case BUCKET:
+            page = new HashBucketPage(pid, keyType, heapTableId);
+            break;
+        default:
+            throw new IOException("bad page type " + type + " on " + pid);
+        }
+        page.read(dis);
+        dis.close();
+        page.setBeforeImage();
+        return page;
+    }
+
+    protected HashPage reread(byte[] data) throws IOException {
+        return create(getId(), data, keyType, heapTableId);
+    }
+
+    public HashPageId getId() {
+        return (HashPageId) pid;
+    }
+}
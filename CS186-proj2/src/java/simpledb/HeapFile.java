@@ -19,6 +19,10 @@ public class HeapFile implements DbFile {
     private File file;
     private TupleDesc td;
     private int numPage;
+    //每页的min/max摘要，用于扫描时跳过不可能匹配的页
+    private ZoneMap zoneMap;
+    //开启cracking之后每个INT列的cracker column，按需创建；null表示没开启
+    private CrackerColumn[] crackers = null;
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -31,6 +35,7 @@ public class HeapFile implements DbFile {
         this.file = f;
         this.td = td;
         this.numPage = (int) (file.length() / BufferPool.PAGE_SIZE);
+        this.zoneMap = ZoneMap.load(f, td);
     }
 
     /**
@@ -70,6 +75,65 @@ public class HeapFile implements DbFile {
         // throw new UnsupportedOperationException("implement this");
     }
 
+    /**
+     * Returns the generation of the file: it changes when the file is
+     * regenerated or changed outside the database, so indexes record it to
+     * tell whether they describe the current contents (see {@link ZoneMap}).
+     */
+    public long getGeneration() {
+        return zoneMap.getGeneration();
+    }
+
+    /**
+     * Returns the per-page summary used to skip pages during scans.
+     */
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Enable or disable cracking on this table. While enabled, the optimizer
+     * answers range predicates on INT_TYPE columns with a {@link CrackerScan}
+     * when no index serves them; disabling drops the cracker columns.
+     */
+    public synchronized void setCracking(boolean enabled) {
+        if (!enabled)
+            crackers = null;
+        else if (crackers == null)
+            crackers = new CrackerColumn[td.numFields()];
+    }
+
+    public synchronized boolean isCracking() {
+        return crackers != null;
+    }
+
+    /**
+     * Returns the cracker column of a field, creating it (but not copying
+     * the column yet) if needed.
+     *
+     * @return the cracker column, or null if cracking is not enabled or the
+     *         field is not an INT_TYPE field
+     */
+    public synchronized CrackerColumn getCrackerColumn(int field) {
+        if (crackers == null || td.getFieldType(field) != Type.INT_TYPE)
+            return null;
+        if (crackers[field] == null)
+            crackers[field] = new CrackerColumn(this, field);
+        return crackers[field];
+    }
+
+    // the cracker columns that have been created, to keep in sync
+    private synchronized List<CrackerColumn> crackerColumns() {
+        ArrayList<CrackerColumn> result = new ArrayList<CrackerColumn>();
+        if (crackers != null) {
+            for (CrackerColumn c : crackers) {
+                if (c != null)
+                    result.add(c);
+            }
+        }
+        return result;
+    }
+
     /**
      * 根据PageId从磁盘读取一个页，注意此方法只应该在BufferPool类被直接调用
      * 在其他需要page的地方需要通过BufferPool访问。这样才能实现缓存功能
@@ -87,12 +151,16 @@ public class HeapFile implements DbFile {
         try {
             //RandomAccessFile可以让我们能够在file中访问任意位置
             RandomAccessFile raf = new RandomAccessFile(file, "r");
-            //这个Page正确的偏移量
-            long offset = pid.pageNumber() * BufferPool.PAGE_SIZE;
-            //将file pointer移到这里
-            raf.seek(offset);
-            //读取数据，将数据存入data中
-            raf.read(data, 0, BufferPool.PAGE_SIZE);
+            try {
+                //这个Page正确的偏移量
+                long offset = (long) pid.pageNumber() * BufferPool.PAGE_SIZE;
+                //将file pointer移到这里
+                raf.seek(offset);
+                //读取数据，将数据存入data中
+                raf.read(data, 0, BufferPool.PAGE_SIZE);
+            } finally {
+                raf.close();
+            }
             page = new HeapPage((HeapPageId) pid, data);
         } catch (IOException e) {
             e.printStackTrace();
@@ -103,7 +171,20 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
-        // not necessary for proj1
+        int pgNo = page.getId().pageNumber();
+        byte[] data = page.getPageData();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+        if (pgNo >= numPage)
+            numPage = pgNo + 1;
+        //写盘后页的内容是确定的，重新计算这一页的摘要
+        zoneMap.summarize((HeapPage) page);
+        zoneMap.pageWritten(pgNo, data);
     }
 
     /**
@@ -118,38 +199,123 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for proj1
+        BufferPool bufferPool = Database.getBufferPool();
+        ArrayList<Page> modified = new ArrayList<Page>();
+        for (int i = 0; i < numPages(); i++) {
+            //摘要中已知是满页的就不用读进BufferPool了
+            if (zoneMap.tupleCount(i) >= HeapPage.slotsPerPage(td))
+                continue;
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            if (page.getNumEmptySlots() > 0) {
+                page.insertTuple(t);
+                zoneMap.recordInsert(tid, i, t);
+                for (CrackerColumn c : crackerColumns())
+                    c.insert(t);
+                modified.add(page);
+                return modified;
+            }
+        }
+        //所有页都满了，在文件末尾加一个空页
+        HeapPageId pid = new HeapPageId(getId(), numPages());
+        writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        zoneMap.recordInsert(tid, pid.pageNumber(), t);
+        for (CrackerColumn c : crackerColumns())
+            c.insert(t);
+        modified.add(page);
+        return modified;
     }
 
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for proj1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of this file");
+        PageId pid = rid.getPageId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        for (CrackerColumn c : crackerColumns())
+            c.delete(t, rid);
+        zoneMap.recordDelete(tid, pid.pageNumber());
+        return page;
+    }
+
+    /**
+     * Fetch the tuple stored at rid through the BufferPool; used by indexes
+     * to follow their entries to the heap.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    public Tuple getTuple(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_ONLY);
+        return page.getTuple(rid.tupleno());
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid)  {
         // some code goes here
-        return new heapFileIterator(tid);
+        return new heapFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator that evaluates preds against each page's slots as
+     * the page is read, so only matching tuples leave the page.
+     *
+     * @see DbFile#iterator(TransactionId, Predicate[])
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] preds) {
+        return new heapFileIterator(tid, preds);
     }
 
     private class heapFileIterator implements DbFileIterator {
 
         private int pos;
         private TransactionId tid;
+        //下推的过滤条件，为null时返回所有tuple
+        private Predicate[] preds;
+        //preds按能否在整页上批量计算拆成两部分，residual在整个扫描中共用
+        private Predicate[] batch;
+        private Conjunction residual;
         BufferPool bufferPool = Database.getBufferPool();
         Iterator<Tuple> tuplesInPage;
 
         private Iterator<Tuple> getTuplesInPage(PageId pageId) throws TransactionAbortedException, DbException {
+            int pgNo = pageId.pageNumber();
+            //根据摘要判断这一页不可能有匹配的tuple，不经过BufferPool直接跳过
+            if (!zoneMap.mayMatch(pgNo, preds))
+                return Collections.<Tuple>emptyIterator();
             HeapPage page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
-            return page.iterator();
+            if (!zoneMap.isKnown(pgNo) && page.isDirty() == null) {
+                //干净的页和磁盘上一致，顺便补上它的摘要
+                zoneMap.summarize(page);
+                try {
+                    zoneMap.savePage(pgNo);
+                } catch (IOException e) {
+                    //写不了sidecar只是下次启动时要重新计算，摘要仍然留在内存里
+                    e.printStackTrace();
+                }
+            }
+            if (preds == null || preds.length == 0)
+                return page.iterator();
+            return page.iterator(batch, residual);
         }
 
-        public heapFileIterator(TransactionId tid) {
+        public heapFileIterator(TransactionId tid, Predicate[] preds) {
             this.tid = tid;
+            this.preds = preds;
+            if (preds != null && preds.length > 0) {
+                ArrayList<Predicate> b = new ArrayList<Predicate>();
+                ArrayList<Predicate> r = new ArrayList<Predicate>();
+                for (Predicate p : preds)
+                    (HeapPage.isBatchable(td, p) ? b : r).add(p);
+                batch = b.toArray(new Predicate[b.size()]);
+                residual = new Conjunction(r.toArray(new Predicate[r.size()]), td);
+            }
         }
 
 
@@ -166,19 +332,17 @@ public class HeapFile implements DbFile {
             if (tuplesInPage == null)
                 return false;
 
-            if (tuplesInPage.hasNext())
-                return true;
-            //此页遍历完后，检查是否还有下一页
-            if (pos < numPages() - 1) {
+            //此页遍历完后，检查后面的页，过滤后可能有连续多个页没有匹配的tuple
+            while (!tuplesInPage.hasNext()) {
+                if (pos >= numPages() - 1)
+                    return false;
                 pos ++;
                 //getId指tableId, pos指page number
                 PageId pageId = new HeapPageId(getId(), pos);
                 //产生新的迭代器
                 tuplesInPage = getTuplesInPage(pageId);
-                return tuplesInPage.hasNext();
-            } else {
-                return false;
             }
+            return true;
         }
 
         @Override
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -76,7 +77,9 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. The {@link ZoneMap} of the output file is built from the
+    * records as they are written, and stored in its sidecar with a new
+    * generation of the file.
     *
     * @see HeapPage
     * @see HeapFile
@@ -120,6 +123,14 @@ public class HeapFileEncoder {
     ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
     DataOutputStream pageStream = new DataOutputStream(pageBAOS);
 
+    // per-page min/max of each int field, for the zone map
+    ZoneMap zoneMap = new ZoneMap(outFile,
+            new TupleDesc(Arrays.copyOf(typeAr, numFields)));
+    int[] pageMins = new int[numFields];
+    int[] pageMaxs = new int[numFields];
+    Arrays.fill(pageMins, Integer.MAX_VALUE);
+    Arrays.fill(pageMaxs, Integer.MIN_VALUE);
+
     boolean done = false;
     boolean first = true;
     while (!done) {
@@ -140,7 +151,10 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    int v = Integer.parseInt(s.trim());
+                    pageStream.writeInt(v);
+                    pageMins[fieldNo] = Math.min(pageMins[fieldNo], v);
+                    pageMaxs[fieldNo] = Math.max(pageMaxs[fieldNo], v);
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
@@ -209,6 +223,10 @@ public class HeapFileEncoder {
             headerBAOS.writeTo(os);
             pageStream.flush();
             pageBAOS.writeTo(os);
+
+            zoneMap.setPage(npages, recordcount, pageMins, pageMaxs);
+            Arrays.fill(pageMins, Integer.MAX_VALUE);
+            Arrays.fill(pageMaxs, Integer.MIN_VALUE);
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -222,5 +240,6 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    zoneMap.save();
   }
 }
@@ -21,6 +21,11 @@ public class HeapPage implements Page {
 
     byte[] oldData;
 
+    private TransactionId dirtier;
+
+    //按slot存放的INT列的值，批量过滤时按需生成；插入删除后作废
+    private int[][] intColumns;
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -71,9 +76,15 @@ public class HeapPage implements Page {
         // some code goes here
         if (numSlots != 0)
             return numSlots;
+        return slotsPerPage(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with schema td.
+     */
+    public static int slotsPerPage(TupleDesc td) {
         double nums = Math.floor(BufferPool.PAGE_SIZE * 8 / (td.getSize() * 8 + 1));
         return (int) nums;
-
     }
 
     /**
@@ -91,8 +102,6 @@ public class HeapPage implements Page {
 
         //要准确的话一定要加上小数点！！！！！
         //要不然后面的ScanTest过不了
-        System.out.println("Math.ceil(numSlots / 8.0) :" + (int)Math.ceil(numSlots / 8.0));
-        System.out.println("Math.ceil(numSlots / 8) :" + (int)Math.ceil(numSlots / 8));
         return (int) Math.ceil(numSlots / 8.0);
                  
     }
@@ -252,7 +261,16 @@ public class HeapPage implements Page {
      */
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tuple slot is already empty");
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        intColumns = null;
+        t.setRecordId(null);
     }
 
     /**
@@ -264,7 +282,19 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tupledesc is mismatch");
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                markSlotUsed(i, true);
+                t.setRecordId(new RecordId(pid, i));
+                //页里保存的tuple必须自己持有字段，不能是join/project产生的视图
+                tuples[i] = t.materialize();
+                intColumns = null;
+                return;
+            }
+        }
+        throw new DbException("page is full");
     }
 
     /**
@@ -273,7 +303,7 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
-	// not necessary for lab1
+        dirtier = dirty ? tid : null;
     }
 
     /**
@@ -281,8 +311,7 @@ public class HeapPage implements Page {
      */
     public TransactionId isDirty() {
         // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
@@ -298,6 +327,15 @@ public class HeapPage implements Page {
         return result;
     }
 
+    /**
+     * @return the tuple stored in slot i, or null if the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        return tuples[i];
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -321,7 +359,10 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
-        // not necessary for lab1
+        if (value)
+            header[i / 8] |= (1 << (i % 8));
+        else
+            header[i / 8] &= ~(1 << (i % 8));
     }
 
     /**
@@ -333,6 +374,125 @@ public class HeapPage implements Page {
         return new TupleInterator();
     }
 
+    /**
+     * @return an iterator over the tuples on this page that satisfy every
+     * predicate in preds. Comparisons of INT fields against constants are
+     * evaluated for the whole page at once by {@link IntFilterKernel}; the
+     * remaining predicates are tested per slot, so tuples that fail a
+     * predicate are never handed to the caller.
+     * @param preds the conjunction to apply; null or empty returns every tuple
+     */
+    public Iterator<Tuple> iterator(Predicate[] preds) {
+        if (preds == null || preds.length == 0)
+            return iterator();
+        ArrayList<Predicate> batch = new ArrayList<Predicate>();
+        ArrayList<Predicate> rest = new ArrayList<Predicate>();
+        for (Predicate p : preds)
+            (isBatchable(td, p) ? batch : rest).add(p);
+        return iterator(batch.toArray(new Predicate[batch.size()]),
+                new Conjunction(rest.toArray(new Predicate[rest.size()]), td));
+    }
+
+    /**
+     * Same as {@link #iterator(Predicate[])} with the predicates already
+     * split, so that a scan over many pages can keep one residual
+     * {@link Conjunction} (and the predicate order it has learned) for all of
+     * them.
+     *
+     * @param batch predicates for which {@link #isBatchable} holds
+     * @param residual the other predicates
+     */
+    Iterator<Tuple> iterator(Predicate[] batch, Conjunction residual) {
+        return new FilteredTupleIterator(batch, residual);
+    }
+
+    /**
+     * @return true if p can be evaluated over a whole page by
+     * {@link IntFilterKernel}, i.e. it compares an INT field to an IntField.
+     */
+    static boolean isBatchable(TupleDesc td, Predicate p) {
+        return td.getFieldType(p.getField()) == Type.INT_TYPE
+                && p.getOperand() instanceof IntField;
+    }
+
+    /**
+     * @return the values of INT field f of every slot on this page, indexed by
+     * slot number; empty slots hold 0.
+     */
+    int[] getIntColumn(int f) {
+        if (intColumns == null)
+            intColumns = new int[td.numFields()][];
+        int[] col = intColumns[f];
+        if (col == null) {
+            col = new int[numSlots];
+            for (int i = 0; i < numSlots; i++) {
+                if (tuples[i] != null)
+                    col[i] = ((IntField) tuples[i].getField(f)).getValue();
+            }
+            intColumns[f] = col;
+        }
+        return col;
+    }
+
+    /**
+     * @return a bitmap with bit i set if slot i is in use, as used by
+     * {@link IntFilterKernel}.
+     */
+    long[] usedSlotBitmap() {
+        long[] sel = new long[IntFilterKernel.words(numSlots)];
+        //header是按little endian的顺序存放slot的，所以直接按byte拼接即可
+        for (int i = 0; i < header.length; i++)
+            sel[i >>> 3] |= (header[i] & 0xffL) << ((i & 7) << 3);
+        //header最后一个byte中多出来的位不对应任何slot
+        if ((numSlots & 63) != 0)
+            sel[sel.length - 1] &= (1L << (numSlots & 63)) - 1;
+        return sel;
+    }
+
+    private class FilteredTupleIterator implements Iterator<Tuple> {
+
+        //INT列与常量比较的谓词已经由IntFilterKernel算进sel里了，剩下的交给residual
+        private final Conjunction residual;
+        private final long[] sel;
+        private int word = 0;
+        private Tuple next = null;
+
+        FilteredTupleIterator(Predicate[] batch, Conjunction residual) {
+            this.residual = residual;
+            sel = usedSlotBitmap();
+            for (Predicate p : batch) {
+                int v = ((IntField) p.getOperand()).getValue();
+                IntFilterKernel.select(getIntColumn(p.getField()), numSlots, p.getOp(), v, sel);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && word < sel.length) {
+                long bits = sel[word];
+                if (bits == 0) {
+                    word++;
+                    continue;
+                }
+                //取出最低位的slot，并从bitmap中清掉
+                int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+                sel[word] = bits & (bits - 1);
+                if (residual.size() == 0 || residual.filter(tuples[i]))
+                    next = tuples[i];
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext())
+                throw new NoSuchElementException("No more tuples");
+            Tuple result = next;
+            next = null;
+            return result;
+        }
+    }
+
     private class TupleInterator implements Iterator<Tuple> {
 
         /**pos表示已经循环过的已使用的tuple的数量
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog sketch (Flajolet et al., "HyperLogLog: the analysis of a
+ * near-optimal cardinality estimation algorithm") of the distinct values of
+ * a column. Each value is hashed; the first {@link #P} bits of the hash pick
+ * one of 2^P registers, which keeps the longest run of leading zeros seen in
+ * the rest of the hash. The estimate has a standard error of about
+ * {@link #relativeError}, whatever the number of values.
+ * <p>
+ * Sketches merge exactly: the merge of the sketches of two sets of values is
+ * the sketch of their union, so page ranges of a table can be sketched
+ * separately (see {@link TableStats}).
+ */
+public class HyperLogLog {
+
+    /** log2 of the number of registers */
+    static final int P = 11;
+    private static final int M = 1 << P;
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * Add a value to the sketch.
+     */
+    public void add(Field f) {
+        addHash(mix(f.hashCode()));
+    }
+
+    // murmur3的fmix64，把hashCode的各位打散到64位
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void addHash(long h) {
+        int register = (int) (h >>> (64 - P));
+        long rest = h << P;
+        int rank = rest == 0 ? 64 - P + 1 : Long.numberOfLeadingZeros(rest) + 1;
+        if (rank > registers[register])
+            registers[register] = (byte) rank;
+    }
+
+    /**
+     * @return the sketch of the values of this sketch and of other.
+     */
+    public HyperLogLog merge(HyperLogLog other) {
+        HyperLogLog result = new HyperLogLog();
+        for (int i = 0; i < M; i++)
+            result.registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        return result;
+    }
+
+    /**
+     * @return the estimated number of distinct values added.
+     */
+    public double estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / M);
+        double e = alpha * M * M / sum;
+        //值少的时候很多寄存器是空的，用linear counting更准
+        if (e <= 2.5 * M && zeros > 0)
+            return M * Math.log((double) M / zeros);
+        return e;
+    }
+
+    /**
+     * @return the standard error of {@link #estimate}, relative to the
+     *         number of distinct values.
+     */
+    public static double relativeError() {
+        return 1.04 / Math.sqrt(M);
+    }
+
+    /**
+     * Write the sketch to out, in the format read by {@link #read}.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.write(registers);
+    }
+
+    /**
+     * Read a sketch written by {@link #write}.
+     */
+    public static HyperLogLog read(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog();
+        in.readFully(h.registers);
+        return h;
+    }
+}
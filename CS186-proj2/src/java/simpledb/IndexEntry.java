@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexEntry is one entry of an {@link IndexFile}: an index key together with
+ * the RecordId of the heap tuple it points to. Entries are ordered by key,
+ * then by RecordId, so duplicate keys still give distinct entries and every
+ * entry has exactly one position in a {@link BTreeFile}.
+ * <p>
+ * An entry with a null RecordId sorts before every entry with the same key;
+ * it is used to search for the first occurrence of a key.
+ * <p>
+ * The leaf entries of a covering index also carry the values of the
+ * included columns of the tuple; they do not take part in the ordering.
+ */
+public class IndexEntry implements Comparable<IndexEntry>, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field key;
+    private final RecordId rid;
+    private final Field[] included;
+
+    public IndexEntry(Field key, RecordId rid) {
+        this(key, rid, null);
+    }
+
+    /**
+     * @param included the values of the included columns, or null
+     */
+    public IndexEntry(Field key, RecordId rid, Field[] included) {
+        this.key = key;
+        this.rid = rid;
+        this.included = included;
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    public RecordId getRecordId() {
+        return rid;
+    }
+
+    /** @return the values of the included columns, or null if there are none. */
+    public Field[] getIncluded() {
+        return included;
+    }
+
+    /**
+     * @return a negative, zero or positive number as key a is less than,
+     *         equal to or greater than key b. Both must be of the same type.
+     */
+    public static int compareKeys(Field a, Field b) {
+        if (a instanceof IntField)
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        if (a instanceof StringField)
+            return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    public int compareTo(IndexEntry o) {
+        int c = compareKeys(key, o.key);
+        if (c != 0)
+            return c;
+        if (rid == null || o.rid == null)
+            return rid == o.rid ? 0 : (rid == null ? -1 : 1);
+        c = Integer.compare(rid.getPageId().pageNumber(), o.rid.getPageId().pageNumber());
+        if (c != 0)
+            return c;
+        return Integer.compare(rid.tupleno(), o.rid.tupleno());
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof IndexEntry && compareTo((IndexEntry) o) == 0;
+    }
+
+    public int hashCode() {
+        return key.hashCode() * 31 + (rid == null ? 0 : rid.hashCode());
+    }
+
+    public String toString() {
+        return key + " -> " + rid;
+    }
+}
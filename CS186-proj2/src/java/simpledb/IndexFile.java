@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * IndexFile is a secondary index over one column of a HeapFile, mapping each
+ * key to the RecordIds of the heap tuples holding it. Its pages are accessed
+ * through the BufferPool like those of any other DbFile, so an index must be
+ * registered with {@link Catalog#addIndex}; the BufferPool then keeps it up
+ * to date when tuples are inserted into or deleted from the table.
+ * <p>
+ * The tuples returned by the iterators of an index are the heap tuples its
+ * entries point to, and {@link #getTupleDesc} is the schema of the table.
+ */
+public interface IndexFile extends DbFile {
+
+    /**
+     * @return the table this index is built on.
+     */
+    public HeapFile getTable();
+
+    /**
+     * @return the field of the table this index is built on.
+     */
+    public int getKeyField();
+
+    public Type getKeyType();
+
+    /**
+     * @return true if searching with an IndexPredicate using op reads only
+     *         the part of the index holding matching keys.
+     */
+    public boolean canSearch(Predicate.Op op);
+
+    /**
+     * @return the number of index pages a search with an operator accepted by
+     *         {@link #canSearch} reads before reaching the first matching
+     *         entry; used by the optimizer to cost index accesses.
+     */
+    public double lookupPages();
+
+    /**
+     * Add an entry for t, a tuple that has just been stored in the indexed
+     * table.
+     *
+     * @return the pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Remove the entry for t, a tuple about to be deleted from the indexed
+     * table (so its RecordId is still set).
+     *
+     * @return the page the entry was removed from
+     * @throws DbException if the index has no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException;
+
+    /**
+     * @return an iterator over the tuples of the indexed table whose key
+     *         satisfies ipred; null returns every tuple.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins its outer child to a table with a
+ * {@link IndexFile} on the join field of the inner side: for each
+ * outer tuple, the index is probed with the join predicate instantiated with
+ * the outer tuple's value, so only the matching inner tuples are read and the
+ * inner table is never scanned.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private DbIterator outer;
+    private IndexScan inner;
+    private final Predicate.Op probeOp;
+    private TupleDesc td;
+    //当前外层的tuple，inner已经用它的值probe过了
+    private Tuple current;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The join predicate; field2 must be the key field of the
+     *            index inner searches
+     * @param outer
+     *            Iterator for the outer relation
+     * @param inner
+     *            A scan of the inner table through an index on field2 of p.
+     *            Its index predicate is replaced for every outer tuple; its
+     *            other predicates are applied to the tuples it reads.
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator outer, IndexScan inner) {
+        this.p = p;
+        this.outer = outer;
+        this.inner = inner;
+        this.probeOp = reverse(p.getOperator());
+        this.td = TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+
+    /**
+     * @return true if a join with operator op can be answered by probing an
+     *         index on the inner join field.
+     */
+    public static boolean canProbe(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    // outer op inner  <=>  inner reverse(op) outer
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public IndexScan getInner() {
+        return inner;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer.open();
+        current = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        inner.close();
+        outer.close();
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        inner.close();
+        current = null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current == null) {
+                if (!outer.hasNext())
+                    return null;
+                current = outer.next();
+                inner.setIndexPredicate(new IndexPredicate(probeOp, current.getField(p.getField1())));
+                inner.open();
+            }
+            if (inner.hasNext())
+                return new CompositeTuple(td, current, inner.next());
+            inner.close();
+            current = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { outer, inner };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        outer = children[0];
+        if (children[1] instanceof IndexScan)
+            inner = (IndexScan) children[1];
+        td = TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an access method that answers a query from a covering
+ * {@link BTreeFile} alone: the tuples it returns are built from the leaf
+ * entries, so no heap page is read. It only returns the fields the index
+ * stores, the key followed by the included fields, and can only be used
+ * when those are all the query needs from the table.
+ */
+public class IndexOnlyScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final BTreeFile index;
+    private final String tableAlias;
+    private final IndexPredicate ipred;
+    private final Predicate[] predicates;
+    private final TupleDesc td;
+
+    private DbFileIterator tupleIterator;
+    // predicates with field indices in the index's tuples
+    private Predicate[] mapped;
+    private Conjunction residual;
+    private Tuple next = null;
+
+    /**
+     * Creates an index-only scan over the table indexed by index.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the covering index to read; must be registered in the
+     *                   Catalog.
+     * @param tableAlias the alias of the table, used to prefix field names as
+     *                   in {@link SeqScan#getTupleDesc}.
+     * @param ipred      the predicate on the key; null reads every entry.
+     * @param predicates further predicates every returned tuple must satisfy,
+     *                   with field indices referring to the table (not to the
+     *                   narrower schema of this operator); may be null.
+     * @throws IllegalArgumentException if a predicate is on a field the index
+     *                   does not store
+     */
+    public IndexOnlyScan(TransactionId tid, BTreeFile index, String tableAlias,
+            IndexPredicate ipred, Predicate[] predicates) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+        this.predicates = predicates;
+        this.tupleIterator = index.coveringIterator(tid, ipred);
+
+        TupleDesc desc = index.getCoveredTupleDesc();
+        Type[] types = new Type[desc.numFields()];
+        String[] names = new String[desc.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = desc.getFieldType(i);
+            String fieldName = desc.getFieldName(i);
+            names[i] = tableAlias + "." + (fieldName == null ? "null" : fieldName);
+        }
+        this.td = new TupleDesc(types, names);
+
+        //谓词中的field是表中的位置，要换成在index的tuple中的位置
+        if (predicates != null) {
+            int[] covered = index.getCoveredFields();
+            mapped = new Predicate[predicates.length];
+            for (int i = 0; i < predicates.length; i++) {
+                int pos = -1;
+                for (int j = 0; j < covered.length && pos < 0; j++) {
+                    if (covered[j] == predicates[i].getField())
+                        pos = j;
+                }
+                if (pos < 0)
+                    throw new IllegalArgumentException("field " + predicates[i].getField()
+                            + " is not stored in the index");
+                mapped[i] = new Predicate(pos, predicates[i].getOp(), predicates[i].getOperand());
+            }
+        }
+        this.residual = new Conjunction(mapped, td);
+    }
+
+    public IndexOnlyScan(TransactionId tid, BTreeFile index, String tableAlias,
+            IndexPredicate ipred) {
+        this(tid, index, tableAlias, ipred, null);
+    }
+
+    /**
+     * @return the name of the table this operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTable().getId());
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public BTreeFile getIndex() {
+        return index;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * @return the predicates applied on top of the index predicate, with
+     *         field indices referring to the table, or null.
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        //predicates的operand可能被重新绑定过
+        if (mapped != null)
+            for (int i = 0; i < mapped.length; i++)
+                mapped[i].setOperand(predicates[i].getOperand());
+        tupleIterator.open();
+        next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (next == null && tupleIterator.hasNext()) {
+            Tuple t = tupleIterator.next();
+            if (residual.size() == 0 || residual.filter(t))
+                next = t;
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException("no tuple remained");
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        tupleIterator.rewind();
+        next = null;
+    }
+
+    public void close() {
+        tupleIterator.close();
+        next = null;
+    }
+}
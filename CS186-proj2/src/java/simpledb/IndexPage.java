@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * IndexPage is the base class of the pages of the {@link IndexFile}s. Every
+ * page starts with a one byte page type, which the index file uses to decide
+ * which page class reads the rest of the page.
+ * <p>
+ * Entries are stored as the key (in the fixed width format of its Type)
+ * followed by the page number and slot of the heap tuple it points to.
+ */
+public abstract class IndexPage implements Page {
+
+    protected final PageId pid;
+    protected final Type keyType;
+    //index中记录的RecordId都指向这个heap table
+    protected final int heapTableId;
+
+    private TransactionId dirtier;
+    private byte[] oldData;
+
+    protected IndexPage(PageId pid, Type keyType, int heapTableId) {
+        this.pid = pid;
+        this.keyType = keyType;
+        this.heapTableId = heapTableId;
+    }
+
+    /**
+     * @return the bytes of an empty page of the given type, all of whose
+     *         counts and page pointers are 0.
+     */
+    public static byte[] createEmptyPageData(byte type) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        data[0] = type;
+        return data;
+    }
+
+    /** @return the page type byte written at the start of the page. */
+    protected abstract byte pageType();
+
+    /** Read the page contents following the page type byte. */
+    protected abstract void read(DataInputStream dis) throws IOException;
+
+    /** Write the page contents following the page type byte. */
+    protected abstract void write(DataOutputStream dos) throws IOException;
+
+    /** @return a page with the same id parsed from data; used for the before image. */
+    protected abstract IndexPage reread(byte[] data) throws IOException;
+
+    protected IndexEntry readEntry(DataInputStream dis) throws IOException {
+        Field key;
+        try {
+            key = keyType.parse(dis);
+        } catch (java.text.ParseException e) {
+            throw new IOException("couldn't parse key on " + pid);
+        }
+        int pgNo = dis.readInt();
+        int slot = dis.readInt();
+        return new IndexEntry(key, new RecordId(new HeapPageId(heapTableId, pgNo), slot));
+    }
+
+    protected static void writeEntry(DataOutputStream dos, IndexEntry e) throws IOException {
+        e.getKey().serialize(dos);
+        dos.writeInt(e.getRecordId().getPageId().pageNumber());
+        dos.writeInt(e.getRecordId().tupleno());
+    }
+
+    /** Read an entry followed by the values of its included columns. */
+    protected IndexEntry readEntry(DataInputStream dis, Type[] includedTypes) throws IOException {
+        IndexEntry e = readEntry(dis);
+        if (includedTypes.length == 0)
+            return e;
+        Field[] included = new Field[includedTypes.length];
+        try {
+            for (int i = 0; i < included.length; i++)
+                included[i] = includedTypes[i].parse(dis);
+        } catch (java.text.ParseException ex) {
+            throw new IOException("couldn't parse included column on " + pid);
+        }
+        return new IndexEntry(e.getKey(), e.getRecordId(), included);
+    }
+
+    /** Write an entry followed by the values of its included columns. */
+    protected static void writeEntry(DataOutputStream dos, IndexEntry e, Type[] includedTypes)
+            throws IOException {
+        writeEntry(dos, e);
+        for (int i = 0; i < includedTypes.length; i++)
+            e.getIncluded()[i].serialize(dos);
+    }
+
+    /** @return the number of bytes an entry takes on a page. */
+    protected static int entrySize(Type keyType) {
+        return keyType.getLen() + 8;
+    }
+
+    /** @return the number of bytes an entry with included columns takes on a page. */
+    protected static int entrySize(Type keyType, Type[] includedTypes) {
+        int size = entrySize(keyType);
+        for (Type t : includedTypes)
+            size += t.getLen();
+        return size;
+    }
+
+    public PageId getId() {
+        return pid;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(pageType());
+            write(dos);
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array never fails
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    public IndexPage getBeforeImage() {
+        try {
+            return reread(oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key of an index to a constant. It is the
+ * predicate an index is searched with, see {@link IndexFile#indexIterator}.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+    // 不为null时，key比较的是它当前的operand
+    private final Predicate source;
+
+    /**
+     * Constructor.
+     *
+     * @param op
+     *            the operation to apply to the key, as in
+     *            <tt>key op fvalue</tt>
+     * @param fvalue
+     *            the constant to compare the key to
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+        this.source = null;
+    }
+
+    /**
+     * Constructor of the index predicate of a predicate on the key: it
+     * compares the key to the predicate's operand at the time it is used,
+     * so that rebinding the operand with {@link Predicate#setOperand}
+     * rebinds this predicate too.
+     *
+     * @param source
+     *            the predicate on the indexed field
+     */
+    public IndexPredicate(Predicate source) {
+        this.op = source.getOp();
+        this.fieldvalue = null;
+        this.source = source;
+    }
+
+    public Field getField() {
+        return source == null ? fieldvalue : source.getOperand();
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return true if key satisfies this predicate.
+     */
+    public boolean matches(Field key) {
+        return key.compare(op, getField());
+    }
+
+    /** Return true if the fieldvalue in the supplied predicate
+        is satisfied by this predicate's fieldvalue and
+        operator.
+        @param ipd The field to compare against.
+    */
+    public boolean equals(IndexPredicate ipd) {
+        if (ipd == null)
+            return false;
+        return op.equals(ipd.op) && getField().equals(ipd.getField());
+    }
+
+    public String toString() {
+        return "key " + op + " " + getField();
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that uses an {@link IndexFile} to read only
+ * the tuples of a table whose indexed field satisfies an IndexPredicate,
+ * in the order the index returns them (key order for a {@link BTreeFile}). Other predicates on the table can be applied to the tuples
+ * read, as in a {@link SeqScan} with pushed-down predicates.
+ */
+public class IndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final String tableAlias;
+    private IndexPredicate ipred;
+    private final Predicate[] predicates;
+    private final TupleDesc td;
+
+    private DbFileIterator tupleIterator;
+    private Conjunction residual;
+    private Tuple next = null;
+
+    /**
+     * Creates an index scan over the table indexed by index.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param index      the index to search; must be registered in the Catalog.
+     * @param tableAlias the alias of the table, used to prefix field names as
+     *                   in {@link SeqScan#getTupleDesc}.
+     * @param ipred      the predicate on the indexed field.
+     * @param predicates further predicates every returned tuple must satisfy,
+     *                   with field indices referring to the table; may be null.
+     */
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias,
+            IndexPredicate ipred, Predicate[] predicates) {
+        this.tid = tid;
+        this.index = index;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+        this.predicates = predicates;
+        this.tupleIterator = index.indexIterator(tid, ipred);
+
+        TupleDesc desc = index.getTupleDesc();
+        Type[] types = new Type[desc.numFields()];
+        String[] names = new String[desc.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = desc.getFieldType(i);
+            String fieldName = desc.getFieldName(i);
+            names[i] = tableAlias + "." + (fieldName == null ? "null" : fieldName);
+        }
+        this.td = new TupleDesc(types, names);
+        this.residual = new Conjunction(predicates, td);
+    }
+
+    public IndexScan(TransactionId tid, IndexFile index, String tableAlias,
+            IndexPredicate ipred) {
+        this(tid, index, tableAlias, ipred, null);
+    }
+
+    /**
+     * @return the name of the table this operator scans.
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTable().getId());
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * Search the index with a different predicate. The scan must be opened
+     * again before reading from it; used to probe the index repeatedly, as
+     * in {@link IndexNestedLoopJoin}.
+     */
+    public void setIndexPredicate(IndexPredicate ipred) {
+        tupleIterator.close();
+        this.ipred = ipred;
+        this.tupleIterator = index.indexIterator(tid, ipred);
+        next = null;
+    }
+
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the predicates applied on top of the index predicate, or null.
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        tupleIterator.open();
+        next = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (next == null && tupleIterator.hasNext()) {
+            Tuple t = tupleIterator.next();
+            if (residual.size() == 0 || residual.filter(t))
+                next = t;
+        }
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException("no tuple remained");
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        tupleIterator.rewind();
+        next = null;
+    }
+
+    public void close() {
+        tupleIterator.close();
+        next = null;
+    }
+}
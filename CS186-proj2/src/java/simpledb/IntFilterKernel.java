@@ -0,0 +1,110 @@
+package simpledb;
+
+/**
+ * IntFilterKernel evaluates comparisons of an int column against a constant
+ * in batch, producing a selection bitmap with one bit per row (bit i of
+ * word i / 64 is set if row i qualifies).
+ * <p>
+ * Each kernel is a single branch-free loop over a plain int array: the
+ * comparison result is computed with sign-bit arithmetic on longs (so it
+ * cannot overflow) and shifted into the selection word, which keeps the
+ * loop free of data dependent branches and lets the JIT unroll and
+ * vectorize it. Conjunctions are evaluated by ANDing several kernels into
+ * the same bitmap.
+ */
+public class IntFilterKernel {
+
+    private IntFilterKernel() {
+    }
+
+    /**
+     * @return the number of 64 bit words needed for a bitmap over n rows.
+     */
+    public static int words(int n) {
+        return (n + 63) >>> 6;
+    }
+
+    /**
+     * AND the rows of col[0..n) satisfying <tt>col[i] op v</tt> into sel.
+     *
+     * @param col
+     *            the column values
+     * @param n
+     *            the number of rows to evaluate
+     * @param op
+     *            the comparison; LIKE on ints is treated as EQUALS
+     * @param v
+     *            the constant to compare against
+     * @param sel
+     *            the selection bitmap, at least {@link #words}(n) long
+     */
+    public static void select(int[] col, int n, Predicate.Op op, int v, long[] sel) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            selectEquals(col, n, v, false, sel);
+            break;
+        case NOT_EQUALS:
+            selectEquals(col, n, v, true, sel);
+            break;
+        case LESS_THAN:
+            selectLess(col, n, v, false, sel);
+            break;
+        case GREATER_THAN_OR_EQ:
+            selectLess(col, n, v, true, sel);
+            break;
+        case GREATER_THAN:
+            selectGreater(col, n, v, false, sel);
+            break;
+        case LESS_THAN_OR_EQ:
+            selectGreater(col, n, v, true, sel);
+            break;
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    // col[i] == v, or col[i] != v if negate
+    private static void selectEquals(int[] col, int n, int v, boolean negate, long[] sel) {
+        long flip = negate ? 0L : 1L;
+        for (int w = 0, base = 0; base < n; w++, base += 64) {
+            int end = Math.min(64, n - base);
+            long bits = 0;
+            for (int j = 0; j < end; j++) {
+                int x = col[base + j] ^ v;
+                // (x | -x) has its sign bit set iff x != 0
+                long ne = (x | -x) >>> 31;
+                bits |= (ne ^ flip) << j;
+            }
+            sel[w] &= bits;
+        }
+    }
+
+    // col[i] < v, or col[i] >= v if negate
+    private static void selectLess(int[] col, int n, int v, boolean negate, long[] sel) {
+        long flip = negate ? 1L : 0L;
+        for (int w = 0, base = 0; base < n; w++, base += 64) {
+            int end = Math.min(64, n - base);
+            long bits = 0;
+            for (int j = 0; j < end; j++) {
+                long lt = ((long) col[base + j] - v) >>> 63;
+                bits |= (lt ^ flip) << j;
+            }
+            sel[w] &= bits;
+        }
+    }
+
+    // col[i] > v, or col[i] <= v if negate
+    private static void selectGreater(int[] col, int n, int v, boolean negate, long[] sel) {
+        long flip = negate ? 1L : 0L;
+        for (int w = 0, base = 0; base < n; w++, base += 64) {
+            int end = Math.min(64, n - base);
+            long bits = 0;
+            for (int j = 0; j < end; j++) {
+                long gt = ((long) v - col[base + j]) >>> 63;
+                bits |= (gt ^ flip) << j;
+            }
+            sel[w] &= bits;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A class to represent a fixed-width histogram over a single integer-based
+ * field: the range [min, max] is cut into equal buckets, each counting the
+ * values that fall in it, and values are assumed uniformly spread within a
+ * bucket.
+ * <p>
+ * Histograms are mergeable: {@link #merge} combines histograms built over
+ * different parts of a table, possibly with different ranges, so that each
+ * part can be summarized separately (see {@link TableStats}).
+ */
+public class IntHistogram {
+
+    private final int min;
+    private final int max;
+    private final double width;
+    private final double[] counts;
+    private long total = 0;
+
+    /**
+     * Create a new IntHistogram.
+     *
+     * This IntHistogram should maintain a histogram of integer values that it
+     * receives. It should split the histogram into "buckets" buckets.
+     *
+     * The values that are being histogrammed will be provided one-at-a-time
+     * through the "addValue()" function.
+     *
+     * @param buckets
+     *            The number of buckets to split the input value into; fewer
+     *            are used if the range holds fewer values.
+     * @param min
+     *            The minimum integer value that will ever be passed to this
+     *            class for histogramming
+     * @param max
+     *            The maximum integer value that will ever be passed to this
+     *            class for histogramming
+     */
+    public IntHistogram(int buckets, int min, int max) {
+        if (buckets < 1 || max < min)
+            throw new IllegalArgumentException("need at least one bucket and min <= max");
+        this.min = min;
+        this.max = max;
+        double range = (double) max - min + 1;
+        int n = (int) Math.min(buckets, range);
+        this.width = range / n;
+        this.counts = new double[n];
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of values added, directly or by merging.
+     */
+    public long numValues() {
+        return total;
+    }
+
+    private int bucket(int v) {
+        return (int) Math.min(counts.length - 1, ((double) v - min) / width);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     *
+     * @param v
+     *            Value to add to the histogram; must lie in [min, max]
+     */
+    public void addValue(int v) {
+        if (v < min || v > max)
+            throw new IllegalArgumentException(v + " is outside [" + min + ", " + max + "]");
+        counts[bucket(v)]++;
+        total++;
+    }
+
+    /**
+     * Remove a value added before; values outside [min, max] are ignored.
+     */
+    public void removeValue(int v) {
+        if (v < min || v > max || total == 0)
+            return;
+        int b = bucket(v);
+        counts[b] = Math.max(0, counts[b] - 1);
+        total--;
+    }
+
+    /**
+     * Multiply the counts of all buckets by r, so that a histogram of a
+     * sample counts the values of the whole table.
+     */
+    public void scale(double r) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] *= r;
+        total = Math.round(total * r);
+    }
+
+    /**
+     * @return a histogram with as many buckets as this one, over the union of
+     *         the ranges of this histogram and other, counting the values of
+     *         both. A bucket of either whose range does not coincide with one
+     *         of the result is split among those it overlaps in proportion to
+     *         the overlap; two histograms over the same range merge exactly.
+     */
+    public IntHistogram merge(IntHistogram other) {
+        IntHistogram result = new IntHistogram(counts.length, Math.min(min, other.min),
+                Math.max(max, other.max));
+        result.add(this);
+        result.add(other);
+        return result;
+    }
+
+    private void add(IntHistogram h) {
+        total += h.total;
+        if (h.min == min && h.max == max && h.counts.length == counts.length) {
+            for (int i = 0; i < counts.length; i++)
+                counts[i] += h.counts[i];
+            return;
+        }
+        for (int i = 0; i < h.counts.length; i++) {
+            if (h.counts[i] == 0)
+                continue;
+            //把这个桶按重叠的长度分到新的桶里
+            double lo = h.min + i * h.width, hi = lo + h.width;
+            for (int b = bucket((int) Math.floor(lo)); b < counts.length; b++) {
+                double blo = min + b * width, bhi = blo + width;
+                if (blo >= hi)
+                    break;
+                double overlap = Math.min(hi, bhi) - Math.max(lo, blo);
+                if (overlap > 0)
+                    counts[b] += h.counts[i] * overlap / h.width;
+            }
+        }
+    }
+
+    /**
+     * Write the histogram to out, in the format read by {@link #read}.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(min);
+        out.writeInt(max);
+        out.writeInt(counts.length);
+        out.writeLong(total);
+        for (double c : counts)
+            out.writeDouble(c);
+    }
+
+    /**
+     * Read a histogram written by {@link #write}.
+     */
+    public static IntHistogram read(DataInputStream in) throws IOException {
+        int min = in.readInt();
+        int max = in.readInt();
+        int buckets = in.readInt();
+        if (buckets < 1 || max < min || buckets > (double) max - min + 1)
+            throw new IOException("corrupt histogram");
+        IntHistogram h = new IntHistogram(buckets, min, max);
+        h.total = in.readLong();
+        for (int i = 0; i < buckets; i++)
+            h.counts[i] = in.readDouble();
+        return h;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5, return your
+     * estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op
+     *            Operator
+     * @param v
+     *            Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        if (total == 0)
+            return 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(v);
+        case NOT_EQUALS:
+            return 1 - equal(v);
+        case LESS_THAN:
+            return below(v);
+        case LESS_THAN_OR_EQ:
+            return below(v) + equal(v);
+        case GREATER_THAN:
+            return 1 - below(v) - equal(v);
+        default:
+            return 1 - below(v);
+        }
+    }
+
+    // the fraction of values equal to v
+    private double equal(int v) {
+        if (v < min || v > max)
+            return 0;
+        return counts[bucket(v)] / Math.max(1, width) / total;
+    }
+
+    // the fraction of values less than v
+    private double below(int v) {
+        if (v <= min)
+            return 0;
+        if (v > max)
+            return 1;
+        int b = bucket(v);
+        double sum = 0;
+        for (int i = 0; i < b; i++)
+            sum += counts[i];
+        //桶内按均匀分布算
+        double blo = min + b * width;
+        sum += counts[b] * Math.min(1, (v - blo) / width);
+        return Math.min(1, sum / total);
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate with a value
+     *         drawn from the values in this histogram: the sum over buckets
+     *         of (fraction of values in the bucket)^2 / bucket width.
+     */
+    public double avgSelectivity() {
+        if (total == 0)
+            return 0;
+        double sum = 0;
+        for (double c : counts)
+            sum += (c / total) * (c / total) / Math.max(1, width);
+        return sum;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ", " + max + "]:");
+        for (double c : counts)
+            sb.append(' ').append(Math.round(c));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * JoinFilter is an operator that returns the tuples of its child, the result
+ * of a join, that also satisfy other join predicates comparing two of their
+ * fields. It applies the joins that close a cycle in the join graph, whose
+ * tables are already joined by the time they are evaluated.
+ */
+public class JoinFilter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate[] preds;
+    private DbIterator child;
+
+    /**
+     * Constructor.
+     *
+     * @param preds
+     *            The predicates every returned tuple must satisfy; both
+     *            field indices of each refer to the child's tuples
+     * @param child
+     *            The child operator
+     */
+    public JoinFilter(JoinPredicate[] preds, DbIterator child) {
+        this.preds = preds;
+        this.child = child;
+    }
+
+    public JoinPredicate[] getPredicates() {
+        return preds;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            boolean pass = true;
+            for (int i = 0; i < preds.length && pass; i++)
+                pass = preds[i].filter(t, t);
+            if (pass)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+}
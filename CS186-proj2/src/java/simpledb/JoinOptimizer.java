@@ -27,6 +27,76 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /** A join result already computed, ordered as a single relation. */
+    private static class Materialized {
+        final JoinTree leaf;
+        // the aliases of the tables joined, and the joins between them
+        final HashSet<String> members = new HashSet<String>();
+        final Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        int width = 0;
+
+        Materialized(JoinTree leaf) {
+            this.leaf = leaf;
+        }
+    }
+
+    // the materialized results by the alias standing for them, and the alias
+    // standing for each table in one
+    private final HashMap<String, Materialized> materialized = new HashMap<String, Materialized>();
+    private final HashMap<String, String> standIn = new HashMap<String, String>();
+
+    /**
+     * @return an optimizer for joins, the joins of p left to compute once
+     *         the results the leaves of tree stand for are computed (see
+     *         {@link JoinTree#getMaterialized}). They are ordered as base
+     *         relations, named by the alias of the leaf, that cost nothing
+     *         to read.
+     */
+    static JoinOptimizer remainder(LogicalPlan p, Vector<LogicalJoinNode> joins, JoinTree tree) {
+        JoinOptimizer jo = new JoinOptimizer(p, joins);
+        jo.addMaterialized(tree);
+        return jo;
+    }
+
+    private void addMaterialized(JoinTree tree) {
+        if (!tree.isLeaf()) {
+            addMaterialized(tree.getLeft());
+            if (tree.getRight() != null)
+                addMaterialized(tree.getRight());
+            return;
+        }
+        if (tree.getMaterialized() == null)
+            return;
+        Materialized m = new Materialized(tree);
+        addMembers(tree.getMaterialized(), m);
+        for (String member : m.members) {
+            standIn.put(member, tree.getAlias());
+            m.width += Database.getCatalog().getTupleDesc(p.getTableId(member)).getSize();
+        }
+        materialized.put(tree.getAlias(), m);
+    }
+
+    private static void addMembers(JoinTree tree, Materialized m) {
+        if (tree.isLeaf()) {
+            if (tree.getMaterialized() != null)
+                addMembers(tree.getMaterialized(), m);
+            else
+                m.members.add(tree.getAlias());
+            return;
+        }
+        addMembers(tree.getLeft(), m);
+        if (tree.getRight() != null)
+            addMembers(tree.getRight(), m);
+        m.joins.add(tree.getJoin());
+        m.joins.addAll(tree.getResidualJoins());
+    }
+
+    // the relation the table with the given alias is part of
+    private String relationOf(String alias) {
+        String s = standIn.get(alias);
+        return s == null ? alias : s;
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -68,12 +138,104 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        IndexScan probe = probeScan(lj, plan2, t2id);
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        if (algorithm == null)
+            algorithm = probe != null ? LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP
+                    : LogicalJoinNode.Algorithm.NESTED_LOOP;
+        switch (algorithm) {
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(p, plan1, plan2, Math.max(1, joinMemoryPages
+                    * BufferPool.PAGE_SIZE / plan1.getTupleDesc().getSize()));
+            break;
+        case INDEX_NESTED_LOOP:
+            j = probe != null ? new IndexNestedLoopJoin(p, plan1, probe) : new Join(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2, lj.f1QuantifiedName.equals(sortedOn(plan1)),
+                    !(lj instanceof LogicalSubplanJoinNode)
+                            && lj.f2QuantifiedName.equals(sortedOn(plan2)));
+            break;
+        case HASH:
+            j = new HashJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p,plan1,plan2);
+            break;
+        }
 
         return j;
 
     }
 
+    /**
+     * @return the quantified name of the field plan returns its tuples in
+     *         ascending order of, or null if it is not known to return them
+     *         in any order: scans through a {@link BTreeFile} are in key
+     *         order, sort-merge joins in order of their join field, and
+     *         joins that read their outer input once in its order.
+     */
+    static String sortedOn(DbIterator plan) {
+        if (plan instanceof IndexScan) {
+            IndexScan is = (IndexScan) plan;
+            if (!(is.getIndex() instanceof BTreeFile))
+                return null;
+            return is.getTupleDesc().getFieldName(is.getIndex().getKeyField());
+        }
+        if (plan instanceof IndexOnlyScan)
+            return plan.getTupleDesc().getFieldName(0);
+        if (plan instanceof SortMergeJoin)
+            return ((SortMergeJoin) plan).getJoinField1Name();
+        if (plan instanceof Join || plan instanceof IndexNestedLoopJoin || plan instanceof HashJoin
+                || plan instanceof JoinFilter || plan instanceof Filter
+                || plan instanceof CardinalityMonitor)
+            return sortedOn(((Operator) plan).getChildren()[0]);
+        return null;
+    }
+
+    /**
+     * If the inner side of a join is a scan of a base table with an index on
+     * the join field, return an IndexScan over that index that an
+     * {@link IndexNestedLoopJoin} can probe, keeping the predicates already
+     * pushed down into the scan. Probing is never more expensive than the
+     * full rescan of the inner side a nested loops join does for every outer
+     * tuple, so it is used whenever it is possible.
+     *
+     * @return the IndexScan to probe, or null if the join can't use an index
+     */
+    private static IndexScan probeScan(LogicalJoinNode lj, DbIterator inner, int field) {
+        if (lj instanceof LogicalSubplanJoinNode || !IndexNestedLoopJoin.canProbe(lj.p))
+            return null;
+        //探查的话内表不会被读完，不用数它的tuple
+        if (inner instanceof CardinalityMonitor)
+            inner = ((CardinalityMonitor) inner).getChildren()[0];
+        if (inner instanceof SeqScan) {
+            SeqScan ss = (SeqScan) inner;
+            IndexFile index = Database.getCatalog().getIndex(ss.getTableId(), field, lj.p);
+            if (index == null)
+                return null;
+            return new IndexScan(ss.getTransactionId(), index, ss.getAlias(), null,
+                    ss.getPredicates());
+        }
+        if (inner instanceof IndexScan) {
+            //原来的index predicate变成普通的谓词
+            IndexScan is = (IndexScan) inner;
+            IndexFile index = Database.getCatalog().getIndex(is.getIndex().getTable().getId(),
+                    field, lj.p);
+            if (index == null)
+                return null;
+            ArrayList<Predicate> preds = new ArrayList<Predicate>();
+            if (is.getPredicates() != null)
+                preds.addAll(Arrays.asList(is.getPredicates()));
+            IndexPredicate ip = is.getIndexPredicate();
+            if (ip != null)
+                preds.add(new Predicate(is.getIndex().getKeyField(), ip.getOp(), ip.getField()));
+            return new IndexScan(is.getTransactionId(), index, is.getAlias(), null,
+                    preds.toArray(new Predicate[preds.size()]));
+        }
+        return null;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -82,7 +244,10 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * This is the cost of the cheapest algorithm (see
+     * {@link #chooseJoinAlgorithm}) joining the tables of j as read in full
+     * and in no particular order, the right-hand one from its base table.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -106,13 +271,168 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
         }
+        CostCard outer = costCard(cost1, card1, tupleWidth(j.t1Alias), null);
+        CostCard inner = costCard(cost2, card2, tupleWidth(j.t2Alias), null);
+        return estimateJoinCost(j, chooseJoinAlgorithm(j, outer, inner, true), outer, inner, true);
+    }
+
+    /**
+     * The memory, in pages, each join may use for its hash table, sort
+     * buffers or block of outer tuples.
+     */
+    static int joinMemoryPages = 1024;
+
+    /**
+     * Set the memory, in pages of {@link BufferPool#PAGE_SIZE} bytes, each
+     * join may hold.
+     */
+    public static void setJoinMemoryPages(int pages) {
+        joinMemoryPages = pages;
+    }
+
+    private static CostCard costCard(double cost, int card, int width, String sortedOn) {
+        CostCard cc = new CostCard();
+        cc.cost = cost;
+        cc.card = card;
+        cc.width = width;
+        cc.sortedOn = sortedOn;
+        return cc;
+    }
+
+    // the size of the tuples of the table with the given alias, 0 if unknown
+    private int tupleWidth(String alias) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        return tableId == null ? 0 : Database.getCatalog().getTupleDesc(tableId).getSize();
+    }
+
+    // the number of pages card tuples of the given width fill
+    private static double pages(CostCard cc) {
+        return Math.ceil((double) cc.card * cc.width / BufferPool.PAGE_SIZE);
+    }
+
+    // the CPU cost of sorting the input in memory
+    private static double sortCost(CostCard cc, String field) {
+        if (field.equals(cc.sortedOn) || cc.card < 2)
+            return 0;
+        return cc.card * (Math.log(cc.card) / Math.log(2));
+    }
+
+    /**
+     * Estimate the cost of computing a join with a given algorithm. Each
+     * reads its outer input once, at cost1, and applies the predicate about
+     * once per pair of tuples compared:
+     * <ul>
+     * <li>NESTED_LOOP reads the inner input once per outer tuple:
+     *     cost1 + card1 * cost2 + card1 * card2</li>
+     * <li>BLOCK_NESTED_LOOP reads it once per block of outer tuples filling
+     *     the join memory: cost1 + blocks * cost2 + card1 * card2</li>
+     * <li>INDEX_NESTED_LOOP, for a base inner table with an index on its
+     *     join field, probes it once per outer tuple, at the cost of an
+     *     index scan returning the average number of inner tuples matching
+     *     one value: cost1 + card1 * probe</li>
+     * <li>SORT_MERGE, for equality joins whose inputs fit in the join memory
+     *     together, sorts each input not already sorted on its join field
+     *     (c log c) and merges them: cost1 + cost2 + sorts + card1 + card2</li>
+     * <li>HASH, for equality joins whose inner input fits in the join
+     *     memory, hashes it and probes it once per outer tuple:
+     *     cost1 + cost2 + card1 + card2</li>
+     * </ul>
+     * Tuple counts are multiplied by the per-tuple costs of the
+     * {@link CostModel} in use: the predicate cost, or the hash cost for
+     * HASH. In the default model both are 1.
+     *
+     * @param outer
+     *            the cost, cardinality, tuple width and order of the left
+     *            (outer) input
+     * @param inner
+     *            the same for the right (inner) input
+     * @param innerIsBase
+     *            true if the right-hand side of j is a scan of its base table
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the
+     *         algorithm cannot compute j
+     */
+    public double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm algorithm,
+            CostCard outer, CostCard inner, boolean innerIsBase) {
+        double cost1 = outer.cost, cost2 = inner.cost;
+        double card1 = outer.card, card2 = inner.card;
+        CostModel model = CostModel.get();
+        double pred = model.predicateCost();
+        if (j instanceof LogicalSubplanJoinNode)
+            return algorithm == LogicalJoinNode.Algorithm.NESTED_LOOP ? card1 * pred + cost1 + cost2
+                    : Double.POSITIVE_INFINITY;
+        boolean equi = j.p == Predicate.Op.EQUALS;
+        switch (algorithm) {
+        case NESTED_LOOP:
+            return cost1 + card1 * cost2 + card1 * card2 * pred;
+        case BLOCK_NESTED_LOOP:
+            double blocks = Math.max(1, Math.ceil(pages(outer) / joinMemoryPages));
+            return cost1 + blocks * cost2 + card1 * card2 * pred;
+        case INDEX_NESTED_LOOP:
+            double probeCost = innerIsBase ? estimateProbeCost(j) : -1;
+            if (probeCost < 0)
+                return Double.POSITIVE_INFINITY;
+            return cost1 + card1 * probeCost;
+        case SORT_MERGE:
+            if (!equi || pages(outer) + pages(inner) > joinMemoryPages)
+                return Double.POSITIVE_INFINITY;
+            return cost1 + cost2 + (sortCost(outer, j.f1QuantifiedName)
+                    + sortCost(inner, j.f2QuantifiedName) + card1 + card2) * pred;
+        default:
+            if (!equi || pages(inner) > joinMemoryPages)
+                return Double.POSITIVE_INFINITY;
+            return cost1 + cost2 + (card1 + card2) * model.hashCost();
+        }
+    }
+
+    /**
+     * @return the algorithm computing j from the given inputs at the lowest
+     *         estimated cost (see {@link #estimateJoinCost(LogicalJoinNode,
+     *         LogicalJoinNode.Algorithm, CostCard, CostCard, boolean)}); of
+     *         two as cheap, the one listed first in
+     *         {@link LogicalJoinNode.Algorithm}.
+     */
+    public LogicalJoinNode.Algorithm chooseJoinAlgorithm(LogicalJoinNode j, CostCard outer,
+            CostCard inner, boolean innerIsBase) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (LogicalJoinNode.Algorithm a : LogicalJoinNode.Algorithm.values()) {
+            double cost = estimateJoinCost(j, a, outer, inner, innerIsBase);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the cost of probing an index on the right-hand table of j with
+     *         one value from the left-hand side, including reading the
+     *         matching tuples, or -1 if there is no usable index
+     */
+    private double estimateProbeCost(LogicalJoinNode j) {
+        if (!IndexNestedLoopJoin.canProbe(j.p))
+            return -1;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return -1;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+        IndexFile index = Database.getCatalog().getIndex(tableId, field, j.p);
+        if (index == null)
+            return -1;
+        TableStats s = TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return -1;
+        //每个probe读到的tuple数，再加上在这些tuple上算谓词的代价
+        double sel = s.avgSelectivity(field, j.p);
+        return s.estimateIndexScanCost(index, sel)
+                + s.estimateTableCardinality(sel) * CostModel.get().predicateCost();
     }
 
     /**
@@ -147,17 +467,75 @@ public class JoinOptimizer {
         }
     }
 
+    /** fraction of the cross product returned by a range join */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
     /**
-     * Estimate the join cardinality of two tables.
+     * @return the estimated number of distinct values of the field of the
+     *         table with the given alias, at most card, or -1 if the table
+     *         has no statistics.
+     */
+    private static double distinctValues(String alias, String fieldPureName, int card,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId.get(alias);
+        if (tableId == null)
+            return -1;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return -1;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+        //过滤之后不同值的个数不会超过剩下的tuple数
+        return Math.max(1, Math.min(card, s.estimateDistinct(field)));
+    }
+
+    /**
+     * Estimate the join cardinality of two tables. An equality join returns
+     * |R||S| / max(ndv(R.f1), ndv(S.f2)), assuming each value of the side
+     * with fewer distinct values matches a value of the other; a primary key
+     * has as many distinct values as tuples. Without statistics, the larger
+     * side is assumed to match about one tuple each. A range join returns
+     * {@link #RANGE_JOIN_SELECTIVITY} of the cross product, and NOT_EQUALS
+     * almost all of it.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
             String table1Alias, String table2Alias, String field1PureName,
             String field2PureName, int card1, int card2, boolean t1pkey,
             boolean t2pkey, Map<String, TableStats> stats,
             Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double card;
+        switch (joinOp) {
+        case EQUALS:
+        case LIKE:
+            double ndv1 = t1pkey ? card1 : distinctValues(table1Alias, field1PureName, card1,
+                    stats, tableAliasToId);
+            double ndv2 = t2pkey ? card2 : distinctValues(table2Alias, field2PureName, card2,
+                    stats, tableAliasToId);
+            if (ndv1 > 0 && ndv2 > 0)
+                card = (double) card1 * card2 / Math.max(ndv1, ndv2);
+            else if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+            break;
+        case NOT_EQUALS:
+            card = (double) card1 * card2;
+            break;
+        default:
+            card = RANGE_JOIN_SELECTIVITY * card1 * card2;
+            break;
+        }
+        //防止溢出
+        card = Math.min(card, Integer.MAX_VALUE);
+        return card < 1 ? 1 : (int) card;
     }
 
     /**
@@ -194,8 +572,9 @@ public class JoinOptimizer {
     }
 
     /**
-     * Compute a logical, reasonably efficient join on the specified tables. See
-     * PS4 for hints on how this should be implemented.
+     * Compute a logical, reasonably efficient join on the specified tables,
+     * as {@link #orderJoinTrees} does, and list its joins in the order they
+     * are computed (see {@link JoinTree#joins}).
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -207,8 +586,8 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -217,176 +596,592 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for projs 1--3
-
-        // some code goes here
-        //Replace the following
-        return joins;
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        for (JoinTree tree : orderJoinTrees(stats, filterSelectivities, explain))
+            order.addAll(tree.joins());
+        return order;
     }
 
-    // ===================== Private Methods =================================
-
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
+     * Compute a logical, reasonably efficient join on the specified tables.
+     * <p>
+     * The base tables joined by the joins are numbered, and sets of them are
+     * represented as bitmasks. Plans are built bottom up by dynamic
+     * programming (Selinger), the best plan of each set being kept in a
+     * {@link PlanCache}. Only connected sets of tables are considered, and
+     * every pair of disjoint connected sets joined by at least one join is
+     * enumerated exactly once (DPccp, Moerkotte and Neumann), so no cross
+     * product is ever priced. Both inputs of a join may be joins themselves,
+     * so the plans found may be bushy.
+     * <p>
+     * Dynamic programming takes time exponential in the number of tables in
+     * the worst case. Join graphs of more than {@link #dpRelationLimit}
+     * tables, or whose dynamic programming runs for more than
+     * {@link #planningTimeLimit} milliseconds, are ordered greedily instead
+     * (see {@link #setPlanningLimits}); explain reports which was used and
+     * how long planning took.
+     * <p>
+     * Joins with a subquery are not part of the join graph; they are put at
+     * the top of the plan of their outer table, since they never change the
+     * cardinality of their outer input.
+     *
      * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
+     *            Statistics for each table involved in the join, referenced by
+     *            base table names, not alias
      * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
+     *            Selectivities of the filter predicates on each table in the
+     *            join, referenced by table alias (if no alias, the base table
+     *            name)
+     * @param explain
+     *            Indicates whether the plan should be printed
+     * @return one JoinTree for each connected component of the join graph;
+     *         a plan joining all tables has exactly one.
      * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *             when stats or filter selectivities is missing a table in the
+     *             join, or or when another internal error occurs
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
+    public Vector<JoinTree> orderJoinTrees(
             HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
+            HashMap<String, Double> filterSelectivities, boolean explain)
+            throws ParsingException {
+        Vector<LogicalJoinNode> subplanJoins = new Vector<LogicalJoinNode>();
+        buildJoinGraph(stats, filterSelectivities, subplanJoins);
+        this.stats = stats;
+        int n = relations.size();
+
+        long start = System.nanoTime();
+        deadline = start + planningTimeLimit * 1000000L;
+        timedOut = false;
+        pairs = 0;
+        String method;
+        if (n <= dpRelationLimit) {
+            newPlanCache();
+            for (int i = n - 1; i >= 0 && !timedOut; i--) {
+                long v = 1L << i;
+                enumerateCmp(v);
+                enumerateCsgRec(v, upTo(i));
+            }
+            method = timedOut ? "greedy, dynamic programming exceeded " + planningTimeLimit + " ms"
+                    : "dynamic programming";
         } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+            method = "greedy, more than " + dpRelationLimit + " tables";
+        }
+        if (timedOut || n > dpRelationLimit) {
+            newPlanCache();
+            for (int i = 0; i < n; i++) {
+                if (!pc.contains(component(i)))
+                    orderGreedily(component(i));
             }
+        }
+        usedDp = n <= dpRelationLimit && !timedOut;
+
+        //join graph不连通时每个连通分量单独排序，之后由physicalPlan报错
+        Vector<JoinTree> trees = new Vector<JoinTree>();
+        ArrayList<Long> components = new ArrayList<Long>();
+        long done = 0;
+        for (int i = 0; i < n; i++) {
+            if ((done & (1L << i)) != 0)
+                continue;
+            long component = component(i);
+            trees.add(buildTree(component));
+            components.add(component);
+            done |= component;
+        }
+        for (LogicalJoinNode j : subplanJoins) {
+            long t1 = 1L << relationIds.get(relationOf(j.t1Alias));
+            int c = 0;
+            while ((components.get(c) & t1) == 0)
+                c++;
+            JoinTree outer = trees.get(c);
+            j.algorithm = LogicalJoinNode.Algorithm.NESTED_LOOP;
+            j.cost = estimateJoinCost(j, outer.getCard(), 0, outer.getCost(), 0);
+            trees.set(c, new JoinTree(outer, null, j, new Vector<LogicalJoinNode>(), j.cost,
+                    outer.getCard()));
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+        if (explain) {
+            System.out.println("Join plan (" + method + ", " + pc.size()
+                    + " plans considered, planned in "
+                    + (System.nanoTime() - start) / 1000000 + " ms):");
+            for (JoinTree tree : trees)
+                System.out.print(tree.explain());
+            if (!java.awt.GraphicsEnvironment.isHeadless())
+                printJoins(trees);
+        }
+        return trees;
+    }
+
+    /**
+     * Use trees, returned by an earlier call to {@link #orderJoinTrees} for a
+     * plan with the same joins, as the order of the joins, without ordering
+     * them again. The join graph is still built, so that the trees can be
+     * instantiated and their cardinalities monitored.
+     *
+     * @return trees
+     * @throws ParsingException
+     *             when stats or filter selectivities is missing a table in the
+     *             join
+     */
+    public Vector<JoinTree> reuseJoinTrees(Vector<JoinTree> trees,
+            HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities) throws ParsingException {
+        buildJoinGraph(stats, filterSelectivities, new Vector<LogicalJoinNode>());
+        this.stats = stats;
+        return trees;
+    }
+
+    /**
+     * Join graphs with more base tables than this are ordered greedily,
+     * without trying dynamic programming.
+     */
+    static int dpRelationLimit = 20;
+
+    /**
+     * Milliseconds dynamic programming may run before it is abandoned and the
+     * joins are ordered greedily instead.
+     */
+    static long planningTimeLimit = 1000;
+
+    /**
+     * Set when {@link #orderJoins} gives up on dynamic programming for a
+     * greedy order: above relations base tables, or once it has run for
+     * millis milliseconds.
+     */
+    public static void setPlanningLimits(int relations, long millis) {
+        dpRelationLimit = relations;
+        planningTimeLimit = millis;
+    }
+
+    /**
+     * @return true if the last call to {@link #orderJoins} found its order by
+     *         dynamic programming, false if it fell back to a greedy order.
+     */
+    boolean usedDynamicProgramming() {
+        return usedDp;
+    }
+
+    // ===================== Private Methods =================================
+
+    // the join graph of the joins being ordered, built by buildJoinGraph;
+    // relations are the aliases of the base tables, numbered in order of
+    // appearance, and sets of relations are bitmasks of these numbers
+    private ArrayList<String> relations;
+    private HashMap<String, Integer> relationIds;
+    // neighbors[i] is the set of relations joined with relation i
+    private long[] neighbors;
+    // the joins between base tables, the relations on their two sides, and
+    // the joins with the sides swapped
+    private ArrayList<LogicalJoinNode> edges;
+    private ArrayList<LogicalJoinNode> swappedEdges;
+    private int[] edgeLeft;
+    private int[] edgeRight;
+    private double[] scanCost;
+    private int[] scanCard;
+    // the size of the tuples of each relation, and the field its access
+    // method returns them in order of
+    private int[] width;
+    private String[] sortedOn;
+    private HashMap<String, TableStats> stats;
+    private PlanCache pc;
+    // when dynamic programming must stop, and whether it has, checked every
+    // TIME_CHECK_INTERVAL pairs priced
+    private static final int TIME_CHECK_INTERVAL = 1024;
+    private long deadline;
+    private boolean timedOut;
+    private long pairs;
+    private boolean usedDp;
+
+    // a PlanCache holding only the plans reading each base table
+    private void newPlanCache() {
+        pc = new PlanCache();
+        for (int i = 0; i < relations.size(); i++)
+            pc.addPlan(1L << i, scanCost[i], scanCard[i], 0, null, null);
+    }
+
+    /**
+     * Number the base tables joined by the joins, record which are joined
+     * with which, and estimate the cost and cardinality of reading each;
+     * joins with a subquery are added to subplanJoins instead.
+     */
+    private void buildJoinGraph(HashMap<String, TableStats> stats,
+            HashMap<String, Double> filterSelectivities,
+            Vector<LogicalJoinNode> subplanJoins) throws ParsingException {
+        relations = new ArrayList<String>();
+        relationIds = new HashMap<String, Integer>();
+        feedbackKeys = new HashMap<Long, String>();
+        edges = new ArrayList<LogicalJoinNode>();
+        swappedEdges = new ArrayList<LogicalJoinNode>();
+        ArrayList<Integer> lefts = new ArrayList<Integer>();
+        ArrayList<Integer> rights = new ArrayList<Integer>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode) {
+                relationId(j.t1Alias);
+                subplanJoins.add(j);
+                continue;
+            }
+            lefts.add(relationId(j.t1Alias));
+            rights.add(relationId(j.t2Alias));
+            edges.add(j);
+            swappedEdges.add(j.swapInnerOuter());
+        }
+        int n = relations.size();
+        if (n > 63)
+            throw new ParsingException("Cannot order joins of more than 63 tables");
+        neighbors = new long[n];
+        edgeLeft = new int[edges.size()];
+        edgeRight = new int[edges.size()];
+        for (int e = 0; e < edges.size(); e++) {
+            edgeLeft[e] = lefts.get(e);
+            edgeRight[e] = rights.get(e);
+            neighbors[edgeLeft[e]] |= 1L << edgeRight[e];
+            neighbors[edgeRight[e]] |= 1L << edgeLeft[e];
+        }
+        scanCost = new double[n];
+        scanCard = new int[n];
+        width = new int[n];
+        sortedOn = new String[n];
+        for (int i = 0; i < n; i++) {
+            String alias = relations.get(i);
+            Materialized m = materialized.get(alias);
+            if (m != null) {
+                //已经在内存里了，读一遍不要钱
+                scanCost[i] = 0;
+                scanCard[i] = m.leaf.getCard();
+                width[i] = m.width;
+                continue;
             }
+            Integer tableId = p.getTableId(alias);
+            if (tableId == null)
+                throw new ParsingException("Unknown table " + alias);
+            TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+            if (s == null)
+                throw new ParsingException("No statistics for table " + alias);
+            Double sel = filterSelectivities.get(alias);
+            scanCost[i] = s.estimateScanCost();
+            scanCard[i] = s.estimateTableCardinality(sel == null ? 1.0 : sel);
+            width[i] = Database.getCatalog().getTupleDesc(tableId).getSize();
+            sortedOn[i] = p.sortedOn(alias);
+        }
+    }
+
+    private int relationId(String alias) {
+        alias = relationOf(alias);
+        Integer id = relationIds.get(alias);
+        if (id == null) {
+            id = relations.size();
+            relations.add(alias);
+            relationIds.put(alias, id);
         }
+        return id;
+    }
+
+    // the set of relations numbered 0..i
+    private static long upTo(int i) {
+        return i >= 63 ? -1L : (1L << (i + 1)) - 1;
+    }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+    // the relations joined with a relation of s, excluding those in s or x
+    private long neighborhood(long s, long x) {
+        long result = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1)
+            result |= neighbors[Long.numberOfTrailingZeros(rest)];
+        return result & ~s & ~x;
+    }
+
+    // the connected component of the join graph holding relation i
+    private long component(int i) {
+        long c = 1L << i;
+        long grow;
+        while ((grow = neighborhood(c, 0)) != 0)
+            c |= grow;
+        return c;
+    }
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+    // the next subset of n after sub, in increasing numeric order, so that
+    // every subset of a set comes before it; 0 once all have been visited
+    private static long nextSubset(long sub, long n) {
+        return (sub - n) & n;
+    }
+
+    /**
+     * Enumerate the connected supersets of s obtained by adding relations
+     * not in x, and the pairs each of them forms with its complements
+     * (EnumerateCsgRec of DPccp).
+     */
+    private void enumerateCsgRec(long s, long x) throws ParsingException {
+        long n = neighborhood(s, x);
+        if (n == 0)
+            return;
+        for (long sub = nextSubset(0, n); sub != 0 && !timedOut; sub = nextSubset(sub, n))
+            enumerateCmp(s | sub);
+        for (long sub = nextSubset(0, n); sub != 0 && !timedOut; sub = nextSubset(sub, n))
+            enumerateCsgRec(s | sub, x | n);
+    }
+
+    /**
+     * Enumerate the connected sets joined with the connected set s1 that
+     * have no relation numbered below the lowest of s1, and price the join
+     * of each with s1 (EnumerateCmp of DPccp).
+     */
+    private void enumerateCmp(long s1) throws ParsingException {
+        long x = upTo(Long.numberOfTrailingZeros(s1)) | s1;
+        long n = neighborhood(s1, x);
+        for (int i = 63 - Long.numberOfLeadingZeros(n); i >= 0 && !timedOut; i--) {
+            if ((n & (1L << i)) == 0)
+                continue;
+            long v = 1L << i;
+            emitPair(s1, v);
+            enumerateCmpRec(s1, v, x | (upTo(i) & n));
         }
-        if (cost1 >= bestCostSoFar)
+    }
+
+    // grow s2 as in enumerateCsgRec, pricing its join with s1 at every step
+    private void enumerateCmpRec(long s1, long s2, long x) throws ParsingException {
+        long n = neighborhood(s2, x);
+        if (n == 0)
+            return;
+        for (long sub = nextSubset(0, n); sub != 0 && !timedOut; sub = nextSubset(sub, n))
+            emitPair(s1, s2 | sub);
+        for (long sub = nextSubset(0, n); sub != 0 && !timedOut; sub = nextSubset(sub, n))
+            enumerateCmpRec(s1, s2 | sub, x | n);
+    }
+
+    /**
+     * Price joining the disjoint connected sets s1 and s2 both ways round,
+     * and record the join in the PlanCache if it is the best plan found so
+     * far for their union.
+     */
+    private void emitPair(long s1, long s2) throws ParsingException {
+        if (++pairs % TIME_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+            timedOut = true;
+            return;
+        }
+        considerJoin(s1, s2);
+        considerJoin(s2, s1);
+    }
+
+    // price the join of left (outer) with right (inner)
+    private void considerJoin(long left, long right) throws ParsingException {
+        if (!pc.contains(left) || !pc.contains(right))
+            return;
+        LogicalJoinNode j = joinBetween(left, right);
+        double cost = joinCost(j, left, right);
+        long union = left | right;
+        if (pc.contains(union) && pc.getCost(union) <= cost)
+            return;
+        pc.addPlan(union, cost, joinCard(j, left, right), left, j, costedAlgorithm);
+    }
+
+    // the inputs of the join being priced, reused for every pair
+    private final CostCard outerInput = new CostCard();
+    private final CostCard innerInput = new CostCard();
+    // the algorithm of the last join priced by joinCost
+    private LogicalJoinNode.Algorithm costedAlgorithm;
+
+    // describe the best plan for s in cc
+    private void describe(long s, CostCard cc) {
+        cc.cost = pc.getCost(s);
+        cc.card = pc.getCard(s);
+        cc.width = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1)
+            cc.width += width[Long.numberOfTrailingZeros(rest)];
+        cc.sortedOn = sortedOn(s);
+    }
+
+    // the field the best plan for s returns its tuples in order of, as
+    // sortedOn(DbIterator) would find once it is built
+    private String sortedOn(long s) {
+        if (Long.bitCount(s) == 1)
+            return sortedOn[Long.numberOfTrailingZeros(s)];
+        switch (pc.getAlgorithm(s)) {
+        case SORT_MERGE:
+            return pc.getJoin(s).f1QuantifiedName;
+        case BLOCK_NESTED_LOOP:
             return null;
+        default:
+            return sortedOn(pc.getLeft(s));
+        }
+    }
 
-        CostCard cc = new CostCard();
+    // the cost of the cheapest algorithm for j joining the best plans for
+    // left and right, which is left in costedAlgorithm
+    private double joinCost(LogicalJoinNode j, long left, long right) {
+        describe(left, outerInput);
+        describe(right, innerInput);
+        boolean innerIsBase = Long.bitCount(right) == 1;
+        costedAlgorithm = chooseJoinAlgorithm(j, outerInput, innerInput, innerIsBase);
+        return estimateJoinCost(j, costedAlgorithm, outerInput, innerInput, innerIsBase);
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
-        return cc;
+    // the cardinality of j joining the best plans for left and right,
+    // corrected by what CardinalityFeedback has learned about their union
+    private int joinCard(LogicalJoinNode j, long left, long right) {
+        int card = estimateJoinCardinality(j, pc.getCard(left), pc.getCard(right),
+                isPkey(j.t1Alias, j.f1PureName), isPkey(j.t2Alias, j.f2PureName), stats);
+        if (CardinalityFeedback.isEmpty())
+            return card;
+        double corrected = card * CardinalityFeedback.correction(feedbackKey(left | right));
+        return corrected < 1 ? 1 : (int) Math.min(corrected, Integer.MAX_VALUE);
     }
 
+    // the feedback keys of the sets of relations priced so far
+    private HashMap<Long, String> feedbackKeys = new HashMap<Long, String>();
+
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * @return the {@link CardinalityFeedback} key of the join of the
+     *         relations in s: the keys of the relations (see
+     *         {@link LogicalPlan#feedbackKey}) and the joins between them.
+     */
+    private String feedbackKey(long s) {
+        String key = feedbackKeys.get(s);
+        if (key != null)
+            return key;
+        //物化的结果按它join起来的表和join算，和没物化时的key一样
+        TreeSet<String> aliases = new TreeSet<String>();
+        TreeSet<String> preds = new TreeSet<String>();
+        for (long rest = s; rest != 0; rest &= rest - 1) {
+            String alias = relations.get(Long.numberOfTrailingZeros(rest));
+            Materialized m = materialized.get(alias);
+            if (m == null) {
+                aliases.add(alias);
+                continue;
+            }
+            aliases.addAll(m.members);
+            for (LogicalJoinNode j : m.joins)
+                preds.add(joinKey(j));
+        }
+        for (int e = 0; e < edges.size(); e++) {
+            if ((s & (1L << edgeLeft[e])) != 0 && (s & (1L << edgeRight[e])) != 0)
+                preds.add(joinKey(edges.get(e)));
+        }
+        ArrayList<String> parts = new ArrayList<String>();
+        for (String alias : aliases)
+            parts.add("(" + p.feedbackKey(alias) + ")");
+        Collections.sort(parts);
+        key = parts + " ON " + preds;
+        feedbackKeys.put(s, key);
+        return key;
+    }
+
+    // the feedback key of a join, the same whichever way round it is
+    private String joinKey(LogicalJoinNode j) {
+        String a = "(" + p.feedbackKey(j.t1Alias) + ")." + j.f1PureName;
+        String b = "(" + p.feedbackKey(j.t2Alias) + ")." + j.f2PureName;
+        if (a.compareTo(b) <= 0)
+            return a + " " + j.p + " " + b;
+        return b + " " + j.swapInnerOuter().p + " " + a;
+    }
+
+    /**
+     * @return the {@link CardinalityFeedback} key of the result of tree, a
+     *         tree returned by the last call to {@link #orderJoinTrees}, or
+     *         null if it joins a subquery.
+     */
+    String feedbackKey(JoinTree tree) {
+        long s = relationSet(tree);
+        return s == 0 ? null : feedbackKey(s);
+    }
+
+    // the relations joined by tree, 0 if it joins a subquery
+    private long relationSet(JoinTree tree) {
+        if (tree.isLeaf()) {
+            if (tree.getMaterialized() != null && !materialized.containsKey(tree.getAlias()))
+                return relationSet(tree.getMaterialized());
+            Integer id = relationIds.get(tree.getAlias());
+            return id == null ? 0 : 1L << id;
+        }
+        if (tree.getRight() == null)
+            return 0;
+        long left = relationSet(tree.getLeft()), right = relationSet(tree.getRight());
+        return left == 0 || right == 0 ? 0 : left | right;
+    }
+
+    /**
+     * Order the joins of a connected set of base tables greedily, recording
+     * the plan in the PlanCache as dynamic programming would (greedy operator
+     * ordering, Fegaras). Starting from one plan per table, the two plans
+     * joined by a join whose result is the smallest are repeatedly replaced
+     * by their join, the cheaper way round, the cheapest join breaking ties.
+     * This takes time cubic in the number of tables.
      */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private void orderGreedily(long component) {
+        ArrayList<Long> plans = new ArrayList<Long>();
+        for (long rest = component; rest != 0; rest &= rest - 1)
+            plans.add(rest & -rest);
+        while (plans.size() > 1) {
+            int bestA = -1, bestB = -1, bestCard = 0;
+            double bestCost = 0;
+            LogicalJoinNode.Algorithm bestAlgorithm = null;
+            for (int a = 0; a < plans.size(); a++) {
+                long left = plans.get(a);
+                long joined = neighborhood(left, 0);
+                for (int b = 0; b < plans.size(); b++) {
+                    long right = plans.get(b);
+                    if ((joined & right) == 0)
+                        continue;
+                    LogicalJoinNode j = joinBetween(left, right);
+                    double cost = joinCost(j, left, right);
+                    int card = joinCard(j, left, right);
+                    if (bestA < 0 || card < bestCard || (card == bestCard && cost < bestCost)) {
+                        bestA = a;
+                        bestB = b;
+                        bestCard = card;
+                        bestCost = cost;
+                        bestAlgorithm = costedAlgorithm;
+                    }
+                }
+            }
+            long left = plans.get(bestA), right = plans.get(bestB);
+            pc.addPlan(left | right, bestCost, bestCard, left, joinBetween(left, right),
+                    bestAlgorithm);
+            plans.set(bestA, left | right);
+            plans.remove(bestB);
+        }
+    }
+
+    // the first join with one side in left and the other in right, with t1
+    // in left
+    private LogicalJoinNode joinBetween(long left, long right) {
+        for (int e = 0; e < edges.size(); e++) {
+            long a = 1L << edgeLeft[e], b = 1L << edgeRight[e];
+            if ((left & a) != 0 && (right & b) != 0)
+                return edges.get(e);
+            if ((left & b) != 0 && (right & a) != 0)
+                return swappedEdges.get(e);
+        }
+        throw new IllegalStateException("no join between two sets of tables");
+    }
+
+    /**
+     * @return the best plan for s in the PlanCache, as a JoinTree: the join
+     *         of the plans for its outer and inner inputs, followed by any
+     *         other join between them.
+     */
+    private JoinTree buildTree(long s) throws ParsingException {
+        if (!pc.contains(s))
+            throw new ParsingException("No plan for joining " + s);
+        if (Long.bitCount(s) == 1) {
+            String alias = relations.get(Long.numberOfTrailingZeros(s));
+            Materialized m = materialized.get(alias);
+            return m != null ? m.leaf : new JoinTree(alias, pc.getCost(s), pc.getCard(s));
+        }
+        long left = pc.getLeft(s);
+        long right = s & ~left;
+        LogicalJoinNode j = pc.getJoin(s);
+        j.algorithm = pc.getAlgorithm(s);
+        j.cost = pc.getCost(s);
+        Vector<LogicalJoinNode> residual = new Vector<LogicalJoinNode>();
+        for (int e = 0; e < edges.size(); e++) {
+            long a = 1L << edgeLeft[e], b = 1L << edgeRight[e];
+            if (edges.get(e) == j || swappedEdges.get(e) == j)
+                continue;
+            if ((left & a) != 0 && (right & b) != 0)
+                residual.add(edges.get(e));
+            else if ((left & b) != 0 && (right & a) != 0)
+                residual.add(swappedEdges.get(e));
         }
-        return false;
+        return new JoinTree(buildTree(left), buildTree(right), j, residual, pc.getCost(s),
+                pc.getCard(s));
     }
 
     /**
@@ -399,45 +1194,24 @@ public class JoinOptimizer {
      *            The pure name of the field
      */
     private boolean isPkey(String tableAlias, String field) {
+        //join过之后主键的值可能重复了
+        if (standIn.containsKey(tableAlias))
+            return false;
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
-     * the specified list of joins. See {@link #orderJoins}, which may want to
-     * call this when the analyze flag is true.
+     * the specified join plans. See {@link #orderJoinTrees}, which calls this
+     * when the explain flag is true.
      * 
-     * @param js
-     *            the join plan to visualize
-     * @param pc
-     *            the PlanCache accumulated whild building the optimal plan
-     * @param stats
-     *            table statistics for base tables
-     * @param selectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
+     * @param trees
+     *            the join plans to visualize
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> selectivities) {
+    private void printJoins(Vector<JoinTree> trees) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
@@ -449,78 +1223,11 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
-        HashMap<String, DefaultMutableTreeNode> m = new HashMap<String, DefaultMutableTreeNode>();
-
-        // int numTabs = 0;
-
-        // int k;
-        DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
-
-        System.out.println(js);
-        for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
-            }
-            m.put(j.t2Alias, root);
-
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
-            }
-
-            treetop = root;
+        DefaultMutableTreeNode treetop = trees.size() == 1 ? swingTree(trees.get(0))
+                : new DefaultMutableTreeNode("Plans");
+        if (trees.size() != 1) {
+            for (JoinTree tree : trees)
+                treetop.add(swingTree(tree));
         }
 
         JTree tree = new JTree(treetop);
@@ -543,7 +1250,7 @@ public class JoinOptimizer {
             tree.expandRow(i);
         }
 
-        if (js.size() == 0) {
+        if (trees.size() == 0) {
             f.add(new JLabel("No joins in plan."));
         }
 
@@ -551,4 +1258,16 @@ public class JoinOptimizer {
 
     }
 
+    private static DefaultMutableTreeNode swingTree(JoinTree t) {
+        String costCard = " (Cost = " + t.getCost() + ", card = " + t.getCard() + ")";
+        if (t.isLeaf())
+            return new DefaultMutableTreeNode(t.getAlias() + costCard);
+        DefaultMutableTreeNode node = new DefaultMutableTreeNode(t.getJoin().algorithm + " join "
+                + t.getJoin() + costCard);
+        node.add(swingTree(t.getLeft()));
+        node.add(t.getRight() == null ? new DefaultMutableTreeNode("Subplan")
+                : swingTree(t.getRight()));
+        return node;
+    }
+
 }
@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.util.Vector;
+
+/**
+ * A JoinTree is a plan for joining a set of base tables, as chosen by the
+ * {@link JoinOptimizer}. A leaf reads a single table, by its alias. An inner
+ * node joins the results of its two subtrees with {@link #getJoin}, whose t1
+ * is in the left (outer) input and t2 in the right (inner) one, and then
+ * applies any other joins between the two sides to the result. Either input
+ * may itself be a join, so plans need not be left-deep.
+ * <p>
+ * A join with a subquery is a node with no right subtree: its inner input is
+ * the subquery's plan.
+ * <p>
+ * A leaf may also stand for the result of a subtree already computed and
+ * kept in memory, see {@link AdaptiveJoinPlan}; it is named by the alias of
+ * the leftmost table of the subtree.
+ */
+public class JoinTree {
+
+    private final String alias;
+    private final JoinTree left;
+    private final JoinTree right;
+    private final LogicalJoinNode join;
+    private final Vector<LogicalJoinNode> residualJoins;
+    private final double cost;
+    private final int card;
+    private final JoinTree materialized;
+
+    /**
+     * A leaf, reading the table with the given alias.
+     */
+    JoinTree(String alias, double cost, int card) {
+        this.alias = alias;
+        this.left = null;
+        this.right = null;
+        this.join = null;
+        this.residualJoins = new Vector<LogicalJoinNode>();
+        this.cost = cost;
+        this.card = card;
+        this.materialized = null;
+    }
+
+    /**
+     * A leaf standing for the result of tree, computed already: card tuples
+     * that cost nothing more to read.
+     */
+    JoinTree(JoinTree tree, int card) {
+        this.alias = tree.firstAlias();
+        this.left = null;
+        this.right = null;
+        this.join = null;
+        this.residualJoins = new Vector<LogicalJoinNode>();
+        this.cost = 0;
+        this.card = card;
+        this.materialized = tree;
+    }
+
+    /**
+     * The join of left and right.
+     *
+     * @param right the inner input, or null if join is a
+     *              {@link LogicalSubplanJoinNode}
+     * @param residualJoins the other joins between the tables of the two
+     *              sides, with t1 in left
+     */
+    JoinTree(JoinTree left, JoinTree right, LogicalJoinNode join,
+            Vector<LogicalJoinNode> residualJoins, double cost, int card) {
+        this.alias = null;
+        this.left = left;
+        this.right = right;
+        this.join = join;
+        this.residualJoins = residualJoins;
+        this.cost = cost;
+        this.card = card;
+        this.materialized = null;
+    }
+
+    public boolean isLeaf() {
+        return join == null;
+    }
+
+    /**
+     * @return the alias of the table a leaf reads, or null for a join.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the tree whose result a leaf stands for, or null if the leaf
+     *         reads a table.
+     */
+    public JoinTree getMaterialized() {
+        return materialized;
+    }
+
+    public JoinTree getLeft() {
+        return left;
+    }
+
+    /**
+     * @return the inner input of a join, or null for a leaf or a join with a
+     *         subquery.
+     */
+    public JoinTree getRight() {
+        return right;
+    }
+
+    public LogicalJoinNode getJoin() {
+        return join;
+    }
+
+    /**
+     * @return the joins between the two inputs other than {@link #getJoin},
+     *         applied to its result; empty unless the join graph has cycles.
+     */
+    public Vector<LogicalJoinNode> getResidualJoins() {
+        return residualJoins;
+    }
+
+    /**
+     * @return the estimated cost of computing the result of this tree.
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the estimated number of tuples in the result of this tree.
+     */
+    public int getCard() {
+        return card;
+    }
+
+    /**
+     * @return the alias of the leftmost table of the tree.
+     */
+    public String firstAlias() {
+        return isLeaf() ? alias : left.firstAlias();
+    }
+
+    /**
+     * @return the joins of the tree in the order they are computed: those of
+     *         the left input, those of the right input, the join of the two
+     *         and then its residual joins.
+     */
+    public Vector<LogicalJoinNode> joins() {
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        addJoins(order);
+        return order;
+    }
+
+    private void addJoins(Vector<LogicalJoinNode> order) {
+        if (isLeaf())
+            return;
+        left.addJoins(order);
+        if (right != null)
+            right.addJoins(order);
+        order.add(join);
+        order.addAll(residualJoins);
+    }
+
+    /**
+     * @return the tree, one node per line with its cost and cardinality,
+     *         children indented below their parent.
+     */
+    public String explain() {
+        StringBuilder sb = new StringBuilder();
+        explain(sb, "  ");
+        return sb.toString();
+    }
+
+    private void explain(StringBuilder sb, String indent) {
+        sb.append(indent).append(isLeaf() ? (materialized == null ? alias : "materialized " + materialized)
+                : join.algorithm + " join " + join
+                + (residualJoins.isEmpty() ? "" : " and " + residualJoins));
+        sb.append(" (cost = ").append(cost).append(", card = ").append(card).append(")\n");
+        if (isLeaf())
+            return;
+        left.explain(sb, indent + "  ");
+        if (right != null)
+            right.explain(sb, indent + "  ");
+        else
+            sb.append(indent).append("  subquery\n");
+    }
+
+    @Override
+    public String toString() {
+        if (isLeaf())
+            return alias;
+        return "(" + left + " JOIN " + (right == null ? "subquery" : right.toString()) + ")";
+    }
+}
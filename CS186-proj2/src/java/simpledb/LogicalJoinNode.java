@@ -23,6 +23,28 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The physical join operators the {@link JoinOptimizer} chooses among */
+    public enum Algorithm {
+        /** {@link Join}: the inner input is read once per outer tuple */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}: the inner input is read once per block of outer tuples */
+        BLOCK_NESTED_LOOP,
+        /** {@link IndexNestedLoopJoin}: an index on the inner table is probed once per outer tuple */
+        INDEX_NESTED_LOOP,
+        /** {@link SortMergeJoin}: both inputs are sorted in memory, unless already sorted, and merged */
+        SORT_MERGE,
+        /** {@link HashJoin}: the inner input is hashed in memory */
+        HASH
+    }
+
+    /** The algorithm chosen by the JoinOptimizer to compute this join, or
+     * null if the join has not been planned */
+    public Algorithm algorithm;
+
+    /** The estimated cost of computing this join with algorithm, its inputs
+     * included */
+    public double cost;
+
     public LogicalJoinNode() {
     }
 
@@ -2,7 +2,10 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
@@ -27,6 +30,8 @@ public class LogicalPlan {
     private Vector<LogicalFilterNode> filters;
     private HashMap<String,DbIterator> subplanMap;
     private HashMap<String,Integer> tableMap;
+    // the CardinalityFeedback keys of the filters on each alias
+    private HashMap<String,ArrayList<String>> filterKeys;
 
     private Vector<LogicalSelectListNode> selectList;
     private String groupByField = null;
@@ -36,6 +41,13 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    // the join trees and statistics the last physical plan was built with
+    private Vector<JoinTree> joinTrees;
+    private HashMap<String,TableStats> planStats;
+    private long planVersion;
+    // the predicate each filter became in the last physical plan
+    private Vector<Predicate> filterPredicates;
+    private boolean feedback = true;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -45,6 +57,7 @@ public class LogicalPlan {
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String,DbIterator>();
         tableMap = new HashMap<String,Integer>();
+        filterKeys = new HashMap<String,ArrayList<String>>();
 
         selectList = new Vector<LogicalSelectListNode>();
         this.query = "";
@@ -81,6 +94,102 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /**
+     * @return the constants of the filters of this plan, in the order they
+     *         were added.
+     */
+    List<String> filterConstants() {
+        ArrayList<String> result = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters)
+            result.add(lf.c);
+        return result;
+    }
+
+    /**
+     * @return true if this plan joins the result of a subquery.
+     */
+    boolean hasSubqueries() {
+        for (LogicalJoinNode j : joins)
+            if (j instanceof LogicalSubplanJoinNode)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return a copy of this plan whose filters compare against the given
+     *         constants instead, in the order of {@link #filterConstants};
+     *         the copy shares this plan's join nodes, so that join trees
+     *         built for one can be used for the other.
+     */
+    LogicalPlan bind(List<String> constants) throws ParsingException {
+        if (constants.size() != filters.size())
+            throw new ParsingException("Expected " + filters.size() + " constants, got "
+                    + constants.size());
+        LogicalPlan lp = new LogicalPlan();
+        lp.joins = joins;
+        lp.tables = tables;
+        lp.tableMap = tableMap;
+        lp.selectList = selectList;
+        lp.groupByField = groupByField;
+        lp.hasAgg = hasAgg;
+        lp.aggOp = aggOp;
+        lp.aggField = aggField;
+        lp.oByAsc = oByAsc;
+        lp.hasOrderBy = hasOrderBy;
+        lp.oByField = oByField;
+        lp.query = query;
+        for (int i = 0; i < filters.size(); i++) {
+            LogicalFilterNode lf = filters.get(i);
+            lp.filters.add(new LogicalFilterNode(lf.tableAlias, lf.fieldPureName, lf.p,
+                    constants.get(i)));
+        }
+        return lp;
+    }
+
+    /**
+     * @return the join trees the last call to {@link #physicalPlan} built
+     *         its plan from.
+     */
+    Vector<JoinTree> getJoinTrees() {
+        return joinTrees;
+    }
+
+    /**
+     * @return the statistics of each table, by name, the last call to
+     *         {@link #physicalPlan} estimated with.
+     */
+    HashMap<String,TableStats> getPlanStats() {
+        return planStats;
+    }
+
+    /**
+     * @return the {@link QueryPlanCache#statisticsVersion} when the last call
+     *         to {@link #physicalPlan} started.
+     */
+    long getPlanVersion() {
+        return planVersion;
+    }
+
+    /**
+     * @return the predicate each filter was evaluated with in the plan the
+     *         last call to {@link #physicalPlan} built, in the order of
+     *         {@link #filterConstants}. Setting the operand of one changes
+     *         the constant of its filter in that plan.
+     */
+    List<Predicate> getFilterPredicates() {
+        return filterPredicates;
+    }
+
+    /**
+     * Set whether the physical plans built from now on report the
+     * cardinalities of their scans and joins to {@link CardinalityFeedback};
+     * they do by default. The feedback is keyed by the constants of the
+     * filters, so a plan whose constants are rebound must not report it.
+     */
+    void setFeedback(boolean feedback) {
+        this.feedback = feedback;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -271,8 +380,232 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Build the access method for one table given the predicates pushed down
+        to it.  If one of the predicates is on a field with an {@link IndexFile}
+        that can search its operator, and an index scan is estimated cheaper
+        than a sequential scan, an {@link IndexScan} for the cheapest such
+        predicate is returned, with the other predicates applied to the tuples
+        it reads.  If the predicates on fields with a {@link BitmapIndex}
+        together are even cheaper to answer, a {@link BitmapHeapScan}
+        intersecting their bitmaps is returned instead.  If a {@link BTreeFile}
+        stores every field the query needs from the table, an
+        {@link IndexOnlyScan} of it, which reads no heap page, is considered
+        too.  If no index is used and the table has cracking enabled, a range
+        predicate on an INT_TYPE field is answered by a {@link CrackerScan},
+        preferring a field whose column has already been cracked.  Otherwise
+        a {@link SeqScan} evaluating all the predicates.
+        @param needed the fields of the table the query reads, or null if it
+          needs all of them
+     */
+    private DbIterator chooseAccessMethod(TransactionId t, int tableId, String alias,
+            ArrayList<Predicate> preds, Set<Integer> needed, TableStats s, boolean explain) {
+        Predicate best = null;
+        IndexFile bestIndex = null;
+        double bestSel = 1.0;
+        double bestCost = s.estimateScanCost();
+        for (Predicate p : preds) {
+            //只考虑能按这个操作符直接查找的index，比如hash index只能查等值
+            IndexFile index = Database.getCatalog().getIndex(tableId, p.getField(), p.getOp());
+            if (index == null)
+                continue;
+            double sel = s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            double cost = s.estimateIndexScanCost(index, sel);
+            if (cost < bestCost) {
+                best = p;
+                bestIndex = index;
+                bestSel = sel;
+                bestCost = cost;
+            }
+        }
+
+        //index里存了查询要的所有列的话，只读index就够了
+        BTreeFile covering = null;
+        Predicate coveringPred = null;
+        double coveringSel = 1.0;
+        if (needed != null) {
+            for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+                if (!(index instanceof BTreeFile) || !((BTreeFile) index).covers(needed))
+                    continue;
+                BTreeFile bf = (BTreeFile) index;
+                Predicate keyPred = null;
+                double sel = 1.0;
+                for (Predicate p : preds) {
+                    if (p.getField() != bf.getKeyField() || !bf.canSearch(p.getOp()))
+                        continue;
+                    double psel = s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+                    if (keyPred == null || psel < sel) {
+                        keyPred = p;
+                        sel = psel;
+                    }
+                }
+                double cost = s.estimateIndexOnlyScanCost(bf, sel);
+                if (cost < bestCost) {
+                    covering = bf;
+                    coveringPred = keyPred;
+                    coveringSel = sel;
+                    bestCost = cost;
+                }
+            }
+        }
+
+        //所有有bitmap index的谓词一起用，bitmap求交之后再读heap
+        ArrayList<BitmapIndex> bitmaps = new ArrayList<BitmapIndex>();
+        ArrayList<IndexPredicate> bitmapPreds = new ArrayList<IndexPredicate>();
+        ArrayList<Predicate> rest = new ArrayList<Predicate>();
+        double bitmapSel = 1.0;
+        for (Predicate p : preds) {
+            BitmapIndex index = Database.getCatalog().getBitmapIndex(tableId, p.getField());
+            if (index == null) {
+                rest.add(p);
+                continue;
+            }
+            bitmaps.add(index);
+            bitmapPreds.add(new IndexPredicate(p));
+            bitmapSel *= s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+        }
+        if (!bitmaps.isEmpty() && s.estimateBitmapScanCost(bitmaps.size(), bitmapSel) < bestCost) {
+            if (explain)
+                System.out.println("Using " + bitmaps.size() + " bitmap index(es) on " + alias
+                        + " for " + bitmapPreds + " (selectivity " + bitmapSel + ")");
+            return new BitmapHeapScan(t, bitmaps.toArray(new BitmapIndex[bitmaps.size()]),
+                    bitmapPreds.toArray(new IndexPredicate[bitmapPreds.size()]), alias,
+                    rest.toArray(new Predicate[rest.size()]));
+        }
+
+        if (covering != null) {
+            rest = new ArrayList<Predicate>(preds);
+            rest.remove(coveringPred);
+            if (explain)
+                System.out.println("Using covering index on " + alias + " for "
+                        + (coveringPred == null ? "a full index scan" : coveringPred)
+                        + " (selectivity " + coveringSel + "), without reading the heap");
+            return new IndexOnlyScan(t, covering, alias,
+                    coveringPred == null ? null
+                            : new IndexPredicate(coveringPred),
+                    rest.toArray(new Predicate[rest.size()]));
+        }
+
+        if (best != null) {
+            rest = new ArrayList<Predicate>(preds);
+            rest.remove(best);
+            if (explain)
+                System.out.println("Using " + bestIndex.getClass().getSimpleName() + " on "
+                        + alias + " for " + best + " (selectivity " + bestSel + ")");
+            return new IndexScan(t, bestIndex, alias,
+                    new IndexPredicate(best),
+                    rest.toArray(new Predicate[rest.size()]));
+        }
+
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (file instanceof HeapFile && ((HeapFile) file).isCracking()) {
+            //没有index可用时，对范围谓词做cracking，已经crack过的列优先
+            HeapFile hf = (HeapFile) file;
+            Predicate crackPred = null;
+            CrackerColumn column = null;
+            for (Predicate p : preds) {
+                CrackerColumn c = hf.getCrackerColumn(p.getField());
+                if (c == null || !CrackerColumn.canCrack(p.getOp()))
+                    continue;
+                if (column == null || (c.isLoaded() && !column.isLoaded())) {
+                    crackPred = p;
+                    column = c;
+                }
+            }
+            if (column != null) {
+                rest = new ArrayList<Predicate>(preds);
+                rest.remove(crackPred);
+                if (explain)
+                    System.out.println("Cracking " + alias + " for " + crackPred + " ("
+                            + column.numPieces() + " pieces)");
+                return new CrackerScan(t, column, alias, crackPred,
+                        rest.toArray(new Predicate[rest.size()]));
+            }
+        }
+        return new SeqScan(t, file.getId(),
+                alias, preds.toArray(new Predicate[preds.size()]));
+    }
+
+    /** The fields of each base table the query reads: those in the select
+        list, the aggregate, GROUP BY and ORDER BY fields, the filters and the
+        joins, as field indices of the table, by alias.  An alias is mapped
+        to null if the query needs the whole tuple, as with SELECT *.
+     */
+    private HashMap<String,Set<Integer>> neededFields() {
+        HashMap<String,Set<Integer>> needed = new HashMap<String,Set<Integer>>();
+        for (LogicalScanNode table : tables)
+            needed.put(table.alias, new HashSet<Integer>());
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+        }
+        for (String name : names) {
+            if (name.equals("null.*")) {
+                for (String alias : tableMap.keySet())
+                    needed.put(alias, null);
+                continue;
+            }
+            String[] parts = name.split("[.]");
+            Integer tableId = parts.length == 2 ? tableMap.get(parts[0]) : null;
+            if (tableId == null || needed.get(parts[0]) == null)
+                continue;
+            try {
+                needed.get(parts[0]).add(
+                        Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(parts[1]));
+            } catch (NoSuchElementException e) {
+                //不认识的列，保守一点，当作整个tuple都要
+                needed.put(parts[0], null);
+            }
+        }
+        return needed;
+    }
+
+    /**
+     * @return the quantified name of the field the access method chosen for
+     *         the table with the given alias returns its tuples in order of,
+     *         or null if it has none yet or returns them in no particular
+     *         order (see {@link JoinOptimizer#sortedOn}).
+     */
+    String sortedOn(String alias) {
+        DbIterator plan = subplanMap.get(alias);
+        return plan == null ? null : JoinOptimizer.sortedOn(plan);
+    }
+
+    /**
+     * @return true if {@link #physicalPlan} has pushed filters into the scan
+     *         of the table with the given alias.
+     */
+    boolean isFiltered(String alias) {
+        return filterKeys.containsKey(alias);
+    }
+
+    /**
+     * @return the {@link CardinalityFeedback} key of the filtered table with
+     *         the given alias: the name of the table, or the keys of the
+     *         filters on it once {@link #physicalPlan} has seen them.
+     */
+    String feedbackKey(String alias) {
+        ArrayList<String> keys = filterKeys.get(alias);
+        if (keys != null && !keys.isEmpty())
+            return CardinalityFeedback.scanKey(keys);
+        Integer tableId = tableMap.get(alias);
+        return tableId == null ? alias : Database.getCatalog().getTableName(tableId);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
-     *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   find the optimal plan by using {@link JoinOptimizer#orderJoinTrees} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -285,10 +618,24 @@ public class LogicalPlan {
      *  @return A DbIterator representing this plan.
      */ 
     public DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        return physicalPlan(t, baseTableStats, explain, null);
+    }
+
+    /**
+     * Convert this LogicalPlan into a physical plan, as
+     * {@link #physicalPlan(TransactionId, Map, boolean)} does, joining the
+     * tables in the order of joinOrder, join trees built earlier for a plan
+     * sharing this one's join nodes, if it is not null.
+     */
+    DbIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain,
+            Vector<JoinTree> joinOrder) throws ParsingException {
+        //排序期间统计又变了的话，缓存的计划要当成旧的
+        planVersion = QueryPlanCache.statisticsVersion();
         Iterator<LogicalScanNode> tableIt = tables.iterator();
-        HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        filterKeys = new HashMap<String,ArrayList<String>>();
+        filterPredicates = new Vector<Predicate>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -306,6 +653,11 @@ public class LogicalPlan {
 
         }
 
+        // filters over a base table are pushed down into its scan rather than
+        // stacked as Filter operators, so the predicates are evaluated while
+        // the table's pages are read
+        HashMap<String,ArrayList<Predicate>> pushedFilters = new HashMap<String,ArrayList<Predicate>>();
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,7 +686,19 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            ArrayList<Predicate> pushed = pushedFilters.get(lf.tableAlias);
+            if (pushed == null) {
+                pushed = new ArrayList<Predicate>();
+                pushedFilters.put(lf.tableAlias, pushed);
+            }
+            pushed.add(p);
+            filterPredicates.add(p);
+            ArrayList<String> keys = filterKeys.get(lf.tableAlias);
+            if (keys == null) {
+                keys = new ArrayList<String>();
+                filterKeys.put(lf.tableAlias, keys);
+            }
+            keys.add(CardinalityFeedback.predicateKey(this.getTableId(lf.tableAlias), p.getField(), lf.p, f));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,63 +707,64 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // tables without filters may still be read from a covering index
+        HashMap<String,Set<Integer>> needed = neededFields();
+        for (LogicalScanNode table : tables) {
+            String alias = table.alias;
+            ArrayList<Predicate> preds = pushedFilters.get(alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            if (preds == null) {
+                if (needed.get(alias) == null || s == null)
+                    continue;
+                preds = new ArrayList<Predicate>();
+            }
+            DbIterator scan = chooseAccessMethod(t, table.t, alias, preds, needed.get(alias), s, explain);
+            if (!preds.isEmpty()) {
+                //一个谓词的选择率在TableStats里已经改正过了，几个谓词之间的相关性在这里改正
+                ArrayList<String> keys = filterKeys.get(alias);
+                String key = keys.size() == 1 ? keys.get(0) : CardinalityFeedback.scanKey(keys);
+                double factor = CardinalityFeedback.correction(key);
+                double sel = filterSelectivities.get(alias);
+                if (keys.size() > 1) {
+                    sel = Math.min(1.0, sel * factor);
+                    filterSelectivities.put(alias, sel);
+                }
+                if (feedback)
+                    scan = new CardinalityMonitor(scan, key, s.estimateTableCardinality(sel), factor);
+            }
+            subplanMap.put(alias, scan);
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
-
-        Iterator<LogicalJoinNode> joinIt = joins.iterator();
-        while (joinIt.hasNext()) {
-            LogicalJoinNode lj = joinIt.next();
-            DbIterator plan1;
-            DbIterator plan2;
-            boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
-            String t1name, t2name;
-
-            if (equivMap.get(lj.t1Alias)!=null)
-                t1name = equivMap.get(lj.t1Alias);
-            else
-                t1name = lj.t1Alias;
-
-            if (equivMap.get(lj.t2Alias)!=null)
-                t2name = equivMap.get(lj.t2Alias);
-            else
-                t2name = lj.t2Alias;
-
-            plan1 = subplanMap.get(t1name);
-
-            if (isSubqueryJoin) {
-                plan2 = ((LogicalSubplanJoinNode)lj).subPlan;
-                if (plan2 == null) 
-                    throw new ParsingException("Invalid subquery.");
-            } else { 
-                plan2 = subplanMap.get(t2name);
+        Vector<JoinTree> trees;
+        if (joinOrder == null) {
+            trees = jo.orderJoinTrees(statsMap,filterSelectivities,explain);
+        } else {
+            trees = jo.reuseJoinTrees(joinOrder,statsMap,filterSelectivities);
+            if (explain) {
+                System.out.println("Join plan (cached):");
+                for (JoinTree tree : trees)
+                    System.out.print(tree.explain());
             }
-            
-            if (plan1 == null)
-                throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
-            if (plan2 == null)
-                throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
-            
-            DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
-            subplanMap.put(t1name, j);
-
-            if (!isSubqueryJoin) {
-                subplanMap.remove(t2name);
-                equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
-                    //make sure anything that was equiv to lj.t2 (which we are just removed) is
-                    // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
-                    for (java.util.Map.Entry<String, String> s: equivMap.entrySet()) {
-                        String val = s.getValue();
-                        if (val.equals(t2name)) {
-                            s.setValue(t1name);
-                        }
-                    }
-                    
-                // subplanMap.put(lj.t2, j);
+        }
+        joinTrees = trees;
+        planStats = statsMap;
+        for (JoinTree tree : trees) {
+            DbIterator plan;
+            if (AdaptiveJoinPlan.canAdapt(tree)) {
+                //执行时可能重新排序，所以各个表的plan交给它
+                HashMap<String,DbIterator> inputs = new HashMap<String,DbIterator>();
+                for (String alias : AdaptiveJoinPlan.aliases(tree))
+                    inputs.put(alias, subplanMap.remove(alias));
+                plan = new AdaptiveJoinPlan(this, jo, tree, inputs, statsMap, filterSelectivities);
+                if (explain)
+                    System.out.println("Joins of " + tree + " may be reordered at materialization points");
+            } else {
+                plan = joinTreePlan(tree, jo, subplanMap);
             }
-            
+            subplanMap.put(tree.firstAlias(), plan);
         }
 
         if (subplanMap.size() > 1) {
@@ -481,6 +846,54 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Build the physical plan of a JoinTree, ordered by jo, from the plans of
+     * its tables in inputs, which are removed from it.
+     */
+    DbIterator joinTreePlan(JoinTree tree, JoinOptimizer jo, Map<String,DbIterator> inputs)
+            throws ParsingException {
+        if (tree.isLeaf()) {
+            DbIterator plan = inputs.remove(tree.getAlias());
+            if (plan == null)
+                throw new ParsingException("Unknown table in WHERE clause " + tree.getAlias());
+            return plan;
+        }
+        LogicalJoinNode lj = tree.getJoin();
+        DbIterator plan1 = joinTreePlan(tree.getLeft(), jo, inputs);
+        DbIterator plan2;
+        if (lj instanceof LogicalSubplanJoinNode) {
+            plan2 = ((LogicalSubplanJoinNode)lj).subPlan;
+            if (plan2 == null)
+                throw new ParsingException("Invalid subquery.");
+        } else {
+            plan2 = joinTreePlan(tree.getRight(), jo, inputs);
+        }
+        DbIterator j = jo.instantiateJoin(lj,plan1,plan2);
+        if (!tree.getResidualJoins().isEmpty())
+            j = residualFilter(tree, j);
+        String key = jo.feedbackKey(tree);
+        if (key == null || !feedback)
+            return j;
+        return new CardinalityMonitor(j, key, tree.getCard(), CardinalityFeedback.correction(key));
+    }
+
+    // apply the residual joins of tree to j, the result of its join
+    private DbIterator residualFilter(JoinTree tree, DbIterator j) throws ParsingException {
+        //环上其余的join：两边的表已经join在一起了，变成对结果的过滤
+        TupleDesc td = j.getTupleDesc();
+        JoinPredicate[] preds = new JoinPredicate[tree.getResidualJoins().size()];
+        for (int i = 0; i < preds.length; i++) {
+            LogicalJoinNode r = tree.getResidualJoins().get(i);
+            try {
+                preds[i] = new JoinPredicate(td.fieldNameToIndex(r.f1QuantifiedName), r.p,
+                        td.fieldNameToIndex(r.f2QuantifiedName));
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in join " + r);
+            }
+        }
+        return new JoinFilter(preds, j);
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -272,15 +274,78 @@ public class Parser {
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    //跨查询的计划缓存，按规范化之后的SQL查
+    private final QueryPlanCache planCache = new QueryPlanCache(QueryPlanCache.DEFAULT_CAPACITY);
+
+    /**
+     * @return the cache of the plans of the queries this parser has run.
+     */
+    public QueryPlanCache getPlanCache() {
+        return planCache;
+    }
+
+    //PREPARE name AS query 和 EXECUTE name (values) 准备的语句，按名字
+    private final HashMap<String, PreparedQuery> prepared = new HashMap<String, PreparedQuery>();
+    private static final Pattern PREPARE = Pattern.compile(
+            "\\s*PREPARE\\s+(\\w+)\\s+AS\\s+(.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern EXECUTE = Pattern.compile(
+            "\\s*EXECUTE\\s+(\\w+)\\s*(?:\\((.*)\\))?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Prepare a SELECT statement whose filters compare against parameters,
+     * written <tt>?</tt>, to be run with values for them by
+     * {@link PreparedQuery#execute}, without being parsed or planned again.
+     * The statement is only parsed when it is first run.
+     */
+    public PreparedQuery prepare(String sql) throws simpledb.ParsingException {
+        return new PreparedQuery(this, sql);
+    }
+
+    /**
+     * @return the statement prepared under name by a PREPARE statement, or
+     *         null.
+     */
+    public PreparedQuery getPrepared(String name) {
+        return prepared.get(name.toLowerCase());
+    }
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
-        Query query = new Query(tId);
+        return handleQueryStatement(s, tId, null);
+    }
 
+    /**
+     * Plan the query s, caching its plan under sql, the normalized text it
+     * was parsed from, if it is not null.
+     */
+    Query handleQueryStatement(ZQuery s, TransactionId tId, QueryPlanCache.Statement sql)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
+        if (sql != null)
+            planCache.put(sql, lp);
+        return query(tId, lp, physicalPlan);
+    }
+
+    /**
+     * Plan the query sql from its cached plan, without parsing it or
+     * ordering its joins.
+     */
+    Query handleCachedQuery(QueryPlanCache.Entry cached, QueryPlanCache.Statement sql,
+            TransactionId tId) throws TransactionAbortedException, DbException,
+            IOException, simpledb.ParsingException {
+        LogicalPlan lp = cached.bind(sql.literals);
+        DbIterator physicalPlan = lp.physicalPlan(tId,
+                TableStats.getStatsMap(), explain, cached.getJoinTrees());
+        return query(tId, lp, physicalPlan);
+    }
+
+    Query query(TransactionId tId, LogicalPlan lp, DbIterator physicalPlan) {
+        Query query = new Query(tId);
         query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
 
@@ -493,8 +558,35 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
+        Matcher m = PREPARE.matcher(s);
+        if (m.matches()) {
+            try {
+                PreparedQuery pq = prepare(m.group(2));
+                prepared.put(m.group(1).toLowerCase(), pq);
+                System.out.println("Prepared " + m.group(1) + " with "
+                        + pq.numParameters() + " parameter(s).");
+            } catch (simpledb.ParsingException e) {
+                System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            }
+            return;
+        }
+        m = EXECUTE.matcher(s);
+        if (m.matches()) {
+            PreparedQuery pq = getPrepared(m.group(1));
+            if (pq == null) {
+                System.out.println("No prepared statement " + m.group(1));
+                return;
+            }
+            try {
+                processNextStatement(null, null, pq, parameterValues(m.group(2)));
+            } catch (simpledb.ParsingException e) {
+                System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            }
+            return;
+        }
         try {
-            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+            processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")),
+                    QueryPlanCache.normalize(s), null, null);
         } catch (UnsupportedEncodingException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -502,9 +594,57 @@ public class Parser {
     }
 
     public void processNextStatement(InputStream is) {
+        processNextStatement(is, null, null, null);
+    }
+
+    /**
+     * @return the values in a comma separated list of numbers and quoted
+     *         strings, as in <tt>EXECUTE name (1, 'a')</tt>, without quotes.
+     */
+    static List<String> parameterValues(String list) throws simpledb.ParsingException {
+        ArrayList<String> values = new ArrayList<String>();
+        if (list == null || list.trim().length() == 0)
+            return values;
+        int i = 0;
+        int n = list.length();
+        while (true) {
+            while (i < n && Character.isWhitespace(list.charAt(i)))
+                i++;
+            int end;
+            if (i < n && list.charAt(i) == '\'') {
+                end = list.indexOf('\'', i + 1);
+                if (end < 0)
+                    throw new simpledb.ParsingException("Unterminated string in " + list);
+                values.add(list.substring(i + 1, end));
+                end++;
+            } else {
+                end = list.indexOf(',', i);
+                if (end < 0)
+                    end = n;
+                values.add(list.substring(i, end).trim());
+            }
+            while (end < n && Character.isWhitespace(list.charAt(end)))
+                end++;
+            if (end >= n)
+                return values;
+            if (list.charAt(end) != ',')
+                throw new simpledb.ParsingException("Invalid parameter list " + list);
+            i = end + 1;
+        }
+    }
+
+    // sql是语句规范化之后的文本，可以按它查计划缓存；null表示不知道。
+    // pq不为null时用参数的值values执行它，is不用
+    private void processNextStatement(InputStream is, QueryPlanCache.Statement sql,
+            PreparedQuery pq, List<String> values) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            //缓存里有计划的查询不用再经过Zql
+            QueryPlanCache.Entry cached = sql == null ? null : planCache.get(sql);
+            ZStatement s = null;
+            if (cached == null && pq == null) {
+                ZqlParser p = new ZqlParser(is);
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +657,11 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (pq != null)
+                        query = pq.execute(curtrans.getId(), values);
+                    else if (cached != null)
+                        query = handleCachedQuery(cached, sql, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -525,7 +669,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), sql);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -581,11 +725,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "prepare", "execute" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 5) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -595,9 +739,11 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-calibrate] [-f queryFile]";
 
     protected void shutdown() {
+        //保存各表的修改计数，下次启动才知道哪些统计过期了
+        TableStats.saveStatistics();
         System.out.println("Bye");
     }
 
@@ -606,7 +752,16 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        //代价模型的常数在第一次启动时测出来，之后从cost文件读；-calibrate时重新测
+        File costFile = CostModel.costFileFor(new File(argv[0]));
+        boolean calibrate = Arrays.asList(argv).subList(1, argv.length).contains("-calibrate");
+        if (calibrate)
+            costFile.delete();
+        CostModel model = CostModel.loadOrCalibrate(costFile);
+        if (calibrate)
+            System.out.println("Cost model: " + model);
+        //统计信息在第一次用到某个表时才从stats文件读出或者重新计算
+        TableStats.loadStatistics(TableStats.statsFileFor(new File(argv[0])));
 
         String queryFile = null;
 
@@ -615,6 +770,8 @@ public class Parser {
                 if (argv[i].equals("-explain")) {
                     explain = true;
                     System.out.println("Explain mode enabled.");
+                } else if (argv[i].equals("-calibrate")) {
+                    // 已经在上面处理了
                 } else if (argv[i].equals("-f")) {
                     interactive = false;
                     if (i++ == argv.length) {
@@ -667,7 +824,6 @@ public class Parser {
                     buffer.append(line.substring(0, split + 1));
                     String cmd = buffer.toString().trim();
                     cmd = cmd.substring(0, cmd.length() - 1).trim() + ";";
-                    byte[] statementBytes = cmd.getBytes("UTF-8");
                     if (cmd.equalsIgnoreCase("quit;")
                             || cmd.equalsIgnoreCase("exit;")) {
                         shutdown();
@@ -676,8 +832,7 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    processNextStatement(cmd);
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
@@ -691,6 +846,9 @@ public class Parser {
                     buffer.append("\n");
                 }
             }
+            //输入结束时也保存统计信息
+            if (!quit)
+                shutdown();
         }
     }
 }
@@ -1,50 +1,133 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of relations.  Sets are bitmasks over the
+ * relations numbered by the {@link JoinOptimizer}, and plans are stored in
+ * parallel arrays of an open-addressing hash table keyed by the mask, so
+ * looking up or replacing a plan allocates nothing.  The best plan for a set
+ * is the join of the best plans of its two halves; {@link #getLeft},
+ * {@link #getJoin} and {@link #getAlgorithm} are enough to rebuild it
+ * recursively.  Single relations
+ * are stored too, with no join. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
-        new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+    private static final int INITIAL_CAPACITY = 64;
+
+    // keys[i] == 0 marks an empty slot: every stored set is non-empty
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private double[] costs = new double[INITIAL_CAPACITY];
+    private int[] cards = new int[INITIAL_CAPACITY];
+    private long[] lefts = new long[INITIAL_CAPACITY];
+    private LogicalJoinNode[] joins = new LogicalJoinNode[INITIAL_CAPACITY];
+    private LogicalJoinNode.Algorithm[] algorithms = new LogicalJoinNode.Algorithm[INITIAL_CAPACITY];
+    private int size = 0;
+
+    // the slot holding s, or the empty slot where it would go
+    private int slot(long s) {
+        int mask = keys.length - 1;
+        int i = (int) ((s * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (keys[i] != 0 && keys[i] != s)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldCosts = costs;
+        int[] oldCards = cards;
+        long[] oldLefts = lefts;
+        LogicalJoinNode[] oldJoins = joins;
+        LogicalJoinNode.Algorithm[] oldAlgorithms = algorithms;
+        int n = oldKeys.length * 2;
+        keys = new long[n];
+        costs = new double[n];
+        cards = new int[n];
+        lefts = new long[n];
+        joins = new LogicalJoinNode[n];
+        algorithms = new LogicalJoinNode.Algorithm[n];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            costs[j] = oldCosts[i];
+            cards[j] = oldCards[i];
+            lefts[j] = oldLefts[i];
+            joins[j] = oldJoins[i];
+            algorithms[j] = oldAlgorithms[i];
+        }
+    }
+
+    /** Add a new cost, cardinality and plan for a particular set of
+        relations.  Does not verify that the new cost is less than any
+        previously added cost -- simply adds or replaces an existing plan for
+        the specified set
+        @param s the set of relations for which a new plan is being added
         @param cost the estimated cost of the specified plan
-        @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
-    */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+        @param card the estimated cardinality of the specified plan
+        @param left the relations of the outer (left) input of the last join;
+          0 for a single relation
+        @param join the last join of the plan, with t1 in left; null for a
+          single relation
+        @param algorithm the algorithm computing join; null for a single
+          relation
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    void addPlan(long s, double cost, int card, long left, LogicalJoinNode join,
+            LogicalJoinNode.Algorithm algorithm) {
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int i = slot(s);
+        if (keys[i] == 0) {
+            keys[i] = s;
+            size++;
+        }
+        costs[i] = cost;
+        cards[i] = card;
+        lefts[i] = left;
+        joins[i] = join;
+        algorithms[i] = algorithm;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** @return true if a plan for the set s is in the cache */
+    boolean contains(long s) {
+        return keys[slot(s)] == s;
+    }
+
+    /** Find the cost of the best plan in the cache for the specified set
+        @param s the set of relations to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    double getCost(long s) {
+        return costs[slot(s)];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set
+        @param s the set of relations to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(long s) {
+        return cards[slot(s)];
+    }
+
+    /** @return the relations of the outer input of the last join of the best
+        plan for s; the inner input is the rest of s */
+    long getLeft(long s) {
+        return lefts[slot(s)];
+    }
+
+    /** @return the last join of the best plan for s, or null if s is a
+        single relation */
+    LogicalJoinNode getJoin(long s) {
+        return joins[slot(s)];
+    }
+
+    /** @return the algorithm computing the last join of the best plan for
+        s, or null if s is a single relation */
+    LogicalJoinNode.Algorithm getAlgorithm(long s) {
+        return algorithms[slot(s)];
+    }
+
+    /** @return the number of sets in the cache */
+    int size() {
+        return size;
     }
 }
@@ -9,6 +9,12 @@ public class Predicate implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private int field;
+
+    private Op op;
+
+    private Field operand;
+
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -66,6 +72,9 @@ public class Predicate implements Serializable {
      */
     public Predicate(int field, Op op, Field operand) {
         // some code goes here
+        this.field = field;
+        this.op = op;
+        this.operand = operand;
     }
 
     /**
@@ -74,7 +83,7 @@ public class Predicate implements Serializable {
     public int getField()
     {
         // some code goes here
-        return -1;
+        return field;
     }
 
     /**
@@ -83,7 +92,7 @@ public class Predicate implements Serializable {
     public Op getOp()
     {
         // some code goes here
-        return null;
+        return op;
     }
     
     /**
@@ -92,7 +101,21 @@ public class Predicate implements Serializable {
     public Field getOperand()
     {
         // some code goes here
-        return null;
+        return operand;
+    }
+
+    /**
+     * Compare tuples to operand from now on, as when a prepared query is
+     * run with another value of its parameter (see {@link PreparedQuery}).
+     * Operators holding this predicate see the new operand the next time
+     * they are opened.
+     *
+     * @param operand
+     *            field value to compare passed in tuples to; of the type of
+     *            the previous operand
+     */
+    public void setOperand(Field operand) {
+        this.operand = operand;
     }
     
     /**
@@ -107,7 +130,27 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return false;
+        return t.getField(field).compare(op, operand);
+    }
+
+    /**
+     * Applies a conjunction of predicates to t, stopping at the first
+     * predicate that fails.
+     *
+     * @param preds
+     *            The predicates to apply; null or empty accepts every tuple
+     * @param t
+     *            The tuple to compare against
+     * @return true if t satisfies every predicate in preds
+     */
+    public static boolean filterAll(Predicate[] preds, Tuple t) {
+        if (preds == null)
+            return true;
+        for (Predicate p : preds) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -116,6 +159,6 @@ public class Predicate implements Serializable {
      */
     public String toString() {
         // some code goes here
-        return "";
+        return "f = " + field + " op = " + op + " operand = " + operand;
     }
 }
@@ -0,0 +1,205 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PreparedQuery is a query whose filters compare against parameters,
+ * written <tt>?</tt>, that are given values each time it is run; see
+ * {@link Parser#prepare}. For example
+ * <pre>
+ * SELECT * FROM users u WHERE u.id = ?;
+ * </pre>
+ * <p>
+ * The first execution plans the query with its values, through the
+ * {@link Parser}'s {@link QueryPlanCache}. Later executions in the same
+ * transaction set the values into the {@link Predicate}s of the plan already
+ * built, including those index scans search with, and open it again, so
+ * that the query is neither parsed nor planned again. Executions in another
+ * transaction build a plan for it, from the cached logical plan and join
+ * order when there is one, since operators run in the transaction they were
+ * built in.
+ * <p>
+ * The plan is chosen for the values it was first built with and kept for
+ * the others. Its scans and joins do not report their cardinalities to
+ * {@link CardinalityFeedback}, which keys them by the values.
+ */
+public class PreparedQuery {
+
+    private final Parser parser;
+    private final String sql;
+    // the text of the query before, between and after its parameters
+    private final List<String> parts;
+    private final int[] literalIndex;
+
+    // the plan last built, the transaction it was built in, and the predicate
+    // each parameter was bound into, or null if they cannot be rebound
+    private LogicalPlan lp;
+    private DbIterator plan;
+    private TransactionId planTid;
+    private Predicate[] parameters;
+
+    /**
+     * Constructor.
+     *
+     * @param parser
+     *            The parser whose plan cache and settings the query is
+     *            planned with
+     * @param sql
+     *            The text of a SELECT statement, with a <tt>?</tt> in place
+     *            of the constant of each filter whose value is given when it
+     *            is run
+     */
+    PreparedQuery(Parser parser, String sql) throws ParsingException {
+        this.parser = parser;
+        this.sql = sql;
+        this.parts = split(sql);
+        //每个参数是整个语句的第几个常数；值都带引号代入，不会和别的常数连在一起
+        this.literalIndex = new int[parts.size() - 1];
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < literalIndex.length; i++) {
+            prefix.append(parts.get(i)).append("''");
+            literalIndex[i] = QueryPlanCache.normalize(prefix.toString()).literals.size() - 1;
+        }
+    }
+
+    // sql在单引号之外的每个?处分开
+    private static List<String> split(String sql) throws ParsingException {
+        ArrayList<String> result = new ArrayList<String>();
+        int start = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '?' && !quoted) {
+                result.add(sql.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (quoted)
+            throw new ParsingException("Unterminated string in " + sql);
+        result.add(sql.substring(start));
+        return result;
+    }
+
+    /**
+     * @return the text of the query, with its parameters.
+     */
+    public String getSQL() {
+        return sql;
+    }
+
+    /**
+     * @return the number of values the query is run with.
+     */
+    public int numParameters() {
+        return literalIndex.length;
+    }
+
+    /**
+     * @return the logical plan of the plan last built, or null if the query
+     *         has not been run.
+     */
+    LogicalPlan getLogicalPlan() {
+        return lp;
+    }
+
+    /**
+     * Bind values to the parameters of the query and return it, planned, to
+     * be run in transaction tid. A query returned earlier is closed: it
+     * shares its plan with the one returned now if both run in tid.
+     *
+     * @param values
+     *            The value of each parameter, in order, as it would be
+     *            written in the query without quotes
+     * @throws ParsingException
+     *             if there are not as many values as parameters, or a value
+     *             is not of the type of the field it is compared with
+     */
+    public synchronized Query execute(TransactionId tid, List<String> values)
+            throws ParsingException, TransactionAbortedException, DbException {
+        if (values.size() != literalIndex.length)
+            throw new ParsingException("Expected " + literalIndex.length + " parameters, got "
+                    + values.size());
+        if (plan != null && parameters != null && tid.equals(planTid)) {
+            //同一个事务里：只改谓词的值，重新打开原来的计划
+            Field[] operands = new Field[parameters.length];
+            for (int i = 0; i < parameters.length; i++)
+                operands[i] = operand(parameters[i].getOperand().getType(), values.get(i));
+            plan.close();
+            for (int i = 0; i < parameters.length; i++)
+                parameters[i].setOperand(operands[i]);
+            Query query = new Query(tid);
+            query.setPhysicalPlan(plan);
+            query.setLogicalPlan(lp);
+            return query;
+        }
+        if (plan != null)
+            plan.close();
+        plan = null;
+
+        StringBuilder text = new StringBuilder(parts.get(0));
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i).indexOf('\'') >= 0)
+                throw new ParsingException("Invalid parameter " + values.get(i));
+            text.append('\'').append(values.get(i)).append('\'').append(parts.get(i + 1));
+        }
+        QueryPlanCache.Statement st = QueryPlanCache.normalize(text.toString());
+        QueryPlanCache cache = parser.getPlanCache();
+        QueryPlanCache.Entry cached = cache.get(st);
+        DbIterator physicalPlan;
+        if (cached != null) {
+            lp = cached.bind(st.literals);
+            lp.setFeedback(false);
+            physicalPlan = lp.physicalPlan(tid, TableStats.getStatsMap(), Parser.explain,
+                    cached.getJoinTrees());
+        } else {
+            lp = parser.generateLogicalPlan(tid, text.toString());
+            lp.setFeedback(false);
+            physicalPlan = lp.physicalPlan(tid, TableStats.getStatsMap(), Parser.explain);
+            cache.put(st, lp);
+        }
+        lp.setQuery(text.toString());
+
+        //常数和过滤条件一一对应时才能重新绑定，否则每次都重新规划
+        parameters = null;
+        if (lp.filterConstants().equals(st.literals)) {
+            List<Predicate> preds = lp.getFilterPredicates();
+            parameters = new Predicate[literalIndex.length];
+            for (int i = 0; i < literalIndex.length; i++)
+                parameters[i] = preds.get(literalIndex[i]);
+        }
+        plan = physicalPlan;
+        planTid = tid;
+        return parser.query(tid, lp, physicalPlan);
+    }
+
+    /**
+     * Bind values to the parameters of the query and return it, planned, to
+     * be run in transaction tid; see {@link #execute(TransactionId, List)}.
+     */
+    public Query execute(TransactionId tid, String... values)
+            throws ParsingException, TransactionAbortedException, DbException {
+        List<String> list = new ArrayList<String>();
+        for (String v : values)
+            list.add(v);
+        return execute(tid, list);
+    }
+
+    // the constant value of a field of type t
+    private static Field operand(Type t, String value) throws ParsingException {
+        if (t == Type.INT_TYPE) {
+            try {
+                return new IntField(Integer.parseInt(value.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Invalid integer parameter " + value);
+            }
+        }
+        return new StringField(value, Type.STRING_LEN);
+    }
+
+    public String toString() {
+        return sql;
+    }
+}
@@ -11,6 +11,8 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    //输出的第i列对应child的第map[i]列，所有ProjectedTuple共用
+    private int[] map;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -39,6 +41,9 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        map = new int[fieldList.size()];
+        for (int i = 0; i < map.length; i++)
+            map[i] = fieldList.get(i);
     }
 
     public TupleDesc getTupleDesc() {
@@ -62,21 +67,16 @@ public class Project extends Operator {
 
     /**
      * Operator.fetchNext implementation. Iterates over tuples from the child
-     * operator, projecting out the fields from the tuple
+     * operator, projecting out the fields from the tuple. The result is a
+     * {@link ProjectedTuple} view of the child's tuple, so no fields are
+     * copied.
      * 
      * @return The next tuple, or null if there are no more tuples
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        while (child.hasNext()) {
-            Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
-        }
+        if (child.hasNext())
+            return new ProjectedTuple(td, child.next(), map);
         return null;
     }
 
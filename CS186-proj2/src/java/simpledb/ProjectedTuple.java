@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * ProjectedTuple is a read-only view of a subset (or permutation) of the
+ * fields of another tuple, as produced by a projection. Field i of the view
+ * is field map[i] of the base tuple; nothing is copied.
+ */
+public class ProjectedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple base;
+    private final int[] map;
+
+    /**
+     * @param td
+     *            the schema of the projection
+     * @param base
+     *            the tuple to project
+     * @param map
+     *            for each field of the projection, the index of the base
+     *            field it shows; shared between views, must not be modified
+     */
+    public ProjectedTuple(TupleDesc td, Tuple base, int[] map) {
+        super(td, null);
+        this.base = base;
+        this.map = map;
+        setRecordId(base.getRecordId());
+    }
+
+    public Field getField(int i) {
+        if (i < 0 || i >= map.length)
+            throw new IllegalArgumentException("index must be valid!");
+        return base.getField(map[i]);
+    }
+
+    public void setField(int i, Field f) {
+        throw new UnsupportedOperationException("projected tuples are read-only");
+    }
+
+    public Tuple materialize() {
+        return copy();
+    }
+}
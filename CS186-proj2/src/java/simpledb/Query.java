@@ -68,7 +68,8 @@ public class Query implements Serializable {
 
     /**
      * Returns the next tuple, or throws NoSuchElementException if the iterator
-     * is closed.
+     * is closed. The tuple is materialized, so it stays valid after the query
+     * moves on or is closed.
      * 
      * @return The next tuple in the iterator
      * @throws DbException
@@ -83,7 +84,7 @@ public class Query implements Serializable {
         if (!started)
             throw new DbException("Database not started.");
 
-        return op.next();
+        return op.next().materialize();
     }
 
     /** Close the iterator */
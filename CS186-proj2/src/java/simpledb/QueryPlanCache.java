@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryPlanCache keeps the plans of the queries a {@link Parser} has run,
+ * so that running the same query again, with the same or other constants,
+ * skips parsing it and ordering its joins. (Not to be confused with
+ * {@link PlanCache}, the table of best plans one join ordering fills.)
+ * <p>
+ * Queries are keyed by their {@link #normalize normalized} text, in which
+ * each constant is replaced by a parameter. An entry holds the
+ * {@link LogicalPlan} the query was parsed into and the join trees, with
+ * their join algorithms, its physical plan was built from; a query with
+ * the same key is planned by binding its constants into the filters of a
+ * copy of the logical plan and joining in the cached order. Access methods
+ * are still chosen for the new constants, which is cheap. Only queries
+ * whose constants are exactly the constants of their filters, in order, and
+ * that have no subquery are cached.
+ * <p>
+ * An entry is dropped when the {@link TableStats} of one of its tables are
+ * replaced by statistics computed afresh, and when any statistics are
+ * updated incrementally or a cardinality correction changes (see
+ * {@link #statisticsChanged}), since the order was chosen from the old
+ * estimates. The {@link #getCapacity} most recently used entries are kept.
+ */
+public class QueryPlanCache {
+
+    /** The number of entries a Parser's cache keeps. */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    //统计或者基数修正每变一次加一；缓存的计划记下排序时的值
+    private static final AtomicLong statisticsVersion = new AtomicLong();
+
+    /**
+     * @return the number of times the estimates the optimizer plans with
+     *         have changed, by {@link #statisticsChanged}.
+     */
+    static long statisticsVersion() {
+        return statisticsVersion.get();
+    }
+
+    /**
+     * Record that the statistics of a table were updated in place or a
+     * cardinality correction changed, so that every plan cached before is
+     * dropped the next time it is looked up.
+     */
+    static void statisticsChanged() {
+        statisticsVersion.incrementAndGet();
+    }
+
+    /**
+     * The text of a statement with its constants replaced by parameters, and
+     * the constants, in the order they appear.
+     */
+    public static class Statement {
+        /** the normalized text */
+        public final String key;
+        /** the constants, strings without their quotes */
+        public final List<String> literals;
+
+        Statement(String key, List<String> literals) {
+            this.key = key;
+            this.literals = Collections.unmodifiableList(literals);
+        }
+
+        public String toString() {
+            return key + " " + literals;
+        }
+    }
+
+    /** A cached plan. */
+    static class Entry {
+        private final LogicalPlan template;
+        private final Vector<JoinTree> joinTrees;
+        private final HashMap<String, TableStats> stats;
+        private final long version;
+
+        Entry(LogicalPlan template, Vector<JoinTree> joinTrees, HashMap<String, TableStats> stats,
+                long version) {
+            this.template = template;
+            this.joinTrees = joinTrees;
+            this.stats = stats;
+            this.version = version;
+        }
+
+        /**
+         * @return a logical plan of the query with the given constants.
+         */
+        LogicalPlan bind(List<String> literals) throws ParsingException {
+            return template.bind(literals);
+        }
+
+        /**
+         * @return the join trees to build the physical plan of a logical
+         *         plan returned by {@link #bind} from.
+         */
+        Vector<JoinTree> getJoinTrees() {
+            return joinTrees;
+        }
+
+        // 计划是用这些统计排的；统计重算过、更新过或者修正变过就不能再用了
+        private boolean isCurrent() {
+            if (statisticsVersion() != version)
+                return false;
+            for (Map.Entry<String, TableStats> e : stats.entrySet())
+                if (TableStats.getTableStats(e.getKey()) != e.getValue())
+                    return false;
+            return true;
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits, misses;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *            The number of entries kept
+     */
+    public QueryPlanCache(final int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the entry of the statement, or null if there is none or the
+     *         estimates it was planned with have changed since, in which
+     *         case it is dropped.
+     */
+    synchronized Entry get(Statement st) {
+        Entry e = entries.get(st.key);
+        if (e != null && !e.isCurrent()) {
+            entries.remove(st.key);
+            e = null;
+        }
+        if (e == null)
+            misses++;
+        else
+            hits++;
+        return e;
+    }
+
+    /**
+     * Cache the plan lp was last built into as the plan of st, if lp's
+     * filters compare against st's constants, in order, and it has no
+     * subquery.
+     *
+     * @return true if the plan was cached.
+     */
+    synchronized boolean put(Statement st, LogicalPlan lp) {
+        if (lp.getJoinTrees() == null || lp.hasSubqueries()
+                || !lp.filterConstants().equals(st.literals))
+            return false;
+        entries.put(st.key, new Entry(lp, lp.getJoinTrees(),
+                new HashMap<String, TableStats>(lp.getPlanStats()), lp.getPlanVersion()));
+        return true;
+    }
+
+    /**
+     * @return the number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of lookups that found a plan.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Drop every entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Normalize the text of a statement: runs of white space become one
+     * space, a final semicolon is dropped, and each number or quoted string
+     * is replaced by a parameter, <tt>?</tt> or <tt>'?'</tt>. Numbers that
+     * are part of a name, like the 1 of <tt>t1.c0</tt>, are kept.
+     */
+    public static Statement normalize(String sql) {
+        StringBuilder key = new StringBuilder();
+        ArrayList<String> literals = new ArrayList<String>();
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(sql.charAt(i)))
+                    i++;
+                if (key.length() > 0)
+                    key.append(' ');
+            } else if (c == '\'') {
+                int end = sql.indexOf('\'', i + 1);
+                if (end < 0)
+                    end = n;
+                literals.add(sql.substring(i + 1, end));
+                key.append("'?'");
+                i = Math.min(n, end + 1);
+            } else if (Character.isDigit(c) && !inName(key)) {
+                int start = i;
+                while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.'))
+                    i++;
+                literals.add(sql.substring(start, i));
+                key.append('?');
+            } else {
+                key.append(c);
+                i++;
+            }
+        }
+        //末尾的分号和空白不影响语句
+        int end = key.length();
+        while (end > 0 && (key.charAt(end - 1) == ' ' || key.charAt(end - 1) == ';'))
+            end--;
+        key.setLength(end);
+        return new Statement(key.toString(), literals);
+    }
+
+    // true if the text so far ends within a name, so that a digit continues it
+    private static boolean inName(StringBuilder key) {
+        if (key.length() == 0)
+            return false;
+        char last = key.charAt(key.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '.';
+    }
+}
@@ -0,0 +1,513 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * RoaringBitmap is a compressed set of non-negative ints, used by
+ * {@link BitmapIndex} to hold the positions of the tuples with one key.
+ * <p>
+ * The ints are partitioned by their upper 16 bits into chunks of 65536
+ * values, and each non-empty chunk is stored in the container best suited to
+ * its density: a sorted array of the lower 16 bits while it has at most
+ * {@link #ARRAY_MAX} values (2 bytes per value), a 65536 bit bitmap beyond
+ * that (8KB per chunk). Sparse and dense sets both stay compact, and AND / OR
+ * work container by container, with word-wise loops on bitmaps and merges on
+ * arrays, never touching the chunks one of the operands does not have.
+ */
+public class RoaringBitmap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the largest number of values kept in an array container */
+    static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    // containers, sorted by their upper 16 bits (the key)
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size = 0;
+
+    private static abstract class Container implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        abstract int cardinality();
+
+        abstract boolean contains(char v);
+
+        /** @return the container holding this and v, maybe this one */
+        abstract Container add(char v);
+
+        /** @return the container holding this without v, maybe this one */
+        abstract Container remove(char v);
+
+        abstract Container and(Container o);
+
+        abstract Container or(Container o);
+
+        abstract Container copy();
+
+        /** @return the first value not less than v, or -1 */
+        abstract int nextValue(int v);
+    }
+
+    private static final class ArrayContainer extends Container {
+        private static final long serialVersionUID = 1L;
+
+        char[] values;
+        int n;
+
+        ArrayContainer(char[] values, int n) {
+            this.values = values;
+            this.n = n;
+        }
+
+        int cardinality() {
+            return n;
+        }
+
+        private int find(char v) {
+            return Arrays.binarySearch(values, 0, n, v);
+        }
+
+        boolean contains(char v) {
+            return find(v) >= 0;
+        }
+
+        Container add(char v) {
+            int i = find(v);
+            if (i >= 0)
+                return this;
+            if (n == ARRAY_MAX)
+                return toBitmap().add(v);
+            i = -i - 1;
+            if (n == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, n * 2)));
+            System.arraycopy(values, i, values, i + 1, n - i);
+            values[i] = v;
+            n++;
+            return this;
+        }
+
+        Container remove(char v) {
+            int i = find(v);
+            if (i < 0)
+                return this;
+            System.arraycopy(values, i + 1, values, i, n - i - 1);
+            n--;
+            return this;
+        }
+
+        BitmapContainer toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < n; i++)
+                words[values[i] >>> 6] |= 1L << values[i];
+            return new BitmapContainer(words, n);
+        }
+
+        Container and(Container o) {
+            if (o instanceof BitmapContainer)
+                return o.and(this);
+            ArrayContainer a = (ArrayContainer) o;
+            char[] out = new char[Math.min(n, a.n)];
+            int k = 0;
+            for (int i = 0, j = 0; i < n && j < a.n;) {
+                if (values[i] < a.values[j])
+                    i++;
+                else if (values[i] > a.values[j])
+                    j++;
+                else {
+                    out[k++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(out, k);
+        }
+
+        Container or(Container o) {
+            if (o instanceof BitmapContainer)
+                return o.or(this);
+            ArrayContainer a = (ArrayContainer) o;
+            if (n + a.n > ARRAY_MAX)
+                return toBitmap().or(a.toBitmap());
+            char[] out = new char[n + a.n];
+            int i = 0, j = 0, k = 0;
+            while (i < n && j < a.n) {
+                if (values[i] < a.values[j])
+                    out[k++] = values[i++];
+                else if (values[i] > a.values[j])
+                    out[k++] = a.values[j++];
+                else {
+                    out[k++] = values[i++];
+                    j++;
+                }
+            }
+            while (i < n)
+                out[k++] = values[i++];
+            while (j < a.n)
+                out[k++] = a.values[j++];
+            return new ArrayContainer(out, k);
+        }
+
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, n), n);
+        }
+
+        int nextValue(int v) {
+            int i = Arrays.binarySearch(values, 0, n, (char) v);
+            if (i < 0)
+                i = -i - 1;
+            return i < n ? values[i] : -1;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private static final long serialVersionUID = 1L;
+
+        final long[] words;
+        int card;
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        int cardinality() {
+            return card;
+        }
+
+        boolean contains(char v) {
+            return (words[v >>> 6] & (1L << v)) != 0;
+        }
+
+        Container add(char v) {
+            long w = words[v >>> 6];
+            long nw = w | (1L << v);
+            if (w != nw) {
+                words[v >>> 6] = nw;
+                card++;
+            }
+            return this;
+        }
+
+        Container remove(char v) {
+            long w = words[v >>> 6];
+            long nw = w & ~(1L << v);
+            if (w == nw)
+                return this;
+            words[v >>> 6] = nw;
+            card--;
+            return card <= ARRAY_MAX ? toArray() : this;
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[card];
+            int k = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long bits = words[w];
+                while (bits != 0) {
+                    values[k++] = (char) ((w << 6) + Long.numberOfTrailingZeros(bits));
+                    bits &= bits - 1;
+                }
+            }
+            return new ArrayContainer(values, k);
+        }
+
+        Container and(Container o) {
+            if (o instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) o;
+                char[] out = new char[a.n];
+                int k = 0;
+                for (int i = 0; i < a.n; i++) {
+                    if (contains(a.values[i]))
+                        out[k++] = a.values[i];
+                }
+                return new ArrayContainer(out, k);
+            }
+            BitmapContainer b = (BitmapContainer) o;
+            long[] out = new long[BITMAP_WORDS];
+            int c = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                out[w] = words[w] & b.words[w];
+                c += Long.bitCount(out[w]);
+            }
+            BitmapContainer r = new BitmapContainer(out, c);
+            return c <= ARRAY_MAX ? r.toArray() : r;
+        }
+
+        Container or(Container o) {
+            long[] out = words.clone();
+            int c = card;
+            if (o instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) o;
+                for (int i = 0; i < a.n; i++) {
+                    char v = a.values[i];
+                    long w = out[v >>> 6];
+                    out[v >>> 6] = w | (1L << v);
+                    c += (int) ((~w >>> v) & 1L);
+                }
+                return new BitmapContainer(out, c);
+            }
+            //两个array合并时也会走到这里，结果可能不多于ARRAY_MAX
+            BitmapContainer b = (BitmapContainer) o;
+            c = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                out[w] |= b.words[w];
+                c += Long.bitCount(out[w]);
+            }
+            BitmapContainer r = new BitmapContainer(out, c);
+            return c <= ARRAY_MAX ? r.toArray() : r;
+        }
+
+        Container copy() {
+            return new BitmapContainer(words.clone(), card);
+        }
+
+        int nextValue(int v) {
+            int w = v >>> 6;
+            if (w >= BITMAP_WORDS)
+                return -1;
+            long bits = words[w] & (-1L << v);
+            while (bits == 0) {
+                if (++w == BITMAP_WORDS)
+                    return -1;
+                bits = words[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(bits);
+        }
+    }
+
+    private int findKey(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    /**
+     * Add x to the set.
+     *
+     * @throws IllegalArgumentException if x is negative
+     */
+    public void add(int x) {
+        if (x < 0)
+            throw new IllegalArgumentException("negative value " + x);
+        char key = (char) (x >>> 16);
+        int i = findKey(key);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) x);
+            return;
+        }
+        i = -i - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+            containers = Arrays.copyOf(containers, keys.length);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = new ArrayContainer(new char[] { (char) x }, 1);
+        size++;
+    }
+
+    /** Remove x from the set, if it is there. */
+    public void remove(int x) {
+        if (x < 0)
+            return;
+        int i = findKey((char) (x >>> 16));
+        if (i < 0)
+            return;
+        containers[i] = containers[i].remove((char) x);
+        if (containers[i].cardinality() == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+            size--;
+            containers[size] = null;
+        }
+    }
+
+    public boolean contains(int x) {
+        if (x < 0)
+            return false;
+        int i = findKey((char) (x >>> 16));
+        return i >= 0 && containers[i].contains((char) x);
+    }
+
+    /** @return the number of ints in the set. */
+    public int cardinality() {
+        int c = 0;
+        for (int i = 0; i < size; i++)
+            c += containers[i].cardinality();
+        return c;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void append(char key, Container c) {
+        if (c.cardinality() == 0)
+            return;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(4, size * 2));
+            containers = Arrays.copyOf(containers, keys.length);
+        }
+        keys[size] = key;
+        containers[size++] = c;
+    }
+
+    /**
+     * @return a new set holding the same ints as this one.
+     */
+    public RoaringBitmap copy() {
+        RoaringBitmap r = new RoaringBitmap();
+        for (int i = 0; i < size; i++)
+            r.append(keys[i], containers[i].copy());
+        return r;
+    }
+
+    /**
+     * @return a new set holding the ints in both a and b.
+     */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        for (int i = 0, j = 0; i < a.size && j < b.size;) {
+            if (a.keys[i] < b.keys[j])
+                i++;
+            else if (a.keys[i] > b.keys[j])
+                j++;
+            else {
+                r.append(a.keys[i], a.containers[i].and(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return a new set holding the ints in a or b.
+     */
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            //只有一边有的container要复制一份，结果不能和输入共享container
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                r.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || b.keys[j] < a.keys[i]) {
+                r.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                r.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return an iterator over the ints of the set, in increasing order.
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int c = 0;
+            private int v = size == 0 ? -1 : containers[0].nextValue(0);
+
+            private void settle() {
+                while (v < 0 && ++c < size)
+                    v = containers[c].nextValue(0);
+            }
+
+            public boolean hasNext() {
+                settle();
+                return c < size;
+            }
+
+            public int nextInt() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                int result = (keys[c] << 16) | v;
+                v = v == 0xffff ? -1 : containers[c].nextValue(v + 1);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * @return the number of bytes {@link #serialize} writes.
+     */
+    public int serializedSize() {
+        int bytes = 4;
+        for (int i = 0; i < size; i++) {
+            Container c = containers[i];
+            bytes += 6 + (c instanceof ArrayContainer ? 2 * c.cardinality() : 8 * BITMAP_WORDS);
+        }
+        return bytes;
+    }
+
+    /**
+     * Write the set as: number of containers, then for each container its key
+     * and cardinality, followed by its values if it has at most
+     * {@link #ARRAY_MAX} of them, by its bitmap otherwise.
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            Container c = containers[i];
+            dos.writeChar(keys[i]);
+            dos.writeInt(c.cardinality());
+            if (c instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) c;
+                for (int k = 0; k < a.n; k++)
+                    dos.writeChar(a.values[k]);
+            } else {
+                for (long w : ((BitmapContainer) c).words)
+                    dos.writeLong(w);
+            }
+        }
+    }
+
+    /**
+     * Read a set written by {@link #serialize}.
+     */
+    public static RoaringBitmap deserialize(DataInputStream dis) throws IOException {
+        RoaringBitmap r = new RoaringBitmap();
+        int n = dis.readInt();
+        r.keys = new char[n];
+        r.containers = new Container[n];
+        for (int i = 0; i < n; i++) {
+            char key = dis.readChar();
+            int card = dis.readInt();
+            Container c;
+            if (card <= ARRAY_MAX) {
+                char[] values = new char[card];
+                for (int k = 0; k < card; k++)
+                    values[k] = dis.readChar();
+                c = new ArrayContainer(values, card);
+            } else {
+                long[] words = new long[BITMAP_WORDS];
+                for (int w = 0; w < BITMAP_WORDS; w++)
+                    words[w] = dis.readLong();
+                c = new BitmapContainer(words, card);
+            }
+            r.keys[i] = key;
+            r.containers[i] = c;
+        }
+        r.size = n;
+        return r;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        PrimitiveIterator.OfInt it = iterator();
+        for (int k = 0; it.hasNext() && k < 20; k++) {
+            if (k > 0)
+                sb.append(", ");
+            sb.append(it.nextInt());
+        }
+        if (it.hasNext())
+            sb.append(", ...");
+        return sb.append("}").toString();
+    }
+}
@@ -18,6 +18,8 @@ public class SeqScan implements DbIterator {
 
     private DbFileIterator tupleIterator;
 
+    private Predicate[] predicates;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -33,11 +35,29 @@ public class SeqScan implements DbIterator {
      *                   todo 不明白上面的话什么意思
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that only returns the tuples satisfying a
+     * conjunction of predicates. The predicates are handed to
+     * {@link DbFile#iterator(TransactionId, Predicate[])}, so they are
+     * evaluated inside the access method instead of by a Filter operator
+     * stacked on top of the scan.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser).
+     * @param predicates the pushed-down predicates, with field indices
+     *                   referring to this scan's TupleDesc; may be null.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] predicates) {
         // some code goes here
         this.tid = tid;
         this.tableAlias = tableAlias;
         this.tableid = tableid;
-        tupleIterator = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        this.predicates = predicates;
+        tupleIterator = Database.getCatalog().getDbFile(tableid).iterator(tid, predicates);
     }
 
     /**
@@ -56,6 +76,24 @@ public class SeqScan implements DbIterator {
         return tableAlias;
     }
 
+    /**
+     * @return the id of the table this operator scans.
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the predicates pushed down into this scan, or null if none.
+     */
+    public Predicate[] getPredicates() {
+        return predicates;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      *
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin is an equality join that sorts both children on their join
+ * fields in memory, unless they already return tuples in that order, and
+ * merges the two sorted lists, pairing each outer tuple with the run of
+ * inner tuples with the same value. The result is sorted on the join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private final boolean sorted1;
+    private final boolean sorted2;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+    private ArrayList<Tuple> lefts;
+    private ArrayList<Tuple> rights;
+    //lefts[li]和rights[gStart, gEnd)的值相同，k是下一个要输出的内层tuple
+    private int li, ri, gStart, gEnd, k;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS
+     * @param child1
+     *            Iterator for the left (outer) relation
+     * @param child2
+     *            Iterator for the right (inner) relation
+     * @param sorted1
+     *            true if child1 returns its tuples in ascending order of
+     *            field1 of p, so they need not be sorted
+     * @param sorted2
+     *            true if child2 returns its tuples in ascending order of
+     *            field2 of p
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+            boolean sorted1, boolean sorted2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("sort-merge joins need an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.sorted1 = sorted1;
+        this.sorted2 = sorted2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the name of the outer join field, the field the result is
+     *         sorted on.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : 0;
+    }
+
+    private static ArrayList<Tuple> read(DbIterator child, final int field, boolean sorted)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        child.open();
+        while (child.hasNext())
+            tuples.add(child.next());
+        child.close();
+        if (!sorted) {
+            Collections.sort(tuples, new Comparator<Tuple>() {
+                public int compare(Tuple a, Tuple b) {
+                    return SortMergeJoin.compare(a.getField(field), b.getField(field));
+                }
+            });
+        }
+        return tuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        lefts = read(child1, p.getField1(), sorted1);
+        rights = read(child2, p.getField2(), sorted2);
+        li = ri = gStart = gEnd = k = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        lefts = null;
+        rights = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        li = ri = gStart = gEnd = k = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (li < lefts.size()) {
+            if (k < gEnd)
+                return new CompositeTuple(td, lefts.get(li), rights.get(k++));
+            Field key = lefts.get(li).getField(p.getField1());
+            if (gEnd > gStart) {
+                //这个外层tuple的一组输出完了；下一个外层tuple值相同就再用这一组
+                li++;
+                if (li < lefts.size() && compare(lefts.get(li).getField(p.getField1()),
+                        rights.get(gStart).getField(p.getField2())) == 0) {
+                    k = gStart;
+                } else {
+                    ri = gEnd;
+                    gStart = gEnd;
+                }
+                continue;
+            }
+            while (ri < rights.size() && compare(rights.get(ri).getField(p.getField2()), key) < 0)
+                ri++;
+            if (ri == rights.size())
+                return null;
+            if (compare(rights.get(ri).getField(p.getField2()), key) > 0) {
+                li++;
+                continue;
+            }
+            gStart = ri;
+            gEnd = ri;
+            while (gEnd < rights.size() && compare(rights.get(gEnd).getField(p.getField2()), key) == 0)
+                gEnd++;
+            k = gStart;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
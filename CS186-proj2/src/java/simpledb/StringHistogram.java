@@ -0,0 +1,267 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class to represent a histogram over a single String-based field, in two
+ * parts:
+ * <ul>
+ * <li>a prefix histogram: strings are mapped to integers preserving their
+ * order on the first four characters, and counted in an {@link IntHistogram}
+ * over the range of all such integers, so every StringHistogram with the
+ * same number of buckets has the same range and they merge exactly;
+ * <li>the most common values, found with the mergeable Misra-Gries summary
+ * of {@link #MCV_SIZE} counters: a counter undercounts its value by at most
+ * n / (MCV_SIZE + 1), and any value more frequent than that has a counter.
+ * </ul>
+ * Equality with a common value is estimated from its counter; other
+ * equalities, which the prefix histogram would estimate from all the strings
+ * sharing a prefix, are capped by the frequency of the least common of them.
+ * <p>
+ * Values can be removed again with {@link #removeValue}, which keeps the
+ * guarantees above for the values that remain.
+ */
+public class StringHistogram {
+
+    /** number of most common values tracked */
+    static final int MCV_SIZE = 32;
+
+    private final IntHistogram hist;
+    private final HashMap<String, long[]> mcv = new HashMap<String, long[]>();
+
+    /**
+     * Create a new StringHistogram with a specified number of buckets.
+     * <p>
+     * Our implementation is written in terms of an IntHistogram by converting
+     * each String to an integer.
+     *
+     * @param buckets
+     *            the number of buckets
+     */
+    public StringHistogram(int buckets) {
+        this(new IntHistogram(buckets, minVal(), maxVal()));
+    }
+
+    private StringHistogram(IntHistogram hist) {
+        this.hist = hist;
+    }
+
+    /**
+     * Convert a string to an integer, with the property that if the return
+     * value(s1) < return value(s2), then s1 < s2
+     */
+    private static int stringToInt(String s) {
+        int i;
+        int v = 0;
+        for (i = 3; i >= 0; i--) {
+            if (s.length() > 3 - i) {
+                int ci = (int) s.charAt(3 - i);
+                v += (ci) << (i * 8);
+            }
+        }
+
+        // XXX: hack to avoid getting wrong results for
+        // strings which don't output in the range min to max
+        if (!(s.equals("") || s.equals("zzzz"))) {
+            if (v < minVal()) {
+                v = minVal();
+            }
+
+            if (v > maxVal()) {
+                v = maxVal();
+            }
+        }
+
+        return v;
+    }
+
+    /** @return the maximum value indexed by the histogram */
+    static int maxVal() {
+        return stringToInt("zzzz");
+    }
+
+    /** @return the minimum value indexed by the histogram */
+    static int minVal() {
+        return stringToInt("");
+    }
+
+    /** Add a new value to thte histogram */
+    public synchronized void addValue(String s) {
+        hist.addValue(stringToInt(s));
+        long[] c = mcv.get(s);
+        if (c != null) {
+            c[0]++;
+        } else if (mcv.size() < MCV_SIZE) {
+            mcv.put(s, new long[] { 1 });
+        } else {
+            //计数器满了：所有计数减一，减到0的让出位置
+            decrement(1);
+        }
+    }
+
+    /** Remove a value added before */
+    public synchronized void removeValue(String s) {
+        hist.removeValue(stringToInt(s));
+        long[] c = mcv.get(s);
+        if (c != null && --c[0] <= 0)
+            mcv.remove(s);
+    }
+
+    // 所有计数减去d，去掉不再为正的
+    private void decrement(long d) {
+        java.util.Iterator<long[]> it = mcv.values().iterator();
+        while (it.hasNext()) {
+            long[] c = it.next();
+            c[0] -= d;
+            if (c[0] <= 0)
+                it.remove();
+        }
+    }
+
+    /**
+     * Multiply all counts, those of the most common values included, by r,
+     * so that a histogram of a sample counts the values of the whole table.
+     */
+    public synchronized void scale(double r) {
+        hist.scale(r);
+        for (long[] c : mcv.values())
+            c[0] = Math.round(c[0] * r);
+    }
+
+    /**
+     * @return a histogram counting the values of this one and other
+     */
+    public synchronized StringHistogram merge(StringHistogram other) {
+        StringHistogram result = new StringHistogram(hist.merge(other.hist));
+        for (HashMap<String, long[]> m : java.util.Arrays.asList(mcv, other.mcv)) {
+            for (Map.Entry<String, long[]> e : m.entrySet()) {
+                long[] c = result.mcv.get(e.getKey());
+                if (c == null)
+                    result.mcv.put(e.getKey(), new long[] { e.getValue()[0] });
+                else
+                    c[0] += e.getValue()[0];
+            }
+        }
+        if (result.mcv.size() > MCV_SIZE) {
+            //合并后超出的部分：都减去第MCV_SIZE+1大的计数
+            ArrayList<Long> sorted = new ArrayList<Long>();
+            for (long[] c : result.mcv.values())
+                sorted.add(c[0]);
+            Collections.sort(sorted, Collections.reverseOrder());
+            result.decrement(sorted.get(MCV_SIZE));
+        }
+        return result;
+    }
+
+    /**
+     * @return the most common values and their (under)estimated number of
+     *         occurrences.
+     */
+    public synchronized Map<String, Long> mostCommonValues() {
+        HashMap<String, Long> result = new HashMap<String, Long>();
+        for (Map.Entry<String, long[]> e : mcv.entrySet())
+            result.put(e.getKey(), e.getValue()[0]);
+        return result;
+    }
+
+    /**
+     * @return the number of values added, directly or by merging.
+     */
+    public synchronized long numValues() {
+        return hist.numValues();
+    }
+
+    /**
+     * Write the histogram to out, in the format read by {@link #read}.
+     */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        hist.write(out);
+        out.writeInt(mcv.size());
+        for (Map.Entry<String, long[]> e : mcv.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue()[0]);
+        }
+    }
+
+    /**
+     * Read a histogram written by {@link #write}.
+     */
+    public static StringHistogram read(DataInputStream in) throws IOException {
+        IntHistogram h = IntHistogram.read(in);
+        if (h.getMin() != minVal() || h.getMax() != maxVal())
+            throw new IOException("corrupt string histogram");
+        StringHistogram result = new StringHistogram(h);
+        int n = in.readInt();
+        if (n < 0 || n > MCV_SIZE)
+            throw new IOException("corrupt string histogram");
+        for (int i = 0; i < n; i++) {
+            String s = in.readUTF();
+            result.mcv.put(s, new long[] { in.readLong() });
+        }
+        return result;
+    }
+
+    /**
+     * Estimate the selectivity (as a double between 0 and 1) of the specified
+     * predicate over the specified string
+     *
+     * @param op
+     *            The operation being applied
+     * @param s
+     *            The string to apply op to
+     */
+    public synchronized double estimateSelectivity(Predicate.Op op, String s) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(s);
+        case NOT_EQUALS:
+            return 1 - equal(s);
+        default:
+            return hist.estimateSelectivity(op, stringToInt(s));
+        }
+    }
+
+    // the fraction of values equal to s
+    private double equal(String s) {
+        long total = hist.numValues();
+        if (total == 0)
+            return 0;
+        long[] c = mcv.get(s);
+        if (c != null)
+            return (double) c[0] / total;
+        double sel = hist.estimateSelectivity(Predicate.Op.EQUALS, stringToInt(s));
+        if (mcv.size() == MCV_SIZE) {
+            //不在常见值里的值不会比最不常见的那个更常见
+            long least = Long.MAX_VALUE;
+            for (long[] m : mcv.values())
+                least = Math.min(least, m[0]);
+            sel = Math.min(sel, (double) least / total);
+        }
+        return sel;
+    }
+
+    /**
+     * @return the average selectivity of an equality predicate with a value
+     *         drawn from the values in this histogram.
+     */
+    public synchronized double avgSelectivity() {
+        long total = hist.numValues();
+        if (total == 0)
+            return 0;
+        double common = 0;
+        for (long[] c : mcv.values())
+            common += ((double) c[0] / total) * ((double) c[0] / total);
+        return Math.max(common, hist.avgSelectivity());
+    }
+
+    public synchronized String toString() {
+        return hist.toString();
+    }
+}
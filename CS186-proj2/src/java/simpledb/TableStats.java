@@ -1,24 +1,385 @@
 package simpledb;
 
+import java.io.*;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
- * query. 
- * 
- * This class is not needed in implementing proj1 and proj2.
+ * query.
+ * <p>
+ * The statistics of a table are gathered in a single pass over its pages.
+ * The pages are split into ranges scanned in parallel by fork-join tasks,
+ * each summarizing its range in its own histograms; the summaries are then
+ * merged, see {@link EquiDepthHistogram#merge}. Pages are read straight from the
+ * file, not through the {@link BufferPool}, so gathering statistics neither
+ * takes locks nor evicts pages; a page cached in the BufferPool is read from
+ * its cached copy, which may be newer than the file.
+ * <p>
+ * Statistics can be persisted in a stats file next to the catalog (see
+ * {@link #statsFileFor}), so that a restart need not scan every table. The
+ * file starts with a header
+ * <p>
+ *      magic, format version, number of tables
+ * <p>
+ * followed by one entry per table
+ * <p>
+ *      table name, modification counter, payload length, payload
+ * <p>
+ * Entries are only decoded when the planner first asks for the statistics
+ * of their table.
+ * <p>
+ * Statistics are maintained incrementally: the tuples a transaction inserts
+ * or deletes through the {@link BufferPool} are added to or removed from the
+ * histograms and sketches of their table when it commits, and forgotten if
+ * it aborts. The modification counter counts the tuples changed since the
+ * statistics were computed; incremental updates keep counts right but not
+ * bucket boundaries, so once it exceeds {@link #STALE_FRACTION} of the table
+ * the statistics are recomputed in the background, and used meanwhile. If
+ * the table's page count drifts as much without going through the
+ * BufferPool, the statistics are recomputed on their next use.
  */
 public class TableStats {
 
     private static final ConcurrentHashMap<String, TableStats> statsMap = new ConcurrentHashMap<String, TableStats>();
 
+    /** The cost of reading a page in the {@link CostModel#DEFAULT} model. */
     static final int IOCOSTPERPAGE = 1000;
 
+    private static final int STATS_MAGIC = 0x53545453;
+    /** Format version of the stats file; files of other versions are ignored. */
+    static final int STATS_VERSION = 4;
+
+    /**
+     * Fraction of a table that may change before its statistics are
+     * recomputed.
+     */
+    static final double STALE_FRACTION = 0.1;
+
+    /** A stats file entry not decoded yet. */
+    private static class Persisted {
+        final AtomicLong modifications;
+        final byte[] payload;
+
+        Persisted(long modifications, byte[] payload) {
+            this.modifications = new AtomicLong(modifications);
+            this.payload = payload;
+        }
+    }
+
+    private static File statsFile = null;
+    private static final ConcurrentHashMap<String, Persisted> persisted = new ConcurrentHashMap<String, Persisted>();
+
+    //对get()按需加载或重算的statsMap视图
+    private static final Map<String, TableStats> statsView = new AbstractMap<String, TableStats>() {
+        @Override
+        public TableStats get(Object tablename) {
+            return tablename instanceof String ? getTableStats((String) tablename) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, TableStats>> entrySet() {
+            return Collections.unmodifiableMap(statsMap).entrySet();
+        }
+    };
+
+    /** A tuple inserted or deleted by a transaction that has not committed. */
+    private static class Change {
+        final int tableid;
+        final Field[] fields;
+        final int delta;
+
+        Change(int tableid, Tuple t, int delta) {
+            this.tableid = tableid;
+            this.fields = new Field[t.getTupleDesc().numFields()];
+            for (int i = 0; i < fields.length; i++)
+                fields[i] = t.getField(i);
+            this.delta = delta;
+        }
+    }
+
+    private static final ConcurrentHashMap<TransactionId, List<Change>> changes = new ConcurrentHashMap<TransactionId, List<Change>>();
+    //后台重算中的表
+    private static final ConcurrentHashMap<String, ForkJoinTask<?>> refreshing = new ConcurrentHashMap<String, ForkJoinTask<?>>();
+
+    /**
+     * @return the statistics of the named table, loading them from the stats
+     *         file or computing them if they are not known or the table has
+     *         changed behind the BufferPool's back, or null if there is no
+     *         such table.
+     */
     public static TableStats getTableStats(String tablename) {
-        return statsMap.get(tablename);
+        TableStats s = statsMap.get(tablename);
+        if (s != null && s.isCurrent(tablename))
+            return s;
+        return refresh(tablename);
+    }
+
+    // 在锁外解码或重算，算好之后compare-and-put；保存留到saveStatistics
+    private static TableStats refresh(String tablename) {
+        TableStats s = statsMap.get(tablename);
+        int tableid;
+        try {
+            tableid = Database.getCatalog().getTableId(tablename);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        if (s == null) {
+            TableStats loaded = load(tableid, tablename);
+            if (loaded != null && loaded.isCurrent(tablename)) {
+                loaded = publish(tablename, null, loaded);
+                if (loaded.isDrifting())
+                    scheduleRefresh(tablename, tableid);
+                return loaded;
+            }
+        }
+        return publish(tablename, s, new TableStats(tableid, pageCost()));
+    }
+
+    /**
+     * Replace the statistics of the named table by fresh if they are still
+     * expected (null: if there are none), and forget its stats file entry.
+     *
+     * @return the statistics of the table now: fresh, or those another
+     *         thread published first
+     */
+    private static TableStats publish(String tablename, TableStats expected, TableStats fresh) {
+        boolean replaced = expected == null ? statsMap.putIfAbsent(tablename, fresh) == null
+                : statsMap.replace(tablename, expected, fresh);
+        if (replaced) {
+            persisted.remove(tablename);
+            return fresh;
+        }
+        TableStats current = statsMap.get(tablename);
+        return current != null ? current : fresh;
+    }
+
+    // 解码stats文件中这个表的entry；表结构变了或者entry坏了返回null
+    private static TableStats load(int tableid, String tablename) {
+        Persisted p = persisted.get(tablename);
+        if (p == null)
+            return null;
+        try {
+            TableStats s = read(tableid, new DataInputStream(new ByteArrayInputStream(p.payload)));
+            if (s != null)
+                s.modifications.set(p.modifications.get());
+            return s;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the cost of reading a page in file order in the
+     *         {@link CostModel} in use, the page cost of the statistics
+     *         computed or loaded from now on.
+     */
+    static int pageCost() {
+        return (int) Math.max(1, Math.round(CostModel.get().seqPageCost()));
+    }
+
+    /**
+     * @return the stats file of the database described by catalogFile.
+     */
+    public static File statsFileFor(File catalogFile) {
+        return new File(catalogFile.getPath() + ".stats");
+    }
+
+    /**
+     * Use f as the stats file: forget all statistics known so far and read
+     * the entries of f, to be decoded when first used. If f does not exist,
+     * cannot be read or has another format version, statistics are computed
+     * as tables are used. Statistics computed from now on are saved to f by
+     * {@link #saveStatistics}, which the shell calls when it exits, and by
+     * {@link #computeStatistics}; if f is null, they are not saved.
+     */
+    public static synchronized void loadStatistics(File f) {
+        statsFile = f;
+        statsMap.clear();
+        persisted.clear();
+        if (f == null || !f.exists())
+            return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                if (in.readInt() != STATS_MAGIC || in.readInt() != STATS_VERSION)
+                    return;
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    String name = in.readUTF();
+                    long modifications = in.readLong();
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    persisted.put(name, new Persisted(modifications, payload));
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // 读不出来的stats文件就当没有
+            persisted.clear();
+        }
+    }
+
+    /**
+     * Write the known statistics, with their modification counters, to the
+     * stats file set by {@link #loadStatistics}, if any. The file is
+     * replaced atomically, so a crash leaves the previous version.
+     */
+    public static synchronized void saveStatistics() {
+        if (statsFile == null)
+            return;
+        File tmp = new File(statsFile.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                HashMap<String, Persisted> entries = new HashMap<String, Persisted>(persisted);
+                for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try {
+                        e.getValue().write(new DataOutputStream(bytes));
+                    } catch (NoSuchElementException ex) {
+                        // 表已经不在catalog里了
+                        continue;
+                    }
+                    entries.put(e.getKey(), new Persisted(e.getValue().modifications.get(),
+                            bytes.toByteArray()));
+                }
+                out.writeInt(STATS_MAGIC);
+                out.writeInt(STATS_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Persisted> e : entries.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue().modifications.get());
+                    out.writeInt(e.getValue().payload.length);
+                    out.write(e.getValue().payload);
+                }
+            } finally {
+                out.close();
+            }
+            java.nio.file.Files.move(tmp.toPath(), statsFile.toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                    java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // stats文件只是缓存，写不了下次启动重算就是了
+            e.printStackTrace();
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Record that transaction tid inserted t into the table; the statistics
+     * of the table count it once tid commits.
+     */
+    public static void recordInsert(TransactionId tid, int tableid, Tuple t) {
+        record(tid, new Change(tableid, t, 1));
+    }
+
+    /**
+     * Record that transaction tid deleted t from the table; the statistics
+     * of the table stop counting it once tid commits.
+     */
+    public static void recordDelete(TransactionId tid, int tableid, Tuple t) {
+        record(tid, new Change(tableid, t, -1));
+    }
+
+    private static void record(TransactionId tid, Change c) {
+        List<Change> list = changes.get(tid);
+        if (list == null) {
+            list = Collections.synchronizedList(new ArrayList<Change>());
+            List<Change> old = changes.putIfAbsent(tid, list);
+            if (old != null)
+                list = old;
+        }
+        list.add(c);
+    }
+
+    /**
+     * Apply the changes of transaction tid to the statistics of the tables
+     * it changed if it committed, or forget them if it aborted. Tables that
+     * have drifted too far from their statistics are recomputed in the
+     * background.
+     */
+    public static void transactionComplete(TransactionId tid, boolean commit) {
+        List<Change> list = changes.remove(tid);
+        if (list == null || !commit)
+            return;
+        //整个事务的修改都加上之后再重算，免得后面的修改又加到重算好的统计上
+        HashMap<String, Integer> drifting = new HashMap<String, Integer>();
+        synchronized (list) {
+            for (Change c : list)
+                apply(c, drifting);
+        }
+        for (Map.Entry<String, Integer> e : drifting.entrySet())
+            scheduleRefresh(e.getKey(), e.getValue());
+    }
+
+    // 把c加到它的表的统计上；统计偏离太多的表记进drifting
+    private static void apply(Change c, Map<String, Integer> drifting) {
+        String name;
+        try {
+            name = Database.getCatalog().getTableName(c.tableid);
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        TableStats s = statsMap.get(name);
+        if (s == null) {
+            //还没解码的entry现在解码，没有统计的表等第一次用到时再算
+            s = load(c.tableid, name);
+            if (s == null)
+                return;
+            s = publish(name, null, s);
+        }
+        if (s.tableid != c.tableid)
+            return;
+        s.update(c.fields, c.delta);
+        if (s.isDrifting())
+            drifting.put(name, c.tableid);
+    }
+
+    // 在pool里重算一个表的统计，算完替换掉旧的；同一个表同时只算一次
+    private static void scheduleRefresh(final String tablename, final int tableid) {
+        if (refreshing.containsKey(tablename))
+            return;
+        ForkJoinTask<?> task = ForkJoinTask.adapt(new Runnable() {
+            public void run() {
+                try {
+                    TableStats old = statsMap.get(tablename);
+                    TableStats fresh = new TableStats(tableid, pageCost());
+                    if (old != null && Database.getCatalog().getTableId(tablename) == tableid)
+                        publish(tablename, old, fresh);
+                } catch (NoSuchElementException e) {
+                    // 表已经不在了
+                } finally {
+                    refreshing.remove(tablename);
+                }
+            }
+        });
+        if (refreshing.putIfAbsent(tablename, task) == null)
+            pool.execute(task);
+    }
+
+    /**
+     * Wait for the background recomputations scheduled so far to finish.
+     */
+    static void awaitRefreshes() {
+        for (ForkJoinTask<?> task : refreshing.values())
+            task.quietlyJoin();
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
@@ -43,19 +404,42 @@ public class TableStats {
 
     }
 
+    /**
+     * @return the statistics of all tables by name; looking a table up loads
+     *         or recomputes its statistics as {@link #getTableStats} does.
+     */
     public static Map<String, TableStats> getStatsMap() {
-        return statsMap;
+        return statsView;
     }
 
+    /**
+     * Computes the statistics of every table in the catalog, the tables in
+     * parallel, and saves them to the stats file if there is one.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
+        final ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
         while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            final int tableid = tableIt.next();
+            tasks.add(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                protected void compute() {
+                    TableStats s = new TableStats(tableid, pageCost());
+                    setTableStats(Database.getCatalog().getTableName(tableid), s);
+                }
+            });
         }
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        saveStatistics();
         System.out.println("Done.");
     }
 
@@ -66,6 +450,339 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of pages a single task scans; larger ranges are split in two.
+     */
+    static final int PAGES_PER_TASK = 16;
+
+    /** Default page count above which statistics are computed from a sample. */
+    static final int SAMPLING_PAGE_THRESHOLD = 1000;
+
+    /** Default fraction of the pages read when sampling. */
+    static final double SAMPLE_FRACTION = 0.1;
+
+    private static volatile int samplingThreshold = SAMPLING_PAGE_THRESHOLD;
+    private static volatile double sampleFraction = SAMPLE_FRACTION;
+
+    /**
+     * Set when statistics are computed from a sample of the pages rather
+     * than from the whole table.
+     *
+     * @param pageThreshold
+     *            tables with more pages than this are sampled
+     * @param fraction
+     *            the fraction of their pages read, in (0, 1]
+     */
+    public static void setSampling(int pageThreshold, double fraction) {
+        if (pageThreshold < 0 || !(fraction > 0 && fraction <= 1))
+            throw new IllegalArgumentException("need pageThreshold >= 0 and 0 < fraction <= 1");
+        samplingThreshold = pageThreshold;
+        sampleFraction = fraction;
+    }
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    /**
+     * The statistics of a set of a table's pages. Summaries of disjoint sets
+     * merge into the summary of their union. Each field gets a histogram and
+     * a {@link HyperLogLog} sketch; when sampling, the number of occurrences
+     * of each value is also kept until {@link #extrapolate} turns it into
+     * distinct-value estimates.
+     */
+    private static class Summary {
+        int pages;
+        int tuples;
+        boolean sampled;
+        final EquiDepthHistogram[] ints;
+        final StringHistogram[] strings;
+        final HyperLogLog[] sketches;
+        List<HashMap<Field, int[]>> counts;
+        final double[] distinct;
+        final double[] distinctLow;
+        final double[] distinctHigh;
+
+        Summary(int numFields, boolean counting) {
+            ints = new EquiDepthHistogram[numFields];
+            strings = new StringHistogram[numFields];
+            sketches = new HyperLogLog[numFields];
+            for (int i = 0; i < numFields; i++)
+                sketches[i] = new HyperLogLog();
+            if (counting) {
+                counts = new ArrayList<HashMap<Field, int[]>>(numFields);
+                for (int i = 0; i < numFields; i++)
+                    counts.add(new HashMap<Field, int[]>());
+            }
+            distinct = new double[numFields];
+            distinctLow = new double[numFields];
+            distinctHigh = new double[numFields];
+        }
+
+        Summary merge(Summary other) {
+            Summary result = new Summary(ints.length, false);
+            result.pages = pages + other.pages;
+            result.tuples = tuples + other.tuples;
+            for (int i = 0; i < ints.length; i++) {
+                result.ints[i] = ints[i] == null ? other.ints[i]
+                        : other.ints[i] == null ? ints[i] : ints[i].merge(other.ints[i]);
+                result.strings[i] = strings[i] == null ? other.strings[i]
+                        : other.strings[i] == null ? strings[i] : strings[i].merge(other.strings[i]);
+                result.sketches[i] = sketches[i].merge(other.sketches[i]);
+            }
+            if (counts != null && other.counts != null) {
+                result.counts = counts;
+                for (int i = 0; i < ints.length; i++)
+                    result.counts.set(i, mergeCounts(counts.get(i), other.counts.get(i)));
+            }
+            return result;
+        }
+
+        // 把小的并到大的里面；两个参数之后都不再用了
+        private static HashMap<Field, int[]> mergeCounts(HashMap<Field, int[]> a,
+                HashMap<Field, int[]> b) {
+            if (a.size() < b.size()) {
+                HashMap<Field, int[]> t = a;
+                a = b;
+                b = t;
+            }
+            for (Map.Entry<Field, int[]> e : b.entrySet()) {
+                int[] c = a.get(e.getKey());
+                if (c == null)
+                    a.put(e.getKey(), e.getValue());
+                else
+                    c[0] += e.getValue()[0];
+            }
+            return a;
+        }
+
+        /**
+         * Scale a summary of some of the pages of a table up to all its
+         * tablePages pages, and estimate the number of distinct values of
+         * each field. The counts of the histograms, those of the most common
+         * strings included, are scaled with the number of tuples, so that
+         * they count tuples of the table, not of the sample.
+         * <p>
+         * The distinct-value estimate of a sample is GEE (Charikar et al.,
+         * "Towards estimation error guarantees for distinct values"): values
+         * seen more than once in the sample are assumed to be all the
+         * frequent values, and each value seen exactly once stands for
+         * sqrt(n/r) values, n being the number of tuples and r the sample
+         * size. The number of distinct values is at least the number seen,
+         * and at most that plus n/r - 1 per value seen once; GEE is within a
+         * factor sqrt(n/r) of the truth. After a full scan the estimate is
+         * that of the HyperLogLog sketch, bounded by three standard errors.
+         */
+        void extrapolate(int tablePages) {
+            double ratio = pages == 0 ? 1 : (double) tablePages / pages;
+            long total = Math.round(tuples * ratio);
+            double r = tuples == 0 ? 1 : (double) total / tuples;
+            for (int i = 0; i < ints.length; i++) {
+                if (counts == null) {
+                    double e = Math.min(total, sketches[i].estimate());
+                    double err = 3 * HyperLogLog.relativeError();
+                    distinct[i] = e;
+                    distinctLow[i] = Math.min(e, Math.max(total > 0 ? 1 : 0, e * (1 - err)));
+                    distinctHigh[i] = Math.min(total, e * (1 + err));
+                    continue;
+                }
+                int d = counts.get(i).size(), f1 = 0;
+                for (int[] c : counts.get(i).values())
+                    if (c[0] == 1)
+                        f1++;
+                distinct[i] = d - f1 + f1 * Math.sqrt(r);
+                distinctLow[i] = d;
+                distinctHigh[i] = Math.min(total, d - f1 + f1 * r);
+            }
+            sampled = tablePages != pages;
+            if (sampled) {
+                for (int i = 0; i < ints.length; i++) {
+                    if (ints[i] != null)
+                        ints[i].scale(r);
+                    if (strings[i] != null)
+                        strings[i].scale(r);
+                }
+            }
+            pages = tablePages;
+            tuples = (int) total;
+            counts = null;
+        }
+    }
+
+    /**
+     * Builds the Summary of the tuples of a page range, or of a whole file
+     * that is not a HeapFile. The values of each INT field are kept until
+     * the end of the range and sorted to draw equi-depth bucket boundaries,
+     * so the range is read once.
+     */
+    private static class Summarizer {
+        private final TupleDesc td;
+        private final Summary summary;
+        private final int[][] values;
+        private int n = 0;
+
+        /**
+         * @param counting
+         *            count the occurrences of each value, for the
+         *            distinct-value estimates of a sample
+         */
+        Summarizer(TupleDesc td, boolean counting) {
+            this.td = td;
+            this.summary = new Summary(td.numFields(), counting);
+            this.values = new int[td.numFields()][];
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    values[i] = new int[64];
+                else
+                    summary.strings[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+        }
+
+        void add(Tuple t) {
+            for (int i = 0; i < values.length; i++) {
+                summary.sketches[i].add(t.getField(i));
+                if (summary.counts != null) {
+                    int[] c = summary.counts.get(i).get(t.getField(i));
+                    if (c == null)
+                        summary.counts.get(i).put(t.getField(i), new int[] { 1 });
+                    else
+                        c[0]++;
+                }
+                if (values[i] == null) {
+                    summary.strings[i].addValue(((StringField) t.getField(i)).getValue());
+                    continue;
+                }
+                if (n == values[i].length)
+                    values[i] = Arrays.copyOf(values[i], n * 2);
+                values[i][n] = ((IntField) t.getField(i)).getValue();
+            }
+            n++;
+        }
+
+        Summary finish(int pages) {
+            summary.pages = pages;
+            summary.tuples = n;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null || n == 0)
+                    continue;
+                summary.ints[i] = EquiDepthHistogram.build(NUM_HIST_BINS, values[i], n);
+            }
+            return summary;
+        }
+    }
+
+    /**
+     * Summarizes pages [from, to) of a HeapFile, or if pages is not null the
+     * pages pages[from] to pages[to - 1], splitting them among subtasks if
+     * there are more than {@link #PAGES_PER_TASK}.
+     */
+    private static class ScanTask extends RecursiveTask<Summary> {
+        private static final long serialVersionUID = 1L;
+
+        private final HeapFile file;
+        private final int[] pages;
+        private final int from;
+        private final int to;
+
+        ScanTask(HeapFile file, int[] pages, int from, int to) {
+            this.file = file;
+            this.pages = pages;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Summary compute() {
+            if (to - from > PAGES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                ScanTask right = new ScanTask(file, pages, mid, to);
+                right.fork();
+                Summary left = new ScanTask(file, pages, from, mid).compute();
+                return left.merge(right.join());
+            }
+            Summarizer s = new Summarizer(file.getTupleDesc(), pages != null);
+            for (int i = from; i < to; i++) {
+                int p = pages == null ? i : pages[i];
+                Iterator<Tuple> it = readPage(file, new HeapPageId(file.getId(), p)).iterator();
+                while (it.hasNext())
+                    s.add(it.next());
+            }
+            return s.finish(to - from);
+        }
+    }
+
+    // BufferPool里有这一页就用它的拷贝，它可能有还没写回文件的修改
+    private static HeapPage readPage(HeapFile file, HeapPageId pid) {
+        Page cached = Database.getBufferPool().getCachedPage(pid);
+        if (cached != null) {
+            try {
+                return new HeapPage(pid, cached.getPageData());
+            } catch (IOException e) {
+                // 读文件里的版本
+            }
+        }
+        return (HeapPage) file.readPage(pid);
+    }
+
+    /**
+     * @return k page numbers drawn uniformly without replacement from
+     *         [0, numPages), in increasing order, chosen by reservoir
+     *         sampling in a single pass over the page numbers.
+     */
+    static int[] samplePages(int numPages, int k, Random random) {
+        int[] reservoir = new int[Math.min(k, numPages)];
+        for (int p = 0; p < numPages; p++) {
+            if (p < reservoir.length) {
+                reservoir[p] = p;
+            } else {
+                int j = random.nextInt(p + 1);
+                if (j < reservoir.length)
+                    reservoir[j] = p;
+            }
+        }
+        //按页号顺序读
+        Arrays.sort(reservoir);
+        return reservoir;
+    }
+
+    private static Summary summarize(int tableid) {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (!(file instanceof HeapFile))
+            return scan(file);
+        HeapFile hf = (HeapFile) file;
+        int numPages = hf.numPages();
+        int[] pages = null;
+        if (numPages > samplingThreshold) {
+            int k = Math.max(1, (int) Math.ceil(sampleFraction * numPages));
+            pages = samplePages(numPages, k, new Random());
+        }
+        ScanTask task = new ScanTask(hf, pages, 0, pages == null ? numPages : pages.length);
+        //computeStatistics里已经在pool中了，直接在当前线程执行并fork子任务
+        Summary s = ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+        s.extrapolate(numPages);
+        return s;
+    }
+
+    // 不是HeapFile的表只能用它自己的iterator顺序扫一遍
+    private static Summary scan(DbFile file) {
+        TransactionId tid = new TransactionId();
+        Summarizer s = new Summarizer(file.getTupleDesc(), false);
+        java.util.HashSet<PageId> pages = new java.util.HashSet<PageId>();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                pages.add(t.getRecordId().getPageId());
+                s.add(t);
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (Exception e) {
+            throw new RuntimeException("could not scan table " + file.getId(), e);
+        }
+        Summary summary = s.finish(pages.size());
+        summary.extrapolate(pages.size());
+        return summary;
+    }
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -76,15 +793,170 @@ public class TableStats {
      *            The cost per page of IO. This doesn't differentiate between
      *            sequential-scan IO and disk seeks.
      */
+    private int tableid;
+    private int ioCostPerPage;
+    private volatile int numPages;
+    private volatile int numTuples;
+    private final EquiDepthHistogram[] intHistograms;
+    private final StringHistogram[] stringHistograms;
+    private final HyperLogLog[] sketches;
+    private final boolean sampled;
+    private final double[] distinct;
+    private final double[] distinctLow;
+    private final double[] distinctHigh;
+    //这份统计算出来之后表被修改的tuple数
+    private final AtomicLong modifications = new AtomicLong();
+
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this(tableid, ioCostPerPage, summarize(tableid));
+    }
+
+    private TableStats(int tableid, int ioCostPerPage, Summary s) {
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = s.pages;
+        this.numTuples = s.tuples;
+        this.intHistograms = s.ints;
+        this.stringHistograms = s.strings;
+        this.sketches = s.sketches;
+        this.sampled = s.sampled;
+        this.distinct = s.distinct;
+        this.distinctLow = s.distinctLow;
+        this.distinctHigh = s.distinctHigh;
+    }
+
+    /**
+     * @return true if these are the statistics of the table now named
+     *         tablename and its page count has not drifted by more than
+     *         {@link #STALE_FRACTION} from the one they know.
+     */
+    private boolean isCurrent(String tablename) {
+        try {
+            if (Database.getCatalog().getTableId(tablename) != tableid)
+                return false;
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+        //没有经过BufferPool的修改(比如换了数据文件)只能从页数看出来
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        return !(file instanceof HeapFile)
+                || Math.abs(((HeapFile) file).numPages() - numPages) <= STALE_FRACTION * numPages;
+    }
+
+    /**
+     * @return true if more than {@link #STALE_FRACTION} of the table has
+     *         changed since these statistics were computed.
+     */
+    private boolean isDrifting() {
+        return modifications.get() > STALE_FRACTION * Math.max(1, numTuples);
+    }
+
+    /**
+     * @return the number of tuples inserted or deleted by committed
+     *         transactions since these statistics were computed.
+     */
+    public long modifications() {
+        return modifications.get();
+    }
+
+    /**
+     * Add (delta = 1) or remove (delta = -1) a tuple with the given fields:
+     * the tuple count, histograms, min and max are kept exact, and inserted
+     * values are added to the sketches. Removed values stay in the sketches,
+     * so the distinct-value estimates may be too high until the statistics
+     * are recomputed. The histograms of sampled statistics count tuples of
+     * the table too (see {@link Summary#extrapolate}), so one tuple counts
+     * once in them as well.
+     */
+    private synchronized void update(Field[] fields, int delta) {
+        numTuples = Math.max(0, numTuples + delta);
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (file instanceof HeapFile)
+            numPages = ((HeapFile) file).numPages();
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] instanceof IntField) {
+                int v = ((IntField) fields[i]).getValue();
+                if (intHistograms[i] != null)
+                    intHistograms[i].add(v, delta);
+                else if (delta > 0)
+                    intHistograms[i] = EquiDepthHistogram.build(NUM_HIST_BINS, new int[] { v }, 1);
+            } else {
+                String v = ((StringField) fields[i]).getValue();
+                if (stringHistograms[i] == null && delta > 0)
+                    stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+                if (delta > 0)
+                    stringHistograms[i].addValue(v);
+                else if (stringHistograms[i] != null)
+                    stringHistograms[i].removeValue(v);
+            }
+            if (delta > 0)
+                sketches[i].add(fields[i]);
+            if (!sampled) {
+                double e = Math.min(numTuples, sketches[i].estimate());
+                double err = 3 * HyperLogLog.relativeError();
+                distinct[i] = e;
+                distinctLow[i] = Math.min(e, Math.max(numTuples > 0 ? 1 : 0, e * (1 - err)));
+                distinctHigh[i] = Math.min(numTuples, e * (1 + err));
+            } else {
+                distinct[i] = Math.min(distinct[i], numTuples);
+                distinctHigh[i] = Math.min(distinctHigh[i], numTuples);
+                distinctLow[i] = Math.min(distinctLow[i], distinct[i]);
+            }
+        }
+        modifications.incrementAndGet();
+        QueryPlanCache.statisticsChanged();
+    }
+
+    private synchronized void write(DataOutputStream out) throws IOException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++)
+            out.writeBoolean(td.getFieldType(i) == Type.INT_TYPE);
+        out.writeInt(numPages);
+        out.writeInt(numTuples);
+        out.writeBoolean(sampled);
+        for (int i = 0; i < intHistograms.length; i++) {
+            out.writeDouble(distinct[i]);
+            out.writeDouble(distinctLow[i]);
+            out.writeDouble(distinctHigh[i]);
+            sketches[i].write(out);
+            if (intHistograms[i] != null) {
+                out.writeBoolean(true);
+                intHistograms[i].write(out);
+            } else if (stringHistograms[i] != null) {
+                out.writeBoolean(true);
+                stringHistograms[i].write(out);
+            } else {
+                out.writeBoolean(false);
+            }
+        }
+    }
+
+    // 读write()写的内容；字段和表现在的不一样就返回null
+    private static TableStats read(int tableid, DataInputStream in) throws IOException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        if (in.readInt() != td.numFields())
+            return null;
+        for (int i = 0; i < td.numFields(); i++)
+            if (in.readBoolean() != (td.getFieldType(i) == Type.INT_TYPE))
+                return null;
+        Summary s = new Summary(td.numFields(), false);
+        s.pages = in.readInt();
+        s.tuples = in.readInt();
+        s.sampled = in.readBoolean();
+        for (int i = 0; i < td.numFields(); i++) {
+            s.distinct[i] = in.readDouble();
+            s.distinctLow[i] = in.readDouble();
+            s.distinctHigh[i] = in.readDouble();
+            s.sketches[i] = HyperLogLog.read(in);
+            if (!in.readBoolean())
+                continue;
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                s.ints[i] = EquiDepthHistogram.read(in);
+            else
+                s.strings[i] = StringHistogram.read(in);
+        }
+        return new TableStats(tableid, pageCost(), s);
     }
 
     /**
@@ -100,8 +972,61 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples satisfying a predicate with
+     * selectivity selectivityFactor through an index on this table: the
+     * {@link IndexFile#lookupPages} pages read to find the first entry, then
+     * one heap page read per matching tuple, since the heap is not ordered by
+     * the index key. All of them are read at arbitrary positions. Further leaf or overflow page reads are ignored; an
+     * index page holds hundreds of entries.
+     *
+     * @return The estimated cost of the index scan, comparable with
+     *         {@link #estimateScanCost}.
+     */
+    public double estimateIndexScanCost(IndexFile index, double selectivityFactor) {
+        return (index.lookupPages() + estimateTableCardinality(selectivityFactor))
+                * randomPageCost();
+    }
+
+    /**
+     * Estimates the cost of an {@link IndexOnlyScan} of a covering index
+     * whose key predicate has selectivity selectivityFactor: the
+     * {@link IndexFile#lookupPages} pages read to find the first entry, then
+     * the matching fraction of the leaves, in order. No heap page is read.
+     *
+     * @return The estimated cost of the index-only scan, comparable with
+     *         {@link #estimateScanCost}.
+     */
+    public double estimateIndexOnlyScanCost(BTreeFile index, double selectivityFactor) {
+        return index.lookupPages() * randomPageCost()
+                + selectivityFactor * Math.max(0, index.numPages() - 1) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of a {@link BitmapHeapScan} combining numIndexes
+     * bitmap indexes, whose predicates together have selectivity
+     * selectivityFactor: one page per index, then the heap pages holding a
+     * matching tuple. The heap is read in file order, so each page is read at
+     * most once, however many of its tuples match; the pages skipped make
+     * each read one at an arbitrary position.
+     *
+     * @return The estimated cost of the bitmap scan, comparable with
+     *         {@link #estimateScanCost}.
+     */
+    public double estimateBitmapScanCost(int numIndexes, double selectivityFactor) {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        double pages = estimateTableCardinality(selectivityFactor);
+        if (file instanceof HeapFile)
+            pages = Math.min(pages, ((HeapFile) file).numPages());
+        return (numIndexes + pages) * randomPageCost();
+    }
+
+    // 按CostModel里随机读和顺序读的比例，从这份统计的顺序读代价算随机读一页的代价
+    private double randomPageCost() {
+        return ioCostPerPage * CostModel.get().randomToSequential();
     }
 
     /**
@@ -114,8 +1039,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -129,8 +1053,23 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        double eq;
+        if (intHistograms[field] != null)
+            eq = intHistograms[field].avgSelectivity();
+        else if (stringHistograms[field] != null)
+            eq = stringHistograms[field].avgSelectivity();
+        else
+            return 1.0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        default:
+            //不知道常量，范围谓词平均取一半
+            return 0.5;
+        }
     }
 
     /**
@@ -144,19 +1083,62 @@ public class TableStats {
      * @param constant
      *            The value against which the field is compared
      * @return The estimated selectivity (fraction of tuples that satisfy) the
-     *         predicate
+     *         predicate, corrected by what {@link CardinalityFeedback} has
+     *         learned about it
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        double sel = histogramSelectivity(field, op, constant);
+        if (CardinalityFeedback.isEmpty())
+            return sel;
+        return Math.min(1.0, sel * CardinalityFeedback.correction(
+                CardinalityFeedback.predicateKey(tableid, field, op, constant)));
+    }
+
+    private double histogramSelectivity(int field, Predicate.Op op, Field constant) {
+        if (constant instanceof IntField && intHistograms[field] != null)
+            return intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        if (constant instanceof StringField && stringHistograms[field] != null)
+            return stringHistograms[field].estimateSelectivity(op, ((StringField) constant).getValue());
+        //空表没有直方图
+        return numTuples == 0 ? 0.0 : 1.0;
+    }
+
+    /**
+     * @return true if these statistics were computed from a sample of the
+     *         table's pages, see {@link #setSampling}.
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * @return the estimated number of distinct values of the field.
+     */
+    public double estimateDistinct(int field) {
+        return distinct[field];
+    }
+
+    /**
+     * @return a lower bound on the number of distinct values of the field;
+     *         exact unless the statistics were sampled.
+     */
+    public double distinctLowerBound(int field) {
+        return distinctLow[field];
+    }
+
+    /**
+     * @return an upper bound on the number of distinct values of the field,
+     *         assuming the sample is representative of the table.
+     */
+    public double distinctUpperBound(int field) {
+        return distinctHigh[field];
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
@@ -22,7 +22,8 @@ public class TransactionId implements Serializable {
     }
 
     public boolean equals(Object tid) {
-        return ((TransactionId)tid).myid == myid;
+        //干净的页isDirty()返回null
+        return tid instanceof TransactionId && ((TransactionId)tid).myid == myid;
     }
 
     public int hashCode() {
@@ -8,6 +8,12 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Operators that only rearrange fields (joins, projections) may return views
+ * that reference the fields of other tuples instead of copying them, see
+ * {@link CompositeTuple} and {@link ProjectedTuple}. Views are read-only;
+ * call {@link #materialize} before keeping a tuple beyond the lifetime of
+ * the operator that produced it.
  */
 public class Tuple implements Serializable {
 
@@ -33,6 +39,15 @@ public class Tuple implements Serializable {
         fields = new Field[tupleDesc.numFields()];
     }
 
+    /**
+     * Constructor for views, which do not store their own fields and must
+     * override {@link #getField} and {@link #setField}.
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.tupleDesc = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -89,6 +104,26 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * @return a tuple with the same schema, record id and field values as this
+     *         one that owns its fields. A tuple that already owns its fields
+     *         returns itself.
+     */
+    public Tuple materialize() {
+        return this;
+    }
+
+    /**
+     * Copy the fields of this tuple into a new, independent Tuple.
+     */
+    protected Tuple copy() {
+        Tuple t = new Tuple(tupleDesc);
+        for (int i = 0; i < t.fields.length; i++)
+            t.fields[i] = getField(i);
+        t.setRecordId(recordId);
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -100,8 +135,8 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder stringBuilder = new StringBuilder("");
-        for (Field field : fields) {
-            stringBuilder.append(field).append('\t');
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            stringBuilder.append(getField(i)).append('\t');
         }
         return stringBuilder.replace(stringBuilder.length() - 1, stringBuilder.length(), "\n").toString();
     }
@@ -121,11 +156,11 @@ public class Tuple implements Serializable {
         int pos = 0;
         @Override
         public boolean hasNext() {
-            return pos < fields.length;
+            return pos < tupleDesc.numFields();
         }
         @Override
         public Field next() {
-            return fields[pos++];
+            return getField(pos++);
         }
     }
 }
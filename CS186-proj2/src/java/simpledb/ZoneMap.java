@@ -0,0 +1,477 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * ZoneMap keeps a small summary of every page of a HeapFile: the number of
+ * tuples on the page, and the minimum and maximum value of each INT_TYPE
+ * column. Scans use it to skip pages that cannot contain a tuple matching
+ * their predicates, without fetching those pages through the BufferPool.
+ * <p>
+ * The summary is stored in a sidecar file next to the heap file (see
+ * {@link #sidecarFor}). The sidecar starts with a header
+ * <p>
+ *      magic, number of INT columns, generation, length and modification
+ *      time of the heap file, CRC32 of its first and last pages
+ * <p>
+ * followed by one fixed size record per page
+ * <p>
+ *      tuple count, (min, max) for each INT column
+ * <p>
+ * so that the record of a single page can be rewritten in place when that
+ * page is written. A record with a negative tuple count describes a page that
+ * has not been summarized yet; such pages are never skipped.
+ * <p>
+ * The header is updated each time the heap file writes a page, so that it
+ * describes the heap file as the database last wrote it. If the heap file
+ * does not match it when the zone map is loaded, the file was replaced or
+ * changed outside the database (by {@link HeapFileEncoder}, for instance):
+ * the sidecar is ignored and the heap file gets a new generation, a random
+ * number the indexes of the table record to detect that they describe an
+ * older version of it (see {@link HeapFile#getGeneration}).
+ * <p>
+ * Bounds are conservative: inserts widen them, but deletes only lower the
+ * tuple count, so min/max may be looser than the page contents until the
+ * page is written and summarized again. Pages changed in memory but not yet
+ * summarized are written to the sidecar as unknown, so the sidecar never
+ * describes page contents that are not on disk. The pages a transaction
+ * changed become unknown if it aborts, since their counts may no longer
+ * match their contents; they are summarized again when next read clean or
+ * written.
+ * <p>
+ * A zone map is safe for use by concurrent scans and writers: its arrays
+ * are reallocated as the heap file grows, so every access holds its lock.
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5a4d4150;
+    private static final int HEADER_SIZE = 40;
+    /** tuple count of a page that has not been summarized */
+    private static final int UNKNOWN = -1;
+
+    private final File heapFile;
+    private final File sidecar;
+    private long generation;
+    //header里记录的heap文件：长度、修改时间、第一页和最后一页的CRC
+    private long heapLength;
+    private long heapModified;
+    private int firstCrc;
+    private int lastCrc;
+    //column index -> INT column number in the summary, -1 for other types
+    private final int[] intCol;
+    private final int numIntCols;
+
+    private int numPages;
+    private int[] counts;
+    //page changed by recordInsert/recordDelete since it was last summarized
+    private boolean[] pending;
+    private int[][] mins;
+    private int[][] maxs;
+    //pages changed by each transaction that has not completed
+    private final HashMap<TransactionId, HashSet<Integer>> changedBy = new HashMap<TransactionId, HashSet<Integer>>();
+
+    /**
+     * @return the sidecar file holding the zone map of the given heap file.
+     */
+    public static File sidecarFor(File heapFile) {
+        return new File(heapFile.getPath() + ".zm");
+    }
+
+    /**
+     * Create an empty zone map (every page unknown) for heapFile, a table
+     * with the given schema, with a new generation.
+     */
+    public ZoneMap(File heapFile, TupleDesc td) {
+        this.heapFile = heapFile;
+        this.sidecar = sidecarFor(heapFile);
+        this.generation = new Random().nextLong();
+        this.intCol = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < intCol.length; i++)
+            intCol[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        this.numIntCols = n;
+        this.numPages = 0;
+        this.counts = new int[0];
+        this.pending = new boolean[0];
+        this.mins = new int[0][];
+        this.maxs = new int[0][];
+    }
+
+    /**
+     * Load the zone map of heapFile from its sidecar. If the sidecar does not
+     * exist, cannot be read or describes a different version of the heap
+     * file, an empty zone map with a new generation is returned, and saved
+     * so that the generation is kept.
+     */
+    public static ZoneMap load(File heapFile, TupleDesc td) {
+        ZoneMap zm = new ZoneMap(heapFile, td);
+        try {
+            if (zm.sidecar.exists() && zm.read())
+                return zm;
+        } catch (IOException e) {
+            // an unreadable sidecar just means nothing can be skipped
+        }
+        zm.numPages = 0;
+        try {
+            if (heapFile.exists())
+                zm.save();
+        } catch (IOException e) {
+            //存不下来的话下次打开又是新的generation，index会重建
+            e.printStackTrace();
+        }
+        return zm;
+    }
+
+    // 读sidecar；header和heap文件对不上返回false
+    private boolean read() throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(sidecar)));
+        try {
+            if (dis.readInt() != MAGIC || dis.readInt() != numIntCols)
+                return false;
+            long gen = dis.readLong();
+            long length = dis.readLong();
+            long modified = dis.readLong();
+            int first = dis.readInt();
+            int last = dis.readInt();
+            fingerprint();
+            if (length != heapLength || modified != heapModified || first != firstCrc
+                    || last != lastCrc)
+                return false;
+            generation = gen;
+            int pages = (int) ((sidecar.length() - HEADER_SIZE) / recordSize());
+            ensureCapacity(pages);
+            for (int p = 0; p < pages; p++) {
+                counts[p] = dis.readInt();
+                for (int c = 0; c < numIntCols; c++) {
+                    mins[p][c] = dis.readInt();
+                    maxs[p][c] = dis.readInt();
+                }
+            }
+            numPages = pages;
+            return true;
+        } finally {
+            dis.close();
+        }
+    }
+
+    // 从磁盘上的heap文件重新算header里的各项
+    private void fingerprint() throws IOException {
+        heapLength = heapFile.length();
+        heapModified = heapFile.exists() ? modified(heapFile) : 0;
+        int pages = (int) (heapLength / BufferPool.PAGE_SIZE);
+        firstCrc = pages > 0 ? crc(readHeapPage(0)) : 0;
+        lastCrc = pages > 0 ? crc(readHeapPage(pages - 1)) : 0;
+    }
+
+    private byte[] readHeapPage(int pageNo) throws IOException {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(heapFile, "r");
+        try {
+            raf.seek((long) pageNo * BufferPool.PAGE_SIZE);
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return data;
+    }
+
+    private static long modified(File f) throws IOException {
+        return Files.getLastModifiedTime(f.toPath()).to(TimeUnit.NANOSECONDS);
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the generation of the heap file: a random number drawn when
+     *         the heap file was created or found changed outside the
+     *         database.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    private int recordSize() {
+        return 4 * (1 + 2 * numIntCols);
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages <= counts.length)
+            return;
+        int cap = Math.max(pages, counts.length * 2);
+        int old = counts.length;
+        counts = Arrays.copyOf(counts, cap);
+        pending = Arrays.copyOf(pending, cap);
+        mins = Arrays.copyOf(mins, cap);
+        maxs = Arrays.copyOf(maxs, cap);
+        for (int p = old; p < cap; p++) {
+            counts[p] = UNKNOWN;
+            mins[p] = new int[numIntCols];
+            maxs[p] = new int[numIntCols];
+        }
+    }
+
+    private void reset(int pageNo, int count) {
+        ensureCapacity(pageNo + 1);
+        if (pageNo >= numPages) {
+            for (int p = numPages; p < pageNo; p++)
+                counts[p] = UNKNOWN;
+            numPages = pageNo + 1;
+        }
+        counts[pageNo] = count;
+        pending[pageNo] = false;
+        Arrays.fill(mins[pageNo], Integer.MAX_VALUE);
+        Arrays.fill(maxs[pageNo], Integer.MIN_VALUE);
+    }
+
+    private void widen(int pageNo, Tuple t) {
+        for (int i = 0; i < intCol.length; i++) {
+            int c = intCol[i];
+            if (c < 0)
+                continue;
+            int v = ((IntField) t.getField(i)).getValue();
+            if (v < mins[pageNo][c])
+                mins[pageNo][c] = v;
+            if (v > maxs[pageNo][c])
+                maxs[pageNo][c] = v;
+        }
+    }
+
+    /**
+     * @return true if the page has been summarized.
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return pageNo < numPages && counts[pageNo] != UNKNOWN;
+    }
+
+    /**
+     * @return the number of tuples on the page, or -1 if it is unknown.
+     */
+    public synchronized int tupleCount(int pageNo) {
+        return isKnown(pageNo) ? counts[pageNo] : UNKNOWN;
+    }
+
+    /**
+     * Replace the summary of a page with the exact contents of page.
+     */
+    public synchronized void summarize(HeapPage page) {
+        int pageNo = page.getId().pageNumber();
+        reset(pageNo, 0);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            widen(pageNo, it.next());
+            counts[pageNo]++;
+        }
+    }
+
+    /**
+     * Record that transaction tid has inserted t on page pageNo.
+     */
+    public synchronized void recordInsert(TransactionId tid, int pageNo, Tuple t) {
+        if (!isKnown(pageNo))
+            return;
+        widen(pageNo, t);
+        counts[pageNo]++;
+        pending[pageNo] = true;
+        changed(tid, pageNo);
+    }
+
+    /**
+     * Record that transaction tid has deleted a tuple from page pageNo. The
+     * min/max bounds of the page are left as they are.
+     */
+    public synchronized void recordDelete(TransactionId tid, int pageNo) {
+        if (isKnown(pageNo) && counts[pageNo] > 0) {
+            counts[pageNo]--;
+            pending[pageNo] = true;
+            changed(tid, pageNo);
+        }
+    }
+
+    private void changed(TransactionId tid, int pageNo) {
+        HashSet<Integer> pages = changedBy.get(tid);
+        if (pages == null) {
+            pages = new HashSet<Integer>();
+            changedBy.put(tid, pages);
+        }
+        pages.add(pageNo);
+    }
+
+    /**
+     * Forget the changes transaction tid recorded if it committed; if it
+     * aborted, the pages it changed become unknown, so that they are never
+     * skipped on counts the abort made wrong.
+     */
+    public synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        HashSet<Integer> pages = changedBy.remove(tid);
+        if (pages == null || commit)
+            return;
+        for (int pageNo : pages) {
+            if (pageNo < numPages) {
+                counts[pageNo] = UNKNOWN;
+                pending[pageNo] = false;
+            }
+        }
+    }
+
+    /**
+     * Set the summary of a page directly; used by {@link HeapFileEncoder},
+     * which sees the tuples of each page as it writes them.
+     *
+     * @param mins the minimum of each field of the page, indexed by field
+     *             number; entries of non INT fields are ignored
+     * @param maxs the maximum of each field, as for mins
+     */
+    public synchronized void setPage(int pageNo, int count, int[] mins, int[] maxs) {
+        reset(pageNo, count);
+        for (int i = 0; i < intCol.length; i++) {
+            int c = intCol[i];
+            if (c >= 0 && count > 0) {
+                this.mins[pageNo][c] = mins[i];
+                this.maxs[pageNo][c] = maxs[i];
+            }
+        }
+    }
+
+    /**
+     * Decide whether a page may hold a tuple satisfying every predicate in
+     * preds. Only comparisons of INT fields against IntField constants are
+     * used; every other predicate is assumed to match.
+     *
+     * @return false only if no tuple of the page can satisfy preds
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate[] preds) {
+        if (!isKnown(pageNo))
+            return true;
+        if (counts[pageNo] == 0)
+            return false;
+        if (preds == null)
+            return true;
+        for (Predicate p : preds) {
+            int f = p.getField();
+            if (f < 0 || f >= intCol.length || intCol[f] < 0
+                    || !(p.getOperand() instanceof IntField))
+                continue;
+            int min = mins[pageNo][intCol[f]];
+            int max = maxs[pageNo][intCol[f]];
+            int v = ((IntField) p.getOperand()).getValue();
+            boolean may;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                may = min <= v && v <= max;
+                break;
+            case NOT_EQUALS:
+                may = !(min == v && max == v);
+                break;
+            case GREATER_THAN:
+                may = max > v;
+                break;
+            case GREATER_THAN_OR_EQ:
+                may = max >= v;
+                break;
+            case LESS_THAN:
+                may = min < v;
+                break;
+            case LESS_THAN_OR_EQ:
+                may = min <= v;
+                break;
+            default:
+                may = true;
+            }
+            if (!may)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write the whole zone map to its sidecar, describing the heap file as
+     * it is on disk now.
+     */
+    public synchronized void save() throws IOException {
+        fingerprint();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(sidecar)));
+        try {
+            writeHeader(dos);
+            for (int p = 0; p < numPages; p++)
+                writeRecord(dos, p);
+        } finally {
+            dos.close();
+        }
+    }
+
+    /**
+     * Record that the heap file has just written data as page pageNo, and
+     * save the record of the page with the new header.
+     */
+    public synchronized void pageWritten(int pageNo, byte[] data) throws IOException {
+        heapLength = heapFile.length();
+        heapModified = modified(heapFile);
+        if (pageNo == 0)
+            firstCrc = crc(data);
+        if ((pageNo + 1) * (long) BufferPool.PAGE_SIZE == heapLength)
+            lastCrc = crc(data);
+        savePage(pageNo);
+    }
+
+    /**
+     * Write the record of one page to the sidecar in place, with the header.
+     * Falls back to {@link #save} if the sidecar does not exist yet.
+     */
+    public synchronized void savePage(int pageNo) throws IOException {
+        if (!sidecar.exists()) {
+            save();
+            return;
+        }
+        RandomAccessFile raf = new RandomAccessFile(sidecar, "rw");
+        try {
+            if (raf.length() < HEADER_SIZE + (long) pageNo * recordSize()) {
+                // records in between are missing; rewrite everything
+                raf.close();
+                save();
+                return;
+            }
+            ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_SIZE);
+            writeHeader(new DataOutputStream(header));
+            raf.write(header.toByteArray());
+            raf.seek(HEADER_SIZE + (long) pageNo * recordSize());
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize());
+            writeRecord(new DataOutputStream(baos), pageNo);
+            raf.write(baos.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void writeHeader(DataOutputStream dos) throws IOException {
+        dos.writeInt(MAGIC);
+        dos.writeInt(numIntCols);
+        dos.writeLong(generation);
+        dos.writeLong(heapLength);
+        dos.writeLong(heapModified);
+        dos.writeInt(firstCrc);
+        dos.writeInt(lastCrc);
+    }
+
+    private void writeRecord(DataOutputStream dos, int pageNo) throws IOException {
+        dos.writeInt(pending[pageNo] ? UNKNOWN : counts[pageNo]);
+        for (int c = 0; c < numIntCols; c++) {
+            dos.writeInt(mins[pageNo][c]);
+            dos.writeInt(maxs[pageNo][c]);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class AdaptiveJoinPlanTest extends SimpleDbTestBase {
+
+    private HashMap<String, TableStats> stats;
+    private int[] ids;
+
+    // a table of two columns with the given values, and its statistics
+    private int table(String name, int[][] values) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int[] v : values) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(v[0]);
+            t.add(v[1]);
+            tuples.add(t);
+        }
+        File f = TestUtil.createTempFile("adaptive", ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = Utility.openHeapFile(2, "c", f);
+        Database.getCatalog().addTable(hf, name);
+        stats.put(name, new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE));
+        return hf.getId();
+    }
+
+    /**
+     * Tables a, b and c, where the two filters on a select the same tuples
+     * but are estimated as if they were independent, so that a's scan is
+     * estimated to return a tenth of what it does.
+     */
+    @Before public void createTables() throws Exception {
+        CardinalityFeedback.clear();
+        stats = new HashMap<String, TableStats>();
+        Random r = new Random(47);
+        int[][] a = new int[2000][], b = new int[300][], c = new int[400][];
+        for (int i = 0; i < a.length; i++)
+            a[i] = new int[] { i % 10, i % 10 };
+        for (int i = 0; i < b.length; i++)
+            b[i] = new int[] { r.nextInt(10), r.nextInt(50) };
+        for (int i = 0; i < c.length; i++)
+            c[i] = new int[] { r.nextInt(50), r.nextInt(1000) };
+        ids = new int[] { table("a", a), table("b", b), table("c", c) };
+    }
+
+    @After public void enable() {
+        AdaptiveJoinPlan.setEnabled(true);
+        CardinalityFeedback.clear();
+    }
+
+    private LogicalPlan query() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(ids[0], "a");
+        lp.addScan(ids[1], "b");
+        lp.addScan(ids[2], "c");
+        lp.addFilter("a.c0", Predicate.Op.LESS_THAN, "1");
+        lp.addFilter("a.c1", Predicate.Op.LESS_THAN, "1");
+        // a on the inner side, where the hash join builds its table
+        lp.addJoin("b.c0", "a.c0", Predicate.Op.EQUALS);
+        lp.addJoin("b.c1", "c.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+        return lp;
+    }
+
+    private static ArrayList<String> rows(DbIterator plan) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext())
+            result.add(plan.next().toString());
+        plan.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A filtered table built into a hash table ten times bigger than
+     * estimated makes the remaining joins be ordered again, and the query
+     * returns the same tuples, with their fields in the same order, as the
+     * plan it was built with; opening it again does the same.
+     */
+    @Test public void reordersAfterMisestimate() throws Exception {
+        AdaptiveJoinPlan.setEnabled(false);
+        DbIterator fixed = query().physicalPlan(new TransactionId(), stats, false);
+        ArrayList<String> expected = rows(fixed);
+        assertFalse(expected.isEmpty());
+        AdaptiveJoinPlan.setEnabled(true);
+        CardinalityFeedback.clear();
+
+        DbIterator plan = query().physicalPlan(new TransactionId(), stats, false);
+        AdaptiveJoinPlan adaptive = (AdaptiveJoinPlan) ((Operator) plan).getChildren()[0];
+        assertEquals(fixed.getTupleDesc(), plan.getTupleDesc());
+        assertEquals(expected, rows(plan));
+        assertEquals(1, adaptive.reoptimizations());
+        CardinalityFeedback.clear();
+        assertEquals(expected, rows(plan));
+        assertEquals(1, adaptive.reoptimizations());
+    }
+
+    /**
+     * Plans joining two tables, and plans built while re-ordering is
+     * disabled, run as they were planned.
+     */
+    @Test public void onlyLargerJoins() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(ids[0], "a");
+        lp.addScan(ids[1], "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+        DbIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof AdaptiveJoinPlan);
+
+        AdaptiveJoinPlan.setEnabled(false);
+        plan = query().physicalPlan(new TransactionId(), stats, false);
+        assertFalse(((Operator) plan).getChildren()[0] instanceof AdaptiveJoinPlan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AdaptiveJoinPlanTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    /**
+     * A bulk loaded index returns exactly the matching tuples, in key order,
+     * for every operator.
+     */
+    @Test public void buildAndSearch() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+        BTreeFile index = BTreeFile.build(TestUtil.createTempFile("btree", ".idx"), hf, 0);
+        Database.getCatalog().addIndex(index);
+        assertTrue(index.numPages() > 3);
+        TransactionId tid = new TransactionId();
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v : new int[] { -1, 0, 500, 999, 1000 }) {
+                IntField f = new IntField(v);
+                int expected = 0;
+                for (ArrayList<Integer> t : tuples) {
+                    if (new IntField(t.get(0)).compare(op, f))
+                        expected++;
+                }
+                IndexScan scan = new IndexScan(tid, index, "t", new IndexPredicate(op, f));
+                assertEquals(op + " " + v, expected, TestUtil.count(scan, 0, op, f, true));
+            }
+        }
+
+        // other predicates are applied to the tuples read through the index
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 100 && t.get(1) > 500)
+                expected++;
+        }
+        IndexScan scan = new IndexScan(tid, index, "t",
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(100)),
+                new Predicate[] { new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500)) });
+        assertEquals(expected, TestUtil.count(scan, 0, null, null, true));
+    }
+
+    /**
+     * Inserting through the BufferPool splits leaves and internal pages, and
+     * deletes remove entries; the changes survive a flush and a fresh
+     * BufferPool.
+     */
+    @Test public void insertDeleteAndReload() throws Exception {
+        // long string keys give small fanout, so a few thousand keys need a
+        // tree of height three
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File heap = TestUtil.createTempFile("btree", ".dat");
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, "btree_strings");
+        BTreeFile index = new BTreeFile(TestUtil.createTempFile("btree", ".idx"), hf, 1);
+        Database.getCatalog().addIndex(index);
+
+        int rows = 3000;
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            // keys are not inserted in order, and each one occurs twice
+            t.setField(1, new StringField(String.format("key%05d", (i * 7919) % (rows / 2)), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+
+        StringField k = new StringField("key00042", Type.STRING_LEN);
+        IndexPredicate eq = new IndexPredicate(Predicate.Op.EQUALS, k);
+        assertEquals(rows, TestUtil.count(new IndexScan(tid, index, "s", null), 1, null, null,
+                true));
+        assertEquals(2, TestUtil.count(new IndexScan(tid, index, "s", eq), 1,
+                Predicate.Op.EQUALS, k, true));
+
+        // delete every tuple with an even first field
+        Iterator<Tuple> it = inserted.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertEquals(rows / 2, TestUtil.count(new IndexScan(tid, index, "s", null), 1, null,
+                null, true));
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BTreeHeaderPage header = (BTreeHeaderPage) index.readPage(new BTreePageId(index.getId(), 0));
+        Page root = index.readPage(new BTreePageId(index.getId(), header.getRoot()));
+        assertTrue(root instanceof BTreeInternalPage);
+        int child = ((BTreeInternalPage) root).getChild(0);
+        assertTrue(index.readPage(new BTreePageId(index.getId(), child)) instanceof BTreeInternalPage);
+        assertEquals(rows / 2, TestUtil.count(new IndexScan(tid, index, "s", null), 1, null,
+                null, true));
+        IndexPredicate ge = new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ,
+                new StringField("key01000", Type.STRING_LEN));
+        assertEquals(rows / 2 - 1000, TestUtil.count(new IndexScan(tid, index, "s", ge), 1,
+                null, null, true));
+        // the flushed header records the length the heap file has grown to
+        new BTreeFile(index.getFile(), hf, 1);
+    }
+
+    /**
+     * An index file is not reopened over a heap file regenerated since it
+     * was built, even one of the same size.
+     */
+    @Test public void staleIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples);
+        File f = TestUtil.createTempFile("btree", ".idx");
+        BTreeFile.build(f, hf, 0);
+        new BTreeFile(f, hf, 0);
+
+        long length = hf.getFile().length();
+        java.util.Collections.reverse(tuples);
+        HeapFileEncoder.convert(tuples, hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertEquals(length, hf.getFile().length());
+        HeapFile regenerated = Utility.openHeapFile(2, hf.getFile());
+        try {
+            new BTreeFile(f, regenerated, 0);
+            fail("expected an IOException");
+        } catch (java.io.IOException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    /**
+     * Predicates on two bitmap indexed columns are intersected before the
+     * heap is read, and the residual predicate is applied to the tuples read;
+     * inserts and deletes keep the bitmaps up to date across a reload.
+     */
+    @Test public void combineInsertDeleteAndReload() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 6000, 8, new HashMap<Integer,
+                Integer>(), tuples);
+        BitmapIndex b0 = BitmapIndex.build(TestUtil.createTempFile("bitmap", ".bmp"), hf, 0);
+        BitmapIndex b1 = BitmapIndex.build(TestUtil.createTempFile("bitmap", ".bmp"), hf, 1);
+        Database.getCatalog().addIndex(b0);
+        Database.getCatalog().addIndex(b1);
+        assertSame(b1, Database.getCatalog().getBitmapIndex(hf.getId(), 1));
+        TransactionId tid = new TransactionId();
+
+        IndexPredicate eq3 = new IndexPredicate(Predicate.Op.EQUALS, new IntField(3));
+        IndexPredicate ne5 = new IndexPredicate(Predicate.Op.NOT_EQUALS, new IntField(5));
+        Predicate[] residual = new Predicate[] {
+                new Predicate(2, Predicate.Op.LESS_THAN, new IntField(4)) };
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 3 && t.get(1) != 5 && t.get(2) < 4)
+                expected++;
+        }
+        BitmapHeapScan scan = new BitmapHeapScan(tid, new BitmapIndex[] { b0, b1 },
+                new IndexPredicate[] { eq3, ne5 }, "b", residual);
+        assertEquals(expected, TestUtil.count(scan));
+
+        // a single index can also be searched like any other IndexFile
+        int threes = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 3)
+                threes++;
+        }
+        assertEquals(threes, TestUtil.count(new IndexScan(tid, b0, "b", eq3)));
+        assertEquals(6000, TestUtil.count(new IndexScan(tid, b1, "b", null)));
+
+        // insert tuples with a new key, then delete the tuples with key 3
+        for (int i = 0; i < 100; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(42));
+            t.setField(1, new IntField(i));
+            t.setField(2, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        DbIterator threesScan = new IndexScan(tid, b0, "b", eq3);
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        threesScan.open();
+        while (threesScan.hasNext())
+            victims.add(threesScan.next());
+        threesScan.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BitmapIndex reopened = new BitmapIndex(b0.getFile(), hf, 0);
+        assertEquals(0, TestUtil.count(new IndexScan(tid, reopened, "b", eq3)));
+        assertEquals(100, TestUtil.count(new IndexScan(tid, reopened, "b",
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(42)))));
+        assertEquals(6100 - threes, TestUtil.count(new IndexScan(tid, reopened, "b", null)));
+        assertEquals(50, TestUtil.count(new BitmapHeapScan(tid, new BitmapIndex[] { reopened, b1 },
+                new IndexPredicate[] { new IndexPredicate(Predicate.Op.GREATER_THAN, new IntField(8)),
+                        new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(50)) },
+                "b", null)));
+    }
+
+    /**
+     * An index file is not reopened over a heap file regenerated since it
+     * was written, even one of the same size.
+     */
+    @Test public void staleIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, 8, null, tuples);
+        File f = TestUtil.createTempFile("bitmap", ".bmp");
+        BitmapIndex.build(f, hf, 0);
+        new BitmapIndex(f, hf, 0);
+
+        long length = hf.getFile().length();
+        java.util.Collections.reverse(tuples);
+        HeapFileEncoder.convert(tuples, hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertEquals(length, hf.getFile().length());
+        HeapFile regenerated = Utility.openHeapFile(2, hf.getFile());
+        try {
+            new BitmapIndex(f, regenerated, 0);
+            fail("expected an IOException");
+        } catch (java.io.IOException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CardinalityFeedbackTest extends SimpleDbTestBase {
+
+    @Before public void forget() {
+        CardinalityFeedback.clear();
+    }
+
+    @After public void forgetAgain() {
+        CardinalityFeedback.clear();
+    }
+
+    // run plan to the end, returning the number of tuples it returned
+    // the monitor below the projection at the top of a plan
+    private static CardinalityMonitor monitor(DbIterator plan) {
+        return (CardinalityMonitor) ((Operator) plan).getChildren()[0];
+    }
+
+    /**
+     * A correction multiplies the next estimate so that it matches what was
+     * counted, and stays put once it does.
+     */
+    @Test public void correction() {
+        assertEquals(1.0, CardinalityFeedback.correction("k"), 1e-9);
+        CardinalityFeedback.record("k", 100, 1.0, 1000);
+        assertEquals(10.0, CardinalityFeedback.correction("k"), 1e-9);
+        CardinalityFeedback.record("k", 1000, 10.0, 1000);
+        assertEquals(10.0, CardinalityFeedback.correction("k"), 1e-9);
+        CardinalityFeedback.record("k", 1e9, 1.0, 0);
+        assertEquals(CardinalityFeedback.MIN_FACTOR, CardinalityFeedback.correction("k"), 1e-12);
+    }
+
+    /**
+     * Filters on correlated columns, estimated as if they were independent,
+     * are estimated from what the last run of the same filters returned;
+     * a correction of a single predicate applies to its selectivity.
+     */
+    @Test public void correlatedFilters() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i % 100);
+            t.add(i % 100);
+            tuples.add(t);
+        }
+        File f = TestUtil.createTempFile("feedback", ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        HeapFile hf = Utility.openHeapFile(2, "c", f);
+        Database.getCatalog().addTable(hf, "correlated");
+        TableStats s = new TableStats(hf.getId(), TableStats.IOCOSTPERPAGE);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("correlated", s);
+
+        int[] estimates = new int[2];
+        for (int run = 0; run < 2; run++) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.addScan(hf.getId(), "t");
+            lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "50");
+            lp.addFilter("t.c1", Predicate.Op.LESS_THAN, "50");
+            lp.addProjectField("t.c0", null);
+            DbIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+            estimates[run] = monitor(plan).getEstimatedCardinality();
+            assertEquals(1000, TestUtil.count(plan));
+        }
+        assertEquals(500, estimates[0], 50);
+        assertEquals(1000, estimates[1], 1);
+
+        double sel = s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(20));
+        CardinalityFeedback.record(CardinalityFeedback.predicateKey(hf.getId(), 0,
+                Predicate.Op.LESS_THAN, new IntField(20)), 100, 1.0, 200);
+        assertEquals(2 * sel, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(20)), 1e-9);
+        assertEquals(sel, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(21)), 0.01);
+    }
+
+    /**
+     * A join whose cardinality was underestimated is estimated from what it
+     * returned the last time it ran, in any query joining the same tables the
+     * same way.
+     */
+    @Test public void joinFeedback() throws Exception {
+        ArrayList<ArrayList<Integer>> t1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> t2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 400, 10, null, t1, "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 100, 10, null, t2, "c");
+        Database.getCatalog().addTable(f1, "r");
+        Database.getCatalog().addTable(f2, "s");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        // statistics that take every value to be distinct
+        stats.put("r", new JoinOptimizerTest.FixedStats(f1.getId(), 400));
+        stats.put("s", new JoinOptimizerTest.FixedStats(f2.getId(), 100));
+
+        int actual = 0;
+        for (ArrayList<Integer> a : t1)
+            for (ArrayList<Integer> b : t2)
+                if (a.get(0).equals(b.get(0)))
+                    actual++;
+
+        int[] estimates = new int[2];
+        for (int run = 0; run < 2; run++) {
+            LogicalPlan lp = new LogicalPlan();
+            // different aliases, and the join written the other way round
+            lp.addScan(f1.getId(), run == 0 ? "a" : "x");
+            lp.addScan(f2.getId(), run == 0 ? "b" : "y");
+            if (run == 0)
+                lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+            else
+                lp.addJoin("y.c0", "x.c0", Predicate.Op.EQUALS);
+            lp.addProjectField(run == 0 ? "a.c0" : "x.c0", null);
+            DbIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+            estimates[run] = monitor(plan).getEstimatedCardinality();
+            assertEquals(actual, TestUtil.count(plan));
+        }
+        assertEquals(100, estimates[0]);
+        assertEquals(actual, estimates[1], 1);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CardinalityFeedbackTest.class);
+    }
+}
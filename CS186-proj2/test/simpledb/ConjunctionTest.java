@@ -0,0 +1,54 @@
+package simpledb;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+public class ConjunctionTest extends SimpleDbTestBase {
+
+  /**
+   * String comparisons are ordered after int comparisons before anything
+   * has been measured.
+   */
+  @Test public void priorsPutStringsLast() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+    Predicate s = new Predicate(0, Predicate.Op.LIKE, new StringField("ab", Type.STRING_LEN));
+    Predicate i = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(3));
+    Conjunction c = new Conjunction(new Predicate[] { s, i }, td);
+    assertSame(i, c.getPredicates()[0]);
+    assertSame(s, c.getPredicates()[1]);
+  }
+
+  /**
+   * A predicate that rejects almost every tuple moves in front of one that
+   * accepts everything, and the result of the conjunction never changes.
+   */
+  @Test public void selectiveFirst() {
+    TupleDesc td = Utility.getTupleDesc(2);
+    Predicate all = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+    Predicate few = new Predicate(1, Predicate.Op.EQUALS, new IntField(0));
+    Conjunction c = new Conjunction(new Predicate[] { all, few }, td);
+    assertSame(all, c.getPredicates()[0]);
+
+    int passed = 0, expected = 0;
+    int n = Conjunction.SAMPLE_PERIOD * Conjunction.REORDER_PERIOD * 4;
+    for (int k = 0; k < n; k++) {
+      if (k % 100 == 0)
+        expected++;
+      if (c.filter(Utility.getHeapTuple(new int[] { k, k % 100 })))
+        passed++;
+    }
+    assertEquals(expected, passed);
+    assertSame(few, c.getPredicates()[0]);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ConjunctionTest.class);
+  }
+}
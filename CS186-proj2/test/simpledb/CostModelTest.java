@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CostModelTest extends SimpleDbTestBase {
+
+    @After public void restore() {
+        CostModel.set(CostModel.DEFAULT);
+    }
+
+    /**
+     * Calibration measures positive costs, with page reads dearer than
+     * evaluating a predicate, leaves no table behind in the catalog, and the
+     * model it measured is read back from the cost file.
+     */
+    @Test public void calibrate() throws Exception {
+        File catalog = File.createTempFile("catalog", ".txt");
+        catalog.deleteOnExit();
+        File costFile = CostModel.costFileFor(catalog);
+        costFile.deleteOnExit();
+
+        CostModel m = CostModel.loadOrCalibrate(costFile);
+        assertSame(m, CostModel.get());
+        assertTrue(costFile.exists());
+        assertTrue(m.seqPageCost() > m.predicateCost());
+        assertTrue(m.randomPageCost() > 0);
+        assertTrue(m.hashCost() > 0);
+        assertFalse(Database.getCatalog().tableIdIterator().hasNext());
+
+        CostModel loaded = CostModel.load(costFile);
+        assertEquals(m.seqPageCost(), loaded.seqPageCost(), 1e-9);
+        assertEquals(m.randomPageCost(), loaded.randomPageCost(), 1e-9);
+        assertEquals(m.hashCost(), loaded.hashCost(), 1e-9);
+        assertEquals(m.readsCached(), loaded.readsCached());
+        CostModel.set(CostModel.DEFAULT);
+        CostModel.loadOrCalibrate(costFile);
+        assertEquals(m.seqPageCost(), CostModel.get().seqPageCost(), 1e-9);
+        costFile.delete();
+    }
+
+    /**
+     * Statistics computed under a model charge its sequential page cost for
+     * scans and its random page cost for index lookups; joins charge its
+     * hash cost per tuple hashed.
+     */
+    @Test public void costsFollowModel() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null,
+                new java.util.ArrayList<java.util.ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(f, "model");
+        CostModel.set(new CostModel(20, 200, 4));
+        TableStats s = TableStats.getTableStats("model");
+        assertEquals(f.numPages() * 20.0, s.estimateScanCost(), 1e-9);
+        assertEquals((2 + f.numPages()) * 200.0, s.estimateBitmapScanCost(2, 1.0), 1e-9);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "a");
+        lp.addScan(f.getId(), "b");
+        JoinOptimizer jo = new JoinOptimizer(lp, new java.util.Vector<LogicalJoinNode>());
+        LogicalJoinNode j = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS);
+        CostCard outer = new CostCard(), inner = new CostCard();
+        outer.cost = inner.cost = 100;
+        outer.card = inner.card = 10;
+        outer.width = inner.width = 8;
+        assertEquals(200 + 20 * 4.0, jo.estimateJoinCost(j, LogicalJoinNode.Algorithm.HASH,
+                outer, inner, false), 1e-9);
+        assertEquals(100 + 10 * 100 + 100.0, jo.estimateJoinCost(j,
+                LogicalJoinNode.Algorithm.NESTED_LOOP, outer, inner, false), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CostModelTest.class);
+    }
+}
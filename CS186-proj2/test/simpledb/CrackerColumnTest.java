@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CrackerColumnTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] RANGE_OPS = { Predicate.Op.EQUALS,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private static int expected(ArrayList<ArrayList<Integer>> tuples, Predicate.Op op, int v,
+            int minField1) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(0)).compare(op, new IntField(v)) && t.get(1) >= minField1)
+                n++;
+        }
+        return n;
+    }
+
+    private static int count(DbIterator it, Predicate.Op op, int v) throws Exception {
+        it.open();
+        int n = 0;
+        HashSet<RecordId> seen = new HashSet<RecordId>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(t.getField(0).compare(op, new IntField(v)));
+            assertTrue(seen.add(t.getRecordId()));
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Repeated range queries return exactly the matching tuples while the
+     * column is cracked into more and more pieces.
+     */
+    @Test public void crackOnRepeatedQueries() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+        assertNull(hf.getCrackerColumn(0));
+        hf.setCracking(true);
+        CrackerColumn column = hf.getCrackerColumn(0);
+        assertSame(column, hf.getCrackerColumn(0));
+        assertFalse(column.isLoaded());
+        TransactionId tid = new TransactionId();
+
+        Random r = new Random(42);
+        Predicate[] residual = { new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)) };
+        for (int q = 0; q < 200; q++) {
+            Predicate.Op op = RANGE_OPS[r.nextInt(RANGE_OPS.length)];
+            int v = r.nextInt(1100) - 50;
+            CrackerScan scan = new CrackerScan(tid, column, "t", new Predicate(0, op, new IntField(v)),
+                    q % 2 == 0 ? null : residual);
+            assertEquals(op + " " + v, expected(tuples, op, v, q % 2 == 0 ? Integer.MIN_VALUE : 500),
+                    count(scan, op, v));
+        }
+        assertTrue(column.isLoaded());
+        assertTrue(column.numPieces() > 100);
+
+        int v = Integer.MAX_VALUE;
+        assertEquals(0, count(new CrackerScan(tid, column, "t",
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(v)), null), Predicate.Op.GREATER_THAN, v));
+    }
+
+    /**
+     * Inserts and deletes after the column was cracked are applied to it in
+     * place, keeping the pieces.
+     */
+    @Test public void insertAndDeleteAfterCracking() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples);
+        hf.setCracking(true);
+        CrackerColumn column = hf.getCrackerColumn(0);
+        TransactionId tid = new TransactionId();
+        for (int v = 0; v < 1000; v += 100) {
+            Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(v));
+            assertEquals(expected(tuples, Predicate.Op.LESS_THAN, v, Integer.MIN_VALUE),
+                    count(new CrackerScan(tid, column, "t", p, null), Predicate.Op.LESS_THAN, v));
+        }
+        int pieces = column.numPieces();
+
+        Random r = new Random(7);
+        for (int i = 0; i < 1500; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            int v = r.nextInt(1000);
+            t.setField(0, new IntField(v));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            row.add(v);
+            row.add(i);
+            tuples.add(row);
+        }
+        // delete every tuple whose key is a multiple of 3
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                victims.add(t);
+        }
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+        ArrayList<ArrayList<Integer>> remaining = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) % 3 != 0)
+                remaining.add(t);
+        }
+
+        assertEquals(pieces, column.numPieces());
+        for (Predicate.Op op : RANGE_OPS) {
+            for (int v : new int[] { -1, 0, 100, 150, 500, 999, 1000 }) {
+                CrackerScan scan = new CrackerScan(tid, column, "t", new Predicate(0, op, new IntField(v)), null);
+                assertEquals(op + " " + v, expected(remaining, op, v, Integer.MIN_VALUE), count(scan, op, v));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CrackerColumnTest.class);
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class EquiDepthHistogramTest {
+
+    // a skewed column: half the values are 7, the rest spread over [0, 10000)
+    private static int[] skewed(Random r, int n) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++)
+            values[i] = i % 2 == 0 ? 7 : r.nextInt(10000);
+        return values;
+    }
+
+    private static double fraction(int[] values, Predicate.Op op, int v) {
+        int n = 0;
+        for (int x : values)
+            if (new IntField(x).compare(op, new IntField(v)))
+                n++;
+        return (double) n / values.length;
+    }
+
+    /**
+     * A value making up half of the column gets its own bucket and an exact
+     * frequency, and ranges stay accurate around it, where a fixed-width
+     * histogram spreads it over its whole bucket.
+     */
+    @Test public void skewedColumn() {
+        int[] values = skewed(new Random(44), 20000);
+        EquiDepthHistogram h = EquiDepthHistogram.build(100, values.clone(), values.length);
+        assertEquals(values.length, h.numValues());
+        assertTrue(h.numBuckets() <= 101);
+        assertEquals(fraction(values, Predicate.Op.EQUALS, 7),
+                h.estimateSelectivity(Predicate.Op.EQUALS, 7), 1e-9);
+        assertEquals(0.5 / 10000, h.estimateSelectivity(Predicate.Op.EQUALS, 5000), 0.5 / 10000);
+        for (int v = 0; v < 10000; v += 250) {
+            for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+                    Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN_OR_EQ }) {
+                assertEquals(fraction(values, op, v), h.estimateSelectivity(op, v), 0.01);
+            }
+        }
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, -1), 1e-9);
+        assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 20000), 1e-9);
+        //常见值7占一半，随机取一个值等于另一个值的概率大约是1/4
+        assertEquals(0.25, h.avgSelectivity(), 0.01);
+
+        IntHistogram fixed = new IntHistogram(100, 0, 9999);
+        for (int v : values)
+            fixed.addValue(v);
+        assertTrue(fixed.estimateSelectivity(Predicate.Op.EQUALS, 7) < 0.01);
+    }
+
+    /**
+     * Histograms of parts of a column merge into one close to the histogram
+     * of the whole column, keeping the common value's bucket.
+     */
+    @Test public void merge() {
+        int[] values = skewed(new Random(45), 20000);
+        EquiDepthHistogram merged = null;
+        for (int from = 0; from < values.length; from += 1000) {
+            int[] part = java.util.Arrays.copyOfRange(values, from, from + 1000);
+            EquiDepthHistogram h = EquiDepthHistogram.build(100, part, part.length);
+            merged = merged == null ? h : merged.merge(h);
+        }
+        assertEquals(values.length, merged.numValues());
+        assertTrue(merged.numBuckets() <= 101);
+        assertEquals(0.5, merged.estimateSelectivity(Predicate.Op.EQUALS, 7), 0.01);
+        for (int v = 0; v < 10000; v += 250)
+            assertEquals(fraction(values, Predicate.Op.LESS_THAN, v),
+                    merged.estimateSelectivity(Predicate.Op.LESS_THAN, v), 0.01);
+    }
+
+    /**
+     * Adding and removing values one at a time keeps the counts exact, also
+     * for values outside every bucket, and removing what was added gives
+     * back the original estimates.
+     */
+    @Test public void incremental() {
+        int[] values = skewed(new Random(46), 10000);
+        EquiDepthHistogram h = EquiDepthHistogram.build(100, values.clone(), values.length);
+        double before = h.estimateSelectivity(Predicate.Op.LESS_THAN, 5000);
+
+        for (int v = 20000; v < 21000; v++)
+            h.add(v, 1);
+        h.add(-5, 1);
+        assertEquals(values.length + 1001, h.numValues());
+        assertEquals(1000.0 / h.numValues(), h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 20000), 0.01);
+        assertTrue(h.estimateSelectivity(Predicate.Op.EQUALS, -5) > 0);
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.LESS_THAN, -5), 1e-9);
+
+        for (int v = 20000; v < 21000; v++)
+            h.add(v, -1);
+        h.add(-5, -1);
+        h.add(30000, -1);
+        assertEquals(values.length, h.numValues());
+        assertEquals(before, h.estimateSelectivity(Predicate.Op.LESS_THAN, 5000), 1e-9);
+
+        EquiDepthHistogram empty = EquiDepthHistogram.build(10, new int[0], 0);
+        empty.add(3, 1);
+        assertEquals(1, empty.estimateSelectivity(Predicate.Op.EQUALS, 3), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EquiDepthHistogramTest.class);
+    }
+}
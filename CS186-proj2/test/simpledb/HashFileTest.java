@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    /**
+     * A bulk loaded index returns exactly the matching tuples; equality is
+     * answered from one bucket, other operators by scanning the buckets.
+     */
+    @Test public void buildAndSearch() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+        HashFile index = HashFile.build(TestUtil.createTempFile("hash", ".idx"), hf, 0);
+        Database.getCatalog().addIndex(index);
+        HashHeaderPage header = (HashHeaderPage) index.readPage(new HashPageId(index.getId(), 0));
+        assertTrue(header.getGlobalDepth() > 0);
+        TransactionId tid = new TransactionId();
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v : new int[] { -1, 0, 500, 999, 1000 }) {
+                IntField f = new IntField(v);
+                int expected = 0;
+                for (ArrayList<Integer> t : tuples) {
+                    if (new IntField(t.get(0)).compare(op, f))
+                        expected++;
+                }
+                IndexScan scan = new IndexScan(tid, index, "t", new IndexPredicate(op, f));
+                assertEquals(op + " " + v, expected, TestUtil.count(scan, 0, op, f, false));
+            }
+        }
+
+        // only equality is searchable, so range predicates are left to other access methods
+        assertSame(index, Database.getCatalog().getIndex(hf.getId(), 0, Predicate.Op.EQUALS));
+        assertNull(Database.getCatalog().getIndex(hf.getId(), 0, Predicate.Op.LESS_THAN));
+        assertNull(Database.getCatalog().getIndex(hf.getId(), 1, Predicate.Op.EQUALS));
+    }
+
+    /**
+     * Inserting through the BufferPool splits buckets and doubles the
+     * directory, duplicates of one key overflow their bucket, and deletes
+     * remove entries; the changes survive a flush and a fresh BufferPool.
+     */
+    @Test public void insertSplitDeleteAndReload() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        HashFile index = new HashFile(TestUtil.createTempFile("hash", ".idx"), hf, 0);
+        Database.getCatalog().addIndex(index);
+
+        int rows = 20000;
+        int dups = 1000;
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < rows + dups; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            // the last tuples all have key -1, more than fit in one bucket
+            t.setField(0, new IntField(i < rows ? i : -1));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        assertTrue(dups > HashBucketPage.maxEntries(Type.INT_TYPE));
+
+        IntField dup = new IntField(-1);
+        IndexPredicate eqDup = new IndexPredicate(Predicate.Op.EQUALS, dup);
+        assertEquals(rows + dups, TestUtil.count(new IndexScan(tid, index, "h", null), 0, null,
+                null, false));
+        assertEquals(dups, TestUtil.count(new IndexScan(tid, index, "h", eqDup), 0,
+                Predicate.Op.EQUALS, dup, false));
+        for (int v = 0; v < rows; v += 97) {
+            IntField f = new IntField(v);
+            IndexScan scan = new IndexScan(tid, index, "h", new IndexPredicate(Predicate.Op.EQUALS, f));
+            assertEquals(1, TestUtil.count(scan, 0, Predicate.Op.EQUALS, f, false));
+        }
+
+        // delete every tuple with an even second field
+        for (Tuple t : inserted) {
+            if (((IntField) t.getField(1)).getValue() % 2 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HashHeaderPage header = (HashHeaderPage) index.readPage(new HashPageId(index.getId(), 0));
+        assertTrue(header.getGlobalDepth() >= 6);
+        assertEquals((rows + dups) / 2, TestUtil.count(new IndexScan(tid, index, "h", null), 0,
+                null, null, false));
+        assertEquals(dups / 2, TestUtil.count(new IndexScan(tid, index, "h", eqDup), 0, null,
+                null, false));
+        IndexPredicate even = new IndexPredicate(Predicate.Op.EQUALS, new IntField(42));
+        IndexPredicate odd = new IndexPredicate(Predicate.Op.EQUALS, new IntField(43));
+        assertEquals(0, TestUtil.count(new IndexScan(tid, index, "h", even), 0, null, null, false));
+        assertEquals(1, TestUtil.count(new IndexScan(tid, index, "h", odd), 0, null, null, false));
+    }
+
+    /**
+     * An index file is not reopened over a heap file regenerated since it
+     * was built, even one of the same size.
+     */
+    @Test public void staleIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, tuples);
+        File f = TestUtil.createTempFile("hash", ".idx");
+        HashFile.build(f, hf, 0);
+        new HashFile(f, hf, 0);
+
+        long length = hf.getFile().length();
+        java.util.Collections.reverse(tuples);
+        HeapFileEncoder.convert(tuples, hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertEquals(length, hf.getFile().length());
+        HeapFile regenerated = Utility.openHeapFile(2, hf.getFile());
+        try {
+            new HashFile(f, regenerated, 0);
+            fail("expected an IOException");
+        } catch (java.io.IOException e) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class HyperLogLogTest {
+
+    private static void assertClose(double expected, double actual) {
+        assertEquals(expected, actual, Math.max(1, expected * 3 * HyperLogLog.relativeError()));
+    }
+
+    /**
+     * Estimates are within three standard errors, for small and large
+     * counts, and repeated values are not counted twice.
+     */
+    @Test public void estimate() {
+        for (int n : new int[] { 0, 10, 1000, 100000 }) {
+            HyperLogLog h = new HyperLogLog();
+            for (int i = 0; i < n; i++) {
+                h.add(new IntField(i * 7919));
+                h.add(new IntField(i * 7919));
+            }
+            assertClose(n, h.estimate());
+        }
+        HyperLogLog s = new HyperLogLog();
+        for (int i = 0; i < 5000; i++)
+            s.add(new StringField("value" + (i % 2500), Type.STRING_LEN));
+        assertClose(2500, s.estimate());
+    }
+
+    /**
+     * The merge of two sketches estimates the union of their values.
+     */
+    @Test public void merge() {
+        HyperLogLog a = new HyperLogLog(), b = new HyperLogLog();
+        for (int i = 0; i < 30000; i++)
+            a.add(new IntField(i));
+        for (int i = 20000; i < 60000; i++)
+            b.add(new IntField(i));
+        assertClose(60000, a.merge(b).estimate());
+        assertEquals(a.estimate(), a.merge(a).estimate(), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HyperLogLogTest.class);
+    }
+}
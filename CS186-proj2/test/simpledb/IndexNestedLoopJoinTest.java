@@ -0,0 +1,62 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    /**
+     * When the inner table has an index on the join field, instantiateJoin
+     * probes it, and the join returns the same tuples as a nested loops join,
+     * with predicates pushed into the inner scan still applied.
+     */
+    @Test public void probesInnerIndex() throws Exception {
+        ArrayList<ArrayList<Integer>> outerTuples = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> innerTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 50, 200, null, outerTuples, "c");
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, innerTuples, "c");
+        File idx = TestUtil.createTempFile("inlj", ".idx");
+        Database.getCatalog().addIndex(BTreeFile.build(idx, inner, 0));
+        TransactionId tid = new TransactionId();
+
+        Predicate[] innerPreds = new Predicate[] {
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)) };
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.c0", "b.c0", op);
+            DbIterator j = JoinOptimizer.instantiateJoin(lj,
+                    new SeqScan(tid, outer.getId(), "a"),
+                    new SeqScan(tid, inner.getId(), "b", innerPreds));
+            assertTrue(j instanceof IndexNestedLoopJoin);
+
+            int expected = 0;
+            for (ArrayList<Integer> o : outerTuples) {
+                for (ArrayList<Integer> i : innerTuples) {
+                    if (new IntField(o.get(0)).compare(op, new IntField(i.get(0))) && i.get(1) > 100)
+                        expected++;
+                }
+            }
+            assertEquals(op.toString(), expected, TestUtil.count(j));
+        }
+
+        // no index on the inner join field: nested loops
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "a.c0", "b.c1", Predicate.Op.EQUALS);
+        DbIterator j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "a"), new SeqScan(tid, inner.getId(), "b"));
+        assertTrue(j instanceof Join);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+
+    // the (field 0, field 2) pairs of the tuples, sorted
+    private static ArrayList<String> pairs(ArrayList<ArrayList<Integer>> tuples,
+            Predicate.Op op, int v, int minField2) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (ArrayList<Integer> t : tuples) {
+            if ((op == null || new IntField(t.get(0)).compare(op, new IntField(v)))
+                    && t.get(2) >= minField2)
+                result.add(t.get(0) + "," + t.get(2));
+        }
+        java.util.Collections.sort(result);
+        return result;
+    }
+
+    private static ArrayList<String> pairs(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertNotNull(t.getRecordId());
+            result.add(((IntField) t.getField(0)).getValue() + "," + ((IntField) t.getField(1)).getValue());
+        }
+        it.close();
+        java.util.Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A covering index built on a table answers scans with key and residual
+     * predicates on its fields from the leaves alone: the heap file is
+     * emptied before the scans.
+     */
+    @Test public void scanWithoutHeap() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, tuples);
+        BTreeFile index = BTreeFile.build(TestUtil.createTempFile("covering", ".idx"), hf, 0,
+                new int[] { 2 });
+        Database.getCatalog().addIndex(index);
+        assertTrue(index.covers(Arrays.asList(0, 2)));
+        assertFalse(index.covers(Arrays.asList(0, 1)));
+        assertEquals(Type.INT_TYPE, index.getCoveredTupleDesc().getFieldType(1));
+
+        new FileOutputStream(hf.getFile()).close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+
+        IndexOnlyScan all = new IndexOnlyScan(tid, index, "t", null);
+        assertEquals("t.null", all.getTupleDesc().getFieldName(0));
+        assertEquals(pairs(tuples, null, 0, Integer.MIN_VALUE), pairs(all));
+
+        Predicate[] residual = { new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(500)) };
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN }) {
+            IndexOnlyScan scan = new IndexOnlyScan(tid, index, "t",
+                    new IndexPredicate(op, new IntField(300)), residual);
+            assertEquals(op.toString(), pairs(tuples, op, 300, 500), pairs(scan));
+            // rewinding scans the same entries again
+            scan.open();
+            scan.rewind();
+            int n = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                n++;
+            }
+            scan.close();
+            assertEquals(pairs(tuples, op, 300, 500).size(), n);
+        }
+    }
+
+    /**
+     * Only predicates on the stored fields can be evaluated.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void predicateOnMissingField() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 10, null, null);
+        BTreeFile index = BTreeFile.build(TestUtil.createTempFile("covering", ".idx"), hf, 0,
+                new int[] { 2 });
+        new IndexOnlyScan(new TransactionId(), index, "t", null,
+                new Predicate[] { new Predicate(1, Predicate.Op.EQUALS, new IntField(1)) });
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the included values
+     * in sync, splitting leaves; the index can be reopened with the same
+     * included fields, but not with others.
+     */
+    @Test public void insertDeleteAndReload() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(3, 0, null, null);
+        File f = TestUtil.createTempFile("covering", ".idx");
+        BTreeFile index = new BTreeFile(f, hf, 1, new int[] { 0, 2 });
+        Database.getCatalog().addIndex(index);
+
+        int rows = 5000;
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(hf.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(rows - i));
+            t.setField(2, new IntField(2 * i));
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            inserted.add(t);
+        }
+        for (Tuple t : inserted) {
+            if (((IntField) t.getField(0)).getValue() % 3 == 0)
+                Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        BTreeFile reopened = new BTreeFile(f, hf, 1, new int[] { 0, 2 });
+        assertTrue(reopened.numPages() > 3);
+        DbFileIterator it = reopened.coveringIterator(tid, null);
+        it.open();
+        int n = 0;
+        int lastKey = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            int a = ((IntField) t.getField(1)).getValue();
+            assertTrue(key > lastKey);
+            assertEquals(rows - key, a);
+            assertTrue(a % 3 != 0);
+            assertEquals(2 * a, ((IntField) t.getField(2)).getValue());
+            lastKey = key;
+            n++;
+        }
+        it.close();
+        assertEquals(rows - (rows + 2) / 3, n);
+
+        try {
+            new BTreeFile(f, hf, 1, new int[] { 2 });
+            fail("opened a covering index with other included fields");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class IntFilterKernelTest extends SimpleDbTestBase {
+
+  /**
+   * The batch kernels must agree with IntField.compare for every operator,
+   * including values whose difference overflows an int.
+   */
+  @Test public void matchesCompare() {
+    Random rand = new Random(186);
+    int n = 200;
+    int[] col = new int[n];
+    int[] edges = new int[] { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+    for (int i = 0; i < n; i++)
+      col[i] = (i % 3 == 0) ? edges[rand.nextInt(edges.length)] : rand.nextInt(21) - 10;
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int v : new int[] { Integer.MIN_VALUE, -3, 0, 7, Integer.MAX_VALUE }) {
+        long[] sel = new long[IntFilterKernel.words(n)];
+        java.util.Arrays.fill(sel, -1L);
+        IntFilterKernel.select(col, n, op, v, sel);
+        for (int i = 0; i < n; i++) {
+          boolean expected = new IntField(col[i]).compare(op, new IntField(v));
+          boolean actual = (sel[i >>> 6] & (1L << (i & 63))) != 0;
+          assertEquals(op + " " + v + " at " + col[i], expected, actual);
+        }
+      }
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntFilterKernelTest.class);
+  }
+}
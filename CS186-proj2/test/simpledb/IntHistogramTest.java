@@ -0,0 +1,85 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class IntHistogramTest {
+
+    /**
+     * Selectivities of a uniform histogram follow the fraction of the range
+     * each predicate covers.
+     */
+    @Test public void uniformSelectivity() {
+        IntHistogram h = new IntHistogram(10, 1, 100);
+        for (int v = 1; v <= 100; v++)
+            h.addValue(v);
+        assertEquals(100, h.numValues());
+        assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 42), 1e-9);
+        assertEquals(0.99, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 42), 1e-9);
+        assertEquals(0.41, h.estimateSelectivity(Predicate.Op.LESS_THAN, 42), 1e-9);
+        assertEquals(0.42, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 42), 1e-9);
+        assertEquals(0.58, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 42), 1e-9);
+        assertEquals(0.59, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 42), 1e-9);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 500), 1e-9);
+        assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 500), 1e-9);
+        assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, -5), 1e-9);
+        assertEquals(0.01, h.avgSelectivity(), 1e-9);
+    }
+
+    /**
+     * Ranges smaller than the number of buckets get one bucket per value.
+     */
+    @Test public void narrowRange() {
+        IntHistogram h = new IntHistogram(100, 0, 3);
+        for (int i = 0; i < 40; i++)
+            h.addValue(i < 30 ? 0 : 3);
+        assertEquals(0.75, h.estimateSelectivity(Predicate.Op.EQUALS, 0), 1e-9);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 1), 1e-9);
+        assertEquals(0.25, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 2), 1e-9);
+    }
+
+    /**
+     * Merging histograms over the same range gives the histogram of all the
+     * values; merging different ranges covers the union and keeps the count.
+     */
+    @Test public void merge() {
+        IntHistogram a = new IntHistogram(10, 0, 99);
+        IntHistogram b = new IntHistogram(10, 0, 99);
+        IntHistogram all = new IntHistogram(10, 0, 99);
+        for (int v = 0; v < 100; v++) {
+            (v % 3 == 0 ? a : b).addValue(v);
+            all.addValue(v);
+        }
+        IntHistogram m = a.merge(b);
+        assertEquals(all.toString(), m.toString());
+        for (int v = -10; v < 110; v += 7)
+            assertEquals(all.estimateSelectivity(Predicate.Op.LESS_THAN, v),
+                    m.estimateSelectivity(Predicate.Op.LESS_THAN, v), 1e-9);
+
+        IntHistogram low = new IntHistogram(10, 0, 49);
+        IntHistogram high = new IntHistogram(10, 50, 199);
+        for (int v = 0; v < 50; v++)
+            low.addValue(v);
+        for (int v = 50; v < 200; v++)
+            high.addValue(v);
+        m = low.merge(high);
+        assertEquals(0, m.getMin());
+        assertEquals(199, m.getMax());
+        assertEquals(200, m.numValues());
+        assertEquals(0.25, m.estimateSelectivity(Predicate.Op.LESS_THAN, 50), 1e-9);
+        assertEquals(0.5, m.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 100), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void outOfRange() {
+        new IntHistogram(10, 0, 9).addValue(10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntHistogramTest.class);
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinAlgorithmsTest extends SimpleDbTestBase {
+
+    private int[] outerValues;
+    private int[] innerValues;
+
+    // random two-column tuples with many duplicate values in column 0
+    private static int[] randomValues(Random r, int rows) {
+        int[] values = new int[rows * 2];
+        for (int i = 0; i < values.length; i++)
+            values[i] = r.nextInt(i % 2 == 0 ? 20 : 1000);
+        return values;
+    }
+
+    // the same tuples sorted on column 0
+    private static int[] sorted(int[] values) {
+        ArrayList<int[]> rows = new ArrayList<int[]>();
+        for (int i = 0; i < values.length; i += 2)
+            rows.add(new int[] { values[i], values[i + 1] });
+        Collections.sort(rows, new java.util.Comparator<int[]>() {
+            public int compare(int[] a, int[] b) {
+                return a[0] - b[0];
+            }
+        });
+        int[] result = new int[values.length];
+        for (int i = 0; i < rows.size(); i++) {
+            result[2 * i] = rows.get(i)[0];
+            result[2 * i + 1] = rows.get(i)[1];
+        }
+        return result;
+    }
+
+    @Before public void createValues() {
+        Random r = new Random(40);
+        outerValues = randomValues(r, 150);
+        innerValues = randomValues(r, 90);
+    }
+
+    private static ArrayList<String> rows(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                sb.append(((IntField) t.getField(i)).getValue()).append(' ');
+            result.add(sb.toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    // the result of a nested loops join, then the same twice through op,
+    // rewinding it in between
+    private void assertSameResult(JoinPredicate p, DbIterator op) throws Exception {
+        Join expected = new Join(p, TestUtil.createTupleList(2, outerValues),
+                TestUtil.createTupleList(2, innerValues));
+        expected.open();
+        ArrayList<String> rows = rows(expected);
+        assertFalse(rows.isEmpty());
+        op.open();
+        assertEquals(rows, rows(op));
+        op.rewind();
+        assertEquals(rows, rows(op));
+        op.close();
+    }
+
+    /**
+     * Hash joins return the same tuples as nested loops joins.
+     */
+    @Test public void hashJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertSameResult(p, new HashJoin(p, TestUtil.createTupleList(2, outerValues),
+                TestUtil.createTupleList(2, innerValues)));
+    }
+
+    /**
+     * Block nested loops joins return the same tuples as nested loops joins,
+     * whatever the block size and predicate.
+     */
+    @Test public void blockNestedLoopJoin() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN }) {
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            for (int blockSize : new int[] { 1, 7, 150, 1000 }) {
+                assertSameResult(p, new BlockNestedLoopJoin(p, TestUtil.createTupleList(2, outerValues),
+                        TestUtil.createTupleList(2, innerValues), blockSize));
+            }
+        }
+    }
+
+    /**
+     * Sort-merge joins return the same tuples as nested loops joins, in
+     * order of the join field, whether they sort their inputs or are told
+     * they are already sorted.
+     */
+    @Test public void sortMergeJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        assertSameResult(p, new SortMergeJoin(p, TestUtil.createTupleList(2, outerValues),
+                TestUtil.createTupleList(2, innerValues), false, false));
+        assertSameResult(p, new SortMergeJoin(p, TestUtil.createTupleList(2, sorted(outerValues)),
+                TestUtil.createTupleList(2, sorted(innerValues)), true, true));
+
+        SortMergeJoin op = new SortMergeJoin(p, TestUtil.createTupleList(2, outerValues),
+                TestUtil.createTupleList(2, sorted(innerValues)), false, true);
+        op.open();
+        int last = Integer.MIN_VALUE;
+        while (op.hasNext()) {
+            int v = ((IntField) op.next().getField(0)).getValue();
+            assertTrue(v >= last);
+            last = v;
+        }
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinAlgorithmsTest.class);
+    }
+}
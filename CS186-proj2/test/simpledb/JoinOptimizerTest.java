@@ -0,0 +1,413 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    /** Statistics of a table of a given size, without reading it. */
+    static class FixedStats extends TableStats {
+        private final int card;
+
+        FixedStats(int tableid, int card) {
+            super(tableid, IOCOSTPERPAGE);
+            this.card = card;
+        }
+
+        @Override public double estimateScanCost() {
+            return (card / 100 + 1) * (double) IOCOSTPERPAGE;
+        }
+
+        @Override public int estimateTableCardinality(double selectivityFactor) {
+            return (int) (card * selectivityFactor);
+        }
+
+        @Override public int totalTuples() {
+            return card;
+        }
+
+        // every value distinct, so an equality join matches one tuple each
+        @Override public double estimateDistinct(int field) {
+            return card;
+        }
+    }
+
+    private LogicalPlan lp;
+    private HashMap<String, TableStats> stats;
+    private HashMap<String, Double> selectivities;
+
+    // tables t0..t(n-1) with the given cardinalities
+    private void createTables(int[] cards) throws Exception {
+        lp = new LogicalPlan();
+        stats = new HashMap<String, TableStats>();
+        selectivities = new HashMap<String, Double>();
+        for (int i = 0; i < cards.length; i++) {
+            File f = TestUtil.createTempFile("join", ".dat");
+            HeapFile hf = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+            lp.addScan(hf.getId(), "t" + i);
+            stats.put(Database.getCatalog().getTableName(hf.getId()), new FixedStats(hf.getId(), cards[i]));
+            selectivities.put("t" + i, 1.0);
+        }
+    }
+
+    private static LogicalJoinNode join(int a, int b) {
+        return new LogicalJoinNode("t" + a, "t" + b, "field0", "field0", Predicate.Op.EQUALS);
+    }
+
+    private TableStats statsOf(String alias) {
+        return stats.get(Database.getCatalog().getTableName(lp.getTableId(alias)));
+    }
+
+    // the cost, cardinality and width of the tuples of a scan
+    private CostCard scan(String alias) {
+        TableStats s = statsOf(alias);
+        CostCard cc = new CostCard();
+        cc.cost = s.estimateScanCost();
+        cc.card = s.estimateTableCardinality(1.0);
+        cc.width = Database.getCatalog().getTupleDesc(lp.getTableId(alias)).getSize();
+        return cc;
+    }
+
+    // the cost, cardinality and width of the tuples of the join of l and r
+    // with the cheapest algorithm
+    private CostCard join(JoinOptimizer jo, LogicalJoinNode j, CostCard l, CostCard r, boolean innerIsBase) {
+        CostCard cc = new CostCard();
+        LogicalJoinNode.Algorithm a = jo.chooseJoinAlgorithm(j, l, r, innerIsBase);
+        for (LogicalJoinNode.Algorithm other : LogicalJoinNode.Algorithm.values())
+            assertTrue(jo.estimateJoinCost(j, a, l, r, innerIsBase) <= jo.estimateJoinCost(j, other, l, r, innerIsBase));
+        cc.cost = jo.estimateJoinCost(j, a, l, r, innerIsBase);
+        cc.card = jo.estimateJoinCardinality(j, l.card, r.card, false, false, stats);
+        cc.width = l.width + r.width;
+        return cc;
+    }
+
+    // the cost and cardinality of a plan, checking that every join has t1
+    // on its left and t2 on its right
+    private CostCard cost(JoinOptimizer jo, JoinTree tree, HashSet<String> tables) {
+        if (tree.isLeaf()) {
+            assertTrue(tables.add(tree.getAlias()));
+            return scan(tree.getAlias());
+        }
+        HashSet<String> left = new HashSet<String>(), right = new HashSet<String>();
+        CostCard l = cost(jo, tree.getLeft(), left);
+        CostCard r = cost(jo, tree.getRight(), right);
+        LogicalJoinNode j = tree.getJoin();
+        for (LogicalJoinNode lj : tree.getResidualJoins())
+            assertTrue(left.contains(lj.t1Alias) && right.contains(lj.t2Alias));
+        assertTrue(left.contains(j.t1Alias) && right.contains(j.t2Alias));
+        tables.addAll(left);
+        tables.addAll(right);
+        CostCard cc = join(jo, j, l, r, tree.getRight().isLeaf());
+        assertEquals(jo.chooseJoinAlgorithm(j, l, r, tree.getRight().isLeaf()), j.algorithm);
+        assertEquals(cc.cost, j.cost, cc.cost * 1e-9);
+        return cc;
+    }
+
+    // the cost of a plan joining all n tables, which uses every join once
+    private double cost(JoinOptimizer jo, Vector<JoinTree> trees, Vector<LogicalJoinNode> joins, int n) {
+        assertEquals(1, trees.size());
+        assertEquals(joins.size(), trees.get(0).joins().size());
+        HashSet<String> tables = new HashSet<String>();
+        double cost = cost(jo, trees.get(0), tables).cost;
+        assertEquals(n, tables.size());
+        assertEquals(cost, trees.get(0).getCost(), cost * 1e-9);
+        return cost;
+    }
+
+    private static boolean connected(Vector<LogicalJoinNode> joins, long s) {
+        long reached = s & -s;
+        for (boolean grown = true; grown; ) {
+            grown = false;
+            for (LogicalJoinNode j : joins) {
+                long a = 1L << Integer.parseInt(j.t1Alias.substring(1));
+                long b = 1L << Integer.parseInt(j.t2Alias.substring(1));
+                if ((s & a) != 0 && (s & b) != 0 && ((reached & a) != 0) != ((reached & b) != 0)) {
+                    reached |= a | b;
+                    grown = true;
+                }
+            }
+        }
+        return reached == s;
+    }
+
+    // the cost and cardinality of the cheapest plan without cross products
+    // for the tables in s, trying every split of s into two sets
+    private CostCard bestCost(JoinOptimizer jo, Vector<LogicalJoinNode> joins, long s,
+            HashMap<Long, CostCard> memo) {
+        if (memo.containsKey(s))
+            return memo.get(s);
+        CostCard best = null;
+        if (Long.bitCount(s) == 1)
+            best = scan("t" + Long.numberOfTrailingZeros(s));
+        for (long left = (s - 1) & s; left != 0; left = (left - 1) & s) {
+            long right = s & ~left;
+            if (!connected(joins, left) || !connected(joins, right))
+                continue;
+            LogicalJoinNode j = null;
+            for (LogicalJoinNode lj : joins) {
+                long a = 1L << Integer.parseInt(lj.t1Alias.substring(1));
+                long b = 1L << Integer.parseInt(lj.t2Alias.substring(1));
+                if ((left & a) != 0 && (right & b) != 0)
+                    j = lj;
+                else if ((left & b) != 0 && (right & a) != 0)
+                    j = lj.swapInnerOuter();
+                if (j != null)
+                    break;
+            }
+            if (j == null)
+                continue;
+            CostCard cc = join(jo, j, bestCost(jo, joins, left, memo), bestCost(jo, joins, right, memo),
+                    Long.bitCount(right) == 1);
+            if (best == null || cc.cost < best.cost)
+                best = cc;
+        }
+        memo.put(s, best);
+        return best;
+    }
+
+    /**
+     * On random join graphs, including cycles, the plan returned is as cheap
+     * as the best one found by trying every split of every set of tables,
+     * whether it is left-deep or bushy.
+     */
+    @Test public void optimalOnRandomGraphs() throws Exception {
+        Random r = new Random(186);
+        int bushy = 0;
+        for (int round = 0; round < 40; round++) {
+            int n = 2 + r.nextInt(6);
+            int[] cards = new int[n];
+            for (int i = 0; i < n; i++)
+                cards[i] = 1 + r.nextInt(r.nextBoolean() ? 100 : 100000);
+            createTables(cards);
+            Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+            for (int i = 1; i < n; i++)
+                joins.add(join(r.nextInt(i), i));
+            for (int extra = r.nextInt(3); extra > 0 && n > 2; extra--) {
+                int a = r.nextInt(n), b = r.nextInt(n);
+                if (a != b)
+                    joins.add(join(a, b));
+            }
+
+            JoinOptimizer jo = new JoinOptimizer(lp, joins);
+            Vector<JoinTree> trees = jo.orderJoinTrees(stats, selectivities, false);
+            double expected = bestCost(jo, joins, (1L << n) - 1, new HashMap<Long, CostCard>()).cost;
+            assertEquals(joins.toString(), expected, cost(jo, trees, joins, n), expected * 1e-9);
+            if (!isLeftDeep(trees.get(0)))
+                bushy++;
+        }
+        // with hash joins, building on a join result is sometimes cheapest
+        assertTrue(bushy > 0);
+    }
+
+    private static boolean isLeftDeep(JoinTree tree) {
+        return tree.isLeaf() || (tree.getRight().isLeaf() && isLeftDeep(tree.getLeft()));
+    }
+
+    /**
+     * Planning a 15-way join takes milliseconds, whether the tables form a
+     * chain, a star or a cycle.
+     */
+    @Test public void fifteenWayJoin() throws Exception {
+        int n = 15;
+        int[] cards = new int[n];
+        for (int i = 0; i < n; i++)
+            cards[i] = 1000 * (i + 1);
+        createTables(cards);
+        for (int shape = 0; shape < 3; shape++) {
+            Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+            for (int i = 1; i < n; i++) {
+                if (shape == 0)
+                    joins.add(join(i - 1, i));
+                else if (shape == 1)
+                    joins.add(join(0, i));
+                else
+                    joins.add(join(i - 1, i));
+            }
+            if (shape == 2)
+                joins.add(join(0, n - 1));
+            JoinOptimizer jo = new JoinOptimizer(lp, joins);
+            long start = System.currentTimeMillis();
+            Vector<JoinTree> trees = jo.orderJoinTrees(stats, selectivities, false);
+            long elapsed = System.currentTimeMillis() - start;
+            cost(jo, trees, joins, n);
+            assertTrue("planning took " + elapsed + " ms", elapsed < 2000);
+        }
+    }
+
+    /**
+     * A 40-way join is past the limit for dynamic programming: it is ordered
+     * greedily, into a valid left-deep plan, in milliseconds.
+     */
+    @Test public void greedyAboveRelationLimit() throws Exception {
+        int n = 40;
+        Random r = new Random(38);
+        int[] cards = new int[n];
+        for (int i = 0; i < n; i++)
+            cards[i] = 1 + r.nextInt(100000);
+        createTables(cards);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < n; i++)
+            joins.add(join(r.nextInt(i), i));
+        joins.add(join(3, 30));
+
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        long start = System.currentTimeMillis();
+        Vector<JoinTree> trees = jo.orderJoinTrees(stats, selectivities, false);
+        long elapsed = System.currentTimeMillis() - start;
+        assertFalse(jo.usedDynamicProgramming());
+        cost(jo, trees, joins, n);
+        assertTrue("planning took " + elapsed + " ms", elapsed < 2000);
+    }
+
+    /**
+     * Dynamic programming that runs out of planning time is abandoned for a
+     * greedy order.
+     */
+    @Test public void greedyWhenOutOfTime() throws Exception {
+        int n = 12;
+        int[] cards = new int[n];
+        for (int i = 0; i < n; i++)
+            cards[i] = 1000 * (i + 1);
+        createTables(cards);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < n; i++)
+            joins.add(join(0, i));
+
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        jo.orderJoins(stats, selectivities, false);
+        assertTrue(jo.usedDynamicProgramming());
+
+        int relations = JoinOptimizer.dpRelationLimit;
+        long millis = JoinOptimizer.planningTimeLimit;
+        JoinOptimizer.setPlanningLimits(relations, 0);
+        try {
+            Vector<JoinTree> trees = jo.orderJoinTrees(stats, selectivities, false);
+            assertFalse(jo.usedDynamicProgramming());
+            cost(jo, trees, joins, n);
+        } finally {
+            JoinOptimizer.setPlanningLimits(relations, millis);
+        }
+    }
+
+    /**
+     * The algorithm of each join is chosen by cost within the join memory:
+     * equality joins are hashed while their inner input fits, and otherwise
+     * read their inner input once per block of outer tuples, like range
+     * joins.
+     */
+    @Test public void algorithmFollowsMemory() throws Exception {
+        createTables(new int[] { 100000, 50000 });
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(join(0, 1));
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        LogicalJoinNode j = jo.orderJoinTrees(stats, selectivities, false).get(0).getJoin();
+        assertEquals(LogicalJoinNode.Algorithm.HASH, j.algorithm);
+
+        int pages = JoinOptimizer.joinMemoryPages;
+        JoinOptimizer.setJoinMemoryPages(10);
+        try {
+            j = jo.orderJoinTrees(stats, selectivities, false).get(0).getJoin();
+            assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP, j.algorithm);
+        } finally {
+            JoinOptimizer.setJoinMemoryPages(pages);
+        }
+
+        joins.set(0, new LogicalJoinNode("t0", "t1", "field0", "field0", Predicate.Op.GREATER_THAN));
+        j = jo.orderJoinTrees(stats, selectivities, false).get(0).getJoin();
+        assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP, j.algorithm);
+    }
+
+    /**
+     * A query whose joins form a cycle runs: the join closing the cycle
+     * filters the result of the join of its two sides.
+     */
+    @Test public void physicalPlanWithCycle() throws Exception {
+        int n = 4;
+        lp = new LogicalPlan();
+        stats = new HashMap<String, TableStats>();
+        ArrayList<ArrayList<ArrayList<Integer>>> data = new ArrayList<ArrayList<ArrayList<Integer>>>();
+        for (int i = 0; i < n; i++) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 20 + 10 * i, 4, null, tuples, "c");
+            data.add(tuples);
+            lp.addScan(hf.getId(), "t" + i);
+            stats.put(Database.getCatalog().getTableName(hf.getId()), new FixedStats(hf.getId(), tuples.size()));
+        }
+        // t0.c0 = t1.c0, t1.c1 = t2.c0, t2.c1 = t3.c0, t3.c1 = t0.c1
+        for (int i = 0; i < n; i++)
+            lp.addJoin("t" + i + ".c" + (i == 0 ? 0 : 1), "t" + (i + 1) % n + ".c" + (i == n - 1 ? 1 : 0),
+                    Predicate.Op.EQUALS);
+        lp.addProjectField("t0.c0", null);
+
+        int expected = 0;
+        for (ArrayList<Integer> a : data.get(0))
+            for (ArrayList<Integer> b : data.get(1))
+                for (ArrayList<Integer> c : data.get(2))
+                    for (ArrayList<Integer> d : data.get(3))
+                        if (a.get(0).equals(b.get(0)) && b.get(1).equals(c.get(0))
+                                && c.get(1).equals(d.get(0)) && d.get(1).equals(a.get(1)))
+                            expected++;
+
+        DbIterator plan = lp.physicalPlan(new TransactionId(), stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        assertEquals(expected, count);
+    }
+
+    /**
+     * Equality join cardinalities follow |R||S| / max(ndv), so a join on a
+     * column with few distinct values is not estimated as if it matched one
+     * tuple each.
+     */
+    @Test public void joinCardinalityFromDistinctValues() throws Exception {
+        ArrayList<ArrayList<Integer>> t1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> t2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 2000, 20, null, t1, "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 500, 20, null, t2, "c");
+        Database.getCatalog().addTable(f1, "r");
+        Database.getCatalog().addTable(f2, "s");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("r", new TableStats(f1.getId(), TableStats.IOCOSTPERPAGE));
+        stats.put("s", new TableStats(f2.getId(), TableStats.IOCOSTPERPAGE));
+        HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("r", f1.getId());
+        aliases.put("s", f2.getId());
+
+        int actual = 0;
+        for (ArrayList<Integer> a : t1)
+            for (ArrayList<Integer> b : t2)
+                if (a.get(0).equals(b.get(0)))
+                    actual++;
+        int card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "r", "s",
+                "c0", "c0", 2000, 500, false, false, stats, aliases);
+        assertEquals(actual, card, actual * 0.2);
+
+        // a key on one side caps the result at the other side
+        card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "r", "s",
+                "c0", "c0", 2000, 500, false, true, stats, aliases);
+        assertEquals(2000, card);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
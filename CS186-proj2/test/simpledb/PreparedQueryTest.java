@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PreparedQueryTest extends SimpleDbTestBase {
+
+    private static final String JOIN = "SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < ? "
+            + "AND b.c1 >= ? ORDER BY a.c1;";
+
+    private ArrayList<ArrayList<Integer>> a, b;
+    private Parser parser;
+
+    @Before public void createTables() throws Exception {
+        a = new ArrayList<ArrayList<Integer>>();
+        b = new ArrayList<ArrayList<Integer>>();
+        HeapFile fa = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, a, "c");
+        HeapFile fb = SystemTestUtil.createRandomHeapFile(2, 300, 5000, null, b, "c");
+        Database.getCatalog().addTable(fa, "a");
+        Database.getCatalog().addTable(fb, "b");
+        File idx = TestUtil.createTempFile("prepared", ".idx");
+        Database.getCatalog().addIndex(BTreeFile.build(idx, fa, 0));
+        TableStats.loadStatistics(null);
+        parser = new Parser();
+    }
+
+    private static int run(Query q) throws Exception {
+        return TestUtil.count(q.getPhysicalPlan());
+    }
+
+    private int point(int key) {
+        int n = 0;
+        for (ArrayList<Integer> x : a)
+            if (x.get(0) == key)
+                n++;
+        return n;
+    }
+
+    private int join(int bound1, int bound2) {
+        int n = 0;
+        for (ArrayList<Integer> x : a)
+            for (ArrayList<Integer> y : b)
+                if (x.get(0).equals(y.get(0)) && x.get(1) < bound1 && y.get(1) >= bound2)
+                    n++;
+        return n;
+    }
+
+    /**
+     * A point query run again in its transaction searches the index of the
+     * plan it was first built into with the new value; in another
+     * transaction it is planned again.
+     */
+    @Test public void pointQuery() throws Exception {
+        PreparedQuery pq = parser.prepare("SELECT * FROM a WHERE a.c0 = ?;");
+        assertEquals(1, pq.numParameters());
+        TransactionId tid = new TransactionId();
+        Query q = pq.execute(tid, "5");
+        DbIterator plan = q.getPhysicalPlan();
+        assertTrue(((Operator) plan).getChildren()[0] instanceof IndexScan);
+        assertEquals(point(5), run(q));
+
+        for (int key : new int[] { 17, 2500, 5, 5000 }) {
+            q = pq.execute(tid, Integer.toString(key));
+            assertSame(plan, q.getPhysicalPlan());
+            assertEquals(point(key), run(q));
+        }
+
+        q = pq.execute(new TransactionId(), "42");
+        assertNotSame(plan, q.getPhysicalPlan());
+        assertEquals(point(42), run(q));
+    }
+
+    /**
+     * Both parameters of a join are rebound, in the order they are written,
+     * and the plan is reopened from scratch each time.
+     */
+    @Test public void joinQuery() throws Exception {
+        PreparedQuery pq = parser.prepare(JOIN);
+        assertEquals(2, pq.numParameters());
+        TransactionId tid = new TransactionId();
+        Query q = pq.execute(tid, "1000", "2500");
+        DbIterator plan = q.getPhysicalPlan();
+        assertEquals(join(1000, 2500), run(q));
+        q = pq.execute(tid, Arrays.asList("4000", "100"));
+        assertSame(plan, q.getPhysicalPlan());
+        assertEquals(join(4000, 100), run(q));
+        assertEquals(join(4000, 100), run(q));
+
+        try {
+            pq.execute(tid, "1");
+            fail("expected a ParsingException");
+        } catch (ParsingException e) {
+        }
+        try {
+            pq.execute(tid, "1", "x");
+            fail("expected a ParsingException");
+        } catch (ParsingException e) {
+        }
+    }
+
+    /**
+     * PREPARE and EXECUTE statements of the shell; each EXECUTE runs in a
+     * transaction of its own, and is planned from the cached plan.
+     */
+    @Test public void statements() throws Exception {
+        assertEquals(Arrays.asList("1", "a b", "-2"), Parser.parameterValues(" 1, 'a b' ,-2"));
+        assertTrue(Parser.parameterValues("").isEmpty());
+
+        parser.processNextStatement("PREPARE j AS " + JOIN);
+        assertNotNull(parser.getPrepared("J"));
+        parser.processNextStatement("EXECUTE j (100, 250);");
+        parser.processNextStatement("execute J(300, 0);");
+        assertEquals(1, parser.getPlanCache().hits());
+        assertEquals(1, parser.getPlanCache().size());
+        assertNull(parser.getPrepared("k"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PreparedQueryTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class QueryPlanCacheTest extends SimpleDbTestBase {
+
+    private static final String QUERY = "SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < %d;";
+
+    private ArrayList<ArrayList<Integer>> a, b;
+    private Parser parser;
+
+    @Before public void createTables() throws Exception {
+        a = new ArrayList<ArrayList<Integer>>();
+        b = new ArrayList<ArrayList<Integer>>();
+        HeapFile fa = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, a, "c");
+        HeapFile fb = SystemTestUtil.createRandomHeapFile(2, 200, 50, null, b, "c");
+        Database.getCatalog().addTable(fa, "a");
+        Database.getCatalog().addTable(fb, "b");
+        TableStats.loadStatistics(null);
+        parser = new Parser();
+    }
+
+    private int expected(int bound) {
+        int n = 0;
+        for (ArrayList<Integer> x : a)
+            for (ArrayList<Integer> y : b)
+                if (x.get(0).equals(y.get(0)) && x.get(1) < bound)
+                    n++;
+        return n;
+    }
+
+    private static int run(Query q) throws Exception {
+        return TestUtil.count(q.getPhysicalPlan());
+    }
+
+    /**
+     * Run sql until it is planned from the cache: each run may learn
+     * corrections that drop the plan, until the estimates stop changing.
+     */
+    private void settle(String sql) throws Exception {
+        QueryPlanCache cache = parser.getPlanCache();
+        for (int i = 0; i < 5; i++) {
+            long hits = cache.hits();
+            parser.processNextStatement(sql);
+            if (cache.hits() > hits)
+                return;
+        }
+        fail("the plan of " + sql + " is never reused");
+    }
+
+    /**
+     * Constants become parameters and white space is collapsed, but digits
+     * in names are kept.
+     */
+    @Test public void normalize() {
+        QueryPlanCache.Statement st = QueryPlanCache.normalize(
+                "SELECT t1.c0  FROM t t1\n WHERE t1.c1 < 10 AND t1.c2 = 'ab c' ;");
+        assertEquals("SELECT t1.c0 FROM t t1 WHERE t1.c1 < ? AND t1.c2 = '?'", st.key);
+        assertEquals(Arrays.asList("10", "ab c"), st.literals);
+        assertEquals(st.key, QueryPlanCache.normalize(
+                "SELECT t1.c0 FROM t t1 WHERE t1.c1 < 7 AND t1.c2 = 'x'").key);
+    }
+
+    /**
+     * A query run again with another constant is planned from the cached
+     * plan, in the same join order, and returns what it should for its own
+     * constant.
+     */
+    @Test public void reuse() throws Exception {
+        parser.processNextStatement(String.format(QUERY, 10));
+        QueryPlanCache cache = parser.getPlanCache();
+        assertEquals(1, cache.size());
+        assertEquals(0, cache.hits());
+
+        QueryPlanCache.Statement st = QueryPlanCache.normalize(String.format(QUERY, 30));
+        QueryPlanCache.Entry e = cache.get(st);
+        assertNotNull(e);
+        Query q = parser.handleCachedQuery(e, st, new TransactionId());
+        assertSame(e.getJoinTrees(), q.getLogicalPlan().getJoinTrees());
+        assertEquals(expected(30), run(q));
+
+        settle(String.format(QUERY, 20));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Recomputing the statistics of a table drops the plans ordered with the
+     * old ones; only the most recently used plans are kept.
+     */
+    @Test public void invalidation() throws Exception {
+        parser.processNextStatement(String.format(QUERY, 10));
+        QueryPlanCache cache = parser.getPlanCache();
+        QueryPlanCache.Statement st = QueryPlanCache.normalize(String.format(QUERY, 10));
+        assertNotNull(cache.get(st));
+
+        TableStats.setTableStats("b", new TableStats(Database.getCatalog().getTableId("b"),
+                TableStats.IOCOSTPERPAGE));
+        assertNull(cache.get(st));
+        assertEquals(0, cache.size());
+
+        QueryPlanCache small = new QueryPlanCache(2);
+        String[] queries = { "SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < 1;",
+                "SELECT * FROM a, b WHERE a.c0 = b.c0 AND b.c1 < 1;",
+                "SELECT * FROM a, b WHERE a.c0 = b.c0 AND b.c1 > 1;" };
+        for (String sql : queries) {
+            LogicalPlan lp = parser.generateLogicalPlan(new TransactionId(), sql);
+            lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+            assertTrue(small.put(QueryPlanCache.normalize(sql), lp));
+        }
+        assertEquals(2, small.size());
+        assertNull(small.get(QueryPlanCache.normalize(queries[0])));
+        assertNotNull(small.get(QueryPlanCache.normalize(queries[2])));
+
+        // a constant that is not a filter's is not a parameter
+        String sql = "SELECT * FROM a, b WHERE a.c0 = b.c0 AND 1 < 2;";
+        LogicalPlan lp = parser.generateLogicalPlan(new TransactionId(),
+                "SELECT * FROM a, b WHERE a.c0 = b.c0;");
+        lp.physicalPlan(new TransactionId(), TableStats.getStatsMap(), false);
+        assertFalse(small.put(QueryPlanCache.normalize(sql), lp));
+    }
+
+    /**
+     * Updating the statistics of a table in place, as a committed insert
+     * does, and a cardinality correction that moves by more than
+     * REPLAN_FACTOR drop the cached plans; a small correction does not.
+     */
+    @Test public void estimatesChanged() throws Exception {
+        settle(String.format(QUERY, 10));
+        QueryPlanCache cache = parser.getPlanCache();
+        QueryPlanCache.Statement st = QueryPlanCache.normalize(String.format(QUERY, 10));
+        assertNotNull(cache.get(st));
+
+        CardinalityFeedback.record("small", 100, 1.0, 150);
+        assertNotNull(cache.get(st));
+        CardinalityFeedback.record("large", 100, 1.0, 1000);
+        assertNull(cache.get(st));
+
+        settle(String.format(QUERY, 10));
+        assertNotNull(cache.get(st));
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(1));
+        Database.getBufferPool().insertTuple(tid, Database.getCatalog().getTableId("b"), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertNull(cache.get(st));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryPlanCacheTest.class);
+    }
+}
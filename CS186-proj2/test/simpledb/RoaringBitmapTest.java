@@ -0,0 +1,90 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RoaringBitmapTest extends SimpleDbTestBase {
+
+    // a set with a sparse chunk, a dense chunk and a chunk crossing ARRAY_MAX
+    private static RoaringBitmap fill(Random rand, TreeSet<Integer> expected) {
+        RoaringBitmap b = new RoaringBitmap();
+        for (int i = 0; i < 20000; i++) {
+            int x;
+            switch (i % 3) {
+            case 0:
+                x = rand.nextInt(1 << 24);
+                break;
+            case 1:
+                x = (1 << 16) + rand.nextInt(8000);
+                break;
+            default:
+                x = (5 << 16) + rand.nextInt(1 << 16);
+                break;
+            }
+            b.add(x);
+            expected.add(x);
+        }
+        return b;
+    }
+
+    private static void assertSame(TreeSet<Integer> expected, RoaringBitmap b) {
+        assertEquals(expected.size(), b.cardinality());
+        PrimitiveIterator.OfInt it = b.iterator();
+        for (int x : expected)
+            assertEquals(x, it.nextInt());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Adds, removes, AND, OR and serialization agree with a TreeSet, across
+     * array and bitmap containers.
+     */
+    @Test public void matchesTreeSet() throws Exception {
+        Random rand = new Random(186);
+        TreeSet<Integer> ea = new TreeSet<Integer>();
+        TreeSet<Integer> eb = new TreeSet<Integer>();
+        RoaringBitmap a = fill(rand, ea);
+        RoaringBitmap b = fill(rand, eb);
+        assertSame(ea, a);
+
+        // removing from a dense chunk turns its bitmap back into an array
+        for (int x = (1 << 16); x < (1 << 16) + 7000; x++) {
+            a.remove(x);
+            ea.remove(x);
+        }
+        assertSame(ea, a);
+        assertTrue(a.contains(ea.first()));
+        assertFalse(a.contains((1 << 16) + 10));
+
+        TreeSet<Integer> and = new TreeSet<Integer>(ea);
+        and.retainAll(eb);
+        assertSame(and, RoaringBitmap.and(a, b));
+        TreeSet<Integer> or = new TreeSet<Integer>(ea);
+        or.addAll(eb);
+        RoaringBitmap ab = RoaringBitmap.or(a, b);
+        assertSame(or, ab);
+        // the operands are not changed
+        assertSame(ea, a);
+        assertSame(eb, b);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ab.serialize(new DataOutputStream(baos));
+        assertEquals(ab.serializedSize(), baos.size());
+        RoaringBitmap read = RoaringBitmap.deserialize(
+                new DataInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertSame(or, read);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RoaringBitmapTest.class);
+    }
+}
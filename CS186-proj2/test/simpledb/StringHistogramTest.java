@@ -0,0 +1,41 @@
+package simpledb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class StringHistogramTest {
+
+    /**
+     * Strings sharing a prefix with a common value are not estimated from
+     * the prefix bucket it dominates, and merged histograms keep the common
+     * values.
+     */
+    @Test public void mostCommonValues() {
+        StringHistogram a = new StringHistogram(TableStats.NUM_HIST_BINS);
+        StringHistogram b = new StringHistogram(TableStats.NUM_HIST_BINS);
+        for (int i = 0; i < 10000; i++) {
+            StringHistogram h = i % 2 == 0 ? a : b;
+            if (i % 4 == 0)
+                h.addValue("common");
+            else
+                h.addValue("comm" + i);
+        }
+        StringHistogram m = a.merge(b);
+        assertEquals(10000, m.numValues());
+        assertTrue(m.mostCommonValues().containsKey("common"));
+        assertEquals(0.25, m.estimateSelectivity(Predicate.Op.EQUALS, "common"), 0.01);
+        assertEquals(0.75, m.estimateSelectivity(Predicate.Op.NOT_EQUALS, "common"), 0.01);
+        //和common同一个前缀，但只出现一次
+        assertTrue(m.estimateSelectivity(Predicate.Op.EQUALS, "comm17") < 0.01);
+        assertEquals(1.0, m.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, "a"), 1e-9);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringHistogramTest.class);
+    }
+}
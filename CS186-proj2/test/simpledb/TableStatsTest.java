@@ -0,0 +1,301 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private static int count(ArrayList<ArrayList<Integer>> tuples, int field, Predicate.Op op, int v) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples)
+            if (new IntField(t.get(field)).compare(op, new IntField(v)))
+                n++;
+        return n;
+    }
+
+    /**
+     * A table spanning many page ranges, scanned by several tasks, gets the
+     * exact page and tuple counts and histograms close to the real
+     * selectivities.
+     */
+    @Test public void statistics() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 30000, 1000, null, tuples);
+        Database.getCatalog().addTable(f, "stats");
+        assertTrue(f.numPages() > 4 * TableStats.PAGES_PER_TASK);
+
+        TableStats s = new TableStats(f.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(tuples.size(), s.totalTuples());
+        assertEquals((double) f.numPages() * TableStats.IOCOSTPERPAGE, s.estimateScanCost(), 1e-9);
+        assertEquals(300, s.estimateTableCardinality(0.01));
+
+        for (int field = 0; field < 3; field++) {
+            for (int v : new int[] { -1, 0, 100, 500, 999, 1000 }) {
+                for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+                        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.EQUALS }) {
+                    double actual = (double) count(tuples, field, op, v) / tuples.size();
+                    assertEquals(actual, s.estimateSelectivity(field, op, new IntField(v)), 0.02);
+                }
+            }
+            assertEquals(0.001, s.avgSelectivity(field, Predicate.Op.EQUALS), 0.0005);
+
+            java.util.HashSet<Integer> values = new java.util.HashSet<Integer>();
+            for (ArrayList<Integer> t : tuples)
+                values.add(t.get(field));
+            assertFalse(s.isSampled());
+            assertEquals(values.size(), s.estimateDistinct(field),
+                    values.size() * 3 * HyperLogLog.relativeError());
+            assertTrue(s.distinctLowerBound(field) <= values.size());
+            assertTrue(values.size() <= s.distinctUpperBound(field));
+        }
+    }
+
+    /**
+     * Tables above the page threshold are summarized from a sample of their
+     * pages: the tuple count is scaled up, the histograms stay close, and the
+     * distinct-value bounds hold with the estimate between them.
+     */
+    @Test public void sampled() throws Exception {
+        final int rows = 40000;
+        HeapFile f = sampledTable("sampled", rows);
+
+        TableStats.setSampling(10, 0.25);
+        try {
+            TableStats s = new TableStats(f.getId(), TableStats.IOCOSTPERPAGE);
+            assertTrue(s.isSampled());
+            assertEquals(rows, s.totalTuples(), rows * 0.05);
+            assertEquals((double) f.numPages() * TableStats.IOCOSTPERPAGE, s.estimateScanCost(), 1e-9);
+            for (int v = 0; v <= 500; v += 50)
+                assertEquals(v / 500.0,
+                        s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)), 0.02);
+
+            assertEquals(500, s.estimateDistinct(0), 1e-9);
+            //上界不超过估计的tuple数，抽到不满的最后一页时它会偏少一些
+            assertTrue(s.distinctLowerBound(1) <= rows && rows * 0.95 <= s.distinctUpperBound(1));
+            assertTrue(s.distinctLowerBound(1) <= s.estimateDistinct(1));
+            assertTrue(s.estimateDistinct(1) <= s.distinctUpperBound(1));
+            //GEE最多差sqrt(n/r)倍，这里是2倍
+            assertTrue(s.estimateDistinct(1) >= rows / 2.1);
+        } finally {
+            TableStats.setSampling(TableStats.SAMPLING_PAGE_THRESHOLD, TableStats.SAMPLE_FRACTION);
+        }
+    }
+
+    // a table of rows tuples (i % 500, i)
+    private static HeapFile sampledTable(String name, int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i % 500);
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        File file = TestUtil.createTempFile(name, ".dat");
+        HeapFileEncoder.convert(tuples, file, BufferPool.PAGE_SIZE, 2);
+        HeapFile f = Utility.openHeapFile(2, file);
+        Database.getCatalog().addTable(f, name);
+        return f;
+    }
+
+    /**
+     * Reservoir sampling of pages returns distinct, sorted page numbers,
+     * every page being about equally likely.
+     */
+    @Test public void samplePages() {
+        java.util.Random r = new java.util.Random(43);
+        int[] hits = new int[100];
+        for (int round = 0; round < 2000; round++) {
+            int[] pages = TableStats.samplePages(100, 10, r);
+            assertEquals(10, pages.length);
+            for (int i = 0; i < pages.length; i++) {
+                assertTrue(pages[i] >= 0 && pages[i] < 100);
+                if (i > 0)
+                    assertTrue(pages[i] > pages[i - 1]);
+                hits[pages[i]]++;
+            }
+        }
+        for (int h : hits)
+            assertEquals(200, h, 60);
+        assertEquals(5, TableStats.samplePages(5, 10, r).length);
+    }
+
+    /**
+     * computeStatistics gathers the statistics of every table in the
+     * catalog, including empty ones.
+     */
+    @Test public void computeStatistics() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        int[] sizes = new int[40];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = i * 97;
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, sizes[i], null, tuples);
+            Database.getCatalog().addTable(f, "t" + i);
+        }
+        TableStats.computeStatistics();
+        for (int i = 0; i < sizes.length; i++)
+            assertEquals(sizes[i], TableStats.getTableStats("t" + i).totalTuples());
+        assertEquals(0.0, TableStats.getTableStats("t0").estimateSelectivity(0,
+                Predicate.Op.EQUALS, new IntField(1)), 1e-9);
+    }
+
+    private static void insert(HeapFile f, TransactionId tid, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(-i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+    }
+
+    /**
+     * Statistics saved to the stats file are decoded after a restart instead
+     * of scanning the table, with their modification counters, and are
+     * recomputed in the background once more than STALE_FRACTION of the
+     * table has changed.
+     */
+    @Test public void persisted() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples);
+        Database.getCatalog().addTable(f, "persisted");
+        File statsFile = File.createTempFile("table", ".stats");
+        statsFile.delete();
+        statsFile.deleteOnExit();
+        try {
+            TableStats.loadStatistics(statsFile);
+            TableStats s = TableStats.getTableStats("persisted");
+            assertEquals(5000, s.totalTuples());
+            //算出来的统计等到saveStatistics才写出去
+            assertFalse(statsFile.exists());
+            TableStats.saveStatistics();
+            assertTrue(statsFile.exists());
+
+            TableStats.loadStatistics(statsFile);
+            TableStats loaded = TableStats.getStatsMap().get("persisted");
+            assertNotSame(s, loaded);
+            assertEquals(5000, loaded.totalTuples());
+            for (int v = 0; v <= 1000; v += 50) {
+                assertEquals(s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)),
+                        loaded.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(v)), 1e-9);
+            }
+
+            TransactionId tid = new TransactionId();
+            insert(f, tid, 100);
+            assertEquals(0, loaded.modifications());
+            Database.getBufferPool().transactionComplete(tid);
+            assertSame(loaded, TableStats.getTableStats("persisted"));
+            assertEquals(100, loaded.modifications());
+            assertEquals(5100, loaded.totalTuples());
+            TableStats.saveStatistics();
+            TableStats.loadStatistics(statsFile);
+            loaded = TableStats.getTableStats("persisted");
+            assertEquals(100, loaded.modifications());
+            assertEquals(5100, loaded.totalTuples());
+
+            tid = new TransactionId();
+            insert(f, tid, 500);
+            Database.getBufferPool().transactionComplete(tid);
+            TableStats.awaitRefreshes();
+            TableStats fresh = TableStats.getTableStats("persisted");
+            assertNotSame(loaded, fresh);
+            assertEquals(5600, fresh.totalTuples());
+            assertEquals(0, fresh.modifications());
+        } finally {
+            TableStats.loadStatistics(null);
+        }
+    }
+
+    /**
+     * Committed inserts and deletes update the tuple count, histograms and
+     * distinct-value estimates of a table without rescanning it; aborted
+     * ones are forgotten.
+     */
+    @Test public void incremental() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 100, null, tuples);
+        Database.getCatalog().addTable(f, "incremental");
+        TableStats s = TableStats.getTableStats("incremental");
+        assertEquals(0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(150)), 1e-9);
+
+        TransactionId aborted = new TransactionId();
+        insert(f, aborted, 100);
+        Database.getBufferPool().transactionComplete(aborted, false);
+        assertSame(s, TableStats.getTableStats("incremental"));
+        assertEquals(20000, s.totalTuples());
+        assertEquals(0, s.modifications());
+
+        //150到199各一个，都在原来的范围之外
+        TransactionId tid = new TransactionId();
+        for (int i = 150; i < 200; i++) {
+            Tuple t = new Tuple(f.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertSame(s, TableStats.getTableStats("incremental"));
+        assertEquals(20050, s.totalTuples());
+        assertEquals(50, s.modifications());
+        assertEquals(50.0 / 20050, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(149)), 0.005);
+        assertEquals(150, s.estimateDistinct(0), 150 * 3 * HyperLogLog.relativeError());
+
+        tid = new TransactionId();
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext() && victims.size() < 50)
+            victims.add(it.next());
+        it.close();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(20000, s.totalTuples());
+        assertEquals(100, s.modifications());
+        assertEquals(50.0 / 20000, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(149)), 0.005);
+    }
+
+    /**
+     * Committed inserts into a sampled table count as many tuples in its
+     * histograms as in its tuple count, since the histograms of the sample
+     * are scaled to the table.
+     */
+    @Test public void sampledIncremental() throws Exception {
+        final int rows = 40000;
+        HeapFile f = sampledTable("sampledinc", rows);
+        TableStats.setSampling(10, 0.25);
+        try {
+            TableStats s = TableStats.getTableStats("sampledinc");
+            assertTrue(s.isSampled());
+            assertEquals(0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(499)), 1e-9);
+
+            //500到599各20个，都在原来的范围之外
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 2000; i++) {
+                Tuple t = new Tuple(f.getTupleDesc());
+                t.setField(0, new IntField(500 + i % 100));
+                t.setField(1, new IntField(rows + i));
+                Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            }
+            Database.getBufferPool().transactionComplete(tid);
+            TableStats.awaitRefreshes();
+            double expected = 2000.0 / s.totalTuples();
+            assertEquals(expected, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(499)), 0.01);
+            assertEquals(1 - expected, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(500)), 0.01);
+        } finally {
+            TableStats.setSampling(TableStats.SAMPLING_PAGE_THRESHOLD, TableStats.SAMPLE_FRACTION);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
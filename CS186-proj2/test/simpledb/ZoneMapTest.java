@@ -0,0 +1,177 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Create a two column table whose first column increases with the
+     * position of the tuple, so that every page covers a distinct range.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i % 7);
+            tuples.add(tuple);
+        }
+        File f = TestUtil.createTempFile("zonemap", ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, f);
+        tid = new TransactionId();
+    }
+
+    private int count(Predicate[] preds) throws Exception {
+        DbFileIterator it = hf.iterator(tid, preds);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            assertTrue(Predicate.filterAll(preds, it.next()));
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * The encoder builds the zone map, and only the first page can hold
+     * small values of the first column.
+     */
+    @Test public void builtByEncoder() throws Exception {
+        ZoneMap zm = hf.getZoneMap();
+        assertTrue(hf.numPages() > 2);
+        Predicate[] small = new Predicate[] {
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10)) };
+        assertTrue(zm.mayMatch(0, small));
+        for (int p = 1; p < hf.numPages(); p++) {
+            assertTrue(zm.isKnown(p));
+            assertFalse(zm.mayMatch(p, small));
+        }
+        assertEquals(10, count(small));
+    }
+
+    /**
+     * Range scans return the same tuples with page skipping.
+     */
+    @Test public void rangeScan() throws Exception {
+        Predicate[] range = new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1500)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1600)) };
+        assertEquals(100, count(range));
+        Predicate[] none = new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)) };
+        assertEquals(0, count(none));
+    }
+
+    /**
+     * Inserts widen the bounds of the page they land on, and writing the
+     * page persists its summary in the sidecar.
+     */
+    @Test public void insertAndReload() throws Exception {
+        Predicate[] big = new Predicate[] {
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(-42)) };
+        assertEquals(0, count(big));
+
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(-42));
+        t.setField(1, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, count(big));
+
+        Database.getBufferPool().flushAllPages();
+        ZoneMap reloaded = ZoneMap.load(hf.getFile(), hf.getTupleDesc());
+        int pageNo = t.getRecordId().getPageId().pageNumber();
+        assertTrue(reloaded.mayMatch(pageNo, big));
+        for (int p = 0; p < hf.numPages(); p++) {
+            if (p != pageNo)
+                assertFalse(reloaded.mayMatch(p, big));
+        }
+    }
+
+    /**
+     * A page emptied by a transaction that aborts is no longer skipped.
+     */
+    @Test public void abortedDelete() throws Exception {
+        int k = HeapPage.slotsPerPage(hf.getTupleDesc());
+        Predicate[] page1 = new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(k)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(2 * k)) };
+        ArrayList<Tuple> victims = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid, page1);
+        it.open();
+        while (it.hasNext())
+            victims.add(it.next());
+        it.close();
+        assertEquals(k, victims.size());
+
+        TransactionId deleter = new TransactionId();
+        for (Tuple t : victims)
+            Database.getBufferPool().deleteTuple(deleter, t);
+        ZoneMap zm = hf.getZoneMap();
+        assertEquals(0, zm.tupleCount(1));
+        assertFalse(zm.mayMatch(1, page1));
+
+        Database.getBufferPool().transactionComplete(deleter, false);
+        assertFalse(zm.isKnown(1));
+        assertTrue(zm.mayMatch(1, page1));
+        assertTrue(zm.isKnown(2));
+    }
+
+    /**
+     * Reopening the table keeps its generation and zone map; a heap file
+     * regenerated by the encoder, or changed in place outside the database
+     * without changing its length, gets a new generation and an empty zone
+     * map.
+     */
+    @Test public void regenerated() throws Exception {
+        long generation = hf.getGeneration();
+        HeapFile reopened = Utility.openHeapFile(2, hf.getFile());
+        assertEquals(generation, reopened.getGeneration());
+        assertTrue(reopened.getZoneMap().isKnown(1));
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(ROWS - i);
+            tuple.add(0);
+            tuples.add(tuple);
+        }
+        long length = hf.getFile().length();
+        HeapFileEncoder.convert(tuples, hf.getFile(), BufferPool.PAGE_SIZE, 2);
+        assertEquals(length, hf.getFile().length());
+        reopened = Utility.openHeapFile(2, hf.getFile());
+        assertTrue(generation != reopened.getGeneration());
+        generation = reopened.getGeneration();
+
+        java.io.RandomAccessFile raf = new java.io.RandomAccessFile(hf.getFile(), "rw");
+        raf.seek(BufferPool.PAGE_SIZE);
+        raf.write(new byte[BufferPool.PAGE_SIZE]);
+        raf.close();
+        reopened = Utility.openHeapFile(2, hf.getFile());
+        assertTrue(generation != reopened.getGeneration());
+        assertFalse(reopened.getZoneMap().isKnown(1));
+        assertEquals(reopened.getGeneration(), Utility.openHeapFile(2, hf.getFile()).getGeneration());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}